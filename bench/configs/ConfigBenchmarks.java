@@ -0,0 +1,165 @@
+package configs;
+
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.Waves;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import suite.Harness;
+
+/**
+ * Benchmarks of loaded graphs, registered with {@link Harness}:
+ * <ul>
+ * <li>{@code configs.GenericConfig.propagate} - end to end through {@code simple.conf},
+ * {@code fibonacci.conf} and {@code graphTest.conf} as the server runs them: one operation
+ * publishes a value to every input topic and waits until every output topic reflects the last
+ * publish, or its wave settled. Topics call their agents on the publishing thread, so this
+ * measures the synchronous cascade plus the {@link Waves} bookkeeping</li>
+ * <li>{@code configs.Graph.createFromTopics} and {@code configs.Graph.hasCycles} - for chains
+ * of 100 to 100000 nodes, see {@link #chain(int)}</li>
+ * </ul>
+ *
+ * <p>Run from the project root, which holds {@code config_files}, with the rest of the suite,
+ * see {@code suite.BenchmarkSuite}.
+ */
+public class ConfigBenchmarks {
+    private static final long MAX_WAIT_SECONDS = 10; // A publish that does not arrive by then is a failure
+
+    /**
+     * Adds the benchmarks of this package.
+     *
+     * @param harness the harness to add them to
+     */
+    public static void register(Harness harness) {
+        for (String conf : new String[] {"simple", "fibonacci", "graphTest"}) {
+            harness.add("configs.GenericConfig.propagate", "conf=" + conf, Harness.Mode.AVERAGE_TIME, () -> propagation(conf));
+        }
+        for (int nodes : new int[] {100, 10_000, 100_000}) {
+            harness.add("configs.Graph.createFromTopics", "nodes=" + nodes, Harness.Mode.AVERAGE_TIME, () -> {
+                chain(nodes);
+                return new Harness.Benchmark() {
+                    @Override
+                    public long run(int ops) {
+                        long sum = 0;
+                        for (int i = 0; i < ops; i++) {
+                            Graph graph = new Graph();
+                            graph.createFromTopics();
+                            sum += graph.size();
+                        }
+                        return sum;
+                    }
+
+                    @Override
+                    public void close() {
+                        TopicManagerSingleton.get().clear();
+                    }
+                };
+            });
+        }
+        for (int nodes : new int[] {100, 10_000, 100_000}) {
+            harness.add("configs.Graph.hasCycles", "nodes=" + nodes, Harness.Mode.AVERAGE_TIME, () -> {
+                chain(nodes);
+                Graph graph = new Graph();
+                graph.createFromTopics();
+                TopicManagerSingleton.get().clear();
+                return ops -> {
+                    long sum = 0;
+                    for (int i = 0; i < ops; i++) {
+                        sum += graph.hasCycles() ? 1 : 0;
+                    }
+                    return sum;
+                };
+            });
+        }
+    }
+
+    // Loads a sample configuration and finds the topics nothing publishes to and nothing reads
+    private static Harness.Benchmark propagation(String conf) {
+        TopicManagerSingleton.get().clear();
+        GenericConfig config = new GenericConfig();
+        config.setConfFile("config_files/" + conf + ".conf");
+        config.create();
+        List<Topic> inputs = new ArrayList<>();
+        List<Topic> outputs = new ArrayList<>();
+        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+            if (topic.getPubs().isEmpty()) {
+                inputs.add(topic);
+            }
+            if (topic.getSubs().isEmpty()) {
+                outputs.add(topic);
+            }
+        }
+        Message message = new Message("1");
+        return new Harness.Benchmark() {
+            @Override
+            public long run(int ops) throws Exception {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    long wave = 0;
+                    for (Topic input : inputs) {
+                        wave = Waves.publish(input, message);
+                    }
+                    for (Topic output : outputs) {
+                        sum += Waves.await(output, wave).get(MAX_WAIT_SECONDS, TimeUnit.SECONDS).wave;
+                    }
+                }
+                return sum;
+            }
+
+            @Override
+            public void close() {
+                config.close();
+                TopicManagerSingleton.get().clear();
+            }
+        };
+    }
+
+    /**
+     * Replaces the topics with a chain of about {@code nodes} nodes: half of them topics, and
+     * agent {@code i} subscribed to topic {@code i} and publishing to topic {@code i + 1}.
+     *
+     * @param nodes the number of topics and agents together
+     */
+    public static void chain(int nodes) {
+        TopicManagerSingleton.get().clear();
+        int topics = Math.max(1, nodes / 2);
+        Topic previous = TopicManagerSingleton.get().getTopic("t0");
+        for (int i = 1; i <= topics; i++) {
+            Agent agent = new NamedAgent("agent" + i);
+            previous.subscribe(agent);
+            if (i < topics) {
+                Topic next = TopicManagerSingleton.get().getTopic("t" + i);
+                next.addPublisher(agent);
+                previous = next;
+            }
+        }
+    }
+
+    private static class NamedAgent implements Agent {
+        private final String name;
+
+        NamedAgent(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
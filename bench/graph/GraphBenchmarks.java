@@ -0,0 +1,165 @@
+package graph;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import suite.Harness;
+
+/**
+ * Benchmarks of the message path inside the graph, registered with {@link Harness}:
+ * <ul>
+ * <li>{@code graph.Message.*} - building a message from text, bytes and a double, which parses
+ * the text as a number (or fails to, for non-numeric text)</li>
+ * <li>{@code graph.Topic.publish} - one publish to a topic with 1 to 10000 subscribers that only
+ * count their callbacks, so the score is the fan-out cost of the topic itself</li>
+ * <li>{@code graph.ParallelAgent.hopLatency} - one message through a {@link ParallelAgent} queue
+ * and its thread, waiting for the callback before sending the next</li>
+ * <li>{@code graph.ParallelAgent.hopThroughput} - messages queued back to back, as many as the
+ * agent thread takes per second</li>
+ * </ul>
+ *
+ * <p>Run with the rest of the suite, see {@code suite.BenchmarkSuite}.
+ */
+public class GraphBenchmarks {
+
+    /**
+     * Adds the benchmarks of this package.
+     *
+     * @param harness the harness to add them to
+     */
+    public static void register(Harness harness) {
+        harness.add("graph.Message.fromText", "", Harness.Mode.AVERAGE_TIME, () -> ops -> {
+            String[] texts = {"42", "-17.25", "3.14159", "1e6"};
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += Double.doubleToRawLongBits(new Message(texts[i & 3]).asDouble);
+            }
+            return sum;
+        });
+        harness.add("graph.Message.fromBytes", "", Harness.Mode.AVERAGE_TIME, () -> {
+            byte[] data = "-17.25".getBytes(StandardCharsets.UTF_8);
+            return ops -> {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    sum += Double.doubleToRawLongBits(new Message(data).asDouble);
+                }
+                return sum;
+            };
+        });
+        harness.add("graph.Message.fromDouble", "", Harness.Mode.AVERAGE_TIME, () -> ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += new Message(i * 0.5).data.length;
+            }
+            return sum;
+        });
+        harness.add("graph.Message.fromNonNumericText", "", Harness.Mode.AVERAGE_TIME, () -> ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += Double.isNaN(new Message("on").asDouble) ? 1 : 0; // Parsing fails with an exception
+            }
+            return sum;
+        });
+
+        for (int subscribers : new int[] {1, 10, 100, 1_000, 10_000}) {
+            harness.add("graph.Topic.publish", "subscribers=" + subscribers, Harness.Mode.AVERAGE_TIME, () -> {
+                TopicManagerSingleton.get().clear();
+                Topic topic = TopicManagerSingleton.get().getTopic("in");
+                AtomicLong calls = new AtomicLong();
+                for (int i = 0; i < subscribers; i++) {
+                    topic.subscribe(new CountingAgent("count" + i, calls));
+                }
+                Message message = new Message("1");
+                return new Harness.Benchmark() {
+                    @Override
+                    public long run(int ops) {
+                        for (int i = 0; i < ops; i++) {
+                            topic.publish(message);
+                        }
+                        return calls.get();
+                    }
+
+                    @Override
+                    public void close() {
+                        TopicManagerSingleton.get().clear();
+                    }
+                };
+            });
+        }
+
+        harness.add("graph.ParallelAgent.hopLatency", "", Harness.Mode.AVERAGE_TIME, () -> {
+            AtomicLong calls = new AtomicLong();
+            ParallelAgent agent = new ParallelAgent(new CountingAgent("hop", calls));
+            Message message = new Message("1");
+            return new Harness.Benchmark() {
+                @Override
+                public long run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        long target = calls.get() + 1;
+                        agent.callback("in", message);
+                        while (calls.get() < target) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                    return calls.get();
+                }
+
+                @Override
+                public void close() {
+                    agent.close();
+                }
+            };
+        });
+        harness.add("graph.ParallelAgent.hopThroughput", "", Harness.Mode.THROUGHPUT, () -> {
+            AtomicLong calls = new AtomicLong();
+            ParallelAgent agent = new ParallelAgent(new CountingAgent("hop", calls));
+            Message message = new Message("1");
+            return new Harness.Benchmark() {
+                @Override
+                public long run(int ops) {
+                    long target = calls.get() + ops;
+                    for (int i = 0; i < ops; i++) {
+                        agent.callback("in", message); // Blocks while the queue is full
+                    }
+                    while (calls.get() < target) {
+                        Thread.onSpinWait();
+                    }
+                    return calls.get();
+                }
+
+                @Override
+                public void close() {
+                    agent.close();
+                }
+            };
+        });
+    }
+
+    // Counts its callbacks and does nothing else
+    private static class CountingAgent implements Agent {
+        private final String name;
+        private final AtomicLong calls;
+
+        CountingAgent(String name, AtomicLong calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package graph;
+
+import configs.GenericConfig;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a {@link TrafficRecorder} recording into a freshly loaded configuration and reports
+ * throughput and latency, so capacity planning runs are reproducible.
+ *
+ * <p>Run from the project root:
+ * <pre>{@code
+ * javac -d bin $(find src bench -name "*.java")
+ * java -cp bin graph.TrafficReplay <config> <recording> [speed] [sampleEvery]
+ * }</pre>
+ * {@code speed} is 1 for recorded speed, N for N times faster and 0 (the default) for as fast as possible.
+ *
+ * <p>The reported latency is how long each {@code Topic.publish} call took. Topics call their
+ * subscribers on the publishing thread, so a publish returns only after the whole cascade it
+ * triggers has run: this is the end-to-end latency of the event, and there is nothing left to
+ * wait for afterwards. When pacing ({@code speed > 0}), latency is measured from the time the
+ * event was due, not from when its publish started: an event that waited because the replay fell
+ * behind schedule counts that wait too, as its sender would have seen it, so overload shows up in
+ * the percentiles. {@code sampleEvery} (default 1) records every N-th event only.
+ * Throughput is events divided by the time from the first injection until the last publish returned.
+ */
+public class TrafficReplay {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: TrafficReplay <config> <recording> [speed] [sampleEvery]");
+            System.exit(1);
+        }
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        int sampleEvery = Math.max(args.length > 3 ? Integer.parseInt(args[3]) : 1, 1);
+
+        TopicManagerSingleton.get().clear();
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(args[0]);
+        config.create();
+
+        // Load the recording up front so file I/O does not distort the run
+        List<Topic> topics = new ArrayList<>();
+        List<Message> messages = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        Map<String, Topic> byName = new HashMap<>();
+        int skipped = 0;
+        try (TrafficRecorder.Reader reader = new TrafficRecorder.Reader(new File(args[1]))) {
+            while (reader.next()) {
+                Topic topic = byName.get(reader.getTopic());
+                if (topic == null && TopicManagerSingleton.get().topicExists(reader.getTopic())) {
+                    topic = TopicManagerSingleton.get().getTopic(reader.getTopic());
+                    byName.put(reader.getTopic(), topic);
+                }
+                if (topic == null) {
+                    skipped++;
+                    continue;
+                }
+                topics.add(topic);
+                messages.add(new Message(reader.getData()));
+                offsets.add(reader.getNanos());
+            }
+        }
+
+        int n = topics.size();
+        long[] latencyNanos = new long[(n + sampleEvery - 1) / sampleEvery];
+        int samples = 0;
+        long start = System.nanoTime();
+        long firstOffset = n > 0 ? offsets.get(0) : 0;
+
+        for (int i = 0; i < n; i++) {
+            long due = 0;
+            if (speed > 0) {
+                due = start + (long) ((offsets.get(i) - firstOffset) / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    if (wait > 2_000_000) {
+                        Thread.sleep(wait / 1_000_000 - 1);
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+            long t0 = System.nanoTime();
+            topics.get(i).publish(messages.get(i)); // Returns after every downstream agent ran
+            long t1 = System.nanoTime();
+            if (i % sampleEvery == 0) {
+                latencyNanos[samples++] = t1 - (speed > 0 ? due : t0); // Paced: include time spent behind schedule
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("events      %,d replayed, %,d skipped (unknown topic)%n", n, skipped);
+        System.out.printf("throughput  %,.0f events/s over %.3f s%n", n / seconds, seconds);
+        printPercentiles("end-to-end", latencyNanos, samples);
+
+        config.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    private static void printPercentiles(String label, long[] values, int count) {
+        if (count == 0) {
+            System.out.printf("%-11s no samples%n", label);
+            return;
+        }
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        System.out.printf("%-11s p50 %8.1f us  p90 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %8.1f us%n", label,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted[count - 1] / 1e3);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e3;
+    }
+}
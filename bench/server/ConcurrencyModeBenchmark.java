@@ -0,0 +1,135 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import servlets.Servlet;
+
+/**
+ * Compares MyHTTPServer's fixed thread pool with its virtual-thread mode under two workloads
+ * where the serving thread spends most of its time waiting:
+ * <ul>
+ *   <li>blocking servlet: the servlet sleeps before answering, like a publish into a full agent queue
+ *       or a configuration upload waiting on disk;</li>
+ *   <li>slow client: the client dribbles its request headers in small pieces with pauses in between.</li>
+ * </ul>
+ * Each run opens {@code clients} concurrent connections, one request each, and reports throughput
+ * and latency percentiles.
+ *
+ * <p>Run from the project root:
+ * <pre>{@code
+ * javac -d bin $(find src bench -name "*.java")
+ * java -cp bin server.ConcurrencyModeBenchmark [clients] [delayMillis] [poolThreads]
+ * }</pre>
+ */
+public class ConcurrencyModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int delayMillis = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int poolThreads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int port = 18090;
+
+        for (String workload : new String[] {"blocking-servlet", "slow-client"}) {
+            for (boolean virtual : new boolean[] {false, true}) {
+                MyHTTPServer server = new MyHTTPServer(port, virtual ? 100_000 : poolThreads, 0, 1, virtual);
+                server.addServlet("GET", "/work", new SleepingServlet(workload.equals("blocking-servlet") ? delayMillis : 0));
+                server.start();
+                Thread.sleep(300);
+                run(workload, virtual ? "virtual" : "pool(" + poolThreads + ")", port, clients,
+                        workload.equals("slow-client") ? delayMillis : 0);
+                server.close();
+                server.join();
+                port++;
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String workload, String mode, int port, int clients, int clientDelayMillis) throws Exception {
+        // Platform threads for the clients, so the client side is the same for both modes
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<Long>> results = new ArrayList<>(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            results.add(pool.submit(() -> request(port, clientDelayMillis)));
+        }
+        long[] latencies = new long[clients];
+        int failed = 0;
+        for (int i = 0; i < clients; i++) {
+            try {
+                latencies[i] = results.get(i).get();
+            } catch (Exception e) {
+                latencies[i] = Long.MAX_VALUE;
+                failed++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-17s %-9s %6d requests in %6.2f s = %8.0f req/s  p50 %7.1f ms  p99 %7.1f ms  failed %d%n",
+                workload, mode, clients, seconds, clients / seconds,
+                percentile(latencies, clients - failed, 0.50), percentile(latencies, clients - failed, 0.99), failed);
+    }
+
+    // Returns the latency of one request in nanoseconds
+    private static long request(int port, int delayMillis) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (Socket s = new Socket("localhost", port)) {
+            OutputStream out = s.getOutputStream();
+            String[] pieces = {"GET /work HTTP/1.1\r\n", "Host: localhost\r\n", "User-Agent: bench\r\n", "\r\n"};
+            for (String piece : pieces) {
+                out.write(piece.getBytes());
+                out.flush();
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+            }
+            InputStream in = s.getInputStream();
+            byte[] buf = new byte[4096];
+            while (in.read(buf) >= 0) {
+                // Drain the response
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double percentile(long[] sorted, int n, double p) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(n - 1, (int) (p * n))] / 1e6;
+    }
+
+    private static class SleepingServlet implements Servlet {
+        private final int delayMillis;
+
+        SleepingServlet(int delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            toClient.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes());
+            toClient.flush();
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+    }
+}
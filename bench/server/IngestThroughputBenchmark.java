@@ -0,0 +1,80 @@
+package server;
+
+import configs.GenericConfig;
+import graph.TopicManagerSingleton;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import servlets.TopicDisplayer;
+
+/**
+ * Compares publish throughput of the HTTP path ({@code GET /publish} through MyHTTPServer,
+ * RequestParser and TopicDisplayer) against the binary ingestion listener.
+ * Both runs publish into the agents of {@code config_files/simple.conf}.
+ *
+ * <p>Run from the project root:
+ * <pre>{@code
+ * javac -d bin $(find src bench -name "*.java")
+ * java -cp bin server.IngestThroughputBenchmark [httpRequests] [binaryFrames]
+ * }</pre>
+ */
+public class IngestThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int httpRequests = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int binaryFrames = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        int httpPort = 18080;
+        int binaryPort = 18081;
+
+        GenericConfig config = new GenericConfig();
+        config.setConfFile("config_files/simple.conf");
+        config.create();
+
+        MyHTTPServer http = new MyHTTPServer(httpPort, 5);
+        http.addServlet("GET", "/publish", new TopicDisplayer());
+        http.start();
+        BinaryIngestServer binary = new BinaryIngestServer(binaryPort, 2);
+        binary.start();
+        Thread.sleep(500);
+
+        // HTTP: one connection and one rendered topics table per value
+        long start = System.nanoTime();
+        byte[] buf = new byte[64 * 1024];
+        for (int i = 0; i < httpRequests; i++) {
+            try (Socket s = new Socket("localhost", httpPort)) {
+                OutputStream out = s.getOutputStream();
+                out.write(("GET /publish?topic=A&message=" + i + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+                out.flush();
+                InputStream in = s.getInputStream();
+                while (in.read(buf) >= 0) {
+                    // Drain the response
+                }
+            }
+        }
+        double httpSeconds = (System.nanoTime() - start) / 1e9;
+        report("http", httpRequests, httpSeconds);
+
+        // Binary: one persistent connection, 13-byte frames by topic id
+        start = System.nanoTime();
+        BinaryIngestClient.Ack ack;
+        try (BinaryIngestClient client = new BinaryIngestClient("localhost", binaryPort)) {
+            client.declare(1, "A");
+            for (int i = 0; i < binaryFrames; i++) {
+                client.publish(1, i);
+            }
+            ack = client.sync();
+        }
+        double binarySeconds = (System.nanoTime() - start) / 1e9;
+        report("binary", ack.published, binarySeconds);
+        System.out.printf("speedup: %.1fx%n", (ack.published / binarySeconds) / (httpRequests / httpSeconds));
+
+        binary.close();
+        http.close();
+        config.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    private static void report(String path, long count, double seconds) {
+        System.out.printf("%-7s %,12d publishes in %7.3f s  ->  %,14.0f publishes/s%n", path, count, seconds, count / seconds);
+    }
+}
@@ -0,0 +1,94 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+/**
+ * Measures the time and heap allocation of writing a typical 20 KB HTML page (the topic table)
+ * the way the servlets used to, by concatenating the response into one String and calling
+ * {@code getBytes()}, and with {@link HttpResponse}, once with ASCII topic names and once with
+ * non-ASCII ones. It also streams the page through {@link HttpResponse#getWriter()}. The response
+ * goes to a stream that discards it, so only the cost of producing the bytes is measured.
+ * Note that the old way writes a wrong Content-Length for the non-ASCII page.
+ *
+ * <p>Run from the project root:
+ * <pre>{@code
+ * javac -d bin $(find src bench -name "*.java")
+ * java -cp bin server.ResponseWriterBenchmark [iterations]
+ * }</pre>
+ */
+public class ResponseWriterBenchmark {
+    private static final RequestParser.RequestInfo REQUEST = new RequestParser.RequestInfo(
+            "GET", "/publish", new String[] {"publish"}, new HashMap<>(), new byte[0]);
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String ascii = page("Temperature-");
+        String nonAscii = page("Temp\u00e9rature-");
+
+        for (int round = 0; round < 3; round++) {
+            run("ascii/concat", iterations, ascii, 0);
+            run("ascii/send", iterations, ascii, 1);
+            run("ascii/writer", iterations, ascii, 2);
+            run("utf8/concat", iterations, nonAscii, 0);
+            run("utf8/send", iterations, nonAscii, 1);
+            run("utf8/writer", iterations, nonAscii, 2);
+        }
+    }
+
+    private static String page(String topicPrefix) {
+        StringBuilder page = new StringBuilder("<!DOCTYPE html>\n<html><body><table>\n");
+        for (int i = 0; page.length() < 20_000; i++) {
+            page.append("<tr><td>").append(topicPrefix).append(i).append("</td><td>").append(i * 0.5).append("</td></tr>\n");
+        }
+        return page.append("</table></body></html>").toString();
+    }
+
+    // mode 0: string concatenation, 1: HttpResponse.send, 2: HttpResponse.getWriter
+    private static void run(String name, int iterations, String html, int mode) throws IOException {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        CountingStream sink = new CountingStream();
+
+        long bytesBefore = mx.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (mode == 1) {
+                new HttpResponse(REQUEST, sink).contentType("text/html; charset=utf-8").send(html);
+            } else if (mode == 2) {
+                HttpResponse response = new HttpResponse(REQUEST, sink).contentType("text/html; charset=utf-8");
+                try (Writer out = response.getWriter()) {
+                    out.write(html);
+                }
+            } else {
+                String response = "HTTP/1.1 200 OK\r\n" +
+                                 "Content-Type: text/html\r\n" +
+                                 "Content-Length: " + html.length() + "\r\n" +
+                                 "\r\n" +
+                                 html;
+                sink.write(response.getBytes());
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = mx.getThreadAllocatedBytes(thread) - bytesBefore;
+        System.out.printf("%-13s %8.0f ns/response %8d bytes allocated/response (%d bytes written)%n",
+                name, nanos / (double) iterations, bytes / iterations, sink.count / iterations);
+    }
+
+    private static class CountingStream extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package server;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import servlets.Servlet;
+import suite.Harness;
+
+/**
+ * Benchmarks of the request path of the server engines, registered with {@link Harness}:
+ * <ul>
+ * <li>{@code server.RequestParser.parseRequest} - one typical browser request held in memory,
+ * using only the routing fields ({@code decode=routing}) or decoding the query parameters and
+ * every header too ({@code decode=all})</li>
+ * <li>{@code server.ServletTable.find} - the servlet lookup that {@link MyHTTPServer} and
+ * {@link NioHTTPServer} do for every request, with the routes of {@code Main} plus 10 to 10000
+ * per-topic routes</li>
+ * <li>{@code server.ServletTable.dispatch} - parsing a request and dispatching it: lookup, path
+ * parameters and admission control, up to a servlet that writes nothing</li>
+ * </ul>
+ *
+ * <p>Run with the rest of the suite, see {@code suite.BenchmarkSuite}.
+ */
+public class ServerBenchmarks {
+    private static final byte[] REQUEST = ("GET /publish?topic=A&message=-42.5 HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\n"
+            + "Accept: text/html,application/xhtml+xml\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Referer: http://localhost:8080/app/index.html\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final String[] MAIN_ROUTES = {"/publish", "/refresh", "/validate-topic", "/export", "/topics",
+            "/changes", "/await", "/analytics", "/graph/cluster", "/events", "/app/", "/admission"};
+
+    /**
+     * Adds the benchmarks of this package.
+     *
+     * @param harness the harness to add them to
+     */
+    public static void register(Harness harness) {
+        harness.add("server.RequestParser.parseRequest", "decode=routing", Harness.Mode.AVERAGE_TIME, () -> ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                RequestParser.RequestInfo info = RequestParser.parseRequest(REQUEST, 0, REQUEST.length);
+                sum += info.getHttpCommand().length() + info.getUri().length();
+            }
+            return sum;
+        });
+        harness.add("server.RequestParser.parseRequest", "decode=all", Harness.Mode.AVERAGE_TIME, () -> ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                RequestParser.RequestInfo info = RequestParser.parseRequest(REQUEST, 0, REQUEST.length);
+                sum += info.getUri().length() + info.getParameters().size() + info.getHeaders().size();
+            }
+            return sum;
+        });
+
+        for (int topicRoutes : new int[] {10, 1_000, 10_000}) {
+            harness.add("server.ServletTable.find", "topicRoutes=" + topicRoutes, Harness.Mode.AVERAGE_TIME, () -> {
+                ServletTable table = table(topicRoutes);
+                String[] uris = new String[1024];
+                for (int i = 0; i < uris.length; i++) {
+                    uris[i] = i % 2 == 0 ? "/topics/t" + (i * 7919 % topicRoutes) + "/history?from=0"
+                            : "/publish?topic=t" + i + "&message=1";
+                }
+                return ops -> {
+                    long hits = 0;
+                    for (int i = 0; i < ops; i++) {
+                        hits += table.find("GET", uris[i & 1023]) != null ? 1 : 0;
+                    }
+                    return hits;
+                };
+            });
+        }
+        harness.add("server.ServletTable.dispatch", "admission=on", Harness.Mode.AVERAGE_TIME, () -> {
+            ServletTable table = table(10);
+            table.setAdmissionControl(new AdmissionControl(5, 50, 500).limitRoute("GET", "/refresh", 4));
+            OutputStream discard = OutputStream.nullOutputStream();
+            return ops -> {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    RequestParser.RequestInfo info = RequestParser.parseRequest(REQUEST, 0, REQUEST.length);
+                    table.dispatch(info, discard);
+                    sum += info.getUri().length();
+                }
+                return sum;
+            };
+        });
+    }
+
+    // The routes of Main and per-topic routes, all served by a servlet that does nothing
+    private static ServletTable table(int topicRoutes) {
+        Servlet servlet = new Servlet() {
+            @Override
+            public void handle(RequestParser.RequestInfo ri, OutputStream toClient) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ServletTable table = new ServletTable();
+        for (String route : MAIN_ROUTES) {
+            table.add("GET", route, servlet);
+        }
+        for (int i = 0; i < topicRoutes; i++) {
+            table.add("GET", "/topics/t" + i + "/", servlet);
+        }
+        return table;
+    }
+}
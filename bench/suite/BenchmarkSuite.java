@@ -0,0 +1,40 @@
+package suite;
+
+import configs.ConfigBenchmarks;
+import graph.GraphBenchmarks;
+import server.ServerBenchmarks;
+import views.ViewBenchmarks;
+
+/**
+ * Runs the benchmarks of the hot paths: messages, topic fan-out and {@code ParallelAgent} hops
+ * ({@link GraphBenchmarks}), propagation through the sample configurations and building and
+ * checking graphs ({@link ConfigBenchmarks}), request parsing and routing
+ * ({@link ServerBenchmarks}) and rendering the graph page ({@link ViewBenchmarks}). Scores are
+ * printed and written as JMH-style JSON, see {@link Harness} for the options.
+ *
+ * <p>Run from the project root:
+ * <pre>{@code
+ * javac -d bin $(find src bench -name "*.java")
+ * java -cp bin suite.BenchmarkSuite                                    # everything, to bench-result.json
+ * java -cp bin suite.BenchmarkSuite -l                                 # list the benchmarks
+ * java -cp bin suite.BenchmarkSuite 'Topic.publish' -rff after.json -compare before.json
+ * java -cp bin suite.BenchmarkSuite -wi 1 -i 3 -r 100ms -rf csv        # a quick run as CSV
+ * }</pre>
+ */
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+        Harness harness = new Harness();
+        GraphBenchmarks.register(harness);
+        ConfigBenchmarks.register(harness);
+        ServerBenchmarks.register(harness);
+        ViewBenchmarks.register(harness);
+        try {
+            harness.run(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage()); // A malformed command line, see Harness for the options
+            System.exit(2);
+        }
+        System.exit(0); // Agent threads of the benchmarks must not keep the JVM alive
+    }
+}
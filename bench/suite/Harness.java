@@ -0,0 +1,459 @@
+package suite;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A small benchmark harness in the style of JMH, for a tree that has no build to pull JMH in.
+ * Each benchmark is calibrated so that one iteration runs for about the iteration time, then
+ * runs warmup iterations whose results are discarded and measurement iterations whose mean is
+ * the score, with a 99.9% confidence interval from Student's t distribution as JMH computes it.
+ * Results are printed as a table and written to a file as JMH's JSON or CSV, so runs can be
+ * compared with the tools made for JMH results or with {@code -compare}.
+ *
+ * <p>Command line options, as far as they exist, are those of JMH:
+ * <pre>{@code
+ * [regexp...]        run only benchmarks whose name and parameters match one of them
+ * -wi <count>        warmup iterations, 3 by default
+ * -i <count>         measurement iterations, 5 by default
+ * -w <time>          warmup iteration time, e.g. 200ms or 1s, 200ms by default
+ * -r <time>          measurement iteration time, 200ms by default
+ * -rf <json|csv>     result format, json by default
+ * -rff <file>        result file, bench-result.json or bench-result.csv by default
+ * -l                 list the benchmarks and exit
+ * -compare <file>    compare the scores with an earlier JSON result file
+ * }</pre>
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * Harness harness = new Harness();
+ * harness.add("graph.Message.parse", "", Harness.Mode.AVERAGE_TIME, () -> ops -> {
+ *     long sum = 0;
+ *     for (int i = 0; i < ops; i++) {
+ *         sum += Double.doubleToLongBits(new Message("42.5").asDouble);
+ *     }
+ *     return sum; // Consumed by the harness, so the work cannot be optimized away
+ * });
+ * harness.run(args);
+ * }</pre>
+ */
+public class Harness {
+    // Two-sided 99.9% quantiles of Student's t distribution for 1 to 30 degrees of freedom
+    private static final double[] T_999 = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+            4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+            3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+    private static final double T_999_LIMIT = 3.291; // For more degrees of freedom
+    private static final Pattern RESULT = Pattern.compile(
+            "\"benchmark\" : \"([^\"]*)\".*?\"params\" : \\{([^}]*)\\}.*?\"score\" : ([-+0-9.eE]+)", Pattern.DOTALL);
+
+    private static volatile long sink; // Where benchmark results go so that their work is not dead code
+
+    /**
+     * How a score is expressed.
+     */
+    public enum Mode {
+        /** Time per operation, lower is better. */
+        AVERAGE_TIME("avgt", "ns/op"),
+        /** Operations per second, higher is better. */
+        THROUGHPUT("thrpt", "ops/s");
+
+        final String shortName;
+        final String unit;
+
+        Mode(String shortName, String unit) {
+            this.shortName = shortName;
+            this.unit = unit;
+        }
+    }
+
+    /**
+     * A benchmark ready to run, with its state set up.
+     */
+    public interface Benchmark {
+        /**
+         * Runs the measured operation a number of times.
+         *
+         * @param ops how many times
+         * @return a value depending on the results, which the harness consumes
+         * @throws Exception if the operation fails, which stops the benchmark
+         */
+        long run(int ops) throws Exception;
+
+        /**
+         * Releases the state of the benchmark; nothing by default.
+         *
+         * @throws Exception if releasing fails
+         */
+        default void close() throws Exception {
+        }
+    }
+
+    /**
+     * Sets up a benchmark, outside of the measured time.
+     */
+    public interface Fixture {
+        Benchmark setUp() throws Exception;
+    }
+
+    private static final class Entry {
+        final String name;
+        final Map<String, String> params;
+        final Mode mode;
+        final Fixture fixture;
+
+        Entry(String name, Map<String, String> params, Mode mode, Fixture fixture) {
+            this.name = name;
+            this.params = params;
+            this.mode = mode;
+            this.fixture = fixture;
+        }
+
+        String label() {
+            if (params.isEmpty()) {
+                return name;
+            }
+            StringBuilder sb = new StringBuilder(name);
+            char separator = ':';
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                sb.append(separator).append(param.getKey()).append('=').append(param.getValue());
+                separator = ',';
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final class Result {
+        final Entry entry;
+        final double[] samples;
+        final double score;
+        final double error;
+
+        Result(Entry entry, double[] samples) {
+            this.entry = entry;
+            this.samples = samples;
+            double sum = 0;
+            for (double s : samples) {
+                sum += s;
+            }
+            score = sum / samples.length;
+            double squares = 0;
+            for (double s : samples) {
+                squares += (s - score) * (s - score);
+            }
+            int df = samples.length - 1;
+            error = df == 0 ? Double.NaN
+                    : (df <= T_999.length ? T_999[df - 1] : T_999_LIMIT) * Math.sqrt(squares / df) / Math.sqrt(samples.length);
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int warmupIterations = 3;
+    private int iterations = 5;
+    private long warmupNanos = 200_000_000L;
+    private long iterationNanos = 200_000_000L;
+    private final PrintStream out = System.out;
+
+    /**
+     * Adds a benchmark.
+     *
+     * @param name the name, by convention package, class and operation, e.g. {@code "graph.Topic.publish"}
+     * @param params its parameters as {@code name=value} pairs separated by commas, or an empty string
+     * @param mode how its score is expressed
+     * @param fixture sets up the benchmark before it runs
+     * @return this harness
+     */
+    public Harness add(String name, String params, Mode mode, Fixture fixture) {
+        Map<String, String> parsed = new LinkedHashMap<>();
+        for (String pair : params.split(",")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parsed.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+            }
+        }
+        entries.add(new Entry(name, parsed, mode, fixture));
+        return this;
+    }
+
+    /**
+     * Runs the benchmarks selected by the command line, prints their scores and writes the
+     * result file.
+     *
+     * @param args the command line, see the class description
+     * @throws Exception if a benchmark fails or the result file cannot be written
+     * @throws IllegalArgumentException if the command line is malformed
+     */
+    public void run(String[] args) throws Exception {
+        List<Pattern> filters = new ArrayList<>();
+        String format = "json";
+        String file = null;
+        String compare = null;
+        boolean list = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi":
+                    warmupIterations = Integer.parseInt(value(args, ++i));
+                    break;
+                case "-i":
+                    iterations = Math.max(1, Integer.parseInt(value(args, ++i)));
+                    break;
+                case "-w":
+                    warmupNanos = parseTime(value(args, ++i));
+                    break;
+                case "-r":
+                    iterationNanos = parseTime(value(args, ++i));
+                    break;
+                case "-rf":
+                    format = value(args, ++i).toLowerCase(Locale.ROOT);
+                    if (!format.equals("json") && !format.equals("csv")) {
+                        throw new IllegalArgumentException("Unknown result format '" + format + "', expected json or csv");
+                    }
+                    break;
+                case "-rff":
+                    file = value(args, ++i);
+                    break;
+                case "-compare":
+                    compare = value(args, ++i);
+                    break;
+                case "-l":
+                    list = true;
+                    break;
+                default:
+                    if (args[i].startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                    filters.add(Pattern.compile(args[i]));
+            }
+        }
+
+        List<Entry> selected = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (filters.isEmpty() || filters.stream().anyMatch(p -> p.matcher(entry.label()).find())) {
+                selected.add(entry);
+            }
+        }
+        if (list) {
+            for (Entry entry : selected) {
+                out.println(entry.label());
+            }
+            return;
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Entry entry : selected) {
+            out.println("# " + entry.label());
+            results.add(measure(entry));
+        }
+        printTable(results);
+        if (file == null) {
+            file = "bench-result." + format;
+        }
+        try (Writer writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            writer.write(format.equals("json") ? toJson(results) : toCsv(results));
+        }
+        out.println("Results written to " + file);
+        if (compare != null) {
+            compare(results, new String(Files.readAllBytes(Paths.get(compare)), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Option " + args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    // A time such as 500ms, 2s or 100us
+    private static long parseTime(String time) {
+        Matcher m = Pattern.compile("(\\d+)\\s*(ns|us|ms|s)").matcher(time.trim());
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Malformed time '" + time + "', expected e.g. 200ms or 1s");
+        }
+        long amount = Long.parseLong(m.group(1));
+        switch (m.group(2)) {
+            case "ns":
+                return amount;
+            case "us":
+                return amount * 1_000L;
+            case "ms":
+                return amount * 1_000_000L;
+            default:
+                return amount * 1_000_000_000L;
+        }
+    }
+
+    private Result measure(Entry entry) throws Exception {
+        System.gc(); // Garbage of the previous benchmark is not charged to this one
+        Benchmark benchmark = entry.fixture.setUp();
+        try {
+            int ops = calibrate(benchmark);
+            for (int i = 0; i < warmupIterations; i++) {
+                double score = iteration(benchmark, entry.mode, scaled(ops, warmupNanos));
+                out.printf(Locale.ROOT, "  warmup %d: %s %s%n", i + 1, format(score), entry.mode.unit);
+            }
+            double[] samples = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                samples[i] = iteration(benchmark, entry.mode, ops);
+                out.printf(Locale.ROOT, "  iteration %d: %s %s%n", i + 1, format(samples[i]), entry.mode.unit);
+            }
+            return new Result(entry, samples);
+        } finally {
+            benchmark.close();
+        }
+    }
+
+    // Finds how many operations take about one iteration time, doubling from one
+    private int calibrate(Benchmark benchmark) throws Exception {
+        int ops = 1;
+        while (true) {
+            long start = System.nanoTime();
+            sink += benchmark.run(ops);
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            if (elapsed >= iterationNanos / 8 || ops >= 1 << 29) {
+                return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) ((double) ops * iterationNanos / elapsed)));
+            }
+            ops *= 2;
+        }
+    }
+
+    private int scaled(int ops, long nanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) ((double) ops * nanos / iterationNanos)));
+    }
+
+    private static double iteration(Benchmark benchmark, Mode mode, int ops) throws Exception {
+        long start = System.nanoTime();
+        sink += benchmark.run(ops);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        return mode == Mode.AVERAGE_TIME ? (double) elapsed / ops : ops * 1e9 / elapsed;
+    }
+
+    private void printTable(List<Result> results) {
+        int width = "Benchmark".length();
+        for (Result r : results) {
+            width = Math.max(width, r.entry.label().length());
+        }
+        out.println();
+        out.printf(Locale.ROOT, "%-" + width + "s  %5s  %3s  %14s  %12s  %s%n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units");
+        for (Result r : results) {
+            out.printf(Locale.ROOT, "%-" + width + "s  %5s  %3d  %14s  %12s  %s%n", r.entry.label(), r.entry.mode.shortName,
+                    r.samples.length, format(r.score), Double.isNaN(r.error) ? "" : "+- " + format(r.error), r.entry.mode.unit);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, value >= 100 ? "%.0f" : value >= 1 ? "%.2f" : "%.4f", value);
+    }
+
+    // The JSON that JMH writes for -rf json, with the fields that apply to a single-fork run
+    private String toJson(List<Result> results) {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            json.append("    {\n")
+                .append("        \"benchmark\" : ").append(quote(r.entry.name)).append(",\n")
+                .append("        \"mode\" : \"").append(r.entry.mode.shortName).append("\",\n")
+                .append("        \"threads\" : 1,\n")
+                .append("        \"forks\" : 0,\n")
+                .append("        \"jvm\" : ").append(quote(System.getProperty("java.home"))).append(",\n")
+                .append("        \"jdkVersion\" : ").append(quote(System.getProperty("java.version"))).append(",\n")
+                .append("        \"warmupIterations\" : ").append(warmupIterations).append(",\n")
+                .append("        \"warmupTime\" : \"").append(warmupNanos / 1_000_000).append(" ms\",\n")
+                .append("        \"measurementIterations\" : ").append(iterations).append(",\n")
+                .append("        \"measurementTime\" : \"").append(iterationNanos / 1_000_000).append(" ms\",\n")
+                .append("        \"params\" : {");
+            int p = 0;
+            for (Map.Entry<String, String> param : r.entry.params.entrySet()) {
+                json.append(p++ > 0 ? ", " : " ").append(quote(param.getKey())).append(" : ").append(quote(param.getValue()));
+            }
+            json.append(p > 0 ? " },\n" : "},\n")
+                .append("        \"primaryMetric\" : {\n")
+                .append("            \"score\" : ").append(number(r.score)).append(",\n")
+                .append("            \"scoreError\" : ").append(number(r.error)).append(",\n")
+                .append("            \"scoreConfidence\" : [ ").append(number(r.score - r.error)).append(", ")
+                .append(number(r.score + r.error)).append(" ],\n")
+                .append("            \"scoreUnit\" : \"").append(r.entry.mode.unit).append("\",\n")
+                .append("            \"rawData\" : [ [ ");
+            for (int s = 0; s < r.samples.length; s++) {
+                json.append(s > 0 ? ", " : "").append(number(r.samples[s]));
+            }
+            json.append(" ] ]\n")
+                .append("        },\n")
+                .append("        \"secondaryMetrics\" : {}\n")
+                .append(i + 1 < results.size() ? "    },\n" : "    }\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    // The CSV that JMH writes for -rf csv, with a column per parameter name
+    private static String toCsv(List<Result> results) {
+        Set<String> paramNames = new LinkedHashSet<>();
+        for (Result r : results) {
+            paramNames.addAll(r.entry.params.keySet());
+        }
+        StringBuilder csv = new StringBuilder("\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\",\"Score Error (99.9%)\",\"Unit\"");
+        for (String name : paramNames) {
+            csv.append(",\"Param: ").append(name).append('"');
+        }
+        csv.append('\n');
+        for (Result r : results) {
+            csv.append('"').append(r.entry.name).append("\",\"").append(r.entry.mode.shortName).append("\",1,")
+               .append(r.samples.length).append(',').append(number(r.score)).append(',').append(number(r.error))
+               .append(",\"").append(r.entry.mode.unit).append('"');
+            for (String name : paramNames) {
+                csv.append(',').append(r.entry.params.getOrDefault(name, ""));
+            }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    // Prints the change of every score found in an earlier JSON result, flagging the ones outside the error
+    private void compare(List<Result> results, String baseline) {
+        Map<String, Double> before = new HashMap<>();
+        Matcher m = RESULT.matcher(baseline);
+        while (m.find()) {
+            before.put(m.group(1) + "{" + m.group(2).replaceAll("\\s", "") + "}", Double.parseDouble(m.group(3)));
+        }
+        out.println();
+        out.println("Compared with the baseline:");
+        for (Result r : results) {
+            StringBuilder key = new StringBuilder(r.entry.name).append('{');
+            int p = 0;
+            for (Map.Entry<String, String> param : r.entry.params.entrySet()) {
+                key.append(p++ > 0 ? "," : "").append(quote(param.getKey())).append(':').append(quote(param.getValue()));
+            }
+            Double old = before.get(key.append('}').toString());
+            if (old == null) {
+                out.printf(Locale.ROOT, "  %-60s  not in the baseline%n", r.entry.label());
+                continue;
+            }
+            double change = (r.score - old) / old * 100;
+            boolean better = r.entry.mode == Mode.AVERAGE_TIME ? r.score < old : r.score > old;
+            boolean significant = !Double.isNaN(r.error) && Math.abs(r.score - old) > r.error;
+            out.printf(Locale.ROOT, "  %-60s  %s -> %s %s  %+.1f%%%s%n", r.entry.label(), format(old), format(r.score),
+                    r.entry.mode.unit, change, significant ? (better ? "  faster" : "  SLOWER") : "");
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "\"NaN\"" : Double.toString(value);
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,102 @@
+package views;
+
+import configs.Graph;
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Measures building the graph from the topics and rendering its page for growing graphs: a
+ * chain of topics where agent {@code i} subscribes to topic {@code i} and publishes to topic
+ * {@code i + 1}. Both steps should grow linearly with the graph; the page goes to a writer that
+ * discards it.
+ *
+ * <p>Run from the project root, which holds {@code html_files/graph.html}:
+ * <pre>{@code
+ * javac -d bin $(find src bench -name "*.java")
+ * java -cp bin views.GraphRenderBenchmark [maxTopics]
+ * }</pre>
+ */
+public class GraphRenderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int maxTopics = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        for (int round = 0; round < 2; round++) {
+            for (int topics = 1_000; topics <= maxTopics; topics *= 10) {
+                run(topics);
+            }
+        }
+    }
+
+    private static void run(int topics) throws IOException {
+        TopicManagerSingleton.get().clear();
+        Topic previous = TopicManagerSingleton.get().getTopic("t0");
+        for (int i = 1; i < topics; i++) {
+            Topic next = TopicManagerSingleton.get().getTopic("t" + i);
+            Agent agent = new NamedAgent("agent" + i);
+            previous.subscribe(agent);
+            next.addPublisher(agent);
+            previous = next;
+        }
+
+        long start = System.nanoTime();
+        Graph graph = new Graph();
+        graph.createFromTopics();
+        long built = System.nanoTime();
+        CountingWriter out = new CountingWriter();
+        HtmlGraphWriter.write(graph, out);
+        long written = System.nanoTime();
+        System.out.printf("%7d topics %7d nodes: build %8.1f ms, render %8.1f ms (%d chars)%n",
+                topics, graph.size(), (built - start) / 1e6, (written - built) / 1e6, out.count);
+    }
+
+    private static class NamedAgent implements Agent {
+        private final String name;
+
+        NamedAgent(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingWriter extends Writer {
+        long count = 0;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
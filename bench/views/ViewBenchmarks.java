@@ -0,0 +1,102 @@
+package views;
+
+import configs.ConfigBenchmarks;
+import configs.Graph;
+import configs.GraphClusters;
+import graph.TopicManagerSingleton;
+import java.io.Writer;
+import suite.Harness;
+
+/**
+ * Benchmarks of the graph page, registered with {@link Harness}, for chains of 100 to 100000
+ * nodes (see {@link ConfigBenchmarks#chain(int)}):
+ * <ul>
+ * <li>{@code views.HtmlGraphWriter.write} - streaming the page of every node to a writer that
+ * discards it</li>
+ * <li>{@code views.GraphPage.render} - filling the topic values into a page compiled once, what
+ * {@code /refresh} does while the topology is unchanged</li>
+ * <li>{@code views.HtmlGraphWriter.writeClustered} - the level-of-detail page of at most
+ * {@link GraphClusters#DEFAULT_CLUSTERS} clusters, including building the clusters</li>
+ * </ul>
+ *
+ * <p>Run from the project root, which holds {@code html_files/graph.html}, with the rest of the
+ * suite, see {@code suite.BenchmarkSuite}.
+ */
+public class ViewBenchmarks {
+
+    /**
+     * Adds the benchmarks of this package.
+     *
+     * @param harness the harness to add them to
+     */
+    public static void register(Harness harness) {
+        for (int nodes : new int[] {100, 10_000, 100_000}) {
+            harness.add("views.HtmlGraphWriter.write", "nodes=" + nodes, Harness.Mode.AVERAGE_TIME, () -> {
+                Graph graph = graph(nodes);
+                return ops -> {
+                    CountingWriter out = new CountingWriter();
+                    for (int i = 0; i < ops; i++) {
+                        HtmlGraphWriter.write(graph, out);
+                    }
+                    return out.count;
+                };
+            });
+        }
+        for (int nodes : new int[] {100, 10_000, 100_000}) {
+            harness.add("views.GraphPage.render", "nodes=" + nodes, Harness.Mode.AVERAGE_TIME, () -> {
+                HtmlGraphWriter.GraphPage page = HtmlGraphWriter.compile(graph(nodes));
+                return ops -> {
+                    CountingWriter out = new CountingWriter();
+                    for (int i = 0; i < ops; i++) {
+                        page.writeTo(out);
+                    }
+                    return out.count;
+                };
+            });
+        }
+        for (int nodes : new int[] {10_000, 100_000}) {
+            harness.add("views.HtmlGraphWriter.writeClustered", "nodes=" + nodes, Harness.Mode.AVERAGE_TIME, () -> {
+                Graph graph = graph(nodes);
+                return ops -> {
+                    CountingWriter out = new CountingWriter();
+                    for (int i = 0; i < ops; i++) {
+                        GraphClusters clusters = new GraphClusters(graph, GraphClusters.BY_LEVEL, GraphClusters.DEFAULT_CLUSTERS, i);
+                        HtmlGraphWriter.writeClustered(clusters, out);
+                    }
+                    return out.count;
+                };
+            });
+        }
+    }
+
+    // Builds the graph of a chain; the topics are cleared again, the graph holds what the page needs
+    private static Graph graph(int nodes) {
+        ConfigBenchmarks.chain(nodes);
+        Graph graph = new Graph();
+        graph.createFromTopics();
+        TopicManagerSingleton.get().clear();
+        return graph;
+    }
+
+    private static class CountingWriter extends Writer {
+        long count = 0;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
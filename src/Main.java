@@ -1,22 +1,102 @@
+import graph.TopicHistory;
+import graph.TrafficRecorder;
+import java.io.File;
+import server.AdmissionControl;
+import server.BinaryIngestServer;
 import server.HTTPServer;
 import server.MyHTTPServer;
+import server.NioHTTPServer;
+import servlets.AdmissionStats;
+import servlets.ClusterExpander;
 import servlets.ConfLoader;
+import servlets.GraphAnalytics;
+import servlets.HistoryExporter;
 import servlets.HtmlLoader;
+import servlets.TopicAwaiter;
+import servlets.TopicChanges;
 import servlets.TopicDisplayer;
+import servlets.TopicIngester;
+import servlets.TopicLister;
+import servlets.TopicStreamer;
 import servlets.GraphRefresher;
 import servlets.TopicValidator;
 
 public class Main {
+    // Slow routes get a share of the slots so they cannot starve /publish; event streams limit themselves
+    private static AdmissionControl limits(AdmissionControl admission, int maxWaiters) {
+        return admission.limitRoute("POST", "/upload", 2)
+                        .limitRoute("GET", "/refresh", 4)
+                        .limitRoute("GET", "/await", maxWaiters) // Long polls hold their thread while waiting
+                        .exemptRoute("GET", "/events");
+    }
+
     public static void main(String[] args) throws Exception{
-        HTTPServer server=new MyHTTPServer(8080,5);
+        // -Dserver.engine=nio selects the selector-based engine, -Dserver.engine=virtual
+        // serves each connection on a virtual thread, otherwise a fixed thread pool is used
+        String engine = System.getProperty("server.engine", "pool");
+        HTTPServer server;
+        AdmissionControl admission = null; // Requests over the limits get 503 instead of waiting
+        int maxEventSubscribers; // Each /events subscriber holds a request thread unless detached, 0 serves no /events
+        if (engine.equals("nio")) {
+            server = new NioHTTPServer(8080, 2, 8);
+            maxEventSubscribers = 10_000; // Detached, they hold no thread
+        } else if (engine.equals("virtual")) {
+            admission = limits(new AdmissionControl(Integer.getInteger("server.maxInFlight", 256), 1024, 500), 128);
+            server = new MyHTTPServer(8080, Integer.getInteger("server.maxConnections", 10_000), 30_000, 1000, true, admission);
+            maxEventSubscribers = 1000;
+        } else {
+            admission = limits(new AdmissionControl(5, 50, 500), 2);
+            // One request per connection: an idle persistent connection would hold one of the five threads
+            server = new MyHTTPServer(8080, 5, 0, 1, false, admission);
+            maxEventSubscribers = 0; // A stream would hold one of the five threads, the graph page reloads instead
+        }
         server.addServlet("GET", "/publish", new TopicDisplayer());
         server.addServlet("GET", "/refresh", new GraphRefresher());
         server.addServlet("GET", "/validate-topic", new TopicValidator());
+        server.addServlet("POST", "/validate-topic", new TopicValidator());
+        server.addServlet("GET", "/export", new HistoryExporter());
+        server.addServlet("GET", "/topics", new TopicLister());
+        server.addServlet("GET", "/changes", new TopicChanges());
+        server.addServlet("GET", "/await", new TopicAwaiter());
+        server.addServlet("GET", "/analytics", new GraphAnalytics());
+        server.addServlet("GET", "/graph/cluster", new ClusterExpander());
+        if (maxEventSubscribers > 0) {
+            server.addServlet("GET", "/events", new TopicStreamer(Integer.getInteger("events.maxRate", 10), maxEventSubscribers));
+        }
         server.addServlet("POST", "/upload", new ConfLoader());
+        server.addServlet("POST", "/ingest", new TopicIngester());
         server.addServlet("GET", "/app/", new HtmlLoader("html_files"));
+        if (admission != null) {
+            server.addServlet("GET", "/admission", new AdmissionStats(admission));
+        }
+        // Topic histories are off unless -Dhistory.topics=A,B (or *) names them, all of them kept
+        // within -Dhistory.maxBytes (default 64 MiB) and -Dhistory.maxAgeSeconds (default unlimited)
+        TopicHistory.configure(TopicHistory.parseTopics(System.getProperty("history.topics")),
+                Long.getLong("history.maxBytes", TopicHistory.DEFAULT_MAX_BYTES),
+                Long.getLong("history.maxAgeSeconds", 0) * 1000);
+
         server.start();
+
+        // Optional binary ingestion listener, enabled with -Dingest.port=<port>
+        Integer ingestPort = Integer.getInteger("ingest.port");
+        BinaryIngestServer ingest = null;
+        if (ingestPort != null) {
+            ingest = new BinaryIngestServer(ingestPort, 2);
+            ingest.start();
+        }
+
+        // Optional traffic recording for later replay, enabled with -Drecord.file=<file>
+        String recordFile = System.getProperty("record.file");
+        if (recordFile != null) {
+            TrafficRecorder.start(new File(recordFile));
+        }
+
         System.in.read();
+        TrafficRecorder.stop();
         server.close();
+        if (ingest != null) {
+            ingest.close();
+        }
         System.out.println("done");
     }
 }
@@ -0,0 +1,69 @@
+package configs;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, read-only form of a {@link Graph}: nodes are numbered by their position in the graph
+ * and edges are kept in compressed sparse row (CSR) form, two int arrays instead of a list of
+ * node references per node. The targets of node {@code i} are
+ * {@code targets[offsets[i]] ... targets[offsets[i + 1] - 1]}, in the order of its edge list.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * CompactGraph csr = graph.compact();
+ * for (int i = 0; i < csr.size(); i++) {
+ *     for (int e = csr.offsets[i]; e < csr.offsets[i + 1]; e++) {
+ *         System.out.println(csr.nodes[i].getName() + " -> " + csr.nodes[csr.targets[e]].getName());
+ *     }
+ * }
+ * }</pre>
+ */
+public class CompactGraph {
+    /** The nodes, numbered as in the graph */
+    public final Node[] nodes;
+    /** Start of each node's targets, with one extra entry holding the number of edges */
+    public final int[] offsets;
+    /** Edge targets; -1 for an edge to a node that is not part of the graph */
+    public final int[] targets;
+
+    CompactGraph(List<Node> graph) {
+        int n = graph.size();
+        nodes = graph.toArray(new Node[0]);
+        Map<Node, Integer> ids = new IdentityHashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            ids.putIfAbsent(nodes[i], i); // A node listed twice keeps its first number, as indexOf would
+        }
+        offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + nodes[i].getEdges().size();
+        }
+        targets = new int[offsets[n]];
+        int e = 0;
+        for (Node node : nodes) {
+            for (Node target : node.getEdges()) {
+                Integer id = ids.get(target);
+                targets[e++] = id != null ? id : -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return the node count
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the number of edges.
+     *
+     * @return the edge count
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+}
@@ -2,12 +2,21 @@ package configs;
 
 import graph.Agent;
 import graph.ParallelAgent;
+import graph.PublishBarrier;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicSchema;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 public class GenericConfig implements Config {
     /**
@@ -16,58 +25,461 @@ public class GenericConfig implements Config {
      * project_name.config_files.(agent_name)
      * Topic1, Topic2, Topic3, etc. are the names of the topics that the agents subscribe to.
      * Topic1, Topic2, Topic3, etc. are the names of the topics that the agents publish to.
+     * Lines of the form "@schema Topic type [min=..] [max=..] [precision=..]" may appear between
+     * agent definitions and declare the values the topic accepts from outside (see TopicSchema).
      */
 
     public String pathToConfigFile = "";
     public ArrayList<ParallelAgent> agents = new ArrayList<>();
+    // Definition key ("class|inputs|outputs") of each agent, aligned by index with the agents list
+    private final ArrayList<String> agentKeys = new ArrayList<>();
+    // Node name of each agent in the cycle checker, aligned by index with the agents list
+    private final ArrayList<String> agentNodes = new ArrayList<>();
+    // The running topology, so a reload only checks the edges it adds; null if create() was given a cycle
+    private IncrementalCycleChecker cycles = new IncrementalCycleChecker();
+    private long agentSerial = 0;
 
 
     @Override
     public void create() {
-        List<String> readLines = new ArrayList<>();
-        File file = new File(pathToConfigFile);
+        createAgents(readConfig(pathToConfigFile));
+    }
+
+    /**
+     * Creates the agents and topics from a configuration that was parsed while it was being
+     * received, e.g. streamed from an upload, instead of reading {@link #pathToConfigFile} again.
+     *
+     * @param parsed the parser the configuration lines were fed to
+     * @throws IllegalArgumentException if the configuration is incomplete
+     */
+    public void create(Parser parsed) {
+        createAgents(parsed);
+    }
+
+    private void createAgents(Parser parsed) {
+        List<String> readLines = parsed.finish();
+        for (int i = 0; i < readLines.size(); i += 3) { // Iterate through the lines in steps of 3
+            agents.add(createAgent(readLines.get(i), readLines.get(i + 1), readLines.get(i + 2)));
+            agentKeys.add(agentKey(readLines, i));
+            String node = newAgentNode(readLines.get(i));
+            agentNodes.add(node);
+            if (cycles != null && addAgentEdges(cycles, node, readLines.get(i + 1), readLines.get(i + 2), new ArrayList<>()) != null) {
+                cycles = null; // Rejected by the caller's cycle check; the next reload checks from scratch
+            }
+        }
+        applySchemas(parsed);
+    }
+
+    /**
+     * Applies a new configuration file on top of the running one by diffing the two topologies.
+     * Agents whose definition (class, inputs and outputs) appears in both files are kept running
+     * together with their queues and the values of their topics. Only the added agents are created
+     * and only the removed agents are closed, so the cost is proportional to the size of the change.
+     *
+     * <p>The change is all-or-nothing: the new topology is checked for cycles before anything is
+     * touched, and if an added agent fails to construct, the agents added so far are closed again
+     * and the running graph is left exactly as it was. Only topics this reload created are removed
+     * again, never ones that existed before, e.g. created by a publish. The cycle check is
+     * incremental too: the edges of the removed agents are dropped and only the edges of the added
+     * agents are checked, searching just the part of the graph between their ends. A rejection
+     * names the cycle.
+     *
+     * <p>The swap is atomic for publishers: creating the added agents, which subscribes them, and
+     * closing the removed ones happen under the exclusive {@link PublishBarrier}. It waits for the
+     * cascades in flight and holds new publishes back meanwhile, so a cascade reaches either the
+     * old topology or the new one, never an added agent together with the removed one it replaces.
+     * Publishes wait for the agents to be constructed; the cycle check runs before.
+     *
+     * @param newConfigFile path to the new configuration file
+     * @return a summary of how many agents were added, removed and kept
+     * @throws IllegalArgumentException if the file is malformed or the new topology has cycles
+     */
+    public synchronized ReloadSummary reload(String newConfigFile) {
+        return reload(readConfig(newConfigFile), newConfigFile);
+    }
+
+    /**
+     * Same as {@link #reload(String)} for a configuration that was already parsed while it was
+     * being received.
+     *
+     * @param parsed the parser the new configuration lines were fed to
+     * @param newConfigFile path the new configuration was saved to
+     * @return a summary of how many agents were added, removed and kept
+     * @throws IllegalArgumentException if the configuration is incomplete or the new topology has cycles
+     */
+    public synchronized ReloadSummary reload(Parser parsed, String newConfigFile) {
+        List<String> readLines = parsed.finish();
+        // Index the running agents by definition key, duplicates are matched one-to-one
+        Map<String, List<Integer>> running = new HashMap<>();
+        for (int i = 0; i < agentKeys.size(); i++) {
+            running.computeIfAbsent(agentKeys.get(i), k -> new ArrayList<>()).add(i);
+        }
+
+        int definitions = readLines.size() / 3;
+        int[] match = new int[definitions]; // Running agent kept for each definition, -1 for a new one
+        String[] nodes = new String[definitions];
+        boolean[] kept = new boolean[agents.size()];
+        for (int j = 0; j < definitions; j++) {
+            List<Integer> candidates = running.get(agentKey(readLines, 3 * j));
+            if (candidates != null && !candidates.isEmpty()) {
+                match[j] = candidates.remove(candidates.size() - 1);
+                kept[match[j]] = true;
+                nodes[j] = agentNodes.get(match[j]);
+            } else {
+                match[j] = -1;
+                nodes[j] = newAgentNode(readLines.get(3 * j));
+            }
+        }
+
+        // Check the new topology before touching anything
+        IncrementalCycleChecker checker = cycles != null ? cycles : new IncrementalCycleChecker();
+        List<String[]> addedEdges = new ArrayList<>();
+        List<String[]> removedEdges = new ArrayList<>();
+        if (cycles != null) {
+            for (int i = 0; i < agents.size(); i++) {
+                if (!kept[i]) {
+                    String[] parts = agentKeys.get(i).split("\\|", -1);
+                    removeAgentEdges(checker, agentNodes.get(i), parts[1], parts[2], removedEdges);
+                }
+            }
+        }
+        for (int j = 0; j < definitions; j++) {
+            if (match[j] >= 0 && cycles != null) {
+                continue; // Its edges are already in the checker
+            }
+            List<String> cycle = addAgentEdges(checker, nodes[j], readLines.get(3 * j + 1), readLines.get(3 * j + 2), addedEdges);
+            if (cycle != null) {
+                undoEdges(checker, addedEdges, removedEdges);
+                throw new IllegalArgumentException("Configuration rejected: The graph contains cycles. Cyclic dependencies between agents and topics are not allowed. Cycle: "
+                        + describeCycle(cycle, parsed, nodes));
+            }
+        }
+
+        ArrayList<ParallelAgent> nextAgents = new ArrayList<>();
+        ArrayList<String> nextKeys = new ArrayList<>();
+        ArrayList<ParallelAgent> added = new ArrayList<>();
+        Set<String> created = touchedTopics(readLines); // Topics this reload creates, the only ones a rollback may remove
+        created.removeIf(TopicManagerSingleton.get()::topicExists);
+
+        // Added agents subscribe as they are created, so the whole swap runs with publishes held
+        // back: a cascade sees either the old agents or the new ones, never both
+        int removed = 0;
+        PublishBarrier.lock();
+        try {
+            try {
+                for (int j = 0; j < definitions; j++) {
+                    int i = 3 * j;
+                    if (match[j] >= 0) {
+                        nextAgents.add(agents.get(match[j]));
+                    } else {
+                        ParallelAgent agent = createAgent(readLines.get(i), readLines.get(i + 1), readLines.get(i + 2));
+                        added.add(agent);
+                        nextAgents.add(agent);
+                    }
+                    nextKeys.add(agentKey(readLines, i));
+                }
+            } catch (RuntimeException e) {
+                // Roll back: the running graph must stay untouched if any new agent fails
+                for (ParallelAgent agent : added) {
+                    agent.close();
+                }
+                removeOrphanTopics(created);
+                undoEdges(checker, addedEdges, removedEdges);
+                throw e;
+            }
+            cycles = checker;
+
+            // Only now retire the agents that disappeared from the configuration
+            Set<String> touched = new HashSet<>();
+            for (int i = 0; i < agents.size(); i++) {
+                if (!kept[i]) {
+                    addTopics(touched, agentKeys.get(i));
+                    agents.get(i).close();
+                    removed++;
+                }
+            }
+            removeOrphanTopics(touched);
+        } finally {
+            PublishBarrier.unlock();
+        }
+
+        agents.clear();
+        agents.addAll(nextAgents);
+        agentKeys.clear();
+        agentKeys.addAll(nextKeys);
+        agentNodes.clear();
+        agentNodes.addAll(List.of(nodes));
+        pathToConfigFile = newConfigFile;
+        applySchemas(parsed);
+
+        return new ReloadSummary(added.size(), removed, nextAgents.size() - added.size());
+    }
+
+    // Reads the configuration file and validates that it is made of 3-line agent definitions
+    private static Parser readConfig(String path) {
+        Parser parser = new Parser();
+        File file = new File(path);
         try {
             Scanner scanner = new Scanner(file);
             while (scanner.hasNextLine()) { // Read the file line by line
-                readLines.add(scanner.nextLine());
+                parser.addLine(scanner.nextLine());
             }
             scanner.close();
 
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         }
+        parser.finish();
+        return parser;
+    }
 
-        if (readLines.size() % 3 != 0) {
-            throw new IllegalArgumentException("Configuration file is not valid, it should have a multiple of 3 lines.");
+    // Gives every topic the schema the configuration declares for it, or none
+    private static void applySchemas(Parser parsed) {
+        Map<String, TopicSchema> schemas = parsed.schemas();
+        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+            topic.setSchema(schemas.get(topic.getName()));
         }
+    }
 
-        for (int i = 0; i < readLines.size(); i += 3) { // Iterate through the lines in steps of 3
-            String agentClassName = readLines.get(i); // The first line is the agent class name
-            String[] inputTopics = readLines.get(i + 1).split(","); // The second line is the input topics
-            String[] outputTopics = readLines.get(i + 2).split(","); // The third line is the output topics
+    /**
+     * Incremental reader of configuration text. Lines are checked as they are added, so a
+     * configuration can be validated while it is still arriving: an agent class that does not
+     * exist or has no {@code (String[], String[])} constructor is reported as soon as its line is seen.
+     * {@code @schema} lines are compiled into {@link TopicSchema}s as they are seen, too.
+     */
+    public static class Parser {
+        private static final String SCHEMA_DIRECTIVE = "@schema";
+
+        private final List<String> lines = new ArrayList<>(); // Agent definition lines
+        private final List<Integer> definitionLines = new ArrayList<>(); // File line of each definition
+        private final Map<String, TopicSchema> schemas = new LinkedHashMap<>();
+        private final Map<String, Integer> schemaLines = new HashMap<>();
+        private int lineCount = 0;
+
+        /**
+         * Adds the next line of the configuration.
+         *
+         * @param line the line, without its line terminator
+         * @throws IllegalArgumentException if the line names an agent class that cannot be created
+         *         or is a malformed schema declaration
+         */
+        public void addLine(String line) {
+            lineCount++;
+            if (lines.size() % 3 == 0 && line.startsWith(SCHEMA_DIRECTIVE)) {
+                addSchema(line.substring(SCHEMA_DIRECTIVE.length()).trim());
+                return;
+            }
+            if (lines.size() % 3 == 0) {
+                checkAgentClass(line, lineCount);
+                definitionLines.add(lineCount);
+            }
+            lines.add(line);
+        }
 
+        private void addSchema(String declaration) {
+            int space = declaration.indexOf(' ');
+            if (space <= 0) {
+                throw new IllegalArgumentException("Schema declaration needs a topic and a type (line " + lineCount + ")");
+            }
+            String topic = declaration.substring(0, space);
+            if (schemas.containsKey(topic)) {
+                throw new IllegalArgumentException("Topic " + topic + " has more than one schema (line " + lineCount + ")");
+            }
             try {
-                Class<?> agentClass = Class.forName(agentClassName); // Load the agent class dynamically
-                Constructor<?> constructor = agentClass.getConstructor(String[].class, String[].class); // Get the constructor that takes two String arrays
-                Object agentInstance = constructor.newInstance((Object) inputTopics, (Object) outputTopics); // Create an instance of the agent class
-                ParallelAgent agent = new ParallelAgent((Agent) agentInstance); // Wrap the agent instance in a ParallelAgent
-                agents.add(agent); // Add the created agent to the list of agents
-
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException("Agent class not found: " + agentClassName + ". Make sure the class exists and is in the classpath.", e);
-            } catch (java.lang.reflect.InvocationTargetException e) {
-                Throwable cause = e.getCause();
-                if (cause != null) {
-                    throw new RuntimeException("Error in agent constructor for: " + agentClassName + ". Agent threw exception: " + cause.getClass().getSimpleName() + " - " + cause.getMessage(), cause);
-                } else {
-                    throw new RuntimeException("Error invoking constructor for agent: " + agentClassName, e);
+                schemas.put(topic, TopicSchema.parse(declaration.substring(space + 1)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(e.getMessage() + " (line " + lineCount + ")");
+            }
+            schemaLines.put(topic, lineCount);
+        }
+
+        /**
+         * Returns the number of lines added so far.
+         *
+         * @return the line count
+         */
+        public int lineCount() {
+            return lineCount;
+        }
+
+        /**
+         * Completes parsing.
+         *
+         * @return the agent definition lines, without the schema declarations
+         * @throws IllegalArgumentException if the lines are not complete 3-line agent definitions
+         *         or a schema names a topic that no agent uses
+         */
+        public List<String> finish() {
+            if (lines.size() % 3 != 0) {
+                throw new IllegalArgumentException("Configuration file is not valid, it should have a multiple of 3 lines.");
+            }
+            if (!schemas.isEmpty()) {
+                Set<String> topics = new HashSet<>();
+                for (int i = 0; i < lines.size(); i += 3) {
+                    addTopics(topics, agentKey(lines, i));
                 }
-            } catch (Exception e) {
-                throw new RuntimeException("Unexpected error creating agent: " + agentClassName + " - " + e.getMessage(), e);
+                for (String topic : schemas.keySet()) {
+                    if (!topics.contains(topic)) {
+                        throw new IllegalArgumentException("Schema for unknown topic " + topic + " (line " + schemaLines.get(topic) + ")");
+                    }
+                }
+            }
+            return lines;
+        }
+
+        /**
+         * Returns the schemas declared so far, by topic name.
+         *
+         * @return the schemas
+         */
+        public Map<String, TopicSchema> schemas() {
+            return schemas;
+        }
+
+        // File line on which the given agent definition starts
+        int definitionLine(int definition) {
+            return definitionLines.get(definition);
+        }
+
+        private static void checkAgentClass(String agentClassName, int lineNo) {
+            Class<?> agentClass;
+            try {
+                agentClass = Class.forName(agentClassName);
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new IllegalArgumentException("Agent class not found: " + agentClassName + " (line " + lineNo + "). Make sure the class exists and is in the classpath.");
+            }
+            if (!Agent.class.isAssignableFrom(agentClass)) {
+                throw new IllegalArgumentException(agentClassName + " (line " + lineNo + ") is not an Agent.");
+            }
+            try {
+                agentClass.getConstructor(String[].class, String[].class);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("Agent class " + agentClassName + " (line " + lineNo + ") has no (String[], String[]) constructor.");
             }
         }
     }
 
+    // Instantiates one agent from its class name, input topics line and output topics line
+    private static ParallelAgent createAgent(String agentClassName, String inputLine, String outputLine) {
+        String[] inputTopics = inputLine.split(","); // The second line is the input topics
+        String[] outputTopics = outputLine.split(","); // The third line is the output topics
+
+        try {
+            Class<?> agentClass = Class.forName(agentClassName); // Load the agent class dynamically
+            Constructor<?> constructor = agentClass.getConstructor(String[].class, String[].class); // Get the constructor that takes two String arrays
+            Object agentInstance = constructor.newInstance((Object) inputTopics, (Object) outputTopics); // Create an instance of the agent class
+            return new ParallelAgent((Agent) agentInstance); // Wrap the agent instance in a ParallelAgent
+
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Agent class not found: " + agentClassName + ". Make sure the class exists and is in the classpath.", e);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause != null) {
+                throw new RuntimeException("Error in agent constructor for: " + agentClassName + ". Agent threw exception: " + cause.getClass().getSimpleName() + " - " + cause.getMessage(), cause);
+            } else {
+                throw new RuntimeException("Error invoking constructor for agent: " + agentClassName, e);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Unexpected error creating agent: " + agentClassName + " - " + e.getMessage(), e);
+        }
+    }
+
+    private static String agentKey(List<String> readLines, int i) {
+        return readLines.get(i) + "|" + readLines.get(i + 1) + "|" + readLines.get(i + 2);
+    }
+
+    // Adds the input and output topic names of an agent definition key to the given set
+    private static void addTopics(Set<String> topics, String key) {
+        String[] parts = key.split("\\|", -1);
+        for (int p = 1; p < parts.length; p++) {
+            for (String t : parts[p].split(",")) {
+                topics.add(t);
+            }
+        }
+    }
+
+    private static Set<String> touchedTopics(List<String> readLines) {
+        Set<String> topics = new HashSet<>();
+        for (int i = 0; i < readLines.size(); i += 3) {
+            addTopics(topics, agentKey(readLines, i));
+        }
+        return topics;
+    }
+
+    // Drops topics that no longer have any publisher or subscriber
+    private static void removeOrphanTopics(Set<String> names) {
+        for (String name : names) {
+            if (!TopicManagerSingleton.get().topicExists(name)) {
+                continue;
+            }
+            Topic topic = TopicManagerSingleton.get().getTopic(name);
+            if (topic.getPubs().isEmpty() && topic.getSubs().isEmpty()) {
+                TopicManagerSingleton.get().removeTopic(name);
+            }
+        }
+    }
+
+    // A node name for a new agent in the cycle checker, unique for the life of this config
+    private String newAgentNode(String agentClassName) {
+        return "A" + agentClassName + "#" + (++agentSerial);
+    }
+
+    // Adds the edges of one agent, recording them in added; returns the cycle an edge would close, or null
+    private static List<String> addAgentEdges(IncrementalCycleChecker checker, String node, String inputs, String outputs,
+                                              List<String[]> added) {
+        for (String in : inputs.split(",")) {
+            List<String> cycle = checker.addEdge("T" + in, node);
+            if (cycle != null) {
+                return cycle;
+            }
+            added.add(new String[] {"T" + in, node});
+        }
+        for (String out : outputs.split(",")) {
+            List<String> cycle = checker.addEdge(node, "T" + out);
+            if (cycle != null) {
+                return cycle;
+            }
+            added.add(new String[] {node, "T" + out});
+        }
+        return null;
+    }
+
+    private static void removeAgentEdges(IncrementalCycleChecker checker, String node, String inputs, String outputs,
+                                         List<String[]> removed) {
+        for (String in : inputs.split(",")) {
+            checker.removeEdge("T" + in, node);
+            removed.add(new String[] {"T" + in, node});
+        }
+        for (String out : outputs.split(",")) {
+            checker.removeEdge(node, "T" + out);
+            removed.add(new String[] {node, "T" + out});
+        }
+    }
+
+    // Puts the checker back as it was before a rejected or failed reload
+    private static void undoEdges(IncrementalCycleChecker checker, List<String[]> added, List<String[]> removed) {
+        for (int i = added.size() - 1; i >= 0; i--) {
+            checker.removeEdge(added.get(i)[0], added.get(i)[1]);
+        }
+        for (int i = removed.size() - 1; i >= 0; i--) {
+            checker.addEdge(removed.get(i)[0], removed.get(i)[1]); // Was acyclic before, cannot fail
+        }
+    }
+
+    // Names the agents of a cycle by class and line in the new file
+    private static String describeCycle(List<String> cycle, Parser parsed, String[] nodes) {
+        List<String> readLines = parsed.finish();
+        Map<String, String> agentNames = new HashMap<>();
+        for (int j = 0; j < nodes.length; j++) {
+            agentNames.put(nodes[j], "A" + readLines.get(3 * j) + " (line " + parsed.definitionLine(j) + ")");
+        }
+        List<String> names = new ArrayList<>();
+        for (String node : cycle) {
+            names.add(agentNames.getOrDefault(node, node));
+        }
+        return Graph.describePath(names);
+    }
+
     @Override
     public String getName() {
         return "";
@@ -85,10 +497,33 @@ public class GenericConfig implements Config {
             agent.close();
         }
         agents.clear();
+        agentKeys.clear();
+        agentNodes.clear();
+        cycles = new IncrementalCycleChecker();
     }
 
     // Sets the path to the configuration file
     public void setConfFile(String s) {
         this.pathToConfigFile=s;
     }
+
+    /**
+     * Result of an incremental {@link #reload(String)}.
+     */
+    public static class ReloadSummary {
+        public final int added;
+        public final int removed;
+        public final int kept;
+
+        public ReloadSummary(int added, int removed, int kept) {
+            this.added = added;
+            this.removed = removed;
+            this.kept = kept;
+        }
+
+        @Override
+        public String toString() {
+            return added + " added, " + removed + " removed, " + kept + " kept";
+        }
+    }
 }
@@ -1,21 +1,148 @@
 package configs;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import graph.Agent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
 
 public class Graph extends ArrayList<Node>{
+    private final Map<String, Node> byName = new HashMap<>(); // Name -> first node of that name, kept by add, addAll, remove and clear
+
+    // Add a node and index it by name, the first node of a name wins as with a linear search
+    @Override
+    public boolean add(Node node) {
+        byName.putIfAbsent(node.getName(), node);
+        return super.add(node);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Node> nodes) {
+        for (Node node : nodes) {
+            byName.putIfAbsent(node.getName(), node);
+        }
+        return super.addAll(nodes);
+    }
+
+    @Override
+    public Node remove(int index) {
+        Node node = super.remove(index);
+        unindex(node);
+        return node;
+    }
+
+    @Override
+    public boolean remove(Object node) {
+        if (super.remove(node)) {
+            unindex((Node) node);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        byName.clear();
+        super.clear();
+    }
+
+    // After a removal, index the next node of the same name if there is one
+    private void unindex(Node node) {
+        if (byName.get(node.getName()) == node) {
+            byName.remove(node.getName());
+            for (Node n : this) {
+                if (n.getName().equals(node.getName())) {
+                    byName.put(n.getName(), n);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Return the node with the given name in O(1), or null if there is none
+    public Node getNode(String name) {
+        return byName.get(name);
+    }
+
+    // Return the compact CSR form of the graph, built in O(nodes + edges)
+    public CompactGraph compact() {
+        return new CompactGraph(this);
+    }
 
     // Return true if the graph has cycles, false otherwise
     public boolean hasCycles() {
-        for (Node node : this) {
-            if (node.hasCycles()) {
-                return true; // Cycle detected
+        return findCycle() != null;
+    }
+
+    // Return the nodes of a cycle, starting and ending with the same node, or null if there is none.
+    // One iterative depth-first search over the CSR form: O(nodes + edges), whatever the depth
+    public List<Node> findCycle() {
+        CompactGraph csr = compact();
+        int n = csr.size();
+        byte[] state = new byte[n]; // 0 unvisited, 1 on the current path, 2 done
+        int[] path = new int[n]; // Nodes of the current path
+        int[] nextEdge = new int[n]; // Next edge to follow of each node on the path
+        for (int root = 0; root < n; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            path[0] = root;
+            nextEdge[0] = csr.offsets[root];
+            state[root] = 1;
+            while (depth >= 0) {
+                int node = path[depth];
+                if (nextEdge[depth] == csr.offsets[node + 1]) {
+                    state[node] = 2; // Fully explored
+                    depth--;
+                    continue;
+                }
+                int target = csr.targets[nextEdge[depth]++];
+                if (target < 0 || state[target] == 2) {
+                    continue;
+                }
+                if (state[target] == 1) {
+                    // Back edge: the cycle is the path from the target to here
+                    List<Node> cycle = new ArrayList<>();
+                    int from = depth;
+                    while (path[from] != target) {
+                        from--;
+                    }
+                    for (int i = from; i <= depth; i++) {
+                        cycle.add(csr.nodes[path[i]]);
+                    }
+                    cycle.add(csr.nodes[target]);
+                    return cycle;
+                }
+                depth++;
+                path[depth] = target;
+                nextEdge[depth] = csr.offsets[target];
+                state[target] = 1;
             }
         }
-        return false; // No cycles found
+        return null;
+    }
+
+    // Describe a path of node names as "topic A -> agent Inc -> topic B", from the T and A name prefixes
+    public static String describePath(List<String> names) {
+        StringBuilder description = new StringBuilder();
+        for (String name : names) {
+            if (description.length() > 0) {
+                description.append(" -> ");
+            }
+            if (name.startsWith("T")) {
+                description.append("topic ").append(name.substring(1));
+            } else if (name.startsWith("A")) {
+                description.append("agent ").append(name.substring(1));
+            } else {
+                description.append(name);
+            }
+        }
+        return description.toString();
     }
 
     // Creates the graph from the topics managed by the topic singleton
@@ -41,10 +168,9 @@ public class Graph extends ArrayList<Node>{
 
     // Find a node by name or create a new one if not found
     private Node findNode(String name) {
-        for (Node node : this) {
-            if (node.getName().equals(name)) {
-                return node; // Return the existing node if found
-            }
+        Node node = byName.get(name);
+        if (node != null) {
+            return node; // Return the existing node if found
         }
         Node newNode = new Node(name); // Create a new node if not found
         this.add(newNode);
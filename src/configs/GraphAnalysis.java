@@ -0,0 +1,352 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Static cost analysis of a graph, to tell how expensive a configuration is before it carries
+ * real traffic: its depth and critical path, the fan-out of every topic, how many agent
+ * activations one publish to a topic sets off, its strongly connected components, and the
+ * throughput that follows from the cost of each agent's callback.
+ *
+ * <p>Everything is computed in time linear in nodes and edges: one iterative Tarjan pass finds
+ * the strongly connected components in reverse topological order, and one pass in each
+ * direction over that order computes the per-node quantities. The model assumes that an agent
+ * activation publishes once to each of its output topics, and that callbacks run inside
+ * {@link graph.Topic#publish(graph.Message)} on the publishing thread, as they do: a publish costs
+ * its whole cascade on the thread that made it, and agents have no threads of their own to be a
+ * bottleneck. Throughput is therefore limited by the processors running publishing threads. A node
+ * that can reach a cycle sets off unboundedly many activations; its values are
+ * {@link Double#POSITIVE_INFINITY}.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * Graph graph = new Graph();
+ * graph.createFromTopics();
+ * GraphAnalysis analysis = new GraphAnalysis(graph, AgentStats::meanNanos, 2);
+ * System.out.println(analysis.depth + " agents deep, " + analysis.roundsPerSecond + " rounds/s");
+ * }</pre>
+ */
+public class GraphAnalysis {
+    /** The graph in compact form; the arrays below are indexed like its nodes */
+    public final CompactGraph csr;
+    /** Whether each node is a topic (name starting with T) */
+    public final boolean[] topic;
+    /** Callback cost of each agent in nanoseconds, measured or defaulted; 0 for topics */
+    public final double[] costNanos;
+    /** Number of agents whose cost was measured */
+    public final int measuredAgents;
+    /** Cost used for agents without a measurement */
+    public final double defaultCostNanos;
+
+    /** Strongly connected component of each node; components are numbered sinks first */
+    public final int[] component;
+    /** Number of strongly connected components */
+    public final int componentCount;
+    /** Nodes of every component with a cycle: more than one node, or a node with an edge to itself */
+    public final List<List<Node>> cyclicComponents;
+
+    /** Agent activations set off by one publish to each topic node (0 for agents) */
+    public final double[] activations;
+    /** Total callback time in nanoseconds set off by one publish to each topic node */
+    public final double[] publishCostNanos;
+    /** Times each agent runs when every input topic (a topic without publishers) is published once */
+    public final double[] roundActivations;
+
+    /** Most agents on one path */
+    public final int depth;
+    /** The path with the highest total agent cost, and that cost */
+    public final List<Node> criticalPath;
+    public final double criticalPathNanos;
+
+    /** Number of publishers of each node */
+    public final int[] inDegree;
+
+    /** Number of processors running publishing threads that the throughput is predicted for */
+    public final int processors;
+    /** Callback time of one round (one publish to every input topic): the cascades of all input topics */
+    public final double roundNanos;
+    /** The predicted throughput: rounds per second when every processor runs a publishing thread */
+    public final double roundsPerSecond;
+
+    /**
+     * Analyses a graph.
+     *
+     * @param graph the graph, topic names starting with T and agent names with A
+     * @param agentCostNanos the measured callback cost of an agent by its name without the A,
+     *        or NaN if unknown; unknown agents get the mean of the known ones, or 1 microsecond
+     * @param processors processors available to publishing threads
+     */
+    public GraphAnalysis(Graph graph, ToDoubleFunction<String> agentCostNanos, int processors) {
+        csr = graph.compact();
+        int n = csr.size();
+        this.processors = Math.max(1, processors);
+
+        topic = new boolean[n];
+        costNanos = new double[n];
+        int measured = 0;
+        double measuredTotal = 0;
+        for (int v = 0; v < n; v++) {
+            String name = csr.nodes[v].getName();
+            topic[v] = name.startsWith("T");
+            costNanos[v] = topic[v] ? 0 : agentCostNanos.applyAsDouble(name.substring(1));
+            if (!topic[v] && !Double.isNaN(costNanos[v])) {
+                measured++;
+                measuredTotal += costNanos[v];
+            }
+        }
+        measuredAgents = measured;
+        defaultCostNanos = measured > 0 ? measuredTotal / measured : 1000;
+        for (int v = 0; v < n; v++) {
+            if (Double.isNaN(costNanos[v])) {
+                costNanos[v] = defaultCostNanos;
+            }
+        }
+
+        component = new int[n];
+        componentCount = tarjan(csr, component);
+        int[] order = nodesByComponent(component, componentCount); // Sinks first
+        boolean[] cyclic = new boolean[componentCount];
+        cyclicComponents = cyclicComponents(cyclic);
+
+        // Backward pass, sinks first: what a publish sets off downstream
+        activations = new double[n];
+        publishCostNanos = new double[n];
+        for (int v : order) {
+            double count = topic[v] ? 0 : 1;
+            double cost = costNanos[v];
+            for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+                int w = csr.targets[e];
+                if (w < 0) {
+                    continue;
+                }
+                count += activations[w];
+                cost += publishCostNanos[w];
+            }
+            if (cyclic[component[v]]) {
+                count = Double.POSITIVE_INFINITY;
+                cost = Double.POSITIVE_INFINITY;
+            }
+            activations[v] = count;
+            publishCostNanos[v] = cost;
+        }
+        for (int v = 0; v < n; v++) {
+            if (!topic[v]) {
+                activations[v] = 0; // Only defined for topics, agents were counted for their topics
+            }
+        }
+
+        // Forward pass, sources first: depth, critical path and load per round
+        inDegree = new int[n];
+        for (int e = 0; e < csr.targets.length; e++) {
+            if (csr.targets[e] >= 0) {
+                inDegree[csr.targets[e]]++;
+            }
+        }
+        roundActivations = new double[n];
+        int[] agentsBefore = new int[n]; // Most agents on a path ending just before the node
+        double[] costBefore = new double[n];
+        int[] costPred = new int[n];
+        Arrays.fill(costPred, -1);
+        int deepest = 0;
+        int criticalEnd = -1;
+        double criticalCost = -1;
+        for (int i = order.length - 1; i >= 0; i--) {
+            int v = order[i];
+            if (isInput(v)) {
+                roundActivations[v] += 1; // An input topic, published once per round
+            }
+            if (cyclic[component[v]] && (i == order.length - 1 || component[order[i + 1]] != component[v])) {
+                // Entering a cycle: if any of it is reached, all of it runs without end
+                int first = i;
+                while (first > 0 && component[order[first - 1]] == component[v]) {
+                    first--;
+                }
+                double load = 0;
+                for (int j = first; j <= i; j++) {
+                    load += roundActivations[order[j]]; // Members of a cycle have publishers, none is an input
+                }
+                if (load > 0) {
+                    for (int j = first; j <= i; j++) {
+                        roundActivations[order[j]] = Double.POSITIVE_INFINITY;
+                    }
+                }
+            }
+            int agents = agentsBefore[v] + (topic[v] ? 0 : 1);
+            double cost = costBefore[v] + costNanos[v];
+            deepest = Math.max(deepest, agents);
+            if (cost > criticalCost) {
+                criticalCost = cost;
+                criticalEnd = v;
+            }
+            for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+                int w = csr.targets[e];
+                if (w < 0 || component[w] == component[v]) {
+                    continue; // Paths are counted over the acyclic part
+                }
+                roundActivations[w] += roundActivations[v];
+                agentsBefore[w] = Math.max(agentsBefore[w], agents);
+                if (costPred[w] < 0 || cost > costBefore[w]) {
+                    costBefore[w] = cost;
+                    costPred[w] = v;
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            if (topic[v]) {
+                roundActivations[v] = 0; // Only defined for agents
+            }
+        }
+        depth = deepest;
+        List<Node> path = new ArrayList<>();
+        for (int v = criticalEnd; v >= 0; v = costPred[v]) {
+            path.add(csr.nodes[v]);
+        }
+        Collections.reverse(path);
+        criticalPath = Collections.unmodifiableList(path);
+        criticalPathNanos = Math.max(0, criticalCost);
+
+        // Throughput: each publishing thread runs whole cascades, as many at once as there are processors
+        double round = 0;
+        for (int v = 0; v < n; v++) {
+            if (isInput(v)) {
+                round += publishCostNanos[v];
+            }
+        }
+        roundNanos = round;
+        roundsPerSecond = round > 0 ? this.processors * 1e9 / round : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the number of subscribers of a node, its fan-out.
+     *
+     * @param v the node index
+     * @return the number of outgoing edges
+     */
+    public int fanOut(int v) {
+        return csr.offsets[v + 1] - csr.offsets[v];
+    }
+
+    /**
+     * Returns whether a node is a topic without publishers, where outside messages enter.
+     *
+     * @param v the node index
+     * @return true for an input topic
+     */
+    public boolean isInput(int v) {
+        return topic[v] && inDegree[v] == 0;
+    }
+
+    // Marks the components with a cycle and lists their nodes
+    private List<List<Node>> cyclicComponents(boolean[] cyclic) {
+        int n = csr.size();
+        int[] size = new int[componentCount];
+        for (int v = 0; v < n; v++) {
+            size[component[v]]++;
+        }
+        for (int v = 0; v < n; v++) {
+            if (size[component[v]] > 1) {
+                cyclic[component[v]] = true;
+            }
+            for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+                if (csr.targets[e] == v) {
+                    cyclic[component[v]] = true; // Edge to itself
+                }
+            }
+        }
+        List<List<Node>> result = new ArrayList<>();
+        int[] index = new int[componentCount];
+        Arrays.fill(index, -1);
+        for (int v = 0; v < n; v++) {
+            int c = component[v];
+            if (cyclic[c]) {
+                if (index[c] < 0) {
+                    index[c] = result.size();
+                    result.add(new ArrayList<>());
+                }
+                result.get(index[c]).add(csr.nodes[v]);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    // Orders the nodes by component with a counting sort
+    private static int[] nodesByComponent(int[] component, int componentCount) {
+        int[] start = new int[componentCount + 1];
+        for (int c : component) {
+            start[c + 1]++;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] order = new int[component.length];
+        for (int v = 0; v < component.length; v++) {
+            order[start[component[v]]++] = v;
+        }
+        return order;
+    }
+
+    // Iterative Tarjan: numbers the components in the order they are completed, sinks first
+    private static int tarjan(CompactGraph csr, int[] component) {
+        int n = csr.size();
+        int[] index = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0;
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        int nextIndex = 0;
+        int components = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = csr.offsets[root];
+            index[root] = low[root] = nextIndex++;
+            stack[top++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int v = callNode[depth];
+                if (callEdge[depth] < csr.offsets[v + 1]) {
+                    int w = csr.targets[callEdge[depth]++];
+                    if (w < 0) {
+                        continue;
+                    }
+                    if (index[w] < 0) {
+                        depth++;
+                        callNode[depth] = w;
+                        callEdge[depth] = csr.offsets[w];
+                        index[w] = low[w] = nextIndex++;
+                        stack[top++] = w;
+                        onStack[w] = true;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--top];
+                        onStack[w] = false;
+                        component[w] = components;
+                    } while (w != v);
+                    components++;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callNode[depth];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+            }
+        }
+        return components;
+    }
+}
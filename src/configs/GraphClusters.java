@@ -0,0 +1,541 @@
+package configs;
+
+import graph.TopicManagerSingleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A level-of-detail view of a graph: its nodes grouped into at most {@code maxClusters}
+ * clusters, with the number of topics, agents and inner edges of each cluster and the edges
+ * between clusters added up. Nodes are grouped by one of
+ * <ul>
+ * <li>{@link #BY_LEVEL} - topological level, the longest path from an input; when there are more
+ * levels than clusters, runs of consecutive levels share a cluster, and nodes on a cycle get a
+ * cluster of their own after the last level</li>
+ * <li>{@link #BY_COMPONENT} - weakly connected component</li>
+ * <li>{@link #BY_PREFIX} - the start of the node's label up to the first {@code . : / _ -}</li>
+ * </ul>
+ * For components and prefixes, the largest groups get a cluster each and the rest share a last
+ * "other" cluster. Building the clusters takes time linear in nodes and edges, and what is kept
+ * for the view is bounded by the cluster count: at most {@link #MAX_CLUSTER_EDGES_PER_CLUSTER}
+ * times {@code maxClusters} cluster edges, the heaviest ones.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * GraphClusters clusters = GraphClusters.current(GraphClusters.BY_LEVEL, 200);
+ * for (int c = 0; c < clusters.size(); c++) {
+ *     System.out.println(clusters.label(c) + ": " + clusters.topicCount(c) + " topics");
+ *     for (int i = clusters.start(c); i < clusters.start(c + 1); i++) {
+ *         Node member = clusters.graph().nodes[clusters.member(i)];
+ *     }
+ * }
+ * }</pre>
+ */
+public class GraphClusters {
+    public static final String BY_LEVEL = "level";
+    public static final String BY_COMPONENT = "component";
+    public static final String BY_PREFIX = "prefix";
+    public static final int DEFAULT_CLUSTERS = 200;
+    public static final int MAX_CLUSTER_EDGES_PER_CLUSTER = 4;
+    public static final int MAX_CLUSTERS = 1000; // Edges are added up in a clusters * clusters table
+    private static final String SEPARATORS = ".:/_-";
+
+    private static GraphClusters cached; // Guarded by GraphClusters.class, the clusters of the running topology
+
+    private final String by;
+    private final int maxClusters;
+    private final long topologyVersion;
+    private final CompactGraph csr;
+    private final int[] clusterOf; // Cluster of each node
+    private final int[] start; // Members of cluster c are members[start[c] .. start[c + 1] - 1]
+    private final int[] members;
+    private final int[] incomingStart; // Nodes with an edge to node v are sources[incomingStart[v] .. incomingStart[v + 1] - 1]
+    private final int[] sources;
+    private final String[] labels;
+    private final int[] topics;
+    private final int[] innerEdges;
+    private final int[] edgeFrom; // Edges between clusters, heaviest first
+    private final int[] edgeTo;
+    private final int[] edgeWeight;
+    private final int droppedEdges; // Cluster edges left out for the bound
+
+    /**
+     * Groups the nodes of a graph.
+     *
+     * @param graph the graph
+     * @param by {@link #BY_LEVEL}, {@link #BY_COMPONENT} or {@link #BY_PREFIX}
+     * @param maxClusters the most clusters to make, between 2 and {@link #MAX_CLUSTERS}
+     * @param topologyVersion the topology version the graph was built at, to tell views apart
+     * @throws IllegalArgumentException if {@code by} is unknown
+     */
+    public GraphClusters(Graph graph, String by, int maxClusters, long topologyVersion) {
+        this.by = by;
+        this.topologyVersion = topologyVersion;
+        this.csr = graph.compact();
+        int n = csr.size();
+        this.maxClusters = bounded(maxClusters);
+        clusterOf = new int[n];
+        List<String> names = new ArrayList<>();
+        switch (by) {
+            case BY_LEVEL:
+                clusterByLevel(this.maxClusters, names);
+                break;
+            case BY_COMPONENT:
+                clusterByComponent(this.maxClusters, names);
+                break;
+            case BY_PREFIX:
+                clusterByPrefix(this.maxClusters, names);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown clustering '" + by + "', expected level, component or prefix");
+        }
+        int k = names.size();
+        labels = names.toArray(new String[0]);
+
+        // Members by cluster with a counting sort, and the counts of each cluster
+        start = new int[k + 1];
+        topics = new int[k];
+        for (int v = 0; v < n; v++) {
+            start[clusterOf[v] + 1]++;
+            if (csr.nodes[v].getName().startsWith("T")) {
+                topics[clusterOf[v]]++;
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            start[c + 1] += start[c];
+        }
+        members = new int[n];
+        int[] fill = Arrays.copyOf(start, k);
+        for (int v = 0; v < n; v++) {
+            members[fill[clusterOf[v]]++] = v;
+        }
+
+        // Incoming edges, to find the edges crossing into a cluster without a pass over all edges
+        incomingStart = new int[n + 1];
+        for (int t : csr.targets) {
+            if (t >= 0) {
+                incomingStart[t + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            incomingStart[v + 1] += incomingStart[v];
+        }
+        sources = new int[incomingStart[n]];
+        fill = Arrays.copyOf(incomingStart, n);
+        for (int v = 0; v < n; v++) {
+            for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+                int t = csr.targets[e];
+                if (t >= 0) {
+                    sources[fill[t]++] = v;
+                }
+            }
+        }
+
+        // Edges added up per pair of clusters, k is bounded so a k*k table will do
+        innerEdges = new int[k];
+        int[] weights = new int[k * k];
+        for (int v = 0; v < n; v++) {
+            int from = clusterOf[v];
+            for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+                int t = csr.targets[e];
+                if (t < 0) {
+                    continue;
+                }
+                int to = clusterOf[t];
+                if (from == to) {
+                    innerEdges[from]++;
+                } else {
+                    weights[from * k + to]++;
+                }
+            }
+        }
+        int pairs = 0;
+        for (int w : weights) {
+            if (w > 0) {
+                pairs++;
+            }
+        }
+        long[] sorted = new long[pairs]; // Weight in the high bits, pair in the low bits, to sort by weight
+        int p = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                sorted[p++] = ((long) weights[i] << 32) | i;
+            }
+        }
+        Arrays.sort(sorted);
+        int kept = Math.min(pairs, MAX_CLUSTER_EDGES_PER_CLUSTER * k);
+        edgeFrom = new int[kept];
+        edgeTo = new int[kept];
+        edgeWeight = new int[kept];
+        for (int i = 0; i < kept; i++) {
+            long entry = sorted[pairs - 1 - i];
+            int pair = (int) entry;
+            edgeFrom[i] = pair / k;
+            edgeTo[i] = pair % k;
+            edgeWeight[i] = (int) (entry >>> 32);
+        }
+        droppedEdges = pairs - kept;
+    }
+
+    /**
+     * Returns the clusters of the running topology, reusing the last ones while the topology
+     * version and the parameters are unchanged. Node numbers and cluster numbers therefore stay
+     * valid between a page and the requests that expand its clusters.
+     *
+     * @param by {@link #BY_LEVEL}, {@link #BY_COMPONENT} or {@link #BY_PREFIX}
+     * @param maxClusters the most clusters to make
+     * @return the clusters
+     * @throws IllegalArgumentException if {@code by} is unknown
+     */
+    public static synchronized GraphClusters current(String by, int maxClusters) {
+        // Read before building: a change during the build leaves a newer version that triggers a rebuild
+        long version = TopicManagerSingleton.get().getTopologyVersion();
+        GraphClusters last = cached;
+        if (last != null && last.topologyVersion == version && last.by.equals(by) && last.maxClusters == bounded(maxClusters)) {
+            return last;
+        }
+        Graph graph = new Graph();
+        graph.createFromTopics();
+        cached = new GraphClusters(graph, by, maxClusters, version);
+        return cached;
+    }
+
+    private static int bounded(int maxClusters) {
+        return Math.max(2, Math.min(MAX_CLUSTERS, maxClusters));
+    }
+
+    // Longest path from an input with Kahn's algorithm; nodes left over are on or behind a cycle
+    private void clusterByLevel(int maxClusters, List<String> names) {
+        int n = csr.size();
+        int[] inDegree = new int[n];
+        for (int t : csr.targets) {
+            if (t >= 0) {
+                inDegree[t]++;
+            }
+        }
+        int[] level = new int[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (inDegree[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        int levels = 0;
+        while (head < tail) {
+            int v = queue[head++];
+            levels = Math.max(levels, level[v] + 1);
+            for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+                int t = csr.targets[e];
+                if (t < 0) {
+                    continue;
+                }
+                level[t] = Math.max(level[t], level[v] + 1);
+                if (--inDegree[t] == 0) {
+                    queue[tail++] = t;
+                }
+            }
+        }
+        boolean cyclic = tail < n;
+        int slots = cyclic ? maxClusters - 1 : maxClusters;
+        int width = Math.max(1, (levels + slots - 1) / slots); // Consecutive levels per cluster
+        int clusters = (levels + width - 1) / width;
+        for (int c = 0; c < clusters; c++) {
+            int first = c * width;
+            int last = Math.min(levels, first + width) - 1;
+            names.add(first == last ? "level " + first : "levels " + first + "-" + last);
+        }
+        if (cyclic) {
+            names.add("cycles");
+        }
+        for (int v = 0; v < n; v++) {
+            clusterOf[v] = inDegree[v] > 0 ? clusters : level[v] / width;
+        }
+    }
+
+    // Weakly connected components with union-find
+    private void clusterByComponent(int maxClusters, List<String> names) {
+        int n = csr.size();
+        int[] parent = new int[n];
+        for (int v = 0; v < n; v++) {
+            parent[v] = v;
+        }
+        for (int v = 0; v < n; v++) {
+            for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+                int t = csr.targets[e];
+                if (t >= 0) {
+                    int a = find(parent, v);
+                    int b = find(parent, t);
+                    if (a != b) {
+                        parent[Math.max(a, b)] = Math.min(a, b);
+                    }
+                }
+            }
+        }
+        int[] group = new int[n];
+        int groups = 0;
+        int[] rootGroup = new int[n];
+        Arrays.fill(rootGroup, -1);
+        for (int v = 0; v < n; v++) {
+            int root = find(parent, v);
+            if (rootGroup[root] < 0) {
+                rootGroup[root] = groups++;
+            }
+            group[v] = rootGroup[root];
+        }
+        String[] groupNames = new String[groups];
+        for (int v = n - 1; v >= 0; v--) {
+            groupNames[group[v]] = "component of " + csr.nodes[v].getLabel(); // Named after its first node
+        }
+        keepLargest(group, groups, groupNames, maxClusters, "other components", names);
+    }
+
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]]; // Path halving
+            v = parent[v];
+        }
+        return v;
+    }
+
+    // Start of the label up to the first separator
+    private void clusterByPrefix(int maxClusters, List<String> names) {
+        int n = csr.size();
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> prefixes = new ArrayList<>();
+        int[] group = new int[n];
+        for (int v = 0; v < n; v++) {
+            String label = csr.nodes[v].getLabel();
+            int cut = label.length();
+            for (int i = 0; i < label.length(); i++) {
+                if (SEPARATORS.indexOf(label.charAt(i)) >= 0) {
+                    cut = i;
+                    break;
+                }
+            }
+            String prefix = (csr.nodes[v].getName().startsWith("T") ? "topics " : "agents ") + label.substring(0, cut) + "*";
+            Integer id = ids.get(prefix);
+            if (id == null) {
+                id = prefixes.size();
+                ids.put(prefix, id);
+                prefixes.add(prefix);
+            }
+            group[v] = id;
+        }
+        keepLargest(group, prefixes.size(), prefixes.toArray(new String[0]), maxClusters, "other names", names);
+    }
+
+    // Gives the largest groups a cluster each, ordered by size, and puts the rest in one more
+    private void keepLargest(int[] group, int groups, String[] groupNames, int maxClusters, String otherName, List<String> names) {
+        int[] size = new int[groups];
+        for (int g : group) {
+            size[g]++;
+        }
+        Integer[] order = new Integer[groups];
+        for (int g = 0; g < groups; g++) {
+            order[g] = g;
+        }
+        Arrays.sort(order, (a, b) -> size[b] != size[a] ? Integer.compare(size[b], size[a]) : Integer.compare(a, b));
+        int own = groups <= maxClusters ? groups : maxClusters - 1;
+        int[] clusterOfGroup = new int[groups];
+        for (int i = 0; i < groups; i++) {
+            clusterOfGroup[order[i]] = Math.min(i, own);
+        }
+        for (int i = 0; i < own; i++) {
+            names.add(groupNames[order[i]]);
+        }
+        if (own < groups) {
+            names.add(otherName + " (" + (groups - own) + ")");
+        }
+        for (int v = 0; v < group.length; v++) {
+            clusterOf[v] = clusterOfGroup[group[v]];
+        }
+    }
+
+    /**
+     * Returns how the nodes were grouped.
+     *
+     * @return how the nodes were grouped
+     */
+    public String getBy() {
+        return by;
+    }
+
+    /**
+     * Returns the most clusters that were allowed, after bounding.
+     *
+     * @return the most clusters
+     */
+    public int getMaxClusters() {
+        return maxClusters;
+    }
+
+    /**
+     * Returns the topology version the clusters were built at.
+     *
+     * @return the topology version the clusters were built at
+     */
+    public long getTopologyVersion() {
+        return topologyVersion;
+    }
+
+    /**
+     * Returns the graph the clusters group, which numbers the nodes.
+     *
+     * @return the graph the clusters group, with its node numbers
+     */
+    public CompactGraph graph() {
+        return csr;
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return the number of clusters
+     */
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * Returns the cluster of a node.
+     *
+     * @param v a node number
+     * @return the cluster of the node
+     */
+    public int clusterOf(int v) {
+        return clusterOf[v];
+    }
+
+    /**
+     * Returns where the members of a cluster start.
+     *
+     * @param c a cluster, or the cluster count for the end of the last one
+     * @return the position of the cluster's first member, see {@link #member(int)}
+     */
+    public int start(int c) {
+        return start[c];
+    }
+
+    /**
+     * Returns the node number of a cluster member.
+     *
+     * @param i a position between {@code start(c)} and {@code start(c + 1)}
+     * @return the node number of the member at that position
+     */
+    public int member(int i) {
+        return members[i];
+    }
+
+    /**
+     * Returns where the nodes with an edge to a node start.
+     *
+     * @param v a node number, or the node count for the end of the last node
+     * @return the position of the node's first source, see {@link #incomingSource(int)}
+     */
+    public int incomingStart(int v) {
+        return incomingStart[v];
+    }
+
+    /**
+     * Returns the node number of a node with an edge to another node.
+     *
+     * @param i a position between {@code incomingStart(v)} and {@code incomingStart(v + 1)}
+     * @return the node number of the source at that position
+     */
+    public int incomingSource(int i) {
+        return sources[i];
+    }
+
+    /**
+     * Returns the description of a cluster.
+     *
+     * @param c a cluster
+     * @return the description, e.g. "levels 10-19"
+     */
+    public String label(int c) {
+        return labels[c];
+    }
+
+    /**
+     * Returns the number of topics in a cluster.
+     *
+     * @param c a cluster
+     * @return the topic count
+     */
+    public int topicCount(int c) {
+        return topics[c];
+    }
+
+    /**
+     * Returns the number of agents in a cluster.
+     *
+     * @param c a cluster
+     * @return the agent count
+     */
+    public int agentCount(int c) {
+        return start[c + 1] - start[c] - topics[c];
+    }
+
+    /**
+     * Returns the number of edges between the members of a cluster.
+     *
+     * @param c a cluster
+     * @return the number of edges between its members
+     */
+    public int innerEdgeCount(int c) {
+        return innerEdges[c];
+    }
+
+    /**
+     * Returns the number of cluster edges kept.
+     *
+     * @return the number of cluster edges kept, see {@link #edgeFrom(int)}
+     */
+    public int edgeCount() {
+        return edgeFrom.length;
+    }
+
+    /**
+     * Returns the cluster a cluster edge comes from.
+     *
+     * @param i a cluster edge, heaviest first
+     * @return the cluster it comes from
+     */
+    public int edgeFrom(int i) {
+        return edgeFrom[i];
+    }
+
+    /**
+     * Returns the cluster a cluster edge goes to.
+     *
+     * @param i a cluster edge
+     * @return the cluster it goes to
+     */
+    public int edgeTo(int i) {
+        return edgeTo[i];
+    }
+
+    /**
+     * Returns the number of graph edges a cluster edge stands for.
+     *
+     * @param i a cluster edge
+     * @return the number of graph edges it stands for
+     */
+    public int edgeWeight(int i) {
+        return edgeWeight[i];
+    }
+
+    /**
+     * Returns the number of cluster edges left out because only the heaviest are kept.
+     *
+     * @return the number of cluster edges left out because only the heaviest are kept
+     */
+    public int droppedEdgeCount() {
+        return droppedEdges;
+    }
+}
@@ -0,0 +1,189 @@
+package configs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a directed acyclic graph of named nodes together with a topological order, so that
+ * adding an edge can be checked for a cycle without searching the whole graph (the dynamic
+ * topological order of Pearce and Kelly). An edge that follows the order is accepted at once;
+ * otherwise only the nodes whose position lies between its two ends are searched and
+ * reordered. Removing an edge never breaks the order and costs O(1).
+ *
+ * <p>Parallel edges are counted, so an edge is gone only once it was removed as many times
+ * as it was added. Nodes are created by their first edge and forgotten with their last one.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * IncrementalCycleChecker checker = new IncrementalCycleChecker();
+ * checker.addEdge("TA", "AInc");        // null: accepted
+ * checker.addEdge("AInc", "TB");        // null: accepted
+ * checker.addEdge("TB", "TA");          // [TB, TA, AInc, TB]: rejected, the graph is unchanged
+ * }</pre>
+ */
+final class IncrementalCycleChecker {
+    private final Map<String, Vertex> vertices = new HashMap<>();
+    private int nextOrder = 0;
+
+    private static final class Vertex {
+        final String name;
+        int order; // Position in the topological order: every edge goes from a lower to a higher order
+        final Map<Vertex, Integer> out = new HashMap<>(); // Target -> number of parallel edges
+        final Map<Vertex, Integer> in = new HashMap<>();
+        boolean visited;
+
+        Vertex(String name, int order) {
+            this.name = name;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Adds an edge unless it would close a cycle.
+     *
+     * @param from the name of the source node
+     * @param to the name of the target node
+     * @return null if the edge was added, otherwise the cycle it would close, as node names
+     *         starting and ending with {@code from}; the graph is then unchanged
+     */
+    List<String> addEdge(String from, String to) {
+        if (from.equals(to)) {
+            return List.of(from, from);
+        }
+        Vertex x = vertex(from);
+        Vertex y = vertex(to);
+        if (x.order > y.order) {
+            List<String> cycle = reorder(x, y);
+            if (cycle != null) {
+                forgetIfUnused(x);
+                forgetIfUnused(y);
+                return cycle;
+            }
+        }
+        x.out.merge(y, 1, Integer::sum);
+        y.in.merge(x, 1, Integer::sum);
+        return null;
+    }
+
+    /**
+     * Removes one edge. Does nothing if there is no such edge.
+     *
+     * @param from the name of the source node
+     * @param to the name of the target node
+     */
+    void removeEdge(String from, String to) {
+        Vertex x = vertices.get(from);
+        Vertex y = vertices.get(to);
+        if (x == null || y == null || !x.out.containsKey(y)) {
+            return;
+        }
+        x.out.computeIfPresent(y, (k, count) -> count > 1 ? count - 1 : null);
+        y.in.computeIfPresent(x, (k, count) -> count > 1 ? count - 1 : null);
+        forgetIfUnused(x);
+        forgetIfUnused(y);
+    }
+
+    private Vertex vertex(String name) {
+        return vertices.computeIfAbsent(name, k -> new Vertex(k, nextOrder++));
+    }
+
+    private void forgetIfUnused(Vertex v) {
+        if (v.in.isEmpty() && v.out.isEmpty()) {
+            vertices.remove(v.name);
+        }
+    }
+
+    // The edge x -> y goes against the order: move the nodes between them, or find the cycle
+    private List<String> reorder(Vertex x, Vertex y) {
+        int lower = y.order;
+        int upper = x.order;
+        // Forward from y among nodes ordered up to x: reaching x means x is reachable from y
+        List<Vertex> forward = new ArrayList<>();
+        Map<Vertex, Vertex> parent = new HashMap<>();
+        boolean cycle = search(y, upper, true, forward, parent, x);
+        if (cycle) {
+            clearVisited(forward);
+            List<String> names = new ArrayList<>();
+            for (Vertex v = x; v != null; v = parent.get(v)) {
+                names.add(v.name);
+            }
+            Collections.reverse(names); // y ... x
+            names.add(0, x.name); // x -> y ... x
+            return names;
+        }
+        // Backward from x among nodes ordered from y on
+        List<Vertex> backward = new ArrayList<>();
+        search(x, lower, false, backward, null, null);
+        clearVisited(forward);
+        clearVisited(backward);
+
+        // Everything that reaches x goes before everything reachable from y, in the same slots
+        forward.sort((a, b) -> Integer.compare(a.order, b.order));
+        backward.sort((a, b) -> Integer.compare(a.order, b.order));
+        int[] slots = new int[forward.size() + backward.size()];
+        int i = 0;
+        for (Vertex v : backward) {
+            slots[i++] = v.order;
+        }
+        for (Vertex v : forward) {
+            slots[i++] = v.order;
+        }
+        Arrays.sort(slots);
+        i = 0;
+        for (Vertex v : backward) {
+            v.order = slots[i++];
+        }
+        for (Vertex v : forward) {
+            v.order = slots[i++];
+        }
+        return null;
+    }
+
+    // Iterative search within the affected range; returns true as soon as target is reached
+    private static boolean search(Vertex start, int bound, boolean forward, List<Vertex> visited,
+                                  Map<Vertex, Vertex> parent, Vertex target) {
+        Deque<Vertex> path = new ArrayDeque<>();
+        Deque<Iterator<Vertex>> next = new ArrayDeque<>();
+        start.visited = true;
+        visited.add(start);
+        path.push(start);
+        next.push((forward ? start.out : start.in).keySet().iterator());
+        while (!path.isEmpty()) {
+            Iterator<Vertex> it = next.peek();
+            if (!it.hasNext()) {
+                path.pop();
+                next.pop();
+                continue;
+            }
+            Vertex w = it.next();
+            if (w == target) {
+                parent.put(w, path.peek());
+                return true;
+            }
+            boolean inRange = forward ? w.order < bound : w.order > bound;
+            if (!w.visited && inRange) {
+                w.visited = true;
+                visited.add(w);
+                if (parent != null) {
+                    parent.put(w, path.peek());
+                }
+                path.push(w);
+                next.push((forward ? w.out : w.in).keySet().iterator());
+            }
+        }
+        return false;
+    }
+
+    private static void clearVisited(List<Vertex> vertices) {
+        for (Vertex v : vertices) {
+            v.visited = false;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package configs;
 
 import graph.Message;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -31,6 +34,14 @@ public class Node {
     public void setEdges(List<Node> edges) {
         this.edges = edges;
     }
+    // Name shown for the node: without the T or A prefix, and agents without their "_#N" number
+    public String getLabel() {
+        String label = name.substring(1);
+        if (!name.startsWith("T") && label.contains("#")) {
+            label = label.substring(0, label.indexOf("#") - 1);
+        }
+        return label;
+    }
     public Message getMsg() {
         return msg;
     }
@@ -43,27 +54,34 @@ public class Node {
         this.edges.add(node);
     }
 
-    // Check if the node has cycles using depth-first search
+    // Check if a cycle is reachable from this node, with an iterative depth-first search so long chains cannot overflow the stack
     public boolean hasCycles() {
-        return dfs(this, new HashSet<>(), new HashSet<>());
-    }
-
-    // Helper method to check for cycles in the graph
-    private boolean dfs(Node node, Set<Node> inStack, Set<Node> done) {
-        if (inStack.contains(node)){
-            return true;   // back-edge
-        }
-        if (done.contains(node)) {
-            return false;  // already fully explored
-        }
-
-        inStack.add(node);
-        for (Node nbr : node.getEdges()) {
-            if (dfs(nbr, inStack, done))
-                return true;
+        Set<Node> inStack = new HashSet<>();
+        Set<Node> done = new HashSet<>();
+        Deque<Node> path = new ArrayDeque<>();
+        Deque<Iterator<Node>> next = new ArrayDeque<>(); // Remaining edges of each node on the path
+        path.push(this);
+        next.push(edges.iterator());
+        inStack.add(this);
+        while (!path.isEmpty()) {
+            Iterator<Node> it = next.peek();
+            if (!it.hasNext()) {
+                Node node = path.pop();
+                next.pop();
+                inStack.remove(node);
+                done.add(node); // Fully explored
+                continue;
+            }
+            Node nbr = it.next();
+            if (inStack.contains(nbr)) {
+                return true; // Back edge
+            }
+            if (!done.contains(nbr)) {
+                path.push(nbr);
+                next.push(nbr.getEdges().iterator());
+                inStack.add(nbr);
+            }
         }
-        inStack.remove(node);
-        done.add(node);
         return false;
     }
 
@@ -0,0 +1,132 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Numbers every change of the topics with one sequence and keeps the latest changes, so a client
+ * that saw the graph at some version can be told only what changed since.
+ *
+ * <p>A publish takes the next version from an atomic sequence, stamps its topic with it and
+ * records it in a ring of the last {@value #VALUES} versions, indexed by version; it takes no
+ * lock. Topology edits are rarer and are also appended to a ring of the last {@value #CAPACITY}
+ * edits under this object's lock, which only edits and their readers take.
+ */
+final class ChangeLog {
+    static final int CAPACITY = 4096;
+    static final int VALUES = 1 << 16; // A power of two, slots are version & (VALUES - 1)
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicReferenceArray<Change> changes = new AtomicReferenceArray<>(VALUES);
+    private final GraphDelta.Edit[] ring = new GraphDelta.Edit[CAPACITY];
+    private int next = 0; // Ring slot of the next edit
+    private int size = 0;
+    private long horizon = 0; // Clients that saw less than this need a full reset
+    private volatile long topologyVersion = 0;
+
+    // The change of one version: the published topic, or null for an edit or reset
+    private static final class Change {
+        final long version;
+        final Topic topic;
+
+        Change(long version, Topic topic) {
+            this.version = version;
+            this.topic = topic;
+        }
+    }
+
+    void published(Topic topic) {
+        long version = sequence.incrementAndGet();
+        topic.version = version;
+        changes.set(slot(version), new Change(version, topic));
+    }
+
+    synchronized void edited(String op, String topic, String agent) {
+        long version = sequence.incrementAndGet();
+        changes.set(slot(version), new Change(version, null));
+        if (size == CAPACITY) {
+            horizon = ring[next].version; // The oldest edit is dropped
+        } else {
+            size++;
+        }
+        ring[next] = new GraphDelta.Edit(version, op, topic, agent);
+        next = (next + 1) % CAPACITY;
+        topologyVersion = version;
+    }
+
+    // Everything was removed: edits before now are meaningless
+    synchronized void reset() {
+        long version = sequence.incrementAndGet();
+        changes.set(slot(version), new Change(version, null));
+        Arrays.fill(ring, null);
+        next = 0;
+        size = 0;
+        horizon = version;
+        topologyVersion = version;
+    }
+
+    /**
+     * Collects the edits after a version.
+     *
+     * @param since the version the client saw
+     * @param edits receives the edits after it, oldest first
+     * @return the current version, or -1 - the current version if the edits since are no longer
+     *         known (or since is not a version of this run) and the client must start over
+     */
+    synchronized long editsSince(long since, List<GraphDelta.Edit> edits) {
+        long version = sequence.get();
+        if (since < horizon || since > version) {
+            return -1 - version;
+        }
+        for (int i = 0; i < size; i++) {
+            GraphDelta.Edit edit = ring[Math.floorMod(next - size + i, CAPACITY)];
+            if (edit.version > since) {
+                edits.add(edit);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Collects the topics published to between two versions, looking only at the versions in
+     * between.
+     *
+     * @param since the version the client saw
+     * @param upTo the last version to include, at most the current version
+     * @param topics receives the published topics, oldest first, possibly more than once
+     * @return false if some of these versions are no longer kept, and the caller must compare
+     *         the version of every topic instead
+     */
+    boolean publishedBetween(long since, long upTo, List<Topic> topics) {
+        if (upTo - since > VALUES) {
+            return false;
+        }
+        for (long version = since + 1; version <= upTo; version++) {
+            Change change;
+            while ((change = changes.get(slot(version))) == null || change.version < version) {
+                Thread.yield(); // The version is taken but its publish has not recorded it yet
+            }
+            if (change.version > version) {
+                return false; // Overwritten by a later version meanwhile
+            }
+            if (change.topic != null) {
+                topics.add(change.topic);
+            }
+        }
+        return true;
+    }
+
+    long getTopologyVersion() {
+        return topologyVersion;
+    }
+
+    long getValueVersion() {
+        return sequence.get();
+    }
+
+    private static int slot(long version) {
+        return (int) version & (VALUES - 1);
+    }
+}
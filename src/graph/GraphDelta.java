@@ -0,0 +1,67 @@
+package graph;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed in the topics since a version: the topics whose value changed and the topology
+ * edits, in order. If the edits since that version are no longer known, the delta is a reset
+ * and holds every topic instead; the client should then rebuild its view from the current
+ * topics.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * GraphDelta delta = TopicManagerSingleton.get().changesSince(lastVersion);
+ * if (delta.reset) {
+ *     rebuildFrom(TopicManagerSingleton.get().getTopics());
+ * }
+ * delta.values.forEach((topic, message) -> show(topic, message.asText));
+ * lastVersion = delta.version;
+ * }</pre>
+ */
+public class GraphDelta {
+    /** The version to ask for changes since next time */
+    public final long version;
+    /** True if the client must start over from the current topics */
+    public final boolean reset;
+    /** Topic name to its current message, for every topic whose value changed (all on a reset) */
+    public final Map<String, Message> values;
+    /** Topology edits after the version asked for, oldest first; empty on a reset */
+    public final List<Edit> edits;
+
+    GraphDelta(long version, boolean reset, Map<String, Message> values, List<Edit> edits) {
+        this.version = version;
+        this.reset = reset;
+        this.values = Collections.unmodifiableMap(values);
+        this.edits = Collections.unmodifiableList(edits);
+    }
+
+    /**
+     * One topology edit.
+     */
+    public static final class Edit {
+        public static final String ADD_TOPIC = "addTopic";
+        public static final String REMOVE_TOPIC = "removeTopic";
+        public static final String ADD_PUBLISHER = "addPublisher";
+        public static final String REMOVE_PUBLISHER = "removePublisher";
+        public static final String ADD_SUBSCRIBER = "addSubscriber";
+        public static final String REMOVE_SUBSCRIBER = "removeSubscriber";
+
+        /** The version of the edit */
+        public final long version;
+        /** One of the constants of this class */
+        public final String op;
+        /** The topic edited */
+        public final String topic;
+        /** The agent added or removed, null for topic edits */
+        public final String agent;
+
+        Edit(long version, String op, String topic, String agent) {
+            this.version = version;
+            this.op = op;
+            this.topic = topic;
+            this.agent = agent;
+        }
+    }
+}
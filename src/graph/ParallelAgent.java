@@ -5,10 +5,21 @@ import java.util.concurrent.BlockingQueue;
 
 public class ParallelAgent implements Agent{
     private Agent agent; // The agent to be executed in parallel
-    private BlockingQueue<Message> queue; // Queue to hold messages for the agent
+    private BlockingQueue<Delivery> queue; // Queue to hold messages for the agent
     private Thread messageThread; // Thread to process messages asynchronously
     private volatile boolean running = true; // Flag to control the running state of the agent
 
+    // A queued message with its topic
+    private static final class Delivery {
+        final String topic;
+        final Message msg;
+
+        Delivery(String topic, Message msg) {
+            this.topic = topic;
+            this.msg = msg;
+        }
+    }
+
 
     public ParallelAgent(Agent agent, int queueSize) {
         // Constructor for ParallelAgent, initializes with an agent and a queue size
@@ -27,13 +38,8 @@ public class ParallelAgent implements Agent{
         messageThread = new Thread(() -> {
             while (running) {
                 try {
-                    Message msg = queue.take(); // Take a message from the queue
-                    String[] msgParts = msg.asText.split(":", 2);
-                    if (msgParts.length == 2) {
-                        String topic = msgParts[0].trim(); // Extract topic from message
-                        Message realMessage = new Message(msgParts[1].trim()); // Create a new Message object
-                        agent.callback(topic, realMessage); // Call the agent's callback method with the topic and message
-                    }
+                    Delivery d = queue.take(); // Take a message from the queue
+                    agent.callback(d.topic, d.msg); // Call the agent's callback method with the topic and message
 
                 } catch (InterruptedException e) {
                     if (!running) {
@@ -61,8 +67,11 @@ public class ParallelAgent implements Agent{
     @Override
     public void callback(String topic, Message msg) {
         // Add the message to the queue for processing
+        if (!running) {
+            return; // Closed, no thread would ever take it
+        }
         try {
-            queue.put(new Message(topic + ":" + msg.asText)); // Add message to the queue with topic
+            queue.put(new Delivery(topic, msg)); // Add message to the queue with topic
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt(); // Restore interrupted status
         }
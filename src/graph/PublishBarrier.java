@@ -0,0 +1,57 @@
+package graph;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PublishBarrier makes a change of the topology appear to publishers as a single step. Every
+ * {@link Topic#publish(Message)} holds the barrier shared while it runs, and since subscribers are
+ * called on the publishing thread, that covers the whole cascade a publish sets off. A change that
+ * holds the barrier exclusively waits for the cascades in flight, keeps new ones out until it is
+ * done, and so is never seen half applied: a cascade runs either entirely on the old topology or
+ * entirely on the new one.
+ *
+ * <p>The barrier is reentrant, so agents may publish from their callbacks and a change may
+ * publish while holding it. A callback must not wait for another thread's publish, since that
+ * publish may be held back by a change waiting for the callback's own cascade.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * PublishBarrier.lock();
+ * try {
+ *     topic.subscribe(replacement);
+ *     topic.unsubscribe(retired); // No publish reaches both
+ * } finally {
+ *     PublishBarrier.unlock();
+ * }
+ * }</pre>
+ *
+ * <p>Outside of a change, publishing costs one uncontended shared acquisition and release.
+ */
+public class PublishBarrier {
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private PublishBarrier() {}
+
+    // Held by Topic.publish for its cascade
+    static void enter() {
+        lock.readLock().lock();
+    }
+
+    static void exit() {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * Waits until no cascade is running and keeps new publishes out until {@link #unlock()}.
+     */
+    public static void lock() {
+        lock.writeLock().lock();
+    }
+
+    /**
+     * Lets publishes run again after {@link #lock()}.
+     */
+    public static void unlock() {
+        lock.writeLock().unlock();
+    }
+}
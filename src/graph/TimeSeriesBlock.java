@@ -0,0 +1,322 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed block of (timestamp, value) points from one topic.
+ * Timestamps and values are stored in two separate columns: timestamps as
+ * delta-of-deltas and values as the XOR with the previous value, both bit-packed.
+ * Regular publish intervals and slowly changing values therefore cost only a few bits per point.
+ *
+ * <p>Each block also keeps its minimum and maximum timestamp and value, so readers
+ * can skip whole blocks without decoding them.
+ */
+public class TimeSeriesBlock {
+    public final int count;
+    public final long minTime;
+    public final long maxTime;
+    public final double minValue;
+    public final double maxValue;
+    private final byte[] timeColumn;
+    private final byte[] valueColumn;
+
+    TimeSeriesBlock(int count, long minTime, long maxTime, double minValue, double maxValue, byte[] timeColumn, byte[] valueColumn) {
+        this.count = count;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.timeColumn = timeColumn;
+        this.valueColumn = valueColumn;
+    }
+
+    /**
+     * Returns the bit-packed timestamp column. The array is shared, do not modify it.
+     *
+     * @return the encoded timestamps
+     */
+    public byte[] getTimeColumn() {
+        return timeColumn;
+    }
+
+    /**
+     * Returns the bit-packed value column. The array is shared, do not modify it.
+     *
+     * @return the encoded values
+     */
+    public byte[] getValueColumn() {
+        return valueColumn;
+    }
+
+    /**
+     * Returns true if this block may contain points in the inclusive time range.
+     *
+     * @param from lower bound in epoch milliseconds
+     * @param to upper bound in epoch milliseconds
+     * @return false if the block can be skipped
+     */
+    public boolean overlaps(long from, long to) {
+        return count > 0 && maxTime >= from && minTime <= to;
+    }
+
+    /**
+     * Decodes the timestamps of this block.
+     *
+     * @return the timestamps in epoch milliseconds
+     */
+    public long[] decodeTimes() {
+        return decodeTimes(timeColumn, count);
+    }
+
+    /**
+     * Decodes the values of this block.
+     *
+     * @return the values
+     */
+    public double[] decodeValues() {
+        return decodeValues(valueColumn, count);
+    }
+
+    /**
+     * Decodes a timestamp column produced by {@link Encoder}.
+     *
+     * @param column the encoded column
+     * @param count the number of points
+     * @return the timestamps
+     */
+    public static long[] decodeTimes(byte[] column, int count) {
+        long[] times = new long[count];
+        if (count == 0) {
+            return times;
+        }
+        BitReader in = new BitReader(column);
+        long prev = in.read(64);
+        long delta = 0;
+        times[0] = prev;
+        for (int i = 1; i < count; i++) {
+            long dod;
+            if (in.read(1) == 0) {
+                dod = 0;
+            } else if (in.read(1) == 0) {
+                dod = signExtend(in.read(7), 7);
+            } else if (in.read(1) == 0) {
+                dod = signExtend(in.read(9), 9);
+            } else if (in.read(1) == 0) {
+                dod = signExtend(in.read(12), 12);
+            } else {
+                dod = in.read(64);
+            }
+            delta += dod;
+            prev += delta;
+            times[i] = prev;
+        }
+        return times;
+    }
+
+    /**
+     * Decodes a value column produced by {@link Encoder}.
+     *
+     * @param column the encoded column
+     * @param count the number of points
+     * @return the values
+     */
+    public static double[] decodeValues(byte[] column, int count) {
+        double[] values = new double[count];
+        if (count == 0) {
+            return values;
+        }
+        BitReader in = new BitReader(column);
+        long prev = in.read(64);
+        values[0] = Double.longBitsToDouble(prev);
+        int leading = 0;
+        int length = 0;
+        for (int i = 1; i < count; i++) {
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(6);
+                    length = (int) in.read(6) + 1;
+                }
+                long bits = in.read(length);
+                prev ^= bits << (64 - leading - length);
+            }
+            values[i] = Double.longBitsToDouble(prev);
+        }
+        return values;
+    }
+
+    private static long signExtend(long v, int bits) {
+        return (v << (64 - bits)) >> (64 - bits);
+    }
+
+    /**
+     * Streaming encoder that appends points one at a time and produces a block when sealed.
+     * Not thread-safe.
+     */
+    public static class Encoder {
+        private final BitWriter times = new BitWriter(64);
+        private final BitWriter values = new BitWriter(64);
+        private int count = 0;
+        private long prevTime;
+        private long prevDelta;
+        private long prevBits;
+        private int prevLeading = -1;
+        private int prevTrailing;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private double minValue = Double.POSITIVE_INFINITY;
+        private double maxValue = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Appends one point.
+         *
+         * @param time epoch milliseconds
+         * @param value the value, NaN is allowed
+         */
+        public void append(long time, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (count == 0) {
+                times.write(time, 64);
+                values.write(bits, 64);
+            } else {
+                long delta = time - prevTime;
+                writeDeltaOfDelta(delta - prevDelta);
+                prevDelta = delta;
+                writeXor(bits ^ prevBits);
+            }
+            prevTime = time;
+            prevBits = bits;
+            count++;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            if (!Double.isNaN(value)) {
+                minValue = Math.min(minValue, value);
+                maxValue = Math.max(maxValue, value);
+            }
+        }
+
+        private void writeDeltaOfDelta(long dod) {
+            if (dod == 0) {
+                times.write(0, 1);
+            } else if (dod >= -64 && dod <= 63) {
+                times.write(0b10, 2);
+                times.write(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                times.write(0b110, 3);
+                times.write(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                times.write(0b1110, 4);
+                times.write(dod, 12);
+            } else {
+                times.write(0b1111, 4);
+                times.write(dod, 64);
+            }
+        }
+
+        private void writeXor(long xor) {
+            if (xor == 0) {
+                values.write(0, 1);
+                return;
+            }
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 63);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            values.write(1, 1);
+            if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                // Meaningful bits fit in the previous window
+                values.write(0, 1);
+                int length = 64 - prevLeading - prevTrailing;
+                values.write(xor >>> prevTrailing, length);
+            } else {
+                int length = 64 - leading - trailing;
+                values.write(1, 1);
+                values.write(leading, 6);
+                values.write(length - 1, 6);
+                values.write(xor >>> trailing, length);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+
+        /**
+         * Returns the number of points appended so far.
+         *
+         * @return the point count
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Produces an immutable block with the points appended so far.
+         * The encoder can keep accepting points afterwards.
+         *
+         * @return the block
+         */
+        public TimeSeriesBlock seal() {
+            if (count == 0) {
+                return new TimeSeriesBlock(0, 0, 0, Double.NaN, Double.NaN, new byte[0], new byte[0]);
+            }
+            return new TimeSeriesBlock(count, minTime, maxTime,
+                    minValue == Double.POSITIVE_INFINITY ? Double.NaN : minValue,
+                    maxValue == Double.NEGATIVE_INFINITY ? Double.NaN : maxValue,
+                    times.toByteArray(), values.toByteArray());
+        }
+    }
+
+    // Most significant bit first bit writer over a growable byte array
+    private static class BitWriter {
+        private byte[] buf;
+        private long bitPos = 0;
+
+        BitWriter(int initialBytes) {
+            buf = new byte[initialBytes];
+        }
+
+        void write(long value, int nbits) {
+            ensure(bitPos + nbits);
+            for (int i = nbits - 1; i >= 0; ) {
+                int byteIndex = (int) (bitPos >>> 3);
+                int freeInByte = 8 - (int) (bitPos & 7);
+                int take = Math.min(freeInByte, i + 1);
+                int chunk = (int) ((value >>> (i + 1 - take)) & ((1 << take) - 1));
+                buf[byteIndex] |= (byte) (chunk << (freeInByte - take));
+                bitPos += take;
+                i -= take;
+            }
+        }
+
+        private void ensure(long bits) {
+            int needed = (int) ((bits + 7) >>> 3);
+            if (needed > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, (int) ((bitPos + 7) >>> 3));
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] buf;
+        private long bitPos = 0;
+
+        BitReader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        long read(int nbits) {
+            long value = 0;
+            int remaining = nbits;
+            while (remaining > 0) {
+                int byteIndex = (int) (bitPos >>> 3);
+                int availInByte = 8 - (int) (bitPos & 7);
+                int take = Math.min(availInByte, remaining);
+                int chunk = ((buf[byteIndex] & 0xFF) >>> (availInByte - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                bitPos += take;
+                remaining -= take;
+            }
+            return value;
+        }
+    }
+}
@@ -1,37 +1,59 @@
 package graph;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Topic {
     public final String name;
-    private final List<Agent> pubs = new ArrayList<>();; // List of publishers for this topic
-    private final List<Agent> subs = new ArrayList<>();; // List of subscribers for this topic
+    private final List<Agent> pubs = new CopyOnWriteArrayList<>(); // List of publishers for this topic
+    private final List<Agent> subs = new CopyOnWriteArrayList<>(); // Copy-on-write so agents can (un)subscribe during a live reload
     private Message msg = new Message("0");
+    private volatile TopicHistory history; // Compressed record of published values, null unless recorded
+    volatile long version = 0; // Change version of the last publish, set by the topic manager
+    volatile long wave = 0; // Wave of the last message, set by Waves
+    private volatile TopicSchema schema; // Values ingested from outside must match it, null for no rules
 
 
     Topic(String name){
         // Constructor for Topic, initializes with a name
         this.name=name;
+        if (TopicHistory.isRecorded(name)) {
+            history = new TopicHistory();
+        }
     }
 
     public void subscribe(Agent a){
         // Subscribe the agent to this topic
         if (!subs.contains(a)) {
             subs.add(a);
+            TopicManagerSingleton.get().topologyChanged(GraphDelta.Edit.ADD_SUBSCRIBER, this, a);
         }
     }
 
     public void unsubscribe(Agent a){
         // Unsubscribe the agent from this topic
-        subs.remove(a);
+        if (subs.remove(a)) {
+            TopicManagerSingleton.get().topologyChanged(GraphDelta.Edit.REMOVE_SUBSCRIBER, this, a);
+        }
     }
 
     public void publish(Message m){
         // Publish a message to all subscribers
-        this.msg = m;
-        for (Agent a : subs) {
-            a.callback(this.name, m);
+        PublishBarrier.enter(); // A reload waits for the cascade, so it sees either topology whole
+        try {
+            this.msg = m;
+            TopicManagerSingleton.get().valueChanged(this);
+            Waves.published(this, m);
+            TopicHistory h = history;
+            if (h != null) {
+                h.append(m.date.getTime(), m.asDouble);
+            }
+            for (Agent a : subs) {
+                AgentStats.callback(a, this.name, m); // Timed now and then for GraphAnalysis
+            }
+            TopicEvents.fire(this, m); // Observers outside the graph, e.g. the /events stream
+        } finally {
+            PublishBarrier.exit();
         }
     }
 
@@ -55,16 +77,49 @@ public class Topic {
         return this.msg;
     }
 
+    public TopicSchema getSchema() {
+        // Return the schema of the values this topic accepts, or null if it declares none
+        return schema;
+    }
+
+    public void setSchema(TopicSchema schema) {
+        // Set the schema of the values this topic accepts, null to accept anything
+        this.schema = schema;
+    }
+
+    public long getVersion() {
+        // Return the change version of the last publish, which orders topics by when they were last updated
+        return version;
+    }
+
+    public TopicHistory getHistory() {
+        // Return the history of values published to this topic, null if it records none
+        return history;
+    }
+
+    public synchronized void setHistoryEnabled(boolean enabled) {
+        // Start recording a history from now on, or stop and drop the recorded one
+        if (enabled && history == null) {
+            history = new TopicHistory();
+        } else if (!enabled && history != null) {
+            history.close();
+            history = null;
+        }
+    }
+
     public void addPublisher(Agent a){
         // Add a publisher to this topic
         if (!pubs.contains(a)) {
             pubs.add(a);
+            TopicManagerSingleton.get().topologyChanged(GraphDelta.Edit.ADD_PUBLISHER, this, a);
         }
     }
 
 
     public void removePublisher(Agent a){
         // Remove a publisher from this topic
-        pubs.remove(a);
+        if (pubs.remove(a)) {
+            TopicManagerSingleton.get().topologyChanged(GraphDelta.Edit.REMOVE_PUBLISHER, this, a);
+        }
     }
 }
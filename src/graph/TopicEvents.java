@@ -0,0 +1,73 @@
+package graph;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TopicEvents lets code outside the graph observe every publish on every topic, for example
+ * to push value changes to browsers. Unlike agents, listeners are not part of the graph:
+ * they do not appear as subscribers and are kept across configuration reloads.
+ *
+ * <p>Listeners run on the publishing thread, after the subscribers were called, so they must
+ * return quickly and never block; a listener that throws is ignored for that publish.
+ * With no listener registered, {@link #fire(Topic, Message)} is a single volatile read.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * TopicEvents.Listener listener = (topic, message) -> changed.add(topic.getName());
+ * TopicEvents.addListener(listener);
+ * // ...
+ * TopicEvents.removeListener(listener);
+ * }</pre>
+ */
+public class TopicEvents {
+    private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static volatile boolean active = false;
+
+    private TopicEvents() {}
+
+    /**
+     * Receives every publish.
+     */
+    public interface Listener {
+        /**
+         * Called after a message was published to a topic.
+         *
+         * @param topic the topic
+         * @param message the message, now the topic's last value
+         */
+        void onPublish(Topic topic, Message message);
+    }
+
+    /**
+     * Registers a listener.
+     *
+     * @param listener the listener
+     */
+    public static synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+        active = true;
+    }
+
+    /**
+     * Unregisters a listener. Does nothing if it is not registered.
+     *
+     * @param listener the listener
+     */
+    public static synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+        active = !listeners.isEmpty();
+    }
+
+    static void fire(Topic topic, Message message) {
+        if (!active) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onPublish(topic, message);
+            } catch (RuntimeException e) {
+                System.err.println("Topic listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compressed history of the numeric values published to one topic.
+ * Points are appended into an open {@link TimeSeriesBlock.Encoder}; every {@link #BLOCK_SIZE}
+ * points the block is sealed.
+ *
+ * <p>Recording is opt-in: a topic keeps a history only if it was named in {@link #configure} when
+ * it was created, or after {@link Topic#setHistoryEnabled(boolean)}. Without one, publishing costs
+ * a null check. Retention is bounded for all histories together: sealed blocks are dropped oldest
+ * first, across topics, once they hold more than {@code maxBytes} or are older than
+ * {@code maxAgeMillis}. On top of that, each history holds at most {@code maxBlocks} sealed blocks
+ * and its open block. Every sealed block is in one global queue, in sealing order, until it is
+ * dropped for any of these reasons, and the byte budget counts the blocks in that queue.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // Record A and B, keep at most 16 MiB of blocks and nothing older than an hour
+ * TopicHistory.configure(Set.of("A", "B"), 16L << 20, 3_600_000);
+ * }</pre>
+ */
+public class TopicHistory {
+    public static final int BLOCK_SIZE = 1024;
+    public static final int DEFAULT_MAX_BLOCKS = 1024;
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    public static final String ALL_TOPICS = "*";
+
+    private static volatile Set<String> recorded = Collections.emptySet(); // Topics to record from creation
+    private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private static volatile long maxAgeMillis = 0; // 0 keeps blocks regardless of age
+    private static final AtomicLong totalBytes = new AtomicLong(); // Of the blocks in bySealing
+    private static final ConcurrentLinkedQueue<Sealed> bySealing = new ConcurrentLinkedQueue<>(); // Oldest first
+
+    private final int maxBlocks;
+    private final ArrayDeque<Sealed> sealed = new ArrayDeque<>();
+    private TimeSeriesBlock.Encoder open = new TimeSeriesBlock.Encoder();
+    private boolean closed = false;
+
+    // A sealed block in the order all histories sealed them
+    private static final class Sealed {
+        final TopicHistory history;
+        final TimeSeriesBlock block;
+        final long bytes;
+        final AtomicBoolean queued = new AtomicBoolean(true); // Until taken out of bySealing and totalBytes
+
+        Sealed(TopicHistory history, TimeSeriesBlock block) {
+            this.history = history;
+            this.block = block;
+            this.bytes = bytes(block);
+        }
+
+        // Takes the block out of the budget; the queue entry is removed by the caller, at most once counted
+        boolean unqueue() {
+            if (queued.compareAndSet(true, false)) {
+                totalBytes.addAndGet(-bytes);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public TopicHistory() {
+        this(DEFAULT_MAX_BLOCKS);
+    }
+
+    public TopicHistory(int maxBlocks) {
+        if (maxBlocks <= 0) {
+            throw new IllegalArgumentException("maxBlocks must be positive");
+        }
+        this.maxBlocks = maxBlocks;
+    }
+
+    /**
+     * Sets which topics record a history from their creation on, and the retention of all
+     * histories. Topics that already exist keep their current setting.
+     *
+     * @param topics the topic names, {@value #ALL_TOPICS} for every topic, empty for none
+     * @param maxBytes the most bytes of sealed blocks kept over all histories
+     * @param maxAgeMillis how long sealed blocks are kept after their last point, 0 for no limit
+     * @throws IllegalArgumentException if maxBytes is not positive or maxAgeMillis is negative
+     */
+    public static void configure(Set<String> topics, long maxBytes, long maxAgeMillis) {
+        if (maxBytes <= 0 || maxAgeMillis < 0) {
+            throw new IllegalArgumentException("maxBytes must be positive and maxAgeMillis not negative");
+        }
+        TopicHistory.recorded = Collections.unmodifiableSet(new HashSet<>(topics));
+        TopicHistory.maxBytes = maxBytes;
+        TopicHistory.maxAgeMillis = maxAgeMillis;
+        evict();
+    }
+
+    /**
+     * Parses a comma-separated list of topic names, as given to {@link #configure}.
+     *
+     * @param list e.g. {@code "A,B"} or {@value #ALL_TOPICS}, null for none
+     * @return the names
+     */
+    public static Set<String> parseTopics(String list) {
+        Set<String> topics = new HashSet<>();
+        if (list != null) {
+            for (String name : list.split(",")) {
+                if (!name.isBlank()) {
+                    topics.add(name.trim());
+                }
+            }
+        }
+        return topics;
+    }
+
+    // Whether a new topic records a history
+    static boolean isRecorded(String topic) {
+        Set<String> names = recorded;
+        return !names.isEmpty() && (names.contains(topic) || names.contains(ALL_TOPICS));
+    }
+
+    /**
+     * Returns the bytes of sealed blocks held over all histories.
+     *
+     * @return the byte count
+     */
+    public static long totalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Appends one point.
+     *
+     * @param time epoch milliseconds
+     * @param value the value, NaN for non-numeric messages
+     */
+    public void append(long time, double value) {
+        boolean sealedOne = false;
+        Sealed dropped = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            open.append(time, value);
+            if (open.size() >= BLOCK_SIZE) {
+                Sealed block = new Sealed(this, open.seal());
+                open = new TimeSeriesBlock.Encoder();
+                sealed.addLast(block);
+                totalBytes.addAndGet(block.bytes);
+                bySealing.add(block); // Under the lock, so a history's blocks stay in order
+                sealedOne = true;
+                if (sealed.size() > maxBlocks) {
+                    dropped = sealed.removeFirst(); // Over this history's own cap
+                }
+            }
+        }
+        // Outside this history's lock: the queue is shared, and eviction locks the history that owns the oldest block
+        if (dropped != null && dropped.unqueue()) {
+            bySealing.remove(dropped);
+        }
+        if (sealedOne) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the blocks currently held, oldest first. The blocks are immutable and shared,
+     * so taking a snapshot copies references only, plus the points of the open block.
+     *
+     * @return the blocks of this history
+     */
+    public synchronized List<TimeSeriesBlock> snapshot() {
+        List<TimeSeriesBlock> blocks = new ArrayList<>(sealed.size() + 1);
+        for (Sealed block : sealed) {
+            blocks.add(block.block);
+        }
+        if (open.size() > 0) {
+            blocks.add(open.seal());
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the number of points currently held.
+     *
+     * @return the point count
+     */
+    public synchronized long size() {
+        long points = open.size();
+        for (Sealed block : sealed) {
+            points += block.block.count;
+        }
+        return points;
+    }
+
+    // Drops every block and stops recording, for a topic whose history was turned off
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Sealed block : sealed) {
+                block.unqueue();
+            }
+            sealed.clear();
+            open = new TimeSeriesBlock.Encoder();
+        }
+        // One pass over the shared queue, so closing all histories does not cost a pass per block
+        for (Iterator<Sealed> it = bySealing.iterator(); it.hasNext(); ) {
+            if (it.next().history == this) {
+                it.remove();
+            }
+        }
+    }
+
+    // Drops the oldest blocks of all histories while over the byte budget or too old
+    private static void evict() {
+        long oldest = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        Sealed head;
+        while ((head = bySealing.peek()) != null
+                && (totalBytes.get() > maxBytes || head.block.maxTime < oldest || !head.queued.get())) {
+            if (bySealing.remove(head)) {
+                head.unqueue();
+                head.history.drop(head);
+            }
+        }
+    }
+
+    private synchronized void drop(Sealed block) {
+        sealed.remove(block); // Its oldest block, unless the cap or close() dropped it already
+    }
+
+    private static long bytes(TimeSeriesBlock block) {
+        return block.getTimeColumn().length + block.getValueColumn().length + 64L; // Columns plus object headers
+    }
+}
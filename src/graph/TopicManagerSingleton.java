@@ -1,6 +1,13 @@
 package graph;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class TopicManagerSingleton {
 
@@ -12,6 +19,8 @@ public class TopicManagerSingleton {
     public static class TopicManager{
         private static final TopicManager instance = new TopicManager(); // Singleton instance of TopicManager
         public ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>(); // Map to hold topics by name
+        private final ConcurrentSkipListMap<String, Topic> byName = new ConcurrentSkipListMap<>(); // Same topics in name order, for listings
+        private final ChangeLog changes = new ChangeLog(); // Versions and recent topology edits
 
         // Private constructor to prevent creation of TopicManager instances
         private TopicManager() {}
@@ -24,7 +33,19 @@ public class TopicManagerSingleton {
 
         public Topic getTopic(String name){
             // Get or create a topic by name
-            return topics.computeIfAbsent(name, k -> new Topic(name));
+            Topic topic = topics.get(name);
+            if (topic != null) {
+                return topic;
+            }
+            Topic created = new Topic(name);
+            topic = topics.putIfAbsent(name, created);
+            if (topic != null) {
+                return topic;
+            }
+            byName.put(name, created);
+            // After the topic is visible, so a view built at the new version includes it
+            changes.edited(GraphDelta.Edit.ADD_TOPIC, name, null);
+            return created;
         }
 
         public boolean topicExists(String name){
@@ -37,9 +58,81 @@ public class TopicManagerSingleton {
             return topics.values();
         }
 
+        public NavigableMap<String, Topic> getTopicsByName() {
+            // Read-only view of the topics ordered by name, e.g. to page through a range of names
+            return Collections.unmodifiableNavigableMap(byName);
+        }
+
+        public int getTopicCount() {
+            // Number of topics
+            return topics.size();
+        }
+
+        public void removeTopic(String name){
+            // Remove a single topic, used when a reload leaves it without publishers or subscribers
+            Topic removed = topics.remove(name);
+            if (removed != null) {
+                byName.remove(name, removed);
+                removed.setHistoryEnabled(false); // Its blocks no longer count against the retention budget
+                changes.edited(GraphDelta.Edit.REMOVE_TOPIC, name, null);
+            }
+        }
+
         public void clear(){
             // Clear all topics in the TopicManager
+            for (Topic topic : topics.values()) {
+                topic.setHistoryEnabled(false);
+            }
             topics.clear();
+            byName.clear();
+            changes.reset();
+            AgentStats.clear(); // Timings of the agents of the previous graph
+        }
+
+        public long getTopologyVersion(){
+            // Version of the graph structure: the topics and their publishers and subscribers
+            return changes.getTopologyVersion();
+        }
+
+        public long getValueVersion(){
+            // Version of the topic values, so a view built at a version can tell whether it is stale
+            return changes.getValueVersion();
+        }
+
+        public GraphDelta changesSince(long since){
+            // Values and topology edits after a version, or every topic if the client must start over
+            List<GraphDelta.Edit> edits = new ArrayList<>();
+            long version = changes.editsSince(since, edits);
+            boolean reset = version < 0;
+            if (reset) {
+                version = -1 - version;
+            }
+            Map<String, Message> values = new LinkedHashMap<>();
+            List<Topic> published = new ArrayList<>();
+            if (!reset && changes.publishedBetween(since, version, published)) {
+                for (Topic topic : published) {
+                    if (topics.get(topic.getName()) == topic) { // Not removed since
+                        values.put(topic.getName(), topic.getMsg());
+                    }
+                }
+                return new GraphDelta(version, false, values, edits);
+            }
+            // Too far behind for the recent publishes, or starting over: compare every topic
+            for (Topic topic : topics.values()) {
+                if (reset || topic.version > since) {
+                    values.put(topic.getName(), topic.getMsg());
+                }
+            }
+            return new GraphDelta(version, reset, values, edits);
+        }
+
+        void topologyChanged(String op, Topic topic, Agent agent){
+            // Publisher or subscriber added or removed
+            changes.edited(op, topic.getName(), agent.getName());
+        }
+
+        void valueChanged(Topic topic){
+            changes.published(topic);
         }
     }
 }
@@ -0,0 +1,322 @@
+package graph;
+
+/**
+ * TopicSchema describes the values a topic accepts: a type ({@code number} or {@code integer}),
+ * an optional inclusive range and an optional maximum number of decimal places. A schema is
+ * compiled once from its declaration and then checks values with a single pass over their text,
+ * without allocating and without exceptions on the failure path, so it can run on every record
+ * of a bulk ingestion.
+ *
+ * <p>Schemas are declared in a configuration file with a {@code @schema} line, for example:
+ * <pre>{@code
+ * @schema Temperature number min=-40 max=125 precision=1
+ * @schema Count integer min=0
+ *
+ * TopicSchema schema = TopicSchema.parse("number min=-40 max=125 precision=1");
+ * int result = schema.check("21.5");     // TopicSchema.VALID
+ * schema.describe(schema.check("21.55")); // "more than 1 decimal places"
+ * }</pre>
+ *
+ * <p>Precision counts significant decimals, so {@code 2.50} has one and {@code 1.5e2} has none.
+ * Numbers are plain decimals with an optional sign and exponent; {@code NaN}, {@code Infinity}
+ * and hexadecimal forms are rejected.
+ */
+public final class TopicSchema {
+    public static final int VALID = 0;
+    public static final int NOT_A_NUMBER = 1;
+    public static final int NOT_AN_INTEGER = 2;
+    public static final int BELOW_MIN = 3;
+    public static final int ABOVE_MAX = 4;
+    public static final int TOO_PRECISE = 5;
+
+    /** Any finite number, what topics are checked against when they declare no schema. */
+    public static final TopicSchema NUMBER = new TopicSchema(false, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -1);
+
+    private static final double[] POWERS_OF_TEN = new double[23]; // Exactly representable as doubles
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final boolean integer;
+    private final double min;
+    private final double max;
+    private final int precision; // Maximum decimal places, -1 for any
+    private final boolean needsValue; // Whether checking text has to compute the value
+
+    private TopicSchema(boolean integer, double min, double max, int precision) {
+        this.integer = integer;
+        this.min = min;
+        this.max = max;
+        this.precision = precision;
+        // Only the range needs the value; finiteness is decided by the exponent in all but extreme cases
+        this.needsValue = min != Double.NEGATIVE_INFINITY || max != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Compiles a schema declaration: a type followed by optional {@code min=}, {@code max=}
+     * and {@code precision=} settings separated by spaces.
+     *
+     * @param spec the declaration, e.g. {@code "number min=0 max=100 precision=2"}
+     * @return the compiled schema
+     * @throws IllegalArgumentException if the declaration is malformed
+     */
+    public static TopicSchema parse(String spec) {
+        String[] parts = spec.trim().split("\\s+");
+        boolean integer;
+        if (parts[0].equals("number")) {
+            integer = false;
+        } else if (parts[0].equals("integer")) {
+            integer = true;
+        } else {
+            throw new IllegalArgumentException("Unknown schema type '" + parts[0] + "', expected number or integer");
+        }
+        double min = Double.NEGATIVE_INFINITY;
+        double max = Double.POSITIVE_INFINITY;
+        int precision = -1;
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            String key = eq > 0 ? parts[i].substring(0, eq) : parts[i];
+            String value = eq > 0 ? parts[i].substring(eq + 1) : "";
+            try {
+                switch (key) {
+                    case "min":
+                        min = finite(key, Double.parseDouble(value));
+                        break;
+                    case "max":
+                        max = finite(key, Double.parseDouble(value));
+                        break;
+                    case "precision":
+                        precision = Integer.parseInt(value);
+                        if (precision < 0) {
+                            throw new IllegalArgumentException("precision must not be negative");
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown schema setting '" + parts[i] + "'");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Schema setting '" + parts[i] + "' needs a number");
+            }
+        }
+        if (min > max) {
+            throw new IllegalArgumentException("Schema min " + min + " is greater than max " + max);
+        }
+        return new TopicSchema(integer, min, max, precision);
+    }
+
+    private static double finite(String key, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Schema " + key + " must be a finite number");
+        }
+        return value;
+    }
+
+    /**
+     * Checks a value as text, ignoring surrounding whitespace.
+     *
+     * @param s the value
+     * @return {@link #VALID} or the code of the first rule it breaks
+     */
+    public int check(CharSequence s) {
+        int end = s.length();
+        int i = 0;
+        while (i < end && s.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        int start = i;
+
+        // Mantissa digits, exact while they fit in 18 decimal digits
+        long mantissa = 0;
+        int digits = 0; // Significant digits kept in the mantissa, leading zeros excluded
+        int dropped = 0; // Integer digits beyond what the mantissa holds
+        int decimals = 0; // Fraction digits kept in the mantissa
+        boolean truncated = false; // Whether any digit did not fit in the mantissa
+        int integerTrailingZeros = 0;
+        int lastNonZeroDecimal = 0; // Position of the last non-zero fraction digit, 0 if none
+        boolean any = false;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            any = true;
+            integerTrailingZeros = c == '0' ? integerTrailingZeros + 1 : 0;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                dropped++;
+                truncated = true;
+            }
+        }
+        if (i < end && s.charAt(i) == '.') {
+            int position = 0;
+            for (i++; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                any = true;
+                position++;
+                if (c != '0') {
+                    lastNonZeroDecimal = position;
+                }
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    decimals++;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                } else {
+                    truncated = true;
+                }
+            }
+        }
+        if (!any) {
+            return NOT_A_NUMBER;
+        }
+        int exponent = 0;
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                negativeExponent = s.charAt(i) == '-';
+                i++;
+            }
+            if (i == end) {
+                return NOT_A_NUMBER;
+            }
+            for (; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return NOT_A_NUMBER;
+                }
+                if (exponent < 100000) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (i != end) {
+            return NOT_A_NUMBER;
+        }
+
+        // Decimal places of the value: where its last non-zero digit sits, moved by the exponent
+        boolean zero = digits == 0;
+        int lastDigit = lastNonZeroDecimal > 0 ? lastNonZeroDecimal : -integerTrailingZeros;
+        int significantDecimals = zero ? 0 : Math.max(0, lastDigit - exponent);
+        if (integer && significantDecimals > 0) {
+            return NOT_AN_INTEGER;
+        }
+        if (precision >= 0 && significantDecimals > precision) {
+            return TOO_PRECISE;
+        }
+
+        int magnitude = digits + dropped - decimals + exponent; // Decimal digits before the point
+        if (!needsValue && magnitude < 300) {
+            return VALID; // Finite for sure
+        }
+        double value;
+        int scale = exponent + dropped - decimals;
+        if (!truncated && mantissa < (1L << 53) && scale >= -22 && scale <= 22) {
+            // Both operands are exact, so one multiplication or division is correctly rounded
+            value = scale >= 0 ? mantissa * POWERS_OF_TEN[scale] : mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            value = Double.parseDouble(s.subSequence(start, end).toString()); // The syntax is already checked
+        }
+        if (negative) {
+            value = -value;
+        }
+        return checkRange(value);
+    }
+
+    /**
+     * Checks a binary value. Precision is checked to within the rounding of the double.
+     *
+     * @param value the value
+     * @return {@link #VALID} or the code of the first rule it breaks
+     */
+    public int check(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return NOT_A_NUMBER;
+        }
+        if (integer && value != Math.rint(value)) {
+            return NOT_AN_INTEGER;
+        }
+        if (precision >= 0 && precision < POWERS_OF_TEN.length) {
+            double scaled = value * POWERS_OF_TEN[precision];
+            if (Math.abs(scaled - Math.rint(scaled)) > 1e-9 * Math.max(1, Math.abs(scaled))) {
+                return TOO_PRECISE;
+            }
+        }
+        return checkRange(value);
+    }
+
+    private int checkRange(double value) {
+        if (Double.isInfinite(value)) {
+            return NOT_A_NUMBER;
+        }
+        if (value < min) {
+            return BELOW_MIN;
+        }
+        if (value > max) {
+            return ABOVE_MAX;
+        }
+        return VALID;
+    }
+
+    /**
+     * Describes a result of {@link #check(CharSequence)} against this schema.
+     *
+     * @param result the result code
+     * @return a short description, e.g. {@code "above max 100.0"}
+     */
+    public String describe(int result) {
+        switch (result) {
+            case VALID:
+                return "valid";
+            case NOT_A_NUMBER:
+                return "not a number";
+            case NOT_AN_INTEGER:
+                return "not an integer";
+            case BELOW_MIN:
+                return "below min " + min;
+            case ABOVE_MAX:
+                return "above max " + max;
+            case TOO_PRECISE:
+                return "more than " + precision + " decimal places";
+            default:
+                return "unknown result " + result;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(integer ? "integer" : "number");
+        if (min != Double.NEGATIVE_INFINITY) {
+            sb.append(" min=").append(min);
+        }
+        if (max != Double.POSITIVE_INFINITY) {
+            sb.append(" max=").append(max);
+        }
+        if (precision >= 0) {
+            sb.append(" precision=").append(precision);
+        }
+        return sb.toString();
+    }
+}
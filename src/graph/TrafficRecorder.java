@@ -0,0 +1,154 @@
+package graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * TrafficRecorder captures the publishes that enter the graph from outside
+ * (HTTP publish, bulk ingestion, binary ingestion) so they can be replayed later
+ * against a freshly loaded configuration. Publishes made by agents are not recorded,
+ * since replaying the inputs reproduces them.
+ *
+ * <p>Recording is off by default and {@link #record(String, Message)} is then a single
+ * volatile read. A recording file is a sequence of
+ * {@code [long nanosSinceStart][utf topic][int length][bytes message]} entries.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * TrafficRecorder.start(new File("traffic.rec"));
+ * // ... publishes arrive through the servlets
+ * TrafficRecorder.stop();
+ *
+ * try (TrafficRecorder.Reader reader = new TrafficRecorder.Reader(new File("traffic.rec"))) {
+ *     while (reader.next()) {
+ *         System.out.println(reader.getTopic() + " = " + new String(reader.getData()));
+ *     }
+ * }
+ * }</pre>
+ */
+public class TrafficRecorder {
+    private static volatile DataOutputStream out = null;
+    private static long startNanos;
+
+    private TrafficRecorder() {}
+
+    /**
+     * Starts recording to the given file, replacing any recording in progress.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be opened
+     */
+    public static synchronized void start(File file) throws IOException {
+        stop();
+        startNanos = System.nanoTime();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Stops recording and closes the file. Does nothing if not recording.
+     */
+    public static synchronized void stop() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing traffic recording: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Returns true while a recording is in progress.
+     *
+     * @return the recording state
+     */
+    public static boolean isRecording() {
+        return out != null;
+    }
+
+    /**
+     * Records one external publish if a recording is in progress.
+     *
+     * @param topic the topic name
+     * @param msg the published message
+     */
+    public static void record(String topic, Message msg) {
+        if (out == null) {
+            return;
+        }
+        synchronized (TrafficRecorder.class) {
+            DataOutputStream o = out;
+            if (o == null) {
+                return;
+            }
+            try {
+                o.writeLong(System.nanoTime() - startNanos);
+                o.writeUTF(topic);
+                o.writeInt(msg.data.length);
+                o.write(msg.data);
+            } catch (IOException e) {
+                System.err.println("Error writing traffic recording, recording stopped: " + e.getMessage());
+                stop();
+            }
+        }
+    }
+
+    /**
+     * Sequential reader over a recording file.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private long nanos;
+        private String topic;
+        private byte[] data;
+
+        public Reader(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+
+        /**
+         * Advances to the next entry.
+         *
+         * @return false at the end of the recording
+         * @throws IOException if reading fails
+         */
+        public boolean next() throws IOException {
+            try {
+                nanos = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            topic = in.readUTF();
+            data = new byte[in.readInt()];
+            in.readFully(data);
+            return true;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
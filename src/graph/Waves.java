@@ -0,0 +1,181 @@
+package graph;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Waves tracks the propagation of publishes that come from outside the graph. Every such publish
+ * starts a new wave with a sequence number, and every message its cascade produces belongs to that
+ * wave. A topic remembers the wave of its latest message, so a client can wait for a downstream
+ * topic to reflect its publish instead of polling it.
+ *
+ * <p>Waves rely on the cascade being synchronous: {@link Topic#publish(Message)} calls every
+ * subscriber on the publishing thread, and agents publish their results from their callback, so
+ * the whole cascade runs inside the first publish. A wave is settled when that publish returns.
+ * Waiting for a topic the wave never reaches, e.g. a binary agent still missing its other input,
+ * therefore ends when the wave settles rather than at the timeout. An agent that handed messages
+ * to another thread, e.g. subscribed through a {@link ParallelAgent}, would publish outside the
+ * wave and settle it early.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * long wave = Waves.publish(topic, new Message("5"));
+ * Waves.Result result = Waves.await(resultTopic, wave).get(2, TimeUnit.SECONDS);
+ * if (result.reached) {
+ *     double value = result.message.asDouble;
+ * }
+ * }</pre>
+ *
+ * <p>Outside of a wave, publishing costs a thread-local read and an empty-map check.
+ */
+public final class Waves {
+    private static final AtomicLong last = new AtomicLong();
+    private static final ThreadLocal<long[]> current = ThreadLocal.withInitial(() -> new long[1]);
+    // Waves whose publish has not returned yet
+    private static final Set<Long> open = ConcurrentHashMap.newKeySet();
+    private static final Map<Topic, Set<Waiter>> byTopic = new ConcurrentHashMap<>();
+    private static final Map<Long, Set<Waiter>> byWave = new ConcurrentHashMap<>();
+
+    private Waves() {}
+
+    /**
+     * What a topic showed when a wait ended.
+     */
+    public static final class Result {
+        /** Whether the topic reflects the wave, i.e. its message is from that wave or a later one. */
+        public final boolean reached;
+        /** The topic's latest message. */
+        public final Message message;
+        /** The wave of that message, 0 if it did not come from a wave. */
+        public final long wave;
+
+        Result(boolean reached, Message message, long wave) {
+            this.reached = reached;
+            this.message = message;
+            this.wave = wave;
+        }
+    }
+
+    private static final class Waiter {
+        final Topic topic;
+        final long wave;
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+
+        Waiter(Topic topic, long wave) {
+            this.topic = topic;
+            this.wave = wave;
+        }
+    }
+
+    /**
+     * Publishes a message as the start of a new wave.
+     *
+     * @param topic the topic
+     * @param message the message
+     * @return the wave's sequence number
+     */
+    public static long publish(Topic topic, Message message) {
+        long wave = last.incrementAndGet();
+        open.add(wave);
+        long[] slot = current.get();
+        long outer = slot[0];
+        slot[0] = wave;
+        try {
+            topic.publish(message);
+        } finally {
+            slot[0] = outer;
+            settle(wave);
+        }
+        return wave;
+    }
+
+    /**
+     * Returns the sequence number of the latest wave.
+     *
+     * @return the sequence number, 0 before the first wave
+     */
+    public static long lastWave() {
+        return last.get();
+    }
+
+    /**
+     * Waits for a topic to reflect a wave.
+     *
+     * <p>The future completes with {@code reached} set once the topic gets a message from this wave
+     * or a later one, or without it once the wave settled without reaching the topic. It does not
+     * time out by itself; cancelling it, e.g. after {@code get} timed out, unregisters the wait.
+     *
+     * @param topic the topic
+     * @param wave a sequence number returned by {@link #publish(Topic, Message)}
+     * @return the future result
+     * @throws IllegalArgumentException if the wave has not started yet
+     */
+    public static CompletableFuture<Result> await(Topic topic, long wave) {
+        if (wave > last.get()) {
+            throw new IllegalArgumentException("Wave " + wave + " has not started yet");
+        }
+        Waiter waiter = new Waiter(topic, wave);
+        byTopic.computeIfAbsent(topic, t -> ConcurrentHashMap.newKeySet()).add(waiter);
+        byWave.computeIfAbsent(wave, w -> ConcurrentHashMap.newKeySet()).add(waiter);
+        waiter.future.whenComplete((result, error) -> unregister(waiter));
+
+        // Registered first, then checked, so a publish or settle in between is not missed
+        if (topic.wave >= wave) {
+            waiter.future.complete(new Result(true, topic.getMsg(), topic.wave));
+        } else if (!open.contains(wave)) {
+            waiter.future.complete(new Result(false, topic.getMsg(), topic.wave));
+        }
+        return waiter.future;
+    }
+
+    private static void unregister(Waiter waiter) {
+        Set<Waiter> waiters = byTopic.get(waiter.topic);
+        if (waiters != null) {
+            waiters.remove(waiter);
+            if (waiters.isEmpty()) {
+                byTopic.remove(waiter.topic, waiters);
+            }
+        }
+        waiters = byWave.get(waiter.wave);
+        if (waiters != null) {
+            waiters.remove(waiter);
+            if (waiters.isEmpty()) {
+                byWave.remove(waiter.wave, waiters);
+            }
+        }
+    }
+
+    // Called by Topic.publish: stamps the topic with the running wave and wakes its waiters
+    static void published(Topic topic, Message message) {
+        long wave = current.get()[0];
+        if (wave == 0) {
+            return;
+        }
+        topic.wave = wave;
+        if (byTopic.isEmpty()) {
+            return;
+        }
+        Set<Waiter> waiters = byTopic.get(topic);
+        if (waiters != null) {
+            for (Waiter waiter : waiters) {
+                if (wave >= waiter.wave) {
+                    waiter.future.complete(new Result(true, message, wave));
+                }
+            }
+        }
+    }
+
+    // The cascade of a wave is over; wakes its waiters whose topic it did not reach
+    private static void settle(long wave) {
+        open.remove(wave);
+        Set<Waiter> waiters = byWave.get(wave);
+        if (waiters != null) {
+            for (Waiter waiter : waiters) {
+                waiter.future.complete(new Result(waiter.topic.wave >= wave, waiter.topic.getMsg(), waiter.topic.wave));
+            }
+        }
+    }
+}
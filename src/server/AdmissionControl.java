@@ -0,0 +1,245 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the work a server takes on: at most {@code maxInFlight} requests run at once, at most
+ * {@code maxQueued} more wait for a slot, and none waits longer than {@code maxWaitMillis}.
+ * Anything beyond that is rejected right away, and the server answers it with
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header instead of letting queues
+ * and latency grow without bound.
+ *
+ * <p>Routes can also get their own concurrency limit, so slow endpoints cannot take all the
+ * slots: while {@code /upload} is at its limit, further uploads wait or are rejected, and the
+ * remaining slots stay available to {@code /publish}. A request takes its route slot before a
+ * global one, so waiting for the route holds no global slot.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * AdmissionControl admission = new AdmissionControl(64, 256, 500)
+ *         .limitRoute("POST", "/upload", 2)
+ *         .limitRoute("GET", "/refresh", 4);
+ * MyHTTPServer server = new MyHTTPServer(8080, 10_000, 30_000, 1000, true, admission);
+ * // ...
+ * System.out.println(admission.toJson()); // {"inFlight": 3, "queued": 0, "admitted": 1520, ...}
+ * }</pre>
+ */
+public class AdmissionControl {
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final Semaphore slots;
+    private final Map<String, RouteLimit> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong rejectedTimeout = new AtomicLong();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+
+    /**
+     * Per-route slots and counters.
+     */
+    private static final class RouteLimit {
+        final int maxConcurrent;
+        final Semaphore slots;
+        final boolean exempt; // Takes no global slot
+        final AtomicLong admitted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+
+        RouteLimit(int maxConcurrent, boolean exempt) {
+            this.maxConcurrent = maxConcurrent;
+            this.slots = new Semaphore(maxConcurrent, true);
+            this.exempt = exempt;
+        }
+    }
+
+    /**
+     * A granted admission, to be passed to {@link #release(Ticket)} when the request is done.
+     */
+    static final class Ticket {
+        private final RouteLimit route;
+
+        private Ticket(RouteLimit route) {
+            this.route = route;
+        }
+    }
+
+    /**
+     * @param maxInFlight requests processed at once
+     * @param maxQueued requests waiting for a slot, further ones are rejected at once
+     * @param maxWaitMillis longest wait for a slot before a request is rejected
+     * @throws IllegalArgumentException if maxInFlight is not positive or a bound is negative
+     */
+    public AdmissionControl(int maxInFlight, int maxQueued, long maxWaitMillis) {
+        if (maxInFlight <= 0 || maxQueued < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive, queue size and wait not negative");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.slots = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * Limits how many requests for one route run at once.
+     *
+     * @param httpCommand the HTTP method of the route
+     * @param pattern the route pattern exactly as registered with addServlet, e.g. "/upload"
+     * @param maxConcurrent requests of the route processed at once
+     * @return this object
+     * @throws IllegalArgumentException if maxConcurrent is not positive
+     */
+    public AdmissionControl limitRoute(String httpCommand, String pattern, int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        routes.put(routeKey(httpCommand, pattern), new RouteLimit(maxConcurrent, false));
+        return this;
+    }
+
+    /**
+     * Lets a route bypass the global limit, for long-lived requests such as event streams that
+     * would otherwise hold global slots indefinitely. Such routes should limit themselves.
+     *
+     * @param httpCommand the HTTP method of the route
+     * @param pattern the route pattern exactly as registered with addServlet
+     * @return this object
+     */
+    public AdmissionControl exemptRoute(String httpCommand, String pattern) {
+        routes.put(routeKey(httpCommand, pattern), new RouteLimit(Integer.MAX_VALUE, true));
+        return this;
+    }
+
+    private static String routeKey(String httpCommand, String pattern) {
+        return httpCommand.toUpperCase() + " " + pattern;
+    }
+
+    /**
+     * Waits for a route slot and then a global slot, within the queue bounds.
+     *
+     * @param httpCommand the request method
+     * @param pattern the matched route pattern
+     * @return the ticket, or null if the request is rejected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Ticket admit(String httpCommand, String pattern) throws InterruptedException {
+        RouteLimit route = routes.isEmpty() ? null : routes.get(routeKey(httpCommand, pattern));
+        if (route != null && !acquire(route.slots)) {
+            route.rejected.incrementAndGet();
+            return null;
+        }
+        if ((route == null || !route.exempt) && !acquire(slots)) {
+            if (route != null) {
+                route.slots.release();
+                route.rejected.incrementAndGet();
+            }
+            return null;
+        }
+        admitted.incrementAndGet();
+        if (route != null) {
+            route.admitted.incrementAndGet();
+        }
+        return new Ticket(route);
+    }
+
+    /**
+     * Frees the slots of a finished request.
+     *
+     * @param ticket the ticket returned by {@link #admit}
+     */
+    void release(Ticket ticket) {
+        if (ticket.route == null || !ticket.route.exempt) {
+            slots.release();
+        }
+        if (ticket.route != null) {
+            ticket.route.slots.release();
+        }
+    }
+
+    private boolean acquire(Semaphore semaphore) throws InterruptedException {
+        if (semaphore.tryAcquire()) {
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejectedQueueFull.incrementAndGet();
+            return false;
+        }
+        try {
+            if (semaphore.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            rejectedTimeout.incrementAndGet();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a connection turned away before any request was read, because the server's
+     * connection queue was full.
+     */
+    void connectionRejected() {
+        rejectedConnections.incrementAndGet();
+    }
+
+    int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /** @return requests being processed now */
+    public int getInFlight() {
+        return maxInFlight - slots.availablePermits();
+    }
+
+    /** @return requests waiting for a slot now */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /** @return requests admitted so far */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /** @return requests and connections rejected so far, for any reason */
+    public long getRejected() {
+        return rejectedQueueFull.get() + rejectedTimeout.get() + rejectedConnections.get();
+    }
+
+    /**
+     * Returns the current state and all counters, per route too, as a JSON object.
+     *
+     * @return the JSON text
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"inFlight\": ").append(getInFlight())
+            .append(", \"maxInFlight\": ").append(maxInFlight)
+            .append(", \"queued\": ").append(getQueued())
+            .append(", \"maxQueued\": ").append(maxQueued)
+            .append(", \"admitted\": ").append(getAdmitted())
+            .append(", \"rejectedQueueFull\": ").append(rejectedQueueFull.get())
+            .append(", \"rejectedTimeout\": ").append(rejectedTimeout.get())
+            .append(", \"rejectedConnections\": ").append(rejectedConnections.get())
+            .append(", \"routes\": {");
+        boolean first = true;
+        for (Map.Entry<String, RouteLimit> e : routes.entrySet()) {
+            RouteLimit r = e.getValue();
+            json.append(first ? "" : ", ").append('"').append(e.getKey().replace("\"", "\\\"")).append("\": {")
+                .append("\"inFlight\": ").append(r.maxConcurrent - r.slots.availablePermits())
+                .append(", \"maxConcurrent\": ").append(r.exempt ? -1 : r.maxConcurrent)
+                .append(", \"admitted\": ").append(r.admitted.get())
+                .append(", \"rejected\": ").append(r.rejected.get())
+                .append('}');
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+}
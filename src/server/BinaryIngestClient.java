@@ -0,0 +1,242 @@
+package server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryIngestClient publishes topic values to a {@link BinaryIngestServer} over one persistent
+ * connection. Frames are batched in a local buffer and sent when it fills up, on {@link #flush()}
+ * or on {@link #sync()}. The client is not thread-safe; use one instance per publishing thread.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * try (BinaryIngestClient client = new BinaryIngestClient("localhost", 8081)) {
+ *     client.declare(1, "A");           // bind id 1 to topic "A" for this connection
+ *     for (int i = 0; i < 1_000_000; i++) {
+ *         client.publish(1, i);         // 13-byte frame, no topic name on the wire
+ *     }
+ *     client.publish("B", 2.5);         // publish by name
+ *     BinaryIngestClient.Ack ack = client.sync();  // wait until everything is published
+ * }
+ * }</pre>
+ */
+public class BinaryIngestClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer out;
+    private final ByteBuffer header = ByteBuffer.allocate(4 + 1);
+    private long nextSyncToken = 1;
+
+    /**
+     * Connects to a binary ingestion listener with a 64 KB send buffer.
+     *
+     * @param host the server host
+     * @param port the server port
+     * @throws IOException if the connection fails
+     */
+    public BinaryIngestClient(String host, int port) throws IOException {
+        this(host, port, 64 * 1024);
+    }
+
+    /**
+     * Connects to a binary ingestion listener.
+     *
+     * @param host the server host
+     * @param port the server port
+     * @param bufferSize size of the local frame buffer in bytes
+     * @throws IOException if the connection fails
+     */
+    public BinaryIngestClient(String host, int port, int bufferSize) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        this.channel.socket().setTcpNoDelay(true);
+        this.out = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Binds a connection-local id to a topic name so later publishes can use the id.
+     *
+     * @param id the id to bind
+     * @param topic the topic name
+     * @throws IOException if sending fails
+     */
+    public void declare(int id, String topic) throws IOException {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        frame(BinaryIngestServer.DECLARE, 4 + name.length);
+        out.putInt(id).put(name);
+    }
+
+    /**
+     * Publishes a numeric value to a declared topic id.
+     *
+     * @param id the declared topic id
+     * @param value the value
+     * @throws IOException if sending fails
+     */
+    public void publish(int id, double value) throws IOException {
+        frame(BinaryIngestServer.PUBLISH_ID_DOUBLE, 4 + 8);
+        out.putInt(id).putDouble(value);
+    }
+
+    /**
+     * Publishes raw bytes to a declared topic id.
+     *
+     * @param id the declared topic id
+     * @param value the message bytes
+     * @throws IOException if sending fails
+     */
+    public void publish(int id, byte[] value) throws IOException {
+        frame(BinaryIngestServer.PUBLISH_ID_BYTES, 4 + value.length);
+        out.putInt(id).put(value);
+    }
+
+    /**
+     * Publishes a numeric value to a topic by name.
+     *
+     * @param topic the topic name
+     * @param value the value
+     * @throws IOException if sending fails
+     */
+    public void publish(String topic, double value) throws IOException {
+        byte[] name = name(topic);
+        frame(BinaryIngestServer.PUBLISH_NAME_DOUBLE, 2 + name.length + 8);
+        out.putShort((short) name.length).put(name).putDouble(value);
+    }
+
+    /**
+     * Publishes raw bytes to a topic by name.
+     *
+     * @param topic the topic name
+     * @param value the message bytes
+     * @throws IOException if sending fails
+     */
+    public void publish(String topic, byte[] value) throws IOException {
+        byte[] name = name(topic);
+        frame(BinaryIngestServer.PUBLISH_NAME_BYTES, 2 + name.length + value.length);
+        out.putShort((short) name.length).put(name).put(value);
+    }
+
+    /**
+     * Sends all buffered frames.
+     *
+     * @throws IOException if sending fails
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Flushes and blocks until the server has published every frame sent so far.
+     *
+     * @return the server's acknowledgement with this connection's published and error counts
+     * @throws IOException if the connection fails
+     */
+    public Ack sync() throws IOException {
+        long token = nextSyncToken++;
+        frame(BinaryIngestServer.SYNC, 8);
+        out.putLong(token);
+        flush();
+
+        String protocolError = null;
+        while (true) {
+            header.clear();
+            readFully(header);
+            header.flip();
+            int len = header.getInt();
+            byte type = header.get();
+            if (len < 1 || len > BinaryIngestServer.MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length " + len + " from server");
+            }
+            ByteBuffer payload = ByteBuffer.allocate(len - 1);
+            readFully(payload);
+            payload.flip();
+            if (type == BinaryIngestServer.PROTOCOL_ERROR && payload.hasRemaining()) {
+                // A rejected frame, already counted in the errors of the ack that follows
+                byte frameType = payload.get();
+                protocolError = "Frame type " + frameType + ": "
+                        + StandardCharsets.UTF_8.decode(payload);
+                continue;
+            }
+            if (type != BinaryIngestServer.SYNC_ACK || payload.remaining() != 24) {
+                throw new IOException("Unexpected frame from server");
+            }
+            long acked = payload.getLong();
+            Ack ack = new Ack(payload.getLong(), payload.getLong(), protocolError);
+            if (acked == token) {
+                return ack;
+            }
+        }
+    }
+
+    private void readFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException("Connection closed while waiting for sync acknowledgement");
+            }
+        }
+    }
+
+    // Topic names are sent with a 2-byte length
+    private static byte[] name(String topic) {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IllegalArgumentException("Topic name of " + name.length + " bytes is too long");
+        }
+        return name;
+    }
+
+    // Reserves room for a frame header plus payload, flushing first if the buffer is too full
+    private void frame(byte type, int payloadLength) throws IOException {
+        int size = 4 + 1 + payloadLength;
+        if (size - 4 > BinaryIngestServer.MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame of " + size + " bytes exceeds the server limit");
+        }
+        if (out.remaining() < size) {
+            flush();
+            if (out.capacity() < size) {
+                throw new IllegalArgumentException("Frame of " + size + " bytes exceeds the client buffer");
+            }
+        }
+        out.putInt(1 + payloadLength).put(type);
+    }
+
+    /**
+     * Flushes pending frames and closes the connection.
+     *
+     * @throws IOException if flushing or closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Server acknowledgement of a {@link #sync()}.
+     */
+    public static class Ack {
+        public final long published;
+        public final long errors;
+        public final String protocolError; // The last frame the server rejected since the previous sync, or null
+
+        public Ack(long published, long errors) {
+            this(published, errors, null);
+        }
+
+        public Ack(long published, long errors, String protocolError) {
+            this.published = published;
+            this.errors = errors;
+            this.protocolError = protocolError;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package server;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicSchema;
+import graph.TrafficRecorder;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BinaryIngestServer is a non-blocking TCP listener for machine-to-machine publishers.
+ * It accepts persistent connections carrying length-prefixed binary frames and publishes
+ * their values straight into the {@link graph.TopicManagerSingleton.TopicManager}, skipping
+ * the HTTP request line, headers and servlet dispatch entirely.
+ *
+ * <p>Every frame is {@code [int length][byte type][payload]}, big-endian, where length counts
+ * the type byte and the payload:
+ * <ul>
+ * <li>{@link #DECLARE} {@code [int id][utf8 name]} - binds a connection-local id to a topic name</li>
+ * <li>{@link #PUBLISH_ID_DOUBLE} {@code [int id][double value]}</li>
+ * <li>{@link #PUBLISH_ID_BYTES} {@code [int id][bytes value]}</li>
+ * <li>{@link #PUBLISH_NAME_DOUBLE} {@code [short nameLength][utf8 name][double value]}</li>
+ * <li>{@link #PUBLISH_NAME_BYTES} {@code [short nameLength][utf8 name][bytes value]}</li>
+ * <li>{@link #SYNC} {@code [long token]} - answered with {@link #SYNC_ACK}
+ * {@code [long token][long published][long errors]} once every earlier frame is published</li>
+ * </ul>
+ * A frame whose payload does not fit its type, e.g. too short for its fields or a name running past
+ * the end of the frame, is skipped, counted as an error and answered in order with
+ * {@link #PROTOCOL_ERROR} {@code [byte frameType][utf8 reason]}. Only a bad frame length, which
+ * loses the frame boundaries, closes the connection.
+ *
+ * <p>Frames of one connection are published in order on a shared worker pool. Flow control is
+ * per connection: once a connection has {@code maxPendingFrames} decoded but unpublished frames,
+ * the server stops reading from it until the backlog halves, so TCP pushes back on that publisher
+ * only. Publishes to topics that do not exist, and values their topic's {@link graph.TopicSchema}
+ * rejects, are counted as errors.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * BinaryIngestServer ingest = new BinaryIngestServer(8081, 2);
+ * ingest.start();
+ * // ... publishers connect with BinaryIngestClient
+ * ingest.close();
+ * }</pre>
+ */
+public class BinaryIngestServer extends Thread {
+    public static final byte DECLARE = 0x01;
+    public static final byte PUBLISH_ID_DOUBLE = 0x02;
+    public static final byte PUBLISH_ID_BYTES = 0x03;
+    public static final byte PUBLISH_NAME_DOUBLE = 0x04;
+    public static final byte PUBLISH_NAME_BYTES = 0x05;
+    public static final byte SYNC = 0x10;
+    public static final byte SYNC_ACK = (byte) 0x90;
+    public static final byte PROTOCOL_ERROR = (byte) 0x91;
+
+    /** Largest accepted frame, larger frames close the connection. */
+    public static final int MAX_FRAME_SIZE = 1 << 20;
+
+    private final int port;
+    private final int maxPendingFrames;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Connection> rearm = new ConcurrentLinkedQueue<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile boolean stopped = false;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Creates a new binary ingestion listener.
+     *
+     * @param port the TCP port to listen on
+     * @param nThreads the number of worker threads publishing decoded frames
+     * @param maxPendingFrames per-connection backlog after which reading is paused
+     */
+    public BinaryIngestServer(int port, int nThreads, int maxPendingFrames) {
+        if (nThreads <= 0 || maxPendingFrames <= 0) {
+            throw new IllegalArgumentException("nThreads and maxPendingFrames must be positive");
+        }
+        this.port = port;
+        this.maxPendingFrames = maxPendingFrames;
+        this.workers = Executors.newFixedThreadPool(nThreads);
+    }
+
+    /**
+     * Creates a new binary ingestion listener with a backlog of 65536 frames per connection.
+     *
+     * @param port the TCP port to listen on
+     * @param nThreads the number of worker threads publishing decoded frames
+     */
+    public BinaryIngestServer(int port, int nThreads) {
+        this(port, nThreads, 65536);
+    }
+
+    /**
+     * Returns the number of values published since the server started.
+     *
+     * @return the published count
+     */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * Returns the number of frames rejected since the server started.
+     *
+     * @return the error count
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * Selector loop that accepts connections, reads and decodes frames and writes acknowledgements.
+     */
+    @Override
+    public void run() {
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Binary ingest listener started on port " + port);
+
+            while (!stopped) {
+                selector.select(1000);
+                Connection c;
+                while ((c = rearm.poll()) != null) {
+                    c.updateInterest();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection conn = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                conn.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.write();
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (key.attachment() instanceof Connection) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                System.err.println("Error in binary ingest listener: " + e.getMessage());
+            }
+        } finally {
+            closeSelector();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = serverChannel.accept();
+        if (ch == null) {
+            return;
+        }
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        Connection conn = new Connection(ch);
+        conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+    }
+
+    /**
+     * Stops the listener, closes all connections and shuts down the worker pool.
+     */
+    public void close() {
+        stopped = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        workers.shutdown();
+    }
+
+    private void closeSelector() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing binary ingest listener: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One decoded unit of work: a publish, or when topic is null a sync marker or a protocol error.
+     */
+    private static class Op {
+        final Topic topic;
+        final Message msg;
+        final long syncToken;
+        final long errorsAtSync;
+        final byte[] error; // PROTOCOL_ERROR payload, null for other ops
+
+        Op(Topic topic, Message msg, long syncToken, long errorsAtSync) {
+            this.topic = topic;
+            this.msg = msg;
+            this.syncToken = syncToken;
+            this.errorsAtSync = errorsAtSync;
+            this.error = null;
+        }
+
+        Op(byte frameType, String reason) {
+            this.topic = null;
+            this.msg = null;
+            this.syncToken = 0;
+            this.errorsAtSync = 0;
+            byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+            this.error = new byte[1 + text.length];
+            this.error[0] = frameType;
+            System.arraycopy(text, 0, this.error, 1, text.length);
+        }
+    }
+
+    /**
+     * Per-connection state. Reading, decoding and the id table are owned by the selector thread,
+     * the publish queue is drained by at most one worker at a time to keep frames in order.
+     */
+    private class Connection implements Runnable {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        final Map<Integer, Topic> topicsById = new HashMap<>();
+        final ConcurrentLinkedQueue<List<Op>> batches = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        boolean paused = false;
+        long connPublished = 0; // Only touched by the worker draining this connection
+        long decodeErrors = 0; // Only touched by the selector thread, copied into each sync marker
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            List<Op> batch = new ArrayList<>();
+            while (in.remaining() >= 4) {
+                int len = in.getInt(in.position());
+                if (len <= 0 || len > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + len);
+                }
+                if (in.remaining() < 4 + len) {
+                    break;
+                }
+                in.position(in.position() + 4);
+                int end = in.position() + len;
+                decode(in, end, batch);
+                in.position(end);
+            }
+            in.compact();
+            // Grow the buffer when a single frame does not fit
+            if (!in.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_FRAME_SIZE + 4));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            if (!batch.isEmpty()) {
+                submit(batch);
+            }
+        }
+
+        // Decodes one frame; the caller moves on to end afterwards, whatever was read
+        private void decode(ByteBuffer buf, int end, List<Op> batch) {
+            byte type = buf.get();
+            switch (type) {
+                case DECLARE: {
+                    if (end - buf.position() < 4) {
+                        malformed(batch, type, "DECLARE frame too short for its id");
+                        return;
+                    }
+                    int id = buf.getInt();
+                    String name = utf8(buf, end - buf.position());
+                    if (TopicManagerSingleton.get().topicExists(name)) {
+                        topicsById.put(id, TopicManagerSingleton.get().getTopic(name));
+                    } else {
+                        topicsById.remove(id);
+                        decodeErrors++;
+                        errors.incrementAndGet();
+                    }
+                    break;
+                }
+                case PUBLISH_ID_DOUBLE:
+                case PUBLISH_ID_BYTES: {
+                    if (end - buf.position() < 4) {
+                        malformed(batch, type, "PUBLISH frame too short for its id");
+                        return;
+                    }
+                    Topic topic = topicsById.get(buf.getInt());
+                    addPublish(batch, topic, type, type == PUBLISH_ID_DOUBLE, buf, end);
+                    break;
+                }
+                case PUBLISH_NAME_DOUBLE:
+                case PUBLISH_NAME_BYTES: {
+                    if (end - buf.position() < 2) {
+                        malformed(batch, type, "PUBLISH frame too short for its name length");
+                        return;
+                    }
+                    int nameLength = buf.getShort() & 0xFFFF;
+                    if (nameLength > end - buf.position()) {
+                        malformed(batch, type, "Topic name of " + nameLength + " bytes runs past the end of the frame");
+                        return;
+                    }
+                    String name = utf8(buf, nameLength);
+                    Topic topic = TopicManagerSingleton.get().topicExists(name) ? TopicManagerSingleton.get().getTopic(name) : null;
+                    addPublish(batch, topic, type, type == PUBLISH_NAME_DOUBLE, buf, end);
+                    break;
+                }
+                case SYNC:
+                    if (end - buf.position() != 8) {
+                        malformed(batch, type, "SYNC frame must carry exactly an 8-byte token");
+                        return;
+                    }
+                    batch.add(new Op(null, null, buf.getLong(), decodeErrors));
+                    break;
+                default:
+                    malformed(batch, type, "Unknown frame type " + type);
+            }
+        }
+
+        // Counts a frame that could not be decoded and queues its error reply behind the frames before it
+        private void malformed(List<Op> batch, byte type, String reason) {
+            decodeErrors++;
+            errors.incrementAndGet();
+            batch.add(new Op(type, reason));
+        }
+
+        private void addPublish(List<Op> batch, Topic topic, byte type, boolean isDouble, ByteBuffer buf, int end) {
+            if (isDouble && end - buf.position() != 8) {
+                malformed(batch, type, "Double value must be exactly 8 bytes");
+                return;
+            }
+            if (topic == null) {
+                decodeErrors++;
+                errors.incrementAndGet();
+                return;
+            }
+            TopicSchema schema = topic.getSchema();
+            Message msg;
+            int result;
+            if (isDouble) {
+                double value = buf.getDouble();
+                result = schema != null ? schema.check(value) : TopicSchema.VALID;
+                msg = result == TopicSchema.VALID ? new Message(value) : null;
+            } else {
+                byte[] data = new byte[end - buf.position()];
+                buf.get(data);
+                msg = new Message(data);
+                result = schema != null ? schema.check(msg.asText) : TopicSchema.VALID;
+            }
+            if (result != TopicSchema.VALID) {
+                decodeErrors++;
+                errors.incrementAndGet();
+                return;
+            }
+            batch.add(new Op(topic, msg, 0, 0));
+        }
+
+        private String utf8(ByteBuffer buf, int len) {
+            String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+            return s;
+        }
+
+        private void submit(List<Op> batch) {
+            batches.add(batch);
+            if (pending.addAndGet(batch.size()) >= maxPendingFrames && !paused) {
+                paused = true;
+                updateInterest();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        // Drains queued batches in order, runs on a worker thread
+        @Override
+        public void run() {
+            List<Op> batch;
+            while ((batch = batches.poll()) != null) {
+                for (Op op : batch) {
+                    if (op.topic != null) {
+                        TrafficRecorder.record(op.topic.getName(), op.msg);
+                        op.topic.publish(op.msg);
+                        connPublished++;
+                        published.incrementAndGet();
+                    } else if (op.error != null) {
+                        ByteBuffer reply = ByteBuffer.allocate(4 + 1 + op.error.length);
+                        reply.putInt(1 + op.error.length).put(PROTOCOL_ERROR).put(op.error);
+                        reply.flip();
+                        out.add(reply);
+                        requestRearm();
+                    } else {
+                        ByteBuffer ack = ByteBuffer.allocate(4 + 1 + 24);
+                        ack.putInt(1 + 24).put(SYNC_ACK).putLong(op.syncToken)
+                           .putLong(connPublished).putLong(op.errorsAtSync);
+                        ack.flip();
+                        out.add(ack);
+                        requestRearm();
+                    }
+                }
+                int left = pending.addAndGet(-batch.size());
+                if (paused && left <= maxPendingFrames / 2) {
+                    requestRearm();
+                }
+            }
+            scheduled.set(false);
+            // A batch may have been queued between the last poll and clearing the flag
+            if (!batches.isEmpty() && scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        private void requestRearm() {
+            rearm.add(this);
+            selector.wakeup();
+        }
+
+        // Recomputes the interest set, only called on the selector thread
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            if (paused && pending.get() <= maxPendingFrames / 2) {
+                paused = false;
+            }
+            int ops = paused ? 0 : SelectionKey.OP_READ;
+            if (!out.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        void write() throws IOException {
+            ByteBuffer buf;
+            while ((buf = out.peek()) != null) {
+                channel.write(buf);
+                if (buf.hasRemaining()) {
+                    return; // Socket buffer full, wait for the next OP_WRITE
+                }
+                out.poll();
+            }
+            updateInterest();
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing ingest connection: " + e.getMessage());
+            }
+        }
+    }
+}
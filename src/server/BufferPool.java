@@ -0,0 +1,29 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of fixed-size byte arrays used to assemble response bodies, so a response does not
+ * allocate (and later copy) a fresh buffer for every request. Arrays that do not fit in the
+ * pool are left to the garbage collector.
+ */
+final class BufferPool {
+    /** Size of every pooled buffer, also the size of the chunks of a chunked response. */
+    static final int BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_POOLED = 256;
+    private static final ArrayBlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private BufferPool() {
+    }
+
+    static byte[] acquire() {
+        byte[] buf = pool.poll();
+        return buf != null ? buf : new byte[BUFFER_BYTES];
+    }
+
+    static void release(byte[] buf) {
+        if (buf != null && buf.length == BUFFER_BYTES) {
+            pool.offer(buf);
+        }
+    }
+}
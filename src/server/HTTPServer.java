@@ -21,7 +21,7 @@ public interface HTTPServer extends Runnable{
      * Registers a servlet to handle requests for a specific HTTP command and URI.
      * 
      * @param httpCommand the HTTP method (GET, POST, DELETE) to handle
-     * @param uri the URI path pattern to match (e.g., "/api/users")
+     * @param uri the URI path pattern to match (e.g., "/api/users", or "/api/users/{id}" with a path parameter)
      * @param s the servlet instance to handle matching requests
      */
     public void addServlet(String httpCommand, String uri, Servlet s);
@@ -0,0 +1,456 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes an HTTP response for a servlet: status and header helpers on top of the output
+ * stream passed to {@link servlets.Servlet#handle}. Bodies are encoded into pooled buffers and
+ * Content-Length is always the exact number of bytes sent, whatever characters the body has.
+ *
+ * <p>A body given as a whole ({@link #send(String)}, {@link #send(byte[])}) is sent with a
+ * Content-Length. A body written through {@link #getOutputStream()} or {@link #getWriter()} is
+ * also sent with a Content-Length if it fits in one buffer; a larger body, or one that is
+ * flushed early, is streamed with chunked transfer encoding (or until the connection closes
+ * for an HTTP/1.0 client), so it is never held in memory as a whole.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+ *     HttpResponse response = new HttpResponse(ri, toClient);
+ *     response.contentType("text/html; charset=utf-8").send(html); // Content-Length counts UTF-8 bytes
+ * }
+ *
+ * // Streaming a body of unknown size
+ * HttpResponse response = new HttpResponse(ri, toClient).contentType("text/csv");
+ * try (Writer out = response.getWriter()) {
+ *     for (String row : rows) {
+ *         out.write(row);
+ *     }
+ * }
+ * }</pre>
+ */
+public class HttpResponse {
+    private final RequestParser.RequestInfo ri;
+    private final OutputStream toClient;
+    private final boolean chunked; // How a streamed body is delimited: chunks for HTTP/1.1, connection close otherwise
+    private int status = 200;
+    private String reason = "OK";
+    private final StringBuilder headers = new StringBuilder(128);
+    private boolean committed = false;
+    private BodyStream body;
+    private Writer writer;
+
+    /**
+     * Creates a response for a request. Nothing is written until a body is sent.
+     *
+     * @param ri the request being answered
+     * @param toClient the output stream passed to the servlet
+     */
+    public HttpResponse(RequestParser.RequestInfo ri, OutputStream toClient) {
+        this.ri = ri;
+        this.toClient = toClient;
+        this.chunked = "HTTP/1.1".equalsIgnoreCase(ri.getHttpVersion());
+        if (toClient instanceof ResponseFramer) {
+            // The framing written here is exact, so a persistent connection need not buffer the response to recount it
+            ((ResponseFramer) toClient).trustFraming();
+        }
+    }
+
+    /**
+     * Sets the status code with its standard reason phrase.
+     *
+     * @param code the status code
+     * @return this response
+     */
+    public HttpResponse status(int code) {
+        return status(code, reasonPhrase(code));
+    }
+
+    /**
+     * Sets the status code and reason phrase.
+     *
+     * @param code the status code
+     * @param reason the reason phrase
+     * @return this response
+     */
+    public HttpResponse status(int code, String reason) {
+        checkNotCommitted();
+        this.status = code;
+        this.reason = reason;
+        return this;
+    }
+
+    /**
+     * Adds a header. Content-Length and Transfer-Encoding are set by this class.
+     *
+     * @param name the header name
+     * @param value the header value
+     * @return this response
+     * @throws IllegalArgumentException for a framing header or a line break in the name or value
+     */
+    public HttpResponse header(String name, String value) {
+        checkNotCommitted();
+        if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")) {
+            throw new IllegalArgumentException(name + " is set by HttpResponse");
+        }
+        if (hasLineBreak(name) || hasLineBreak(value)) {
+            throw new IllegalArgumentException("Line break in header " + name);
+        }
+        headers.append(name).append(": ").append(value).append("\r\n");
+        return this;
+    }
+
+    /**
+     * Sets the Content-Type header.
+     *
+     * @param type the content type, e.g. {@code "text/html; charset=utf-8"}
+     * @return this response
+     */
+    public HttpResponse contentType(String type) {
+        return header("Content-Type", type);
+    }
+
+    /**
+     * Returns whether the status line and headers have been written.
+     *
+     * @return true once the response is committed
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Sends the response with a text body encoded as UTF-8.
+     *
+     * @param text the body
+     * @throws IOException if writing fails
+     */
+    public void send(String text) throws IOException {
+        // String.getBytes is an intrinsic and beats encoding into pooled buffers by far, see ResponseWriterBenchmark
+        send(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends the response with a binary body.
+     *
+     * @param content the body
+     * @throws IOException if writing fails
+     */
+    public void send(byte[] content) throws IOException {
+        send(content, 0, content.length);
+    }
+
+    /**
+     * Sends the response with part of an array as its body.
+     *
+     * @param content the array holding the body
+     * @param off offset of the body
+     * @param len length of the body
+     * @throws IOException if writing fails
+     */
+    public void send(byte[] content, int off, int len) throws IOException {
+        checkNotCommitted();
+        writeHead(len);
+        toClient.write(content, off, len);
+        toClient.flush();
+    }
+
+    /**
+     * Sends a plain text response, typically an error.
+     *
+     * @param code the status code
+     * @param message the body
+     * @throws IOException if writing fails
+     */
+    public void sendText(int code, String message) throws IOException {
+        status(code).contentType("text/plain; charset=utf-8").send(message);
+    }
+
+    /**
+     * Returns a stream for writing the body. The response is complete when the stream is closed
+     * or {@link #finish()} is called. Calling {@code flush()} sends what was written so far,
+     * which makes the response streamed.
+     *
+     * @return the body stream
+     */
+    public OutputStream getOutputStream() {
+        if (body == null) {
+            checkNotCommitted();
+            body = new BodyStream();
+        }
+        return body;
+    }
+
+    /**
+     * Sends the status line and headers for a body of known length and returns a stream for it.
+     * The body goes out as it is written, without buffering; exactly {@code contentLength}
+     * bytes must be written before the stream is closed.
+     *
+     * @param contentLength the length of the body in bytes
+     * @return the body stream
+     * @throws IOException if writing fails
+     */
+    public OutputStream getOutputStream(long contentLength) throws IOException {
+        checkNotCommitted();
+        writeHead(contentLength);
+        return new FixedLengthStream(contentLength);
+    }
+
+    /**
+     * Returns a writer for the body, encoding as UTF-8. See {@link #getOutputStream()}.
+     *
+     * @return the body writer
+     */
+    public Writer getWriter() {
+        if (writer == null) {
+            writer = new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8);
+        }
+        return writer;
+    }
+
+    /**
+     * Sends the status line and headers of a response that stays open after the servlet returns,
+     * and hands its connection over for pushing the body later, e.g. Server-Sent Events. The body
+     * is delimited by the end of the connection. After a successful call, the servlet must not
+     * write to its output stream any more.
+     *
+     * @return the channel to push the body through, or null if the engine cannot keep a
+     *         response open without a thread; nothing was sent then
+     * @throws IOException if writing fails
+     */
+    public PushChannel detach() throws IOException {
+        PushChannel channel = ri.getPushChannel();
+        if (channel == null) {
+            return null;
+        }
+        checkNotCommitted();
+        String head = "HTTP/1.1 " + status + ' ' + reason + "\r\n" + headers + "Connection: close\r\n\r\n";
+        toClient.write(head.getBytes(StandardCharsets.UTF_8));
+        toClient.flush(); // Queued before anything pushed from other threads
+        committed = true;
+        ri.markDetached();
+        return channel;
+    }
+
+    /**
+     * Completes the response: closes the body writer or stream, or sends an empty body if none was written.
+     *
+     * @throws IOException if writing fails
+     */
+    public void finish() throws IOException {
+        if (writer != null) {
+            writer.close();
+        } else if (body != null) {
+            body.close();
+        } else if (!committed) {
+            send(new byte[0]);
+        }
+    }
+
+    // contentLength < 0 for a streamed body
+    private void writeHead(long contentLength) throws IOException {
+        StringBuilder head = new StringBuilder(headers.length() + 64);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n").append(headers);
+        if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        } else if (chunked) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            head.append("Connection: close\r\n"); // The end of the body is the end of the connection
+        }
+        head.append("\r\n");
+        toClient.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        committed = true;
+    }
+
+    private void checkNotCommitted() {
+        if (committed || body != null) {
+            throw new IllegalStateException("Response already started");
+        }
+    }
+
+    private static boolean hasLineBreak(String s) {
+        return s.indexOf('\r') >= 0 || s.indexOf('\n') >= 0;
+    }
+
+    /**
+     * Body written by the servlet: kept in one pooled buffer until it outgrows it or is flushed.
+     */
+    private class BodyStream extends OutputStream {
+        private byte[] buf = BufferPool.acquire();
+        private int count = 0;
+        private boolean closed = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buf.length) {
+                stream();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if (len <= buf.length - count) {
+                System.arraycopy(b, off, buf, count, len);
+                count += len;
+                return;
+            }
+            stream();
+            if (len >= buf.length) {
+                writeChunk(b, off, len); // Large writes go out as they are, without copying
+            } else {
+                System.arraycopy(b, off, buf, 0, len);
+                count = len;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            stream();
+            toClient.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (!committed) {
+                    writeHead(count); // Everything fit, send it with its exact length
+                    toClient.write(buf, 0, count);
+                } else {
+                    writeBuffered();
+                    if (chunked) {
+                        toClient.write(LAST_CHUNK);
+                    }
+                }
+                toClient.flush();
+            } finally {
+                BufferPool.release(buf);
+                buf = null;
+            }
+        }
+
+        // Commits a streamed response if needed and sends the buffered bytes
+        private void stream() throws IOException {
+            if (!committed) {
+                writeHead(-1);
+            }
+            writeBuffered();
+        }
+
+        private void writeBuffered() throws IOException {
+            if (count > 0) {
+                writeChunk(buf, 0, count);
+                count = 0;
+            }
+        }
+
+        private void writeChunk(byte[] b, int off, int len) throws IOException {
+            if (chunked) {
+                toClient.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                toClient.write(b, off, len);
+                toClient.write(CRLF);
+            } else {
+                toClient.write(b, off, len);
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Response body already closed");
+            }
+        }
+    }
+
+    /**
+     * Body whose length was announced: passed through, checking that it matches.
+     */
+    private class FixedLengthStream extends OutputStream {
+        private long remaining;
+        private boolean closed = false;
+
+        FixedLengthStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new IOException("Body exceeds its Content-Length by " + (len - remaining) + " bytes");
+            }
+            toClient.write(b, off, len);
+            remaining -= len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            toClient.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toClient.flush();
+            if (remaining > 0) {
+                throw new IOException("Body ended " + remaining + " bytes short of its Content-Length");
+            }
+        }
+    }
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    /**
+     * Returns the standard reason phrase of a status code.
+     *
+     * @param code the status code
+     * @return the reason phrase
+     */
+    public static String reasonPhrase(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 408: return "Request Timeout";
+            case 409: return "Conflict";
+            case 411: return "Length Required";
+            case 412: return "Precondition Failed";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            case 422: return "Unprocessable Entity";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "Status " + code;
+        }
+    }
+}
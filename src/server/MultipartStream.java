@@ -0,0 +1,389 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Streaming parser for multipart/form-data bodies. Parts are returned one after the other and
+ * their content is read straight from the request body, so an upload of any size is processed
+ * with one fixed-size buffer. Each part can be limited in size.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * MultipartStream multipart = MultipartStream.of(ri, 16 << 20);
+ * MultipartStream.Part part;
+ * while ((part = multipart.next()) != null) {
+ *     if (part.getFilename() != null) {
+ *         Files.copy(part.getInputStream(), Paths.get("uploads", part.getFilename()));
+ *     }
+ * }
+ * }</pre>
+ */
+public class MultipartStream {
+    private static final int MAX_PART_HEADER_BYTES = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter; // CRLF "--" boundary
+    private final long maxPartBytes;
+    private byte[] buf;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private boolean finished = false;
+    private PartInputStream current;
+
+    /**
+     * Thrown when a part is larger than the configured limit.
+     */
+    public static class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param in the request body, positioned at its start
+     * @param boundary the boundary from the Content-Type header
+     * @param maxPartBytes largest accepted part content
+     */
+    public MultipartStream(InputStream in, String boundary, long maxPartBytes) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.maxPartBytes = maxPartBytes;
+        this.buf = new byte[Math.max(8192, delimiter.length * 4)];
+        // The first delimiter has no line break before it, pretend it has one
+        buf[0] = '\r';
+        buf[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Creates a parser over the body of a multipart request.
+     *
+     * @param ri the request
+     * @param maxPartBytes largest accepted part content
+     * @return the parser
+     * @throws IOException if the request is not multipart or declares no boundary
+     */
+    public static MultipartStream of(RequestParser.RequestInfo ri, long maxPartBytes) throws IOException {
+        String boundary = boundary(ri.getHeader("Content-Type"));
+        if (boundary == null) {
+            throw new IOException("Not a multipart request with a boundary");
+        }
+        return new MultipartStream(ri.getBodyStream(), boundary, maxPartBytes);
+    }
+
+    /**
+     * Extracts the boundary parameter of a multipart Content-Type.
+     *
+     * @param contentType the header value, may be null
+     * @return the boundary, or null if the content type is not multipart or has none
+     */
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase().startsWith("multipart/")) {
+            return null;
+        }
+        int b = contentType.toLowerCase().indexOf("boundary=");
+        if (b < 0) {
+            return null;
+        }
+        String boundary = contentType.substring(b + "boundary=".length()).trim();
+        int semicolon = boundary.indexOf(';');
+        if (semicolon >= 0) {
+            boundary = boundary.substring(0, semicolon).trim();
+        }
+        if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * Advances to the next part, skipping whatever is left of the current one.
+     *
+     * @return the next part, or null after the closing boundary
+     * @throws IOException if the body is malformed or ends early
+     */
+    public Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        // Skip the preamble before the first part, or the rest of the current part
+        PartInputStream skip = current != null ? current : new PartInputStream(Long.MAX_VALUE);
+        while (skip.skip(Long.MAX_VALUE) > 0) {
+            // Discard
+        }
+        current = null;
+
+        // After a delimiter: "--" closes the body, otherwise the line ends and part headers follow
+        if (!fill(2)) {
+            throw new IOException("Unexpected end of multipart body");
+        }
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        pos = findLineEnd(); // Transport padding after the boundary is ignored
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        while (true) {
+            int end = findLineEnd();
+            int start = pos;
+            int stop = end - 2 >= start && buf[end - 2] == '\r' ? end - 2 : end - 1;
+            pos = end;
+            if (stop == start) {
+                break;
+            }
+            String line = new String(buf, start, stop - start, StandardCharsets.UTF_8);
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        current = new PartInputStream(maxPartBytes);
+        return new Part(headers, current);
+    }
+
+    // Returns the index just past the next '\n' at or after pos, reading more input as needed
+    private int findLineEnd() throws IOException {
+        int scanned = pos;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            scanned = limit;
+            if (limit - pos >= MAX_PART_HEADER_BYTES) {
+                throw new IOException("Multipart part headers exceed " + MAX_PART_HEADER_BYTES + " bytes");
+            }
+            int shift = pos;
+            if (!fill(limit - pos + 1)) {
+                throw new IOException("Unexpected end of multipart part headers");
+            }
+            scanned -= shift - pos; // fill may have moved the data to the start of the buffer
+        }
+    }
+
+    // Makes at least n bytes available from pos, returns false if the input ends first
+    private boolean fill(int n) throws IOException {
+        while (limit - pos < n) {
+            if (eof) {
+                return false;
+            }
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            if (limit == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int r = in.read(buf, limit, buf.length - limit);
+            if (r < 0) {
+                eof = true;
+            } else {
+                limit += r;
+            }
+        }
+        return true;
+    }
+
+    private int indexOfDelimiter(int from, int to) {
+        byte first = delimiter[0];
+        outer:
+        for (int i = from; i <= to - delimiter.length; i++) {
+            if (buf[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Content of one part: ends at the next delimiter.
+     */
+    private class PartInputStream extends InputStream {
+        private final long maxBytes;
+        private long count = 0;
+        private boolean done = false;
+
+        PartInputStream(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int available = ready();
+            if (available < 0) {
+                return -1;
+            }
+            int n = Math.min(len, available);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (done || n <= 0) {
+                return 0;
+            }
+            int available = ready();
+            if (available < 0) {
+                return 0;
+            }
+            int s = (int) Math.min(n, available);
+            pos += s;
+            count(s);
+            return s;
+        }
+
+        @Override
+        public int available() {
+            if (done) {
+                return 0;
+            }
+            int d = indexOfDelimiter(pos, limit);
+            return d >= 0 ? d - pos : Math.max(0, limit - pos - (delimiter.length - 1));
+        }
+
+        private void count(int n) throws LimitExceededException {
+            count += n;
+            if (count > maxBytes) {
+                throw new LimitExceededException("Multipart part exceeds " + maxBytes + " bytes");
+            }
+        }
+
+        // Bytes of this part that can be returned now, blocking for input if needed; -1 at its end
+        private int ready() throws IOException {
+            while (true) {
+                int d = indexOfDelimiter(pos, limit);
+                if (d == pos) {
+                    pos += delimiter.length;
+                    done = true;
+                    return -1;
+                }
+                if (d > pos) {
+                    return d - pos;
+                }
+                // Bytes that cannot be the start of a delimiter are safe to return
+                int safe = limit - pos - (delimiter.length - 1);
+                if (safe > 0) {
+                    return safe;
+                }
+                if (!fill(delimiter.length)) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            while (skip(Long.MAX_VALUE) > 0) {
+                // Discard the rest of the part
+            }
+        }
+    }
+
+    /**
+     * One part of a multipart body.
+     */
+    public static class Part {
+        private final Map<String, String> headers;
+        private final InputStream content;
+
+        Part(Map<String, String> headers, InputStream content) {
+            this.headers = headers;
+            this.content = content;
+        }
+
+        /**
+         * Returns the part headers, looked up ignoring case.
+         *
+         * @return the headers
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the form field name from Content-Disposition.
+         *
+         * @return the name, or null
+         */
+        public String getName() {
+            return dispositionParameter("name");
+        }
+
+        /**
+         * Returns the uploaded file name from Content-Disposition.
+         *
+         * @return the file name, or null if the part is not a file
+         */
+        public String getFilename() {
+            return dispositionParameter("filename");
+        }
+
+        /**
+         * Returns the content type of the part.
+         *
+         * @return the content type, or null
+         */
+        public String getContentType() {
+            return headers.get("Content-Type");
+        }
+
+        /**
+         * Returns the content of the part. It is read from the request body and can be consumed once.
+         *
+         * @return the content stream
+         */
+        public InputStream getInputStream() {
+            return content;
+        }
+
+        private String dispositionParameter(String name) {
+            String disposition = headers.get("Content-Disposition");
+            if (disposition == null) {
+                return null;
+            }
+            for (String param : disposition.split(";")) {
+                int eq = param.indexOf('=');
+                if (eq > 0 && param.substring(0, eq).trim().equalsIgnoreCase(name)) {
+                    String value = param.substring(eq + 1).trim();
+                    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -4,10 +4,14 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import server.RequestParser.RequestInfo;
 import servlets.Servlet;
 
@@ -40,14 +44,44 @@ import servlets.Servlet;
  * 
  * <p>URI matching uses longest prefix matching. For example, if both "/api" and "/api/users"
  * are registered, a request to "/api/users/123" will match "/api/users".
+ *
+ * <p>By default the connection is closed after every response. With a keep-alive timeout,
+ * HTTP/1.1 persistent connections are supported: pipelined requests are parsed one after
+ * the other from the same stream and answered in order, every response is re-framed with its
+ * exact byte length, and a connection is closed after the idle timeout or the request limit.
+ * Note that an idle persistent connection keeps its pool thread until the timeout expires.
+ *
+ * <p>In virtual-thread mode every connection is served on its own virtual thread, so a servlet
+ * blocked on I/O or a full agent queue, or a slow client, parks cheaply instead of holding one
+ * of a few pool threads. Concurrency is then capped only by {@code nThreads}, used as the
+ * maximum number of connections served at once; further connections wait in the accept backlog.
+ * Virtual threads need JDK 21 or newer; on older runtimes the server falls back to one platform
+ * thread per connection under the same limit.
+ * <pre>{@code
+ * // Up to 10000 concurrent connections, each on a virtual thread, with keep-alive
+ * MyHTTPServer server = new MyHTTPServer(8080, 10_000, 30_000, 1000, true);
+ * }</pre>
+ *
+ * <p>With an {@link AdmissionControl} the server sheds load instead of queueing it: requests
+ * beyond its in-flight and queue limits, global or per route, are answered at once with
+ * {@code 503 Service Unavailable} and {@code Retry-After}. In pool mode the queue of accepted
+ * connections waiting for a pool thread is bounded by the same queue limit, and connections
+ * beyond it get the 503 from a separate thread without taking a pool thread.
+ * <pre>{@code
+ * AdmissionControl admission = new AdmissionControl(64, 256, 500).limitRoute("POST", "/upload", 2);
+ * MyHTTPServer server = new MyHTTPServer(8080, 10_000, 30_000, 1000, true, admission);
+ * }</pre>
  */
 public class MyHTTPServer extends Thread implements HTTPServer{
     private int port;
     private int nThreads;
     private ExecutorService threadPool;
-    private ConcurrentHashMap<String, Servlet> GET_servlets = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, Servlet> POST_servlets = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, Servlet> DEL_servlets = new ConcurrentHashMap<>();
+    private final Semaphore connectionSlots; // Only used in virtual-thread mode, null otherwise
+    private final ServletTable servlets = new ServletTable();
+    private final int keepAliveTimeoutMillis; // 0 disables persistent connections
+    private final int maxRequestsPerConnection;
+    private final AdmissionControl admission; // null admits everything
+    private final ThreadPoolExecutor shedder; // Answers connections the pool has no room for, null without admission control
     volatile boolean stopped = false;
     private ServerSocket serverSocket;
 
@@ -60,9 +94,93 @@ public class MyHTTPServer extends Thread implements HTTPServer{
      * @throws IllegalArgumentException if port is not in valid range or nThreads is not positive
      */
     public MyHTTPServer(int port,int nThreads){
+        this(port, nThreads, 0, 1);
+    }
+
+    /**
+     * Creates a new HTTP server instance with HTTP/1.1 persistent connections.
+     *
+     * @param port the port number on which the server will listen for incoming HTTP requests (1-65535)
+     * @param nThreads the number of threads in the thread pool to handle concurrent requests
+     * @param keepAliveTimeoutMillis how long an idle connection is kept open, 0 to close after every response
+     * @param maxRequestsPerConnection the number of requests served on one connection before it is closed
+     * @throws IllegalArgumentException if the timeout is negative or the request limit is not positive
+     */
+    public MyHTTPServer(int port, int nThreads, int keepAliveTimeoutMillis, int maxRequestsPerConnection){
+        this(port, nThreads, keepAliveTimeoutMillis, maxRequestsPerConnection, false);
+    }
+
+    /**
+     * Creates a new HTTP server instance, optionally serving each connection on a virtual thread.
+     *
+     * @param port the port number on which the server will listen for incoming HTTP requests (1-65535)
+     * @param nThreads the pool size, or in virtual-thread mode the maximum number of connections served at once
+     * @param keepAliveTimeoutMillis how long an idle connection is kept open, 0 to close after every response
+     * @param maxRequestsPerConnection the number of requests served on one connection before it is closed
+     * @param virtualThreads true to serve each connection on its own virtual thread
+     * @throws IllegalArgumentException if nThreads or the request limit is not positive, or the timeout is negative
+     */
+    public MyHTTPServer(int port, int nThreads, int keepAliveTimeoutMillis, int maxRequestsPerConnection,
+                        boolean virtualThreads){
+        this(port, nThreads, keepAliveTimeoutMillis, maxRequestsPerConnection, virtualThreads, null);
+    }
+
+    /**
+     * Creates a new HTTP server instance that rejects requests beyond the limits of an admission control.
+     *
+     * @param port the port number on which the server will listen for incoming HTTP requests (1-65535)
+     * @param nThreads the pool size, or in virtual-thread mode the maximum number of connections served at once
+     * @param keepAliveTimeoutMillis how long an idle connection is kept open, 0 to close after every response
+     * @param maxRequestsPerConnection the number of requests served on one connection before it is closed
+     * @param virtualThreads true to serve each connection on its own virtual thread
+     * @param admission the request limits, or null to admit every request
+     * @throws IllegalArgumentException if nThreads or the request limit is not positive, or the timeout is negative
+     */
+    public MyHTTPServer(int port, int nThreads, int keepAliveTimeoutMillis, int maxRequestsPerConnection,
+                        boolean virtualThreads, AdmissionControl admission){
+        if (keepAliveTimeoutMillis < 0 || maxRequestsPerConnection <= 0) {
+            throw new IllegalArgumentException("Keep-alive timeout must be >= 0 and the request limit positive");
+        }
+        if (nThreads <= 0) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
         this.port = port;
         this.nThreads = nThreads;
-        this.threadPool = Executors.newFixedThreadPool(nThreads);
+        this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        this.admission = admission;
+        if (virtualThreads) {
+            this.threadPool = newThreadPerTaskExecutor();
+            this.connectionSlots = new Semaphore(nThreads);
+        } else if (admission != null) {
+            // Bounded, so a burst is turned away instead of waiting behind thousands of connections
+            this.threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, admission.getMaxQueued())));
+            this.connectionSlots = null;
+        } else {
+            this.threadPool = Executors.newFixedThreadPool(nThreads);
+            this.connectionSlots = null;
+        }
+        if (admission != null) {
+            servlets.setAdmissionControl(admission);
+            this.shedder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64), r -> {
+                Thread t = new Thread(r, "http-shedder");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.shedder = null;
+        }
+    }
+
+    // Looked up reflectively so the server still compiles and runs on runtimes without virtual threads
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads are not available on this JVM, using one platform thread per connection");
+            return Executors.newCachedThreadPool();
+        }
     }
 
     /**
@@ -74,31 +192,17 @@ public class MyHTTPServer extends Thread implements HTTPServer{
      * server.addServlet("GET", "/api/users", new UserListServlet());
      * server.addServlet("POST", "/api/users", new UserCreateServlet());
      * server.addServlet("GET", "/app/", new HtmlLoader("html_files"));
+     * server.addServlet("GET", "/api/users/{id}", new UserServlet()); // ri.getPathParameters().get("id")
      * }</pre>
      * 
      * @param httpCommand the HTTP method (GET, POST, DELETE) - case insensitive
-     * @param uri the URI pattern to match (e.g., "/api/users", "/app/")
+     * @param uri the URI pattern to match (e.g., "/api/users", "/app/", "/api/users/{id}")
      * @param s the servlet instance to handle matching requests
      * @throws IllegalArgumentException if httpCommand is unsupported or any parameter is null
      */
     @Override
     public void addServlet(String httpCommand, String uri, Servlet s){
-        if (httpCommand == null || uri == null || s == null) {
-            throw new IllegalArgumentException("HTTP command, URI, and servlet cannot be null");
-        }
-        switch (httpCommand.toUpperCase()) {
-            case "GET":
-                GET_servlets.put(uri, s);
-                break;
-            case "POST":
-                POST_servlets.put(uri, s);
-                break;
-            case "DELETE":
-                DEL_servlets.put(uri, s);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
-        }
+        servlets.add(httpCommand, uri, s);
     }
 
     /**
@@ -110,22 +214,7 @@ public class MyHTTPServer extends Thread implements HTTPServer{
      */
     @Override
     public void removeServlet(String httpCommand, String uri){
-        if (httpCommand == null || uri == null) {
-            throw new IllegalArgumentException("HTTP command and URI cannot be null");
-        }
-        switch (httpCommand.toUpperCase()) {
-            case "GET":
-                GET_servlets.remove(uri);
-                break;
-            case "POST":
-                POST_servlets.remove(uri);
-                break;
-            case "DELETE":
-                DEL_servlets.remove(uri);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
-        }
+        servlets.remove(httpCommand, uri);
     }
 
 
@@ -138,50 +227,46 @@ public class MyHTTPServer extends Thread implements HTTPServer{
     private void serveClient(Socket clientSocket) {
         try {
             // Read the request from the client
-            BufferedReader input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+            RequestParser.RequestReader input = new RequestParser.RequestReader(clientSocket.getInputStream());
             OutputStream output = clientSocket.getOutputStream(); // Output stream to send response back to the client
-            RequestInfo requestInfo = RequestParser.parseRequest(input); // Parse the incoming request
 
-            String httpCommand = requestInfo.getHttpCommand().toUpperCase();
-            String uri = requestInfo.getUri();
-            Map<String, Servlet> servMap = null;
-            switch (httpCommand) {
-                case "GET":
-                    servMap = GET_servlets;
-                    break;
-                case "POST":
-                    servMap = POST_servlets;
-                    break;
-                case "DELETE":
-                    servMap = DEL_servlets;
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
+            if (keepAliveTimeoutMillis == 0) {
+                RequestInfo requestInfo;
+                try {
+                    requestInfo = input.next(); // Parse the incoming request
+                } catch (RequestParser.BadRequestException e) {
+                    refuse(clientSocket, output, e);
+                    return;
+                }
+                servlets.dispatch(requestInfo, output); // Route to the servlet with the longest matching prefix
+                if (requestInfo.hasUnreadBody()) {
+                    lingeringClose(clientSocket);
+                }
+                return;
             }
 
-            if (servMap != null) {
-                // We need to find the servlet with the longest matching prefix
-                Servlet servlet = null;
-                String longestMatch = null;
-
-                for (Map.Entry<String, Servlet> entry : servMap.entrySet()) {
-                    String key = entry.getKey();
-                    if (uri.startsWith(key) && (longestMatch == null || key.length() > longestMatch.length())) {
-                        servlet = entry.getValue();
-                        longestMatch = key;
-                    }
+            // Persistent connection: serve requests in order until the client, the idle timeout or the limit ends it
+            clientSocket.setSoTimeout(keepAliveTimeoutMillis);
+            output = new BufferedOutputStream(output, 16 * 1024);
+            for (int served = 1; !stopped; served++) {
+                RequestInfo requestInfo;
+                try {
+                    requestInfo = input.next(); // Also skips any unread body of the previous request
+                } catch (EOFException | SocketTimeoutException e) {
+                    break; // Client closed the connection or stayed idle too long
+                } catch (RequestParser.BadRequestException e) {
+                    refuse(clientSocket, output, e); // Where its body ends is unknown, so nothing after it can be read
+                    break;
                 }
-
-                if (servlet != null) {
-                    // Call the servlet's handle method with the parsed request info and output stream
-                    servlet.handle(requestInfo, output);
-                } else {
-                    // If no matching servlet found, send a 404 Not Found response
-                    PrintWriter writer = new PrintWriter(output, true);
-                    writer.println("HTTP/1.1 404 Not Found");
-                    writer.println("Content-Type: text/plain");
-                    writer.println();
-                    writer.println("404 Not Found: No matching servlet for " + uri);
+                boolean keepAlive = served < maxRequestsPerConnection && ResponseFramer.clientWantsKeepAlive(requestInfo);
+                ResponseFramer framer = new ResponseFramer(output, keepAlive,
+                        keepAliveTimeoutMillis / 1000, maxRequestsPerConnection - served);
+                servlets.dispatch(requestInfo, framer);
+                if (framer.finish()) {
+                    if (requestInfo.hasUnreadBody()) {
+                        lingeringClose(clientSocket);
+                    }
+                    break;
                 }
             }
         } catch (IOException ex) {
@@ -195,6 +280,38 @@ public class MyHTTPServer extends Thread implements HTTPServer{
         }
     }
 
+    /**
+     * Answers a request that cannot be served, e.g. one with a chunked body, and ends the
+     * connection: the rest of the stream cannot be told apart from a next request.
+     */
+    private void refuse(Socket clientSocket, OutputStream output, RequestParser.BadRequestException e) throws IOException {
+        byte[] body = e.getMessage().getBytes(StandardCharsets.UTF_8);
+        output.write(("HTTP/1.1 " + e.getStatusLine() + "\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: "
+                + body.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        output.write(body);
+        output.flush();
+        lingeringClose(clientSocket);
+    }
+
+    /**
+     * Closing a socket with unread input makes the kernel reset the connection, and the client
+     * may then lose the response, e.g. a 413 sent before a large upload was read. Half-closing
+     * first and discarding the rest of the upload for a short while lets the response arrive.
+     */
+    private void lingeringClose(Socket clientSocket) {
+        try {
+            clientSocket.shutdownOutput();
+            clientSocket.setSoTimeout(2000);
+            InputStream in = clientSocket.getInputStream();
+            byte[] discard = new byte[8192];
+            long deadline = System.currentTimeMillis() + 5000;
+            while (in.read(discard) >= 0 && System.currentTimeMillis() < deadline) {
+                // Discard
+            }
+        } catch (IOException e) {
+            // The client went away, nothing left to protect
+        }
+    }
 
     /**
      * Main server loop that accepts and processes client connections.
@@ -203,14 +320,38 @@ public class MyHTTPServer extends Thread implements HTTPServer{
     @Override
     public void run(){
         try {
-            serverSocket = new ServerSocket(port);
+            // In virtual-thread mode connections over the limit queue in the backlog, so make room for them
+            serverSocket = connectionSlots != null ? new ServerSocket(port, 4096) : new ServerSocket(port);
             System.out.println("Server started on port " + port);
             serverSocket.setSoTimeout(1000); // Set a timeout for accept calls
             while (!stopped) {
                 try {
-                    Socket clientSocket = serverSocket.accept();
+                    if (connectionSlots != null && !connectionSlots.tryAcquire(1, TimeUnit.SECONDS)) {
+                        continue; // At the concurrency limit, new connections wait in the backlog
+                    }
+                    Socket clientSocket;
+                    try {
+                        clientSocket = serverSocket.accept();
+                    } catch (SocketTimeoutException e) {
+                        releaseSlot();
+                        throw e;
+                    }
                     if (!stopped){
-                        threadPool.submit(() -> serveClient(clientSocket));
+                        try {
+                            threadPool.submit(() -> {
+                                try {
+                                    serveClient(clientSocket);
+                                } finally {
+                                    releaseSlot();
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            releaseSlot();
+                            shed(clientSocket);
+                        }
+                    } else {
+                        releaseSlot();
+                        clientSocket.close();
                     }
                 } catch (SocketTimeoutException e) {
                   // Ignore timeout exceptions when server is running
@@ -230,6 +371,59 @@ public class MyHTTPServer extends Thread implements HTTPServer{
         }
     }
 
+    /**
+     * Turns away a connection the pool has no room for. The 503 is written by the shedder
+     * thread, which reads the request head briefly first so that closing does not reset the
+     * connection before the client sees the answer. If even the shedder is behind, the
+     * connection is just closed.
+     */
+    private void shed(Socket clientSocket) {
+        if (admission != null) {
+            admission.connectionRejected();
+        }
+        try {
+            if (shedder == null) {
+                throw new RejectedExecutionException("No admission control");
+            }
+            shedder.execute(() -> {
+                try (Socket socket = clientSocket) {
+                    socket.setSoTimeout(100);
+                    try {
+                        socket.getInputStream().read(new byte[8192]);
+                    } catch (SocketTimeoutException e) {
+                        // Answer anyway
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write(SERVICE_UNAVAILABLE);
+                    out.flush();
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    // The client went away
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+                // Nothing to do
+            }
+        }
+    }
+
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n" +
+            "Retry-After: 1\r\n" +
+            "Content-Type: text/plain; charset=utf-8\r\n" +
+            "Content-Length: 24\r\n" +
+            "Connection: close\r\n" +
+            "\r\n" +
+            "Server busy, retry later").getBytes(StandardCharsets.US_ASCII);
+
+    private void releaseSlot() {
+        if (connectionSlots != null) {
+            connectionSlots.release();
+        }
+    }
+
     /**
      * Starts the HTTP server in a new thread.
      * The server will begin listening for incoming connections on the configured port.
@@ -248,6 +442,9 @@ public class MyHTTPServer extends Thread implements HTTPServer{
     public void close(){
         stopped = true;
         threadPool.shutdown(); // Wait for all tasks to finish
+        if (shedder != null) {
+            shedder.shutdown();
+        }
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close(); // Close the server socket
@@ -257,18 +454,7 @@ public class MyHTTPServer extends Thread implements HTTPServer{
         }
 
         // Close all servlets
-        closeServlet(GET_servlets.values());
-        closeServlet(POST_servlets.values());
-        closeServlet(DEL_servlets.values());
-    }
-
-    private void closeServlet(Iterable<Servlet> servlets) {
-        for (Servlet s : servlets) {
-            try { s.close(); }
-            catch (IOException e) {
-                System.err.println("Error closing servlet: " + e.getMessage());
-            }
-        }
+        servlets.closeAll();
     }
 
 }
@@ -0,0 +1,629 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+
+/**
+ * NioHTTPServer is an event-driven alternative to {@link MyHTTPServer} built on
+ * {@link Selector} and {@link SocketChannel}. One acceptor thread hands new connections
+ * round-robin to N reactor threads, which read requests and write responses without blocking.
+ * Only complete requests are passed to a separate servlet executor, so idle or slow clients
+ * hold no thread and tens of thousands of them can be connected at once.
+ *
+ * <p>Servlets keep the same {@link Servlet} contract: their output is collected in memory
+ * and written back by the reactor. A streamed response (chunked, or ending the connection)
+ * goes out each time the servlet flushes, so long-lived streams such as Server-Sent Events
+ * work; a client that stops reading while more than 1 MB is queued for it makes the
+ * servlet's writes fail instead of growing the queue. A servlet can also hand its response over
+ * with {@link HttpResponse#detach()} and return: the connection then stays open without a worker,
+ * and whatever is pushed through the {@link PushChannel} from any thread is written by the
+ * reactor, which also notices when the client goes away. Connections are persistent (HTTP/1.1 keep-alive): bytes
+ * received past the end of one request are kept as the start of the next, so pipelined
+ * requests are answered one after the other in order. A connection is closed when the client
+ * asks for it, after {@code maxRequestsPerConnection} requests, or after the idle timeout.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // 2 reactor threads, 8 servlet worker threads
+ * HTTPServer server = new NioHTTPServer(8080, 2, 8);
+ * server.addServlet("GET", "/publish", new TopicDisplayer());
+ * server.start();
+ * // ...
+ * server.close();
+ * }</pre>
+ */
+public class NioHTTPServer extends Thread implements HTTPServer {
+    private static final long MAX_STREAM_BACKLOG = 1 << 20; // Bytes queued for a streamed response
+    private final int port;
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+    private final ServletTable servlets = new ServletTable();
+    private final int maxRequestBytes;
+    private final long idleTimeoutMillis;
+    private final int maxRequestsPerConnection;
+    private volatile boolean stopped = false;
+    private ServerSocketChannel serverChannel;
+    private int nextReactor = 0;
+
+    /**
+     * Creates a new non-blocking HTTP server with a 64 MB request limit, a 30 second idle timeout
+     * and up to 1000 requests per connection.
+     *
+     * @param port the port number on which the server will listen
+     * @param nReactors the number of selector threads doing network I/O
+     * @param nWorkers the number of threads running servlets
+     */
+    public NioHTTPServer(int port, int nReactors, int nWorkers) {
+        this(port, nReactors, nWorkers, 64 << 20, 30_000, 1000);
+    }
+
+    /**
+     * Creates a new non-blocking HTTP server.
+     *
+     * @param port the port number on which the server will listen
+     * @param nReactors the number of selector threads doing network I/O
+     * @param nWorkers the number of threads running servlets
+     * @param maxRequestBytes largest accepted request (headers and body), larger ones get 413
+     * @param idleTimeoutMillis connections that make no progress for this long are closed
+     * @param maxRequestsPerConnection requests served on one connection before it is closed, 1 disables keep-alive
+     * @throws IllegalArgumentException if a count or limit is not positive
+     */
+    public NioHTTPServer(int port, int nReactors, int nWorkers, int maxRequestBytes, long idleTimeoutMillis,
+                         int maxRequestsPerConnection) {
+        if (nReactors <= 0 || nWorkers <= 0 || maxRequestBytes <= 0 || idleTimeoutMillis <= 0
+                || maxRequestsPerConnection <= 0) {
+            throw new IllegalArgumentException("Thread counts and limits must be positive");
+        }
+        this.port = port;
+        this.maxRequestBytes = maxRequestBytes;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        this.workers = Executors.newFixedThreadPool(nWorkers);
+        this.reactors = new Reactor[nReactors];
+    }
+
+    @Override
+    public void addServlet(String httpCommand, String uri, Servlet s) {
+        servlets.add(httpCommand, uri, s);
+    }
+
+    @Override
+    public void removeServlet(String httpCommand, String uri) {
+        servlets.remove(httpCommand, uri);
+    }
+
+    /**
+     * Acceptor loop: blocks in accept and hands each connection to the next reactor.
+     */
+    @Override
+    public void run() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), 4096);
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new Reactor(i);
+                reactors[i].start();
+            }
+            System.out.println("Server started on port " + port);
+            while (!stopped) {
+                SocketChannel ch = serverChannel.accept();
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                reactors[nextReactor].register(ch);
+                nextReactor = (nextReactor + 1) % reactors.length;
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                System.err.println("Error in server: " + e.getMessage());
+            }
+        } finally {
+            try {
+                if (serverChannel != null) {
+                    serverChannel.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error closing server socket: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        stopped = false;
+        super.start();
+    }
+
+    /**
+     * Stops accepting connections, stops the reactors and the servlet executor, and closes all servlets.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close(); // Unblocks accept
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+        for (Reactor r : reactors) {
+            if (r != null) {
+                r.shutdown();
+            }
+        }
+        workers.shutdown();
+        servlets.closeAll();
+    }
+
+    /**
+     * ByteArrayOutputStream whose contents can be wrapped without copying. While the servlet
+     * runs, a flush hands what was written so far to the connection.
+     */
+    private static class ResponseBuffer extends ByteArrayOutputStream {
+        private final Connection connection;
+        boolean streamed = false;
+        boolean closing = false; // Set once the servlet returned, the rest is sent as the end of the response
+
+        ResponseBuffer(Connection connection) {
+            super(1024);
+            this.connection = connection;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closing && count > 0) {
+                connection.stream(ByteBuffer.wrap(Arrays.copyOf(buf, count)));
+                reset();
+                streamed = true;
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Selector thread owning a subset of the connections.
+     */
+    private class Reactor extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        Reactor(int index) throws IOException {
+            super("nio-reactor-" + index);
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            execute(() -> {
+                try {
+                    Connection conn = new Connection(this, ch);
+                    conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+                } catch (ClosedChannelException e) {
+                    // Client went away before registration
+                }
+            });
+        }
+
+        // Runs a task on this reactor's thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                conn.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.write();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            conn.close();
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= 1000) {
+                        sweepIdle(now);
+                        lastSweep = now;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error in reactor: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        // Closes connections that are waiting on the network and made no progress recently
+        private void sweepIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection) key.attachment();
+                if (!conn.processing && now - conn.lastActivity > idleTimeoutMillis) {
+                    conn.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * One client connection. Reading and writing happen on the reactor thread;
+     * while a servlet runs, the connection has no interest ops and is left alone,
+     * so at most one request per connection is in flight and responses stay in order.
+     */
+    private class Connection {
+        final Reactor reactor;
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        ByteBuffer out;
+        int headerEnd = -1; // Index just past the blank line, -1 until found
+        int scanFrom = 0;
+        long expectedLength = -1;
+        RequestInfo request; // Head of the request being received, parsed once it is complete
+        int served = 0; // Requests answered on this connection
+        boolean closeAfterWrite = true;
+        final ConcurrentLinkedQueue<ByteBuffer> streamQueue = new ConcurrentLinkedQueue<>(); // Parts of a streamed response
+        final AtomicLong streamBacklog = new AtomicLong();
+        volatile boolean streamEnded = false;
+        volatile boolean detached = false; // The servlet returned and left the response open for pushing
+        final Push push = new Push();
+        volatile boolean processing = false;
+        volatile long lastActivity = System.currentTimeMillis();
+
+        Connection(Reactor reactor, SocketChannel channel) {
+            this.reactor = reactor;
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (detached) {
+                // Nothing more is expected from an event stream client, reading only tells when it goes away
+                in.clear();
+                if (channel.read(in) < 0) {
+                    close();
+                }
+                return;
+            }
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= maxRequestBytes) {
+                    respondAndClose("413 Payload Too Large", "Request exceeds " + maxRequestBytes + " bytes");
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate((int) Math.min((long) in.capacity() * 2, maxRequestBytes));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            int n = channel.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            dispatchIfComplete();
+        }
+
+        // Hands the buffered request to a worker once all of it has arrived
+        private void dispatchIfComplete() {
+            if (headerEnd < 0 && !findHeaderEnd()) {
+                return;
+            }
+            if (expectedLength < 0) {
+                try {
+                    request = RequestParser.parseHead(in.array(), 0, headerEnd);
+                } catch (RequestParser.BadRequestException e) {
+                    respondAndClose(e.getStatusLine(), e.getMessage()); // Its body cannot be told apart from the next request
+                    return;
+                } catch (IOException e) {
+                    respondAndClose("400 Bad Request", "Bad request: " + e.getMessage());
+                    return;
+                }
+                expectedLength = headerEnd + request.getContentLength();
+                if (expectedLength > maxRequestBytes) {
+                    respondAndClose("413 Payload Too Large", "Request exceeds " + maxRequestBytes + " bytes");
+                    return;
+                }
+                if (in.capacity() < expectedLength) {
+                    // Size the buffer for the whole body once instead of doubling repeatedly
+                    ByteBuffer exact = ByteBuffer.allocate((int) expectedLength);
+                    in.flip();
+                    exact.put(in);
+                    in = exact;
+                }
+            }
+            if (in.position() >= expectedLength) {
+                processing = true;
+                key.interestOps(0);
+                workers.execute(this::process);
+            }
+        }
+
+        // Called on the reactor thread once a keep-alive response is written
+        private void nextRequest() {
+            // Pipelined bytes that arrived after the previous request become the start of the next one
+            int leftover = in.position() - (int) expectedLength;
+            ByteBuffer next = in.capacity() > 4096 && leftover <= 4096 ? ByteBuffer.allocate(4096) : in;
+            System.arraycopy(in.array(), (int) expectedLength, next.array(), 0, leftover);
+            next.position(leftover);
+            in = next;
+            headerEnd = -1;
+            scanFrom = 0;
+            request = null;
+            expectedLength = -1;
+            processing = false;
+            lastActivity = System.currentTimeMillis();
+            if (!key.isValid()) {
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (leftover > 0) {
+                dispatchIfComplete();
+            }
+        }
+
+        private boolean findHeaderEnd() {
+            byte[] a = in.array();
+            int end = in.position();
+            if (scanFrom == 0) {
+                // Line breaks between pipelined requests are allowed and ignored
+                int skip = 0;
+                while (skip < end && (a[skip] == '\r' || a[skip] == '\n')) {
+                    skip++;
+                }
+                if (skip > 0) {
+                    System.arraycopy(a, skip, a, 0, end - skip);
+                    in.position(end - skip);
+                    end -= skip;
+                }
+            }
+            headerEnd = RequestParser.findHeaderEnd(a, Math.max(0, scanFrom - 3), end);
+            scanFrom = end;
+            return headerEnd >= 0;
+        }
+
+        // Runs the servlet on a worker thread and hands the response back to the reactor
+        private void process() {
+            ResponseBuffer response = new ResponseBuffer(this);
+            boolean closeAfter = true;
+            try {
+                // The servlet reads the body straight from the connection buffer
+                RequestInfo requestInfo = request;
+                requestInfo.setBody(in.array(), headerEnd, (int) (expectedLength - headerEnd));
+                requestInfo.setPushChannel(push);
+                served++;
+                boolean keepAlive = served < maxRequestsPerConnection && ResponseFramer.clientWantsKeepAlive(requestInfo);
+                ResponseFramer framer = new ResponseFramer(response, keepAlive,
+                        idleTimeoutMillis / 1000, maxRequestsPerConnection - served);
+                servlets.dispatch(requestInfo, framer);
+                response.closing = true;
+                if (requestInfo.isDetached()) {
+                    // The head is queued already, the rest is pushed later; the reactor now also watches for the client leaving
+                    detached = true;
+                    reactor.execute(this::writeStreamed);
+                    return;
+                }
+                closeAfter = framer.finish();
+            } catch (IOException | RuntimeException e) {
+                response.closing = true;
+                if (request.isDetached()) {
+                    push.close();
+                    return;
+                }
+                // Only a request the parser rejects is the client's fault, anything else the servlet threw is ours
+                boolean badRequest = e instanceof RequestParser.BadRequestException;
+                if (!badRequest) {
+                    System.err.println("Error handling client request: " + e);
+                }
+                if (response.size() == 0 && !response.streamed) {
+                    String status = badRequest ? ((RequestParser.BadRequestException) e).getStatusLine() : "500 Internal Server Error";
+                    byte[] body = (badRequest ? e.getMessage() : "Internal server error").getBytes(StandardCharsets.UTF_8);
+                    response.writeBytes(("HTTP/1.1 " + status + "\r\nContent-Type: text/plain\r\nContent-Length: "
+                            + body.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    response.writeBytes(body);
+                }
+            }
+            if (response.streamed) {
+                endStream(response.toByteBuffer(), closeAfter);
+            } else {
+                send(response.toByteBuffer(), closeAfter);
+            }
+        }
+
+        // Called by the worker when a streaming servlet flushes; the reactor writes while the servlet goes on
+        void stream(ByteBuffer part) throws IOException {
+            if (!channel.isOpen()) {
+                throw new IOException("Connection closed");
+            }
+            if (streamBacklog.addAndGet(part.remaining()) > MAX_STREAM_BACKLOG) {
+                throw new IOException("Client is not reading the response");
+            }
+            streamQueue.add(part);
+            reactor.execute(this::writeStreamed);
+        }
+
+        private void endStream(ByteBuffer last, boolean closeWhenSent) {
+            closeAfterWrite = closeWhenSent;
+            streamQueue.add(last);
+            streamEnded = true;
+            reactor.execute(this::writeStreamed);
+        }
+
+        // Reactor thread: writes the queued parts, waiting for OP_WRITE when the socket is full
+        private void writeStreamed() {
+            try {
+                ByteBuffer part;
+                while ((part = streamQueue.peek()) != null) {
+                    streamBacklog.addAndGet(-channel.write(part));
+                    if (part.hasRemaining()) {
+                        if (key.isValid()) {
+                            key.interestOps(SelectionKey.OP_WRITE | (detached ? SelectionKey.OP_READ : 0));
+                        }
+                        return;
+                    }
+                    streamQueue.poll();
+                }
+                lastActivity = System.currentTimeMillis();
+                if (key.isValid()) {
+                    key.interestOps(detached ? SelectionKey.OP_READ : 0);
+                }
+                if (streamEnded) {
+                    streamEnded = false;
+                    streamBacklog.set(0);
+                    responseSent();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void respondAndClose(String status, String message) {
+            byte[] body = message.getBytes(StandardCharsets.UTF_8);
+            processing = true;
+            key.interestOps(0);
+            send(ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nContent-Type: text/plain\r\nContent-Length: "
+                    + body.length + "\r\nConnection: close\r\n\r\n" + message).getBytes(StandardCharsets.UTF_8)), true);
+        }
+
+        // Writes what the socket accepts right away, the reactor finishes the rest
+        private void send(ByteBuffer buf, boolean closeWhenSent) {
+            out = buf;
+            closeAfterWrite = closeWhenSent;
+            try {
+                channel.write(out);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (!out.hasRemaining()) {
+                responseSent();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            processing = false;
+            reactor.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            });
+        }
+
+        void write() throws IOException {
+            if (out == null) {
+                writeStreamed();
+                return;
+            }
+            channel.write(out);
+            lastActivity = System.currentTimeMillis();
+            if (!out.hasRemaining()) {
+                responseSent();
+            }
+        }
+
+        private void responseSent() {
+            out = null;
+            if (closeAfterWrite) {
+                close();
+            } else {
+                reactor.execute(this::nextRequest);
+            }
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing client socket: " + e.getMessage());
+            }
+            Runnable handler = push.closeHandler.getAndSet(null); // Runs once, whichever thread closes first
+            if (handler != null) {
+                handler.run();
+            }
+        }
+
+        /**
+         * The connection as seen by a servlet that detached its response.
+         */
+        private class Push implements PushChannel {
+            final AtomicReference<Runnable> closeHandler = new AtomicReference<>();
+
+            @Override
+            public boolean push(byte[] data) {
+                try {
+                    stream(ByteBuffer.wrap(data));
+                    return true;
+                } catch (IOException e) {
+                    reactor.execute(Connection.this::close); // Closed already, or not reading
+                    return false;
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void onClose(Runnable handler) {
+                closeHandler.set(handler);
+                if (!channel.isOpen()) {
+                    reactor.execute(Connection.this::close); // Closed meanwhile, run the handler anyway
+                }
+            }
+
+            @Override
+            public void close() {
+                endStream(ByteBuffer.allocate(0), true);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package server;
+
+/**
+ * A response that stays open after its servlet returned, so that events such as Server-Sent
+ * Events can be pushed to the client from any thread without a thread waiting for each client.
+ * The engine owns the connection and writes what is pushed as the socket accepts it.
+ *
+ * <p>Only engines that can hold a connection without a thread offer one, see
+ * {@link HttpResponse#detach()}. The response has no length: it ends when the connection closes.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * PushChannel channel = new HttpResponse(ri, toClient).contentType("text/event-stream").detach();
+ * if (channel != null) {
+ *     channel.onClose(() -> subscribers.remove(channel));
+ *     subscribers.add(channel); // Return from handle(), push later
+ * }
+ * // On another thread:
+ * if (!channel.push("data: 42\n\n".getBytes(StandardCharsets.UTF_8))) {
+ *     subscribers.remove(channel); // Gone, or not reading
+ * }
+ * }</pre>
+ */
+public interface PushChannel {
+
+    /**
+     * Queues bytes for the client. Never blocks: a client that stops reading while too much is
+     * queued for it is disconnected instead.
+     *
+     * @param data the bytes, not modified afterwards
+     * @return false if the connection is closed, in which case nothing was queued
+     */
+    boolean push(byte[] data);
+
+    /**
+     * Returns true until the connection is closed, by either side.
+     *
+     * @return whether pushing can still succeed
+     */
+    boolean isOpen();
+
+    /**
+     * Sets what to run once the connection is closed, by either side. It runs on an engine
+     * thread and must not block.
+     *
+     * @param handler the handler, replacing any previous one
+     */
+    void onClose(Runnable handler);
+
+    /**
+     * Closes the connection once what was pushed has been written.
+     */
+    void close();
+}
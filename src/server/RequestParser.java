@@ -1,139 +1,472 @@
 package server;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * RequestParser provides utility methods for parsing HTTP requests.
  * Handles parsing of request lines, headers, query parameters, and request bodies.
- * 
+ *
+ * <p>Parsing works on raw bytes. The request head is scanned once and only offsets are kept;
+ * the URI, query parameters and headers are decoded into strings when a servlet asks for them.
+ * The body is never decoded: it is available as exact bytes or as a stream.
+ *
  * <p>Example usage:
  * <pre>{@code
- * BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
- * RequestInfo info = RequestParser.parseRequest(reader);
- * 
+ * RequestParser.RequestReader reader = new RequestParser.RequestReader(socket.getInputStream());
+ * RequestInfo info = reader.next();
+ *
  * String method = info.getHttpCommand();  // "GET", "POST", etc.
  * String uri = info.getUri();             // "/api/users"
  * Map<String, String> params = info.getParameters();  // Query parameters
  * byte[] body = info.getContent();        // Request body content
  * }</pre>
+ *
+ * <p>Bodies are framed by {@code Content-Length} only. A request with {@code Transfer-Encoding}
+ * or with more than one {@code Content-Length} is refused with a {@link BadRequestException}:
+ * the end of its body would be guessed, and the rest taken for the next request on the
+ * connection, so the server answers it with {@code Connection: close} and drops the connection.
  */
 public class RequestParser {
+    /**
+     * Thrown for a request that cannot be served, with the status to answer it with before the
+     * connection is closed.
+     */
+    public static class BadRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final String statusLine;
+
+        /**
+         * @param statusLine the status code and reason phrase, e.g. {@code "411 Length Required"}
+         * @param message what is wrong with the request
+         */
+        public BadRequestException(String statusLine, String message) {
+            super(message);
+            this.statusLine = statusLine;
+        }
+
+        /**
+         * Returns the status to answer the request with.
+         *
+         * @return the status code and reason phrase, e.g. {@code "400 Bad Request"}
+         */
+        public String getStatusLine() {
+            return statusLine;
+        }
+    }
+
+    /** Largest accepted request head (request line and headers). */
+    public static final int MAX_HEADER_BYTES = 64 * 1024;
 
     /**
-     * Parses an HTTP request from the given BufferedReader.
+     * Parses an HTTP request that is completely held in memory. The returned request reads
+     * its body straight from {@code buf}, which must not change while the request is handled.
      *
-     * @param reader the BufferedReader to read the request from
+     * @param buf the buffer holding the request
+     * @param off offset of the request line
+     * @param len number of bytes of the request, head and body
      * @return a RequestInfo object containing the parsed request information
-     * @throws IOException if an I/O error occurs
+     * @throws IOException if the request is malformed or incomplete
      */
-    public static RequestInfo parseRequest(BufferedReader reader) throws IOException {
-        String requestLine = reader.readLine(); // Read the first line (request line)
+    public static RequestInfo parseRequest(byte[] buf, int off, int len) throws IOException {
+        int headEnd = findHeaderEnd(buf, off, off + len);
+        if (headEnd < 0) {
+            throw new IOException("Incomplete request headers");
+        }
+        RequestInfo info = parseHead(buf, off, headEnd);
+        if (headEnd + info.contentLength > off + len) {
+            throw new IOException("Incomplete request body");
+        }
+        info.setBody(buf, headEnd, (int) info.contentLength);
+        return info;
+    }
 
-        if (requestLine == null) {
-            throw new IOException();
+    /**
+     * Finds the end of the request head, accepting both CRLF and bare LF line endings.
+     *
+     * @return the index just past the blank line, or -1 if it is not in {@code [from, to)}
+     */
+    static int findHeaderEnd(byte[] a, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] == '\n' && (a[i - 1] == '\n' || (a[i - 1] == '\r' && i - 2 >= from && a[i - 2] == '\n'))) {
+                return i + 1;
+            }
         }
+        return -1;
+    }
 
-        String[] requestParts = requestLine.split(" "); // Split by spaces
-        // Extract HTTP method, URI, and protocol version
-        String httpMethod = requestParts[0];
-        String requestUri = requestParts[1];
+    /**
+     * Parses the request line and headers in {@code a[off, end)}, which must end with the blank line.
+     * Only offsets are recorded, the returned request decodes its fields on demand.
+     */
+    static RequestInfo parseHead(byte[] a, int off, int end) throws IOException {
+        int lineEnd = indexOf(a, (byte) '\n', off, end);
+        int requestLineEnd = lineEnd > off && a[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
 
-        // Parse query parameters first (if any)
-        Map<String, String> queryParams = extractQueryParameters(requestUri);
+        // Request line: METHOD SP URI [SP VERSION]
+        int sp1 = indexOf(a, (byte) ' ', off, requestLineEnd);
+        if (sp1 <= off) {
+            throw new BadRequestException("400 Bad Request", "Malformed request line: " + ascii(a, off, requestLineEnd));
+        }
+        int uriStart = sp1 + 1;
+        int sp2 = indexOf(a, (byte) ' ', uriStart, requestLineEnd);
+        int uriEnd = sp2 < 0 ? requestLineEnd : sp2;
+        if (uriEnd == uriStart) {
+            throw new BadRequestException("400 Bad Request", "Malformed request line: " + ascii(a, off, requestLineEnd));
+        }
 
-        // Extract URI segments
-        String[] uriSegments = extractUriSegments(requestUri);
+        RequestInfo info = new RequestInfo(method(a, off, sp1), a, uriStart, uriEnd);
+        if (sp2 >= 0) {
+            info.httpVersion = version(a, sp2 + 1, requestLineEnd);
+        }
 
-        // Parse HTTP headers
-        Map<String, String> httpHeaders = new HashMap<>();
-        int contentLength = parseHeaders(reader, httpHeaders, queryParams);
+        // Headers: record name and value offsets, pick out the body framing on the way
+        int[] fields = new int[32];
+        int count = 0;
+        boolean lengthSeen = false;
+        int lineStart = lineEnd + 1;
+        while (lineStart < end) {
+            lineEnd = indexOf(a, (byte) '\n', lineStart, end);
+            int stop = lineEnd > lineStart && a[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (stop == lineStart) {
+                break; // Blank line, end of the head
+            }
+            int colon = indexOf(a, (byte) ':', lineStart, stop);
+            if (colon > lineStart) {
+                int nameEnd = trimEnd(a, lineStart, colon);
+                int valueStart = trimStart(a, colon + 1, stop);
+                int valueEnd = trimEnd(a, valueStart, stop);
+                if (count + 4 > fields.length) {
+                    fields = Arrays.copyOf(fields, fields.length * 2);
+                }
+                fields[count++] = lineStart;
+                fields[count++] = nameEnd;
+                fields[count++] = valueStart;
+                fields[count++] = valueEnd;
+                if (equalsIgnoreCase(a, lineStart, nameEnd, "Content-Length")) {
+                    if (lengthSeen) {
+                        throw new BadRequestException("400 Bad Request", "More than one Content-Length header");
+                    }
+                    lengthSeen = true;
+                    info.contentLength = parseLength(a, valueStart, valueEnd);
+                } else if (equalsIgnoreCase(a, lineStart, nameEnd, "Transfer-Encoding")) {
+                    // Only Content-Length frames bodies here, anything else would desync the connection
+                    if (equalsIgnoreCase(a, valueStart, valueEnd, "chunked")) {
+                        throw new BadRequestException("411 Length Required", "Chunked request bodies are not supported, send Content-Length");
+                    }
+                    throw new BadRequestException("501 Not Implemented", "Unsupported Transfer-Encoding: " + ascii(a, valueStart, valueEnd));
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        info.headerFields = fields;
+        info.headerFieldCount = count;
+        return info;
+    }
+
+    private static int indexOf(byte[] a, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (a[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        // Process request body
-        String bodyContent = "";
-        if (contentLength > 0) {
-            bodyContent = processRequestBody(reader, contentLength);
+    private static int trimStart(byte[] a, int from, int to) {
+        while (from < to && (a[from] == ' ' || a[from] == '\t')) {
+            from++;
         }
+        return from;
+    }
 
-        return new RequestInfo(httpMethod, requestUri.trim(), uriSegments, queryParams, bodyContent.getBytes());
+    private static int trimEnd(byte[] a, int from, int to) {
+        while (to > from && (a[to - 1] == ' ' || a[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    static boolean equalsIgnoreCase(byte[] a, int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int c = a[from + i];
+            int d = s.charAt(i);
+            if (c != d && (c | 0x20) != (d | 0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLength(byte[] a, int from, int to) throws IOException {
+        if (from == to || to - from > 18) {
+            throw new BadRequestException("400 Bad Request", "Invalid Content-Length: " + ascii(a, from, to));
+        }
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            int d = a[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new BadRequestException("400 Bad Request", "Invalid Content-Length: " + ascii(a, from, to));
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    // Common methods and versions map to constants, so the request line costs no allocation
+    private static String method(byte[] a, int from, int to) {
+        if (equalsIgnoreCase(a, from, to, "GET")) {
+            return "GET";
+        } else if (equalsIgnoreCase(a, from, to, "POST")) {
+            return "POST";
+        } else if (equalsIgnoreCase(a, from, to, "DELETE")) {
+            return "DELETE";
+        }
+        return ascii(a, from, to);
+    }
+
+    private static String version(byte[] a, int from, int to) {
+        to = trimEnd(a, from, to);
+        if (equalsIgnoreCase(a, from, to, "HTTP/1.1")) {
+            return "HTTP/1.1";
+        } else if (equalsIgnoreCase(a, from, to, "HTTP/1.0")) {
+            return "HTTP/1.0";
+        }
+        return ascii(a, from, to);
+    }
+
+    private static String ascii(byte[] a, int from, int to) {
+        return new String(a, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String utf8(byte[] a, int from, int to) {
+        return new String(a, from, to - from, StandardCharsets.UTF_8);
     }
 
     private static Map<String, String> extractQueryParameters(String uri) {
         Map<String, String> queryParams = new HashMap<>();
-        
-        if (uri.contains("?")) {
-            String[] uriParts = uri.split("\\?");
-            String[] parameterPairs = uriParts[1].split("&");
-            for (String paramPair : parameterPairs) {
-                String[] keyValue = paramPair.split("=");
-                if (keyValue.length == 2) {
-                    queryParams.put(keyValue[0], keyValue[1]);
-                }
+        int q = uri.indexOf('?');
+        if (q < 0) {
+            return queryParams;
+        }
+        int i = q + 1;
+        while (i <= uri.length()) {
+            int amp = uri.indexOf('&', i);
+            if (amp < 0) {
+                amp = uri.length();
+            }
+            int eq = uri.indexOf('=', i);
+            // Only "key=value" pairs with both parts present and a single '=' are kept
+            if (eq > i && eq < amp - 1 && uri.lastIndexOf('=', amp - 1) == eq) {
+                queryParams.put(uri.substring(i, eq), uri.substring(eq + 1, amp));
             }
+            i = amp + 1;
         }
-        
         return queryParams;
     }
 
     private static String[] extractUriSegments(String uri) {
         ArrayList<String> pathSegments = new ArrayList<>();
-        
-        for (String segment : uri.split("/")) {
-            if (!segment.isEmpty()) {
-                if (segment.contains("?")) {
-                    pathSegments.add(segment.split("\\?")[0]);
-                } else {
-                    pathSegments.add(segment);
-                }
+        int q = uri.indexOf('?');
+        int end = q < 0 ? uri.length() : q;
+        int start = 0;
+        while (start < end) {
+            int slash = uri.indexOf('/', start);
+            if (slash < 0 || slash > end) {
+                slash = end;
+            }
+            if (slash > start) {
+                pathSegments.add(uri.substring(start, slash));
             }
+            start = slash + 1;
         }
-        
         return pathSegments.toArray(new String[0]);
     }
 
-    private static int parseHeaders(BufferedReader reader, Map<String, String> headers, Map<String, String> params) throws IOException {
-        String currentLine;
-        int contentLength = 0;
-        
-        while (!(currentLine = reader.readLine()).isEmpty()) {
-            String[] headerParts = currentLine.split(": ");
-            if (headerParts.length == 2) {
-                headers.put(headerParts[0], headerParts[1]);
-                if (headerParts[0].equalsIgnoreCase("Content-Length")) {
-                    contentLength = Integer.parseInt(headerParts[1]);
-                }
-            }
+    // Returns the content of the first part of a multipart/form-data body, or the body itself if it has none
+    private static byte[] firstMultipartPart(byte[] body, String contentType) {
+        String boundary = MultipartStream.boundary(contentType);
+        if (boundary == null) {
+            return body;
+        }
+        try {
+            MultipartStream.Part part = new MultipartStream(new ByteArrayInputStream(body), boundary, Long.MAX_VALUE).next();
+            return part == null ? new byte[0] : part.getInputStream().readAllBytes();
+        } catch (IOException e) {
+            return body; // Not well-formed multipart, hand over the raw body
         }
-        
-        return contentLength;
     }
 
-    private static String processRequestBody(BufferedReader reader, int contentLength) throws IOException {
-        String currentLine;
-        Map<String, String> tempParams = new HashMap<>();
-        
-        // Process multipart form data headers
-        while (!(currentLine = reader.readLine()).isEmpty()) {
-            if (currentLine.contains("filename=")) {
-                tempParams.put("filename", currentLine.split("filename=")[1]);
+    /**
+     * Reads requests one after the other from a connection. Bytes are read into a buffer
+     * that is reused for every request, and anything read past the end of a request is kept
+     * as the start of the next one, so pipelined requests are parsed correctly.
+     *
+     * <p>A request returned by {@link #next()} is valid until the following call to
+     * {@code next()}, which first skips whatever part of its body was not consumed.
+     */
+    public static class RequestReader {
+        private final InputStream in;
+        private byte[] buf = new byte[8192];
+        private int pos = 0;
+        private int limit = 0;
+        private RequestInfo previous;
+
+        /**
+         * @param in the connection's input stream
+         */
+        public RequestReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the head of the next request. Its body is read from the connection as the servlet consumes it.
+         *
+         * @return the parsed request
+         * @throws EOFException if the connection is closed before or in the middle of the request head
+         * @throws IOException if reading fails or the request is malformed
+         */
+        public RequestInfo next() throws IOException {
+            if (previous != null) {
+                previous.drainBody();
+                previous.detach(); // Its head points into buf, which is about to be reused
+                previous = null;
+            }
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+
+            int scanned = 0;
+            int headEnd;
+            while (true) {
+                // Line breaks between pipelined requests are allowed and ignored
+                while (pos < limit && (buf[pos] == '\r' || buf[pos] == '\n')) {
+                    pos++;
+                }
+                headEnd = findHeaderEnd(buf, Math.max(pos, scanned - 3), limit);
+                if (headEnd >= 0) {
+                    break;
+                }
+                scanned = limit;
+                if (limit == buf.length) {
+                    if (pos > 0) {
+                        System.arraycopy(buf, pos, buf, 0, limit - pos);
+                        limit -= pos;
+                        scanned -= pos;
+                        pos = 0;
+                    } else if (buf.length >= MAX_HEADER_BYTES) {
+                        throw new IOException("Request headers exceed " + MAX_HEADER_BYTES + " bytes");
+                    } else {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                }
+                int n = in.read(buf, limit, buf.length - limit);
+                if (n < 0) {
+                    throw new EOFException(pos == limit
+                            ? "Connection closed before a request line was received"
+                            : "Connection closed in the middle of the request headers");
+                }
+                limit += n;
             }
+
+            RequestInfo info = parseHead(buf, pos, headEnd);
+            pos = headEnd;
+            info.bodyStream = new BodyStream(info.contentLength);
+            previous = info;
+            return info;
         }
-        
-        // Read the actual content
-        char[] contentBuffer = new char[contentLength];
-        reader.read(contentBuffer, 0, contentLength);
-        String bodyContent = new String(contentBuffer);
-        bodyContent = bodyContent.split("-")[0].trim();
 
-        // Clear remaining buffer
-        while (reader.ready()) {
-            reader.readLine();
+        /**
+         * Stream over one request body: first the bytes already buffered, then the connection,
+         * never past Content-Length.
+         */
+        private class BodyStream extends InputStream {
+            private long remaining;
+
+            BodyStream(long contentLength) {
+                this.remaining = contentLength;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                int n;
+                if (pos < limit) {
+                    n = (int) Math.min(Math.min(len, limit - pos), remaining);
+                    System.arraycopy(buf, pos, b, off, n);
+                    pos += n;
+                } else {
+                    n = in.read(b, off, (int) Math.min(len, remaining));
+                    if (n < 0) {
+                        remaining = 0;
+                        throw new EOFException("Connection closed in the middle of the request body");
+                    }
+                }
+                remaining -= n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = 0;
+                if (pos < limit) {
+                    skipped = Math.min(Math.min(n, limit - pos), remaining);
+                    pos += (int) skipped;
+                    remaining -= skipped;
+                }
+                while (skipped < n && remaining > 0) {
+                    long s = in.skip(Math.min(n - skipped, remaining));
+                    if (s <= 0) {
+                        // skip may return 0 on sockets, fall back to reading
+                        byte[] scratch = new byte[(int) Math.min(8192, Math.min(n - skipped, remaining))];
+                        s = read(scratch, 0, scratch.length);
+                        if (s < 0) {
+                            break;
+                        }
+                    } else {
+                        remaining -= s;
+                    }
+                    skipped += s;
+                }
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(limit - pos, remaining);
+            }
+
+            @Override
+            public void close() {
+                // The socket is owned by the server
+            }
         }
-        
-        return bodyContent;
     }
 
     /**
@@ -141,10 +474,28 @@ public class RequestParser {
      */
     public static class RequestInfo {
         private final String httpMethod;
-        private final String requestUri;
-        private final String[] pathSegments;
-        private final Map<String, String> queryParameters;
-        private final byte[] bodyContent;
+        private String requestUri;
+        private String[] pathSegments;
+        private Map<String, String> queryParameters;
+        private Map<String, String> headers;
+        private Map<String, String> pathParameters = java.util.Collections.emptyMap();
+        private String httpVersion = "HTTP/1.0";
+
+        // Raw request head for fields that are decoded on demand, null once nothing needs it
+        private byte[] head;
+        private int uriStart;
+        private int uriEnd;
+        private int[] headerFields; // nameStart, nameEnd, valueStart, valueEnd per header
+        private int headerFieldCount;
+        private long contentLength;
+
+        // Body: already in memory (bodyContent, or a slice of a buffer), or still on the connection (bodyStream)
+        private byte[] bodyContent;
+        private byte[] bodyArray;
+        private int bodyOffset;
+        private InputStream bodyStream;
+        private PushChannel pushChannel; // null unless the engine can keep the response open without a thread
+        private boolean detached = false;
 
         /**
          * Constructs a RequestInfo object with the specified parameters.
@@ -156,11 +507,56 @@ public class RequestParser {
          * @param bodyContent the content of the request
          */
         public RequestInfo(String httpMethod, String requestUri, String[] pathSegments, Map<String, String> queryParameters, byte[] bodyContent) {
+            this(httpMethod, requestUri, pathSegments, queryParameters, new HashMap<>(), bodyContent);
+        }
+
+        /**
+         * Constructs a RequestInfo object whose body has already been read.
+         *
+         * @param httpMethod the HTTP method (e.g., GET, POST)
+         * @param requestUri the URI of the request
+         * @param pathSegments the segments of the URI
+         * @param queryParameters the query parameters of the request
+         * @param headers the HTTP headers of the request
+         * @param bodyContent the content of the request
+         */
+        public RequestInfo(String httpMethod, String requestUri, String[] pathSegments, Map<String, String> queryParameters, Map<String, String> headers, byte[] bodyContent) {
             this.httpMethod = httpMethod;
             this.requestUri = requestUri;
             this.pathSegments = pathSegments;
             this.queryParameters = queryParameters;
+            this.headers = headers;
             this.bodyContent = bodyContent;
+            this.contentLength = bodyContent.length;
+        }
+
+        /**
+         * Constructs a RequestInfo object whose body is still on the connection.
+         *
+         * @param httpMethod the HTTP method (e.g., GET, POST)
+         * @param requestUri the URI of the request
+         * @param pathSegments the segments of the URI
+         * @param queryParameters the query parameters of the request
+         * @param headers the HTTP headers of the request
+         * @param bodyStream stream positioned at the start of the body, limited to its length
+         * @param contentLength the length of the body in bytes
+         */
+        public RequestInfo(String httpMethod, String requestUri, String[] pathSegments, Map<String, String> queryParameters, Map<String, String> headers, InputStream bodyStream, long contentLength) {
+            this.httpMethod = httpMethod;
+            this.requestUri = requestUri;
+            this.pathSegments = pathSegments;
+            this.queryParameters = queryParameters;
+            this.headers = headers;
+            this.bodyStream = bodyStream;
+            this.contentLength = contentLength;
+        }
+
+        // Request parsed from raw bytes, fields are decoded from head on demand
+        private RequestInfo(String httpMethod, byte[] head, int uriStart, int uriEnd) {
+            this.httpMethod = httpMethod;
+            this.head = head;
+            this.uriStart = uriStart;
+            this.uriEnd = uriEnd;
         }
 
         /**
@@ -178,6 +574,9 @@ public class RequestParser {
          * @return the URI
          */
         public String getUri() {
+            if (requestUri == null) {
+                requestUri = utf8(head, uriStart, uriEnd);
+            }
             return requestUri;
         }
 
@@ -187,6 +586,9 @@ public class RequestParser {
          * @return the URI segments
          */
         public String[] getUriSegments() {
+            if (pathSegments == null) {
+                pathSegments = extractUriSegments(getUri());
+            }
             return pathSegments;
         }
 
@@ -196,16 +598,227 @@ public class RequestParser {
          * @return the query parameters
          */
         public Map<String, String> getParameters() {
+            if (queryParameters == null) {
+                queryParameters = extractQueryParameters(getUri());
+            }
             return queryParameters;
         }
 
         /**
-         * Returns the content of the request.
+         * Returns the values of the path parameters of the matched route, e.g. {@code name}
+         * for a servlet registered at {@code /topics/{name}}.
+         *
+         * @return the path parameters, empty if the route has none
+         */
+        public Map<String, String> getPathParameters() {
+            return pathParameters;
+        }
+
+        void setPathParameters(Map<String, String> pathParameters) {
+            this.pathParameters = pathParameters;
+        }
+
+        // Set by engines that can keep the response open without a thread, see HttpResponse.detach()
+        void setPushChannel(PushChannel pushChannel) {
+            this.pushChannel = pushChannel;
+        }
+
+        PushChannel getPushChannel() {
+            return pushChannel;
+        }
+
+        // The servlet took the push channel, the engine must keep the connection open after it returns
+        void markDetached() {
+            detached = true;
+        }
+
+        boolean isDetached() {
+            return detached;
+        }
+
+        /**
+         * Returns the protocol version from the request line, e.g. "HTTP/1.1".
+         *
+         * @return the HTTP version
+         */
+        public String getHttpVersion() {
+            return httpVersion;
+        }
+
+        /**
+         * Returns the HTTP headers of the request. Parsed requests return a map whose
+         * lookups ignore case, as header names do.
+         *
+         * @return the headers
+         */
+        public Map<String, String> getHeaders() {
+            if (headers == null) {
+                Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (int i = 0; i < headerFieldCount; i += 4) {
+                    map.put(ascii(head, headerFields[i], headerFields[i + 1]),
+                            utf8(head, headerFields[i + 2], headerFields[i + 3]));
+                }
+                headers = map;
+            }
+            return headers;
+        }
+
+        /**
+         * Returns one header value without decoding the others.
+         *
+         * @param name the header name, matched ignoring case
+         * @return the value, or null if the request has no such header
+         */
+        public String getHeader(String name) {
+            if (headers == null) {
+                for (int i = 0; i < headerFieldCount; i += 4) {
+                    if (equalsIgnoreCase(head, headerFields[i], headerFields[i + 1], name)) {
+                        return utf8(head, headerFields[i + 2], headerFields[i + 3]);
+                    }
+                }
+                return null;
+            }
+            String value = headers.get(name);
+            if (value == null) {
+                for (Map.Entry<String, String> e : headers.entrySet()) {
+                    if (e.getKey().equalsIgnoreCase(name)) {
+                        return e.getValue();
+                    }
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Returns the declared length of the body in bytes.
+         *
+         * @return the Content-Length, 0 if absent
+         */
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * Returns the content of the request, byte for byte. If the body is still on the
+         * connection it is read completely first. For a multipart/form-data request this is
+         * the content of its first part, e.g. the uploaded file.
          *
          * @return the content
+         * @throws java.io.UncheckedIOException if reading a pending body fails
          */
         public byte[] getContent() {
+            if (bodyContent == null) {
+                byte[] body;
+                if (bodyArray != null) {
+                    body = Arrays.copyOfRange(bodyArray, bodyOffset, bodyOffset + (int) contentLength);
+                } else {
+                    try {
+                        body = readBody();
+                    } catch (IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                }
+                String contentType = getHeader("Content-Type");
+                if (contentType != null && contentType.toLowerCase().startsWith("multipart/")) {
+                    body = firstMultipartPart(body, contentType);
+                }
+                bodyContent = body;
+            }
             return bodyContent;
         }
+
+        private byte[] readBody() throws IOException {
+            if (contentLength > Integer.MAX_VALUE - 8) {
+                throw new IOException("Request body too large to hold in memory: " + contentLength + " bytes");
+            }
+            byte[] body = new byte[(int) contentLength];
+            int n = 0;
+            while (n < body.length) {
+                int r = bodyStream.read(body, n, body.length - n);
+                if (r < 0) {
+                    throw new EOFException("Connection closed in the middle of the request body");
+                }
+                n += r;
+            }
+            return body;
+        }
+
+        /**
+         * Returns a stream over the raw request body, so large or binary bodies can be
+         * consumed incrementally without holding them in memory. The body can be consumed once.
+         *
+         * @return the body stream
+         */
+        public InputStream getBodyStream() {
+            if (bodyContent != null) {
+                return new ByteArrayInputStream(bodyContent);
+            }
+            if (bodyArray != null) {
+                return new ByteArrayInputStream(bodyArray, bodyOffset, (int) contentLength);
+            }
+            bodyContent = new byte[0]; // The stream can only be consumed once
+            return bodyStream;
+        }
+
+        /**
+         * Returns a UTF-8 reader over the request body, so text bodies can be consumed
+         * record by record without holding them in memory.
+         *
+         * @return the body reader
+         */
+        public Reader getBodyReader() {
+            return new InputStreamReader(getBodyStream(), StandardCharsets.UTF_8);
+        }
+
+        // Body held in a buffer owned by the caller
+        void setBody(byte[] array, int offset, int length) {
+            this.bodyArray = array;
+            this.bodyOffset = offset;
+            this.contentLength = length;
+        }
+
+        /**
+         * Returns true if part of the body is still on the connection, unread.
+         *
+         * @return whether the connection holds unread body bytes
+         */
+        boolean hasUnreadBody() {
+            return bodyStream instanceof RequestReader.BodyStream && ((RequestReader.BodyStream) bodyStream).remaining > 0;
+        }
+
+        /**
+         * Reads and discards whatever part of the body the servlet did not consume,
+         * so the next request on a persistent connection starts at the right place.
+         *
+         * @throws IOException if reading fails
+         */
+        void drainBody() throws IOException {
+            if (bodyStream == null) {
+                return;
+            }
+            while (bodyStream.skip(Long.MAX_VALUE) > 0) {
+                // Discard
+            }
+            bodyStream = null;
+        }
+
+        // Copies what is still needed from the shared head buffer before it is reused
+        private void detach() {
+            if (head == null) {
+                return;
+            }
+            if (requestUri != null && headers != null) {
+                head = null;
+                return;
+            }
+            int start = Math.min(uriStart, headerFieldCount > 0 ? headerFields[0] : uriStart);
+            int end = Math.max(uriEnd, headerFieldCount > 0 ? headerFields[headerFieldCount - 1] : uriEnd);
+            head = Arrays.copyOfRange(head, start, end);
+            uriStart -= start;
+            uriEnd -= start;
+            for (int i = 0; i < headerFieldCount; i++) {
+                headerFields[i] -= start;
+            }
+        }
     }
-}
\ No newline at end of file
+}
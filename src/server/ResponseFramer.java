@@ -0,0 +1,188 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output stream handed to servlets on persistent connections. It guarantees that every
+ * response is correctly framed, so the next response on the same connection starts where
+ * the client expects it.
+ *
+ * <p>A response whose headers say {@code Connection: close} is streamed through unchanged and
+ * ends the connection. Any other response is buffered; on {@link #finish()} its headers are
+ * rewritten with the exact body length in bytes and the connection's keep-alive state.
+ * This also fixes servlets that compute Content-Length in characters or omit it.
+ *
+ * <p>Responses whose framing is known to be right are streamed through as well, with only the
+ * connection headers rewritten: chunked responses, and responses written with {@link HttpResponse}.
+ */
+class ResponseFramer extends OutputStream {
+    private final OutputStream sink;
+    private final boolean keepAlive;
+    private final String keepAliveHeader;
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+    private int headEnd = -1; // Offset of the body in buf, -1 until the blank line is seen
+    private int scanFrom = 0;
+    private boolean streaming = false;
+    private boolean closeAfter = true; // For a streamed response: whether the connection ends with it
+    private boolean trusted = false;
+
+    /**
+     * @param sink where the framed response is written
+     * @param keepAlive whether the connection stays open after this response
+     * @param timeoutSeconds idle timeout advertised in the Keep-Alive header
+     * @param remainingRequests requests still allowed on the connection after this one
+     */
+    ResponseFramer(OutputStream sink, boolean keepAlive, long timeoutSeconds, int remainingRequests) {
+        this.sink = sink;
+        this.keepAlive = keepAlive;
+        this.keepAliveHeader = "Keep-Alive: timeout=" + timeoutSeconds + ", max=" + remainingRequests + "\r\n";
+    }
+
+    /**
+     * Declares that the response will carry an exact Content-Length or chunked framing, so it
+     * can be streamed instead of buffered.
+     */
+    void trustFraming() {
+        trusted = true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (streaming) {
+            sink.write(b, off, len);
+            return;
+        }
+        buf.write(b, off, len);
+        if (headEnd < 0) {
+            findHeadEnd();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Buffered responses are only sent by finish(), streamed ones go out when the servlet flushes
+        if (streaming) {
+            sink.flush();
+        }
+    }
+
+    private void findHeadEnd() throws IOException {
+        byte[] a = buf.toByteArray();
+        for (int i = Math.max(scanFrom, 1); i < a.length; i++) {
+            if (a[i] == '\n' && (a[i - 1] == '\n' || (i >= 3 && a[i - 1] == '\r' && a[i - 2] == '\n' && a[i - 3] == '\r'))) {
+                headEnd = i + 1;
+                break;
+            }
+        }
+        scanFrom = a.length;
+        if (headEnd < 0) {
+            return;
+        }
+        String head = head(a);
+        if (hasHeader(head, "connection", "close")) {
+            // The servlet ends the connection itself, so its response needs no length and can stream
+            streaming = true;
+            sink.write(a);
+            buf.reset();
+        } else if (hasHeader(head, "transfer-encoding", "chunked") || (trusted && hasHeader(head, "content-length", null))) {
+            // The response delimits itself, so it can stream and still leave the connection usable
+            streaming = true;
+            closeAfter = !keepAlive;
+            sink.write(rewriteHead(head, -1));
+            sink.write(a, headEnd, a.length - headEnd);
+            buf.reset();
+        }
+    }
+
+    private String head(byte[] a) {
+        return new String(a, 0, headEnd, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean hasHeader(String head, String name, String value) {
+        for (String line : head.split("\r?\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)
+                    && (value == null || line.substring(colon + 1).trim().equalsIgnoreCase(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends the response.
+     *
+     * @return true if the connection must be closed after this response
+     * @throws IOException if writing fails
+     */
+    boolean finish() throws IOException {
+        if (streaming) {
+            sink.flush();
+            return closeAfter;
+        }
+        byte[] a = buf.toByteArray();
+        if (headEnd < 0) {
+            // Nothing usable was written, answer with an error rather than leave the client waiting
+            String body = a.length == 0 ? "Empty response" : "Malformed response";
+            sink.write(("HTTP/1.1 500 Internal Server Error\r\nContent-Type: text/plain\r\nContent-Length: "
+                    + body.length() + "\r\nConnection: close\r\n\r\n" + body).getBytes(StandardCharsets.ISO_8859_1));
+            sink.flush();
+            return true;
+        }
+
+        sink.write(rewriteHead(head(a), a.length - headEnd));
+        sink.write(a, headEnd, a.length - headEnd);
+        sink.flush();
+        return !keepAlive;
+    }
+
+    // Replaces the connection headers, and the length unless contentLength is negative
+    private byte[] rewriteHead(String original, long contentLength) {
+        StringBuilder head = new StringBuilder(original.length() + 64);
+        String[] lines = original.split("\r?\n");
+        head.append(lines[0]).append("\r\n"); // Status line
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            String name = colon > 0 ? line.substring(0, colon).trim() : "";
+            if (line.isEmpty() || name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Keep-Alive")
+                    || (contentLength >= 0 && (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")))) {
+                continue;
+            }
+            head.append(line).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (keepAlive) {
+            head.append("Connection: keep-alive\r\n").append(keepAliveHeader);
+        } else {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decides whether a request allows its connection to be reused: HTTP/1.1 unless it sends
+     * {@code Connection: close}, HTTP/1.0 only with {@code Connection: keep-alive}.
+     *
+     * @param ri the parsed request
+     * @return true if the client accepts a persistent connection
+     */
+    static boolean clientWantsKeepAlive(RequestParser.RequestInfo ri) {
+        String connection = ri.getHeader("Connection");
+        if ("HTTP/1.1".equalsIgnoreCase(ri.getHttpVersion())) {
+            return !"close".equalsIgnoreCase(connection);
+        }
+        return "keep-alive".equalsIgnoreCase(connection);
+    }
+}
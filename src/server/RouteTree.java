@@ -0,0 +1,296 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import servlets.Servlet;
+
+/**
+ * Radix tree of URI patterns for one HTTP method, with longest prefix matching.
+ *
+ * <p>A pattern is a URI prefix such as {@code /app/}, optionally with whole-segment path
+ * parameters such as {@code /topics/{name}}. A parameter matches one non-empty segment,
+ * i.e. everything up to the next '/' or '?'. As with plain prefixes, the route that matches
+ * the most characters of the URI wins; at equal length a literal segment wins over a parameter.
+ *
+ * <p>Lookups walk the tree along the URI, so their cost depends on the URI length and not
+ * on the number of routes. The tree is immutable: registering or removing a route rebuilds
+ * it and publishes the new root, so lookups never lock.
+ */
+class RouteTree {
+    private final Map<String, Route> routes = new LinkedHashMap<>(); // Guarded by this
+    private volatile Node root = null;
+
+    /**
+     * Result of a lookup: the servlet and the values of the path parameters of its pattern.
+     */
+    static final class Match {
+        final Servlet servlet;
+        final String pattern;
+        final Map<String, String> pathParameters;
+
+        Match(Servlet servlet, String pattern, Map<String, String> pathParameters) {
+            this.servlet = servlet;
+            this.pattern = pattern;
+            this.pathParameters = pathParameters;
+        }
+    }
+
+    private static final class Route {
+        final String pattern;
+        final Servlet servlet;
+        final String[] paramNames;
+
+        Route(String pattern, Servlet servlet, String[] paramNames) {
+            this.pattern = pattern;
+            this.servlet = servlet;
+            this.paramNames = paramNames;
+        }
+    }
+
+    /**
+     * Registers a pattern, replacing the servlet of an identical pattern.
+     *
+     * @throws IllegalArgumentException if a parameter does not span a whole segment or has no name
+     */
+    synchronized void put(String pattern, Servlet servlet) {
+        routes.put(pattern, new Route(pattern, servlet, paramNames(pattern)));
+        root = build(routes.values());
+    }
+
+    synchronized void remove(String pattern) {
+        if (routes.remove(pattern) != null) {
+            root = routes.isEmpty() ? null : build(routes.values());
+        }
+    }
+
+    synchronized Collection<Servlet> servlets() {
+        List<Servlet> list = new ArrayList<>(routes.size());
+        for (Route r : routes.values()) {
+            list.add(r.servlet);
+        }
+        return list;
+    }
+
+    /**
+     * Finds the route matching the longest prefix of the URI.
+     *
+     * @param uri the request URI, query string included
+     * @return the match, or null if no route matches
+     */
+    Match find(String uri) {
+        Node r = root;
+        if (r == null) {
+            return null;
+        }
+        Lookup lookup = new Lookup(uri);
+        lookup.visit(r, 0, 0);
+        if (lookup.best == null) {
+            return null;
+        }
+        Route route = lookup.best;
+        Map<String, String> params;
+        if (route.paramNames.length == 0) {
+            params = Collections.emptyMap();
+        } else {
+            params = new HashMap<>(route.paramNames.length * 2);
+            for (int i = 0; i < route.paramNames.length; i++) {
+                params.put(route.paramNames[i], uri.substring(lookup.bestBounds[2 * i], lookup.bestBounds[2 * i + 1]));
+            }
+        }
+        return new Match(route.servlet, route.pattern, params);
+    }
+
+    // Depth-first walk that remembers the longest match and the parameter bounds that led to it
+    private static final class Lookup {
+        final String uri;
+        Route best;
+        int bestLength = -1;
+        int[] bounds = new int[0];
+        int[] bestBounds;
+
+        Lookup(String uri) {
+            this.uri = uri;
+        }
+
+        void visit(Node node, int pos, int params) {
+            if (!uri.startsWith(node.label, pos)) {
+                return;
+            }
+            pos += node.label.length();
+            if (node.route != null && pos > bestLength) {
+                best = node.route;
+                bestLength = pos;
+                bestBounds = params == 0 ? null : Arrays.copyOf(bounds, 2 * params);
+            }
+            if (pos >= uri.length()) {
+                return;
+            }
+            Node child = node.child(uri.charAt(pos));
+            if (child != null) {
+                visit(child, pos, params);
+            }
+            if (node.param != null) {
+                int end = pos;
+                while (end < uri.length() && uri.charAt(end) != '/' && uri.charAt(end) != '?') {
+                    end++;
+                }
+                if (end > pos) {
+                    if (bounds.length < 2 * params + 2) {
+                        bounds = Arrays.copyOf(bounds, Math.max(8, bounds.length * 2));
+                    }
+                    bounds[2 * params] = pos;
+                    bounds[2 * params + 1] = end;
+                    visit(node.param, end, params + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable tree node. {@code label} is the literal text consumed on entering the node
+     * (empty for the node reached through a parameter).
+     */
+    private static final class Node {
+        final String label;
+        final char[] firstChars; // Sorted, parallel to children
+        final Node[] children;
+        final Node param;
+        final Route route;
+
+        Node(String label, char[] firstChars, Node[] children, Node param, Route route) {
+            this.label = label;
+            this.firstChars = firstChars;
+            this.children = children;
+            this.param = param;
+            this.route = route;
+        }
+
+        Node child(char c) {
+            int lo = 0;
+            int hi = firstChars.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (firstChars[mid] < c) {
+                    lo = mid + 1;
+                } else if (firstChars[mid] > c) {
+                    hi = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Mutable node used while building: literal edges are split as patterns are inserted.
+     */
+    private static final class Builder {
+        String label;
+        TreeMap<Character, Builder> children = new TreeMap<>();
+        Builder param;
+        Route route;
+
+        Builder(String label) {
+            this.label = label;
+        }
+
+        // Inserts the literal text at the end of the current node's subtree
+        Builder insertLiteral(String text) {
+            if (text.isEmpty()) {
+                return this;
+            }
+            Builder child = children.get(text.charAt(0));
+            if (child == null) {
+                child = new Builder(text);
+                children.put(text.charAt(0), child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(text.length(), child.label.length());
+            while (common < max && text.charAt(common) == child.label.charAt(common)) {
+                common++;
+            }
+            if (common < child.label.length()) {
+                // Split the edge at the common prefix
+                Builder split = new Builder(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.children.put(child.label.charAt(0), child);
+                children.put(text.charAt(0), split);
+                child = split;
+            }
+            return child.insertLiteral(text.substring(common));
+        }
+
+        Node freeze() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> e : children.entrySet()) {
+                keys[i] = e.getKey();
+                nodes[i] = e.getValue().freeze();
+                i++;
+            }
+            return new Node(label, keys, nodes, param == null ? null : param.freeze(), route);
+        }
+    }
+
+    private static Node build(Collection<Route> routes) {
+        Builder root = new Builder("");
+        for (Route route : routes) {
+            Builder node = root;
+            String p = route.pattern;
+            int i = 0;
+            while (i < p.length()) {
+                int open = paramStart(p, i);
+                if (open < 0) {
+                    node = node.insertLiteral(p.substring(i));
+                    break;
+                }
+                node = node.insertLiteral(p.substring(i, open));
+                if (node.param == null) {
+                    node.param = new Builder("");
+                }
+                node = node.param;
+                i = p.indexOf('}', open) + 1;
+            }
+            node.route = route;
+        }
+        return root.freeze();
+    }
+
+    // Index of the next "{name}" segment at or after i, or -1
+    private static int paramStart(String pattern, int i) {
+        int open = pattern.indexOf('{', i);
+        while (open > 0 && pattern.charAt(open - 1) != '/') {
+            open = pattern.indexOf('{', open + 1);
+        }
+        return open;
+    }
+
+    private static String[] paramNames(String pattern) {
+        List<String> names = new ArrayList<>();
+        int i = 0;
+        int open;
+        while ((open = paramStart(pattern, i)) >= 0) {
+            int close = pattern.indexOf('}', open);
+            if (close < 0 || close == open + 1 || (close + 1 < pattern.length() && pattern.charAt(close + 1) != '/')) {
+                throw new IllegalArgumentException("Path parameter must be a whole segment like /{name}: " + pattern);
+            }
+            String name = pattern.substring(open + 1, close);
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate path parameter '" + name + "' in " + pattern);
+            }
+            names.add(name);
+            i = close + 1;
+        }
+        return names.toArray(new String[0]);
+    }
+}
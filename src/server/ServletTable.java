@@ -0,0 +1,130 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+
+/**
+ * Servlet registrations per HTTP method with longest prefix matching and path parameters,
+ * see {@link RouteTree}. Shared by the server engines so they route requests identically.
+ */
+class ServletTable {
+    private final RouteTree GET_servlets = new RouteTree();
+    private final RouteTree POST_servlets = new RouteTree();
+    private final RouteTree DEL_servlets = new RouteTree();
+    private volatile AdmissionControl admission; // null admits everything
+
+    void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    void add(String httpCommand, String uri, Servlet s) {
+        if (httpCommand == null || uri == null || s == null) {
+            throw new IllegalArgumentException("HTTP command, URI, and servlet cannot be null");
+        }
+        treeFor(httpCommand).put(uri, s);
+    }
+
+    void remove(String httpCommand, String uri) {
+        if (httpCommand == null || uri == null) {
+            throw new IllegalArgumentException("HTTP command and URI cannot be null");
+        }
+        treeFor(httpCommand).remove(uri);
+    }
+
+    /**
+     * Finds the servlet registered for the longest prefix of the URI.
+     *
+     * @param httpCommand the HTTP method, case insensitive
+     * @param uri the request URI
+     * @return the servlet, or null if none matches
+     * @throws IllegalArgumentException if the method is unsupported
+     */
+    Servlet find(String httpCommand, String uri) {
+        RouteTree.Match match = treeFor(httpCommand).find(uri);
+        return match == null ? null : match.servlet;
+    }
+
+    /**
+     * Routes a parsed request to its servlet, or writes a 404 response if none matches.
+     *
+     * @param requestInfo the parsed request
+     * @param output the stream to write the response to
+     * @throws IOException if writing the response fails
+     */
+    void dispatch(RequestInfo requestInfo, OutputStream output) throws IOException {
+        String uri = requestInfo.getUri();
+        RouteTree.Match match = treeFor(requestInfo.getHttpCommand()).find(uri);
+
+        if (match != null) {
+            requestInfo.setPathParameters(match.pathParameters);
+            AdmissionControl admission = this.admission;
+            AdmissionControl.Ticket ticket = null;
+            if (admission != null) {
+                try {
+                    ticket = admission.admit(requestInfo.getHttpCommand(), match.pattern);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Shutting down, reject
+                }
+                if (ticket == null) {
+                    sendUnavailable(requestInfo, output);
+                    return;
+                }
+            }
+            try {
+                // Call the servlet's handle method with the parsed request info and output stream
+                match.servlet.handle(requestInfo, output);
+            } finally {
+                if (ticket != null) {
+                    admission.release(ticket);
+                }
+            }
+        } else {
+            // If no matching servlet found, send a 404 Not Found response
+            PrintWriter writer = new PrintWriter(output, true);
+            writer.println("HTTP/1.1 404 Not Found");
+            writer.println("Content-Type: text/plain");
+            writer.println();
+            writer.println("404 Not Found: No matching servlet for " + uri);
+        }
+    }
+
+    // Fast rejection of a request the server has no capacity for
+    private static void sendUnavailable(RequestInfo requestInfo, OutputStream output) throws IOException {
+        HttpResponse response = new HttpResponse(requestInfo, output).header("Retry-After", "1");
+        if (requestInfo.hasUnreadBody()) {
+            response.header("Connection", "close"); // Not worth reading a body that will not be processed
+        }
+        response.sendText(503, "Server busy, retry later");
+    }
+
+    private RouteTree treeFor(String httpCommand) {
+        switch (httpCommand.toUpperCase()) {
+            case "GET":
+                return GET_servlets;
+            case "POST":
+                return POST_servlets;
+            case "DELETE":
+                return DEL_servlets;
+            default:
+                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
+        }
+    }
+
+    void closeAll() {
+        closeServlet(GET_servlets.servlets());
+        closeServlet(POST_servlets.servlets());
+        closeServlet(DEL_servlets.servlets());
+    }
+
+    private void closeServlet(Iterable<Servlet> servlets) {
+        for (Servlet s : servlets) {
+            try { s.close(); }
+            catch (IOException e) {
+                System.err.println("Error closing servlet: " + e.getMessage());
+            }
+        }
+    }
+}
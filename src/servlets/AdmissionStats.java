@@ -0,0 +1,50 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import server.AdmissionControl;
+import server.HttpResponse;
+import server.RequestParser;
+
+/**
+ * AdmissionStats servlet reports the load of the server as seen by its admission control:
+ * requests in flight and waiting, and how many were admitted and rejected, in total and per route.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * server.addServlet("GET", "/admission", new AdmissionStats(admission));
+ *
+ * // GET /admission
+ * // {"inFlight": 1, "maxInFlight": 64, "queued": 0, ..., "routes": {"POST /upload": {...}}}
+ * }</pre>
+ */
+public class AdmissionStats implements Servlet {
+    private final AdmissionControl admission;
+
+    /**
+     * @param admission the admission control of the server
+     */
+    public AdmissionStats(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Sends the counters as JSON.
+     *
+     * @param ri the parsed request information
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while writing the response
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        new HttpResponse(ri, toClient)
+                .contentType("application/json; charset=utf-8")
+                .header("Cache-Control", "no-store")
+                .send(admission.toJson());
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,178 @@
+package servlets;
+
+import configs.GraphClusters;
+import configs.Node;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import server.HttpResponse;
+import server.RequestParser;
+
+/**
+ * ClusterExpander servlet sends the members of one cluster of the level-of-detail graph page, so
+ * the page can expand a cluster on demand instead of holding every node of a large graph. With
+ * the members come the edges between them and the edges crossing the cluster's boundary, each
+ * with the cluster at its other end.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // Register the cluster expander
+ * server.addServlet("GET", "/graph/cluster", new ClusterExpander());
+ *
+ * // GET /graph/cluster?by=level&clusters=200&id=3&version=42
+ * //   -> {"cluster": 3, "label": "levels 6-7", "version": 42, "memberCount": 310,
+ * //       "members": [{"id": 17, "name": "R3", "type": "topic", "value": "6.0"}, ...],
+ * //       "edges": [[17, 18], ...], "boundary": [{"from": 17, "to": 940, "cluster": 4}, ...],
+ * //       "truncated": false}
+ * }</pre>
+ *
+ * <p>{@code by} and {@code clusters} must be those of the page, {@code level} and
+ * {@link GraphClusters#DEFAULT_CLUSTERS} by default. When {@code version} is given and the
+ * topology changed since, the answer is 409 and the page has to be reloaded, as its node numbers
+ * no longer hold. At most {@code limit} members are sent, 500 by default and at most 2000, and at
+ * most four edges per member; {@code truncated} tells whether anything was left out.
+ */
+public class ClusterExpander implements Servlet {
+    private static final int DEFAULT_LIMIT = 500;
+    private static final int MAX_LIMIT = 2000;
+    private static final int MAX_EDGES_PER_MEMBER = 4;
+
+    /**
+     * Sends the members of the cluster in the {@code id} parameter.
+     *
+     * @param ri the parsed request information
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while writing the response
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        Map<String, String> params = ri.getParameters();
+        int id;
+        int maxClusters;
+        int limit;
+        long version;
+        try {
+            id = Integer.parseInt(params.getOrDefault("id", "").trim());
+            maxClusters = Integer.parseInt(params.getOrDefault("clusters", Integer.toString(GraphClusters.DEFAULT_CLUSTERS)).trim());
+            limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(params.getOrDefault("limit", Integer.toString(DEFAULT_LIMIT)).trim())));
+            version = params.get("version") == null ? -1 : Long.parseLong(params.get("version").trim());
+        } catch (NumberFormatException e) {
+            response.sendText(400, "id, clusters, limit and version must be numbers");
+            return;
+        }
+        GraphClusters clusters;
+        try {
+            clusters = GraphClusters.current(params.getOrDefault("by", GraphClusters.BY_LEVEL), maxClusters);
+        } catch (IllegalArgumentException e) {
+            response.sendText(400, e.getMessage());
+            return;
+        }
+        if (version >= 0 && version != clusters.getTopologyVersion()) {
+            response.sendText(409, "The graph changed since version " + version + ", reload the page");
+            return;
+        }
+        if (id < 0 || id >= clusters.size()) {
+            response.sendText(404, "Cluster not found");
+            return;
+        }
+        response.contentType("application/json; charset=utf-8").header("Cache-Control", "no-store")
+                .send(toJson(clusters, id, limit));
+    }
+
+    // The first limit members of a cluster with their edges, at most MAX_EDGES_PER_MEMBER per member
+    private static String toJson(GraphClusters clusters, int c, int limit) {
+        Node[] nodes = clusters.graph().nodes;
+        int[] offsets = clusters.graph().offsets;
+        int[] targets = clusters.graph().targets;
+        int first = clusters.start(c);
+        int end = Math.min(clusters.start(c + 1), first + limit);
+        boolean truncated = end < clusters.start(c + 1);
+        Set<Integer> listed = new HashSet<>();
+        for (int i = first; i < end; i++) {
+            listed.add(clusters.member(i));
+        }
+
+        StringBuilder json = new StringBuilder(128 + (end - first) * 160);
+        json.append("{\"cluster\": ").append(c)
+            .append(", \"label\": ").append(IngestRecords.quote(clusters.label(c)))
+            .append(", \"version\": ").append(clusters.getTopologyVersion())
+            .append(", \"memberCount\": ").append(clusters.start(c + 1) - first)
+            .append(", \"members\": [");
+        for (int i = first; i < end; i++) {
+            Node node = nodes[clusters.member(i)];
+            boolean isTopic = node.getName().startsWith("T");
+            json.append(i > first ? ", " : "")
+                .append("{\"id\": ").append(clusters.member(i))
+                .append(", \"name\": ").append(IngestRecords.quote(node.getLabel()))
+                .append(", \"type\": \"").append(isTopic ? "topic" : "agent").append('"');
+            if (isTopic) {
+                Topic topic = TopicManagerSingleton.get().topics.get(node.getLabel()); // Current value, not the one at build time
+                json.append(", \"value\": ").append(IngestRecords.quote(topic != null ? topic.getMsg().asText : "0"));
+            }
+            json.append('}');
+        }
+
+        // Inner edges and edges leaving the cluster go out of a member, edges entering it come in
+        StringBuilder inner = new StringBuilder();
+        StringBuilder boundary = new StringBuilder();
+        int edges = 0;
+        int maxEdges = MAX_EDGES_PER_MEMBER * (end - first);
+        boolean full = false;
+        for (int i = first; i < end && !full; i++) {
+            int v = clusters.member(i);
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int t = targets[e];
+                if (t < 0) {
+                    continue;
+                }
+                if (edges == maxEdges) {
+                    full = true;
+                    break;
+                }
+                if (clusters.clusterOf(t) != c) {
+                    appendBoundary(boundary, v, t, clusters.clusterOf(t));
+                    edges++;
+                } else if (listed.contains(t)) {
+                    inner.append(inner.length() > 0 ? ", " : "").append('[').append(v).append(", ").append(t).append(']');
+                    edges++;
+                } else {
+                    truncated = true; // To a member left out
+                }
+            }
+            for (int s = clusters.incomingStart(v); s < clusters.incomingStart(v + 1) && !full; s++) {
+                int source = clusters.incomingSource(s);
+                if (clusters.clusterOf(source) == c) {
+                    continue; // Already listed as an edge out of a member, or to a member left out
+                }
+                if (edges == maxEdges) {
+                    full = true;
+                    break;
+                }
+                appendBoundary(boundary, source, v, clusters.clusterOf(source));
+                edges++;
+            }
+        }
+        json.append("], \"edges\": [").append(inner)
+            .append("], \"boundary\": [").append(boundary)
+            .append("], \"truncated\": ").append(truncated || full)
+            .append('}');
+        return json.toString();
+    }
+
+    private static void appendBoundary(StringBuilder boundary, int from, int to, int cluster) {
+        boundary.append(boundary.length() > 0 ? ", " : "")
+                .append("{\"from\": ").append(from)
+                .append(", \"to\": ").append(to)
+                .append(", \"cluster\": ").append(cluster).append('}');
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close for this servlet
+    }
+}
@@ -2,12 +2,24 @@ package servlets;
 
 import configs.GenericConfig;
 import configs.Graph;
+import configs.GraphClusters;
+import configs.Node;
 import graph.TopicManagerSingleton;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import server.HttpResponse;
+import server.MultipartStream;
 import server.RequestParser;
 import views.HtmlGraphWriter;
 
@@ -30,17 +42,43 @@ import views.HtmlGraphWriter;
  * 
  * <p>The servlet will:
  * <ul>
- * <li>Save the uploaded file to the "uploaded_configs" directory</li>
+ * <li>Stream the uploaded file to the "uploaded_configs" directory, checking each agent definition
+ * as it arrives, so memory use does not depend on the file size and a bad file is rejected early</li>
+ * <li>With {@code ?mode=incremental}, diff it against the running graph and only create or close
+ * the agents that changed (see {@link GenericConfig#reload(String)})</li>
  * <li>Clear any existing configuration and topics</li>
  * <li>Parse and validate the new configuration</li>
  * <li>Initialize the graph system with the new configuration</li>
- * <li>Generate an HTML response showing the loaded graph</li>
+ * <li>Generate an HTML response showing the loaded graph, as clusters of topological levels when
+ * it has more than {@link HtmlGraphWriter#MAX_DETAILED_NODES} nodes</li>
  * </ul>
+ *
+ * <p>Uploads larger than the configured limit (16 MB by default) are rejected with 413.
  */
 public class ConfLoader implements Servlet {
     
     // Keep track of the current configuration to clean it up
     private static GenericConfig currentConfig = null;
+
+    private static final int MAX_LINE_CHARS = 64 * 1024;
+
+    private final long maxUploadBytes;
+
+    /**
+     * Creates a loader accepting configuration files of up to 16 MB.
+     */
+    public ConfLoader() {
+        this(16L << 20);
+    }
+
+    /**
+     * Creates a loader with a custom upload size limit.
+     *
+     * @param maxUploadBytes largest accepted configuration file
+     */
+    public ConfLoader(long maxUploadBytes) {
+        this.maxUploadBytes = maxUploadBytes;
+    }
     
     /**
      * Handles configuration file upload and processing.
@@ -52,14 +90,43 @@ public class ConfLoader implements Servlet {
      */
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
         try {
-            // Check if there's a file in the request body
-            byte[] contentBytes = ri.getContent();
-            if (contentBytes == null || contentBytes.length == 0) {
-                sendErrorResponse(toClient, "No configuration file uploaded");
+            // Save the uploaded file, parsing it on the way
+            GenericConfig.Parser parser = new GenericConfig.Parser();
+            File configFile;
+            try {
+                configFile = receiveUpload(ri, parser);
+            } catch (MultipartStream.LimitExceededException e) {
+                sendErrorResponse(response, 413, "Configuration file exceeds " + maxUploadBytes + " bytes", true);
                 return;
             }
-            
+            if (configFile == null) {
+                sendErrorResponse(response, "No configuration file uploaded");
+                return;
+            }
+            try {
+                parser.finish(); // Rejects an incomplete file or a schema for an unknown topic before the running graph is touched
+            } catch (IllegalArgumentException e) {
+                configFile.delete();
+                sendErrorResponse(response, e.getMessage() + "\n");
+                return;
+            }
+
+            // Incremental mode diffs the new file against the running graph instead of rebuilding it
+            if ("incremental".equalsIgnoreCase(ri.getParameters().get("mode")) && currentConfig != null) {
+                try {
+                    currentConfig.reload(parser, configFile.getAbsolutePath());
+                } catch (IllegalArgumentException e) {
+                    sendErrorResponse(response, e.getMessage() + "\n");
+                    return;
+                }
+                Graph graph = new Graph();
+                graph.createFromTopics();
+                sendSuccessResponse(response, graph);
+                return;
+            }
+
             // Clean up previous configuration if it exists
             if (currentConfig != null) {
                 currentConfig.close();
@@ -68,24 +135,10 @@ public class ConfLoader implements Servlet {
             // Clear the TopicManager to remove all previous topics and agents
             TopicManagerSingleton.get().clear();
             
-            // Create directory if it doesn't exist
-            File uploadDir = new File("uploaded_configs");
-            if (!uploadDir.exists()) {
-                uploadDir.mkdirs();
-            }
-            
-            // Save the uploaded file
-            String fileName = "config_" + System.currentTimeMillis() + ".conf";
-            File configFile = new File(uploadDir, fileName);
-            
-            try (FileOutputStream fos = new FileOutputStream(configFile)) {
-                fos.write(contentBytes);
-            }
-            
             // Create GenericConfig and Graph
             GenericConfig config = new GenericConfig();
             config.setConfFile(configFile.getAbsolutePath());
-            config.create();
+            config.create(parser);
             
             // Store reference to current config for future cleanup
             currentConfig = config;
@@ -94,51 +147,175 @@ public class ConfLoader implements Servlet {
             graph.createFromTopics();
             
             // Check for cycles in the graph
-            if (graph.hasCycles()) {
+            List<Node> cycle = graph.findCycle();
+            if (cycle != null) {
                 // If cycles are detected, clean up and send error response
                 currentConfig.close();
                 currentConfig = null;
                 TopicManagerSingleton.get().clear();
-                sendErrorResponse(toClient, "Configuration rejected: The graph contains cycles. Cyclic dependencies between agents and topics are not allowed.\n");
+                List<String> names = new ArrayList<>();
+                for (Node node : cycle) {
+                    names.add(node.getName());
+                }
+                sendErrorResponse(response, "Configuration rejected: The graph contains cycles. Cyclic dependencies between agents and topics are not allowed.\n"
+                        + "Cycle: " + Graph.describePath(names) + "\n");
                 return;
             }
             
-            // Generate HTML representation
-            List<String> htmlLines = HtmlGraphWriter.getGraphHTML(graph);
-            StringBuilder htmlContent = new StringBuilder();
-            for (String line : htmlLines) {
-                htmlContent.append(line).append("\n");
-            }
-            
             // Send success response
-            sendSuccessResponse(toClient, htmlContent.toString());
+            sendSuccessResponse(response, graph);
             
         } catch (RuntimeException | IOException e) {
-            sendErrorResponse(toClient, "Error processing configuration: " + e.getMessage());
+            if (!response.isCommitted()) {
+                sendErrorResponse(response, "Error processing configuration: " + e.getMessage());
+            }
         }
     }
     
-    private void sendSuccessResponse(OutputStream toClient, String html) throws IOException {
-        String response = "HTTP/1.1 200 OK\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Content-Length: " + html.length() + "\r\n" +
-                         "\r\n" +
-                         html;
-        toClient.write(response.getBytes());
-        toClient.flush();
+    // Streams the uploaded file to disk and into the parser, returns null if nothing was uploaded
+    private File receiveUpload(RequestParser.RequestInfo ri, GenericConfig.Parser parser) throws IOException {
+        InputStream body = ri.getBodyStream();
+        InputStream content;
+        String boundary = MultipartStream.boundary(ri.getHeader("Content-Type"));
+        if (boundary != null) {
+            // The configuration is the first file part of the form
+            MultipartStream multipart = new MultipartStream(body, boundary, maxUploadBytes);
+            MultipartStream.Part part = multipart.next();
+            while (part != null && part.getFilename() == null) {
+                part = multipart.next();
+            }
+            if (part == null) {
+                return null;
+            }
+            content = part.getInputStream();
+        } else {
+            // Raw body, e.g. curl --data-binary @file.conf
+            if (ri.getContentLength() > maxUploadBytes) {
+                throw new MultipartStream.LimitExceededException("Upload exceeds " + maxUploadBytes + " bytes");
+            }
+            content = body;
+        }
+
+        // Create directory if it doesn't exist
+        File uploadDir = new File("uploaded_configs");
+        if (!uploadDir.exists()) {
+            uploadDir.mkdirs();
+        }
+        String fileName = "config_" + System.currentTimeMillis() + ".conf";
+        File configFile = new File(uploadDir, fileName);
+
+        long size;
+        try (FileChannel channel = FileChannel.open(configFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Reader text = new InputStreamReader(new DiskTee(content, channel), StandardCharsets.UTF_8);
+            try {
+                feedLines(text, parser);
+            } catch (IllegalArgumentException e) {
+                // Rejected early: discard the rest of the upload without storing it
+                body.transferTo(OutputStream.nullOutputStream());
+                throw e;
+            }
+            size = channel.size();
+        } catch (IOException | RuntimeException e) {
+            configFile.delete();
+            throw e;
+        }
+        if (size == 0) {
+            configFile.delete();
+            return null;
+        }
+        return configFile;
+    }
+
+    // Splits the text into lines for the parser, refusing lines that would not fit a bounded buffer
+    private static void feedLines(Reader text, GenericConfig.Parser parser) throws IOException {
+        char[] chunk = new char[8192];
+        StringBuilder line = new StringBuilder();
+        int n;
+        while ((n = text.read(chunk)) >= 0) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') {
+                    line.append(chunk, start, i - start);
+                    addLine(parser, line);
+                    start = i + 1;
+                }
+            }
+            line.append(chunk, start, n - start);
+            if (line.length() > MAX_LINE_CHARS) {
+                throw new IllegalArgumentException("Line " + (parser.lineCount() + 1) + " is longer than " + MAX_LINE_CHARS + " characters");
+            }
+        }
+        if (line.length() > 0) {
+            addLine(parser, line);
+        }
+    }
+
+    private static void addLine(GenericConfig.Parser parser, StringBuilder line) {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        parser.addLine(line.substring(0, end));
+        line.setLength(0);
+    }
+
+    /**
+     * Passes the upload through to the reader while writing every byte to the file.
+     */
+    private static class DiskTee extends InputStream {
+        private final InputStream in;
+        private final FileChannel channel;
+
+        DiskTee(InputStream in, FileChannel channel) {
+            this.in = in;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                ByteBuffer bytes = ByteBuffer.wrap(b, off, n);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            return n;
+        }
+    }
+
+    private void sendSuccessResponse(HttpResponse response, Graph graph) throws IOException {
+        // Streamed as it is generated, a large graph is never held in memory as one page
+        response.contentType("text/html; charset=utf-8");
+        try (Writer out = response.getWriter()) {
+            if (graph.size() > HtmlGraphWriter.MAX_DETAILED_NODES) {
+                HtmlGraphWriter.writeClustered(GraphClusters.current(GraphClusters.BY_LEVEL, GraphClusters.DEFAULT_CLUSTERS), out);
+            } else {
+                HtmlGraphWriter.write(graph, out);
+            }
+        }
     }
     
-    private void sendErrorResponse(OutputStream toClient, String message) throws IOException {
+    private void sendErrorResponse(HttpResponse response, String message) throws IOException {
+        sendErrorResponse(response, 400, message, false);
+    }
+
+    private void sendErrorResponse(HttpResponse response, int status, String message, boolean closeConnection) throws IOException {
         // Convert newlines to HTML breaks for better display
         String htmlMessage = message.replace("\n", "<br>");
         String html = "<html><body><h1>Configuration Error</h1><div style='background-color: #ffebee; padding: 10px; border: 1px solid #f44336; border-radius: 5px;'><p>" + htmlMessage + "</p></div></body></html>";
-        String response = "HTTP/1.1 400 Bad Request\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Content-Length: " + html.length() + "\r\n" +
-                         "\r\n" +
-                         html;
-        toClient.write(response.getBytes());
-        toClient.flush();
+        response.status(status).contentType("text/html; charset=utf-8");
+        if (closeConnection) {
+            response.header("Connection", "close");
+        }
+        response.send(html);
     }
 
     @Override
@@ -0,0 +1,167 @@
+package servlets;
+
+import configs.Graph;
+import configs.GraphAnalysis;
+import configs.Node;
+import graph.AgentStats;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+import server.HttpResponse;
+import server.RequestParser;
+
+/**
+ * GraphAnalytics servlet reports how expensive the loaded graph is, as JSON, to size hardware
+ * before a configuration carries real traffic. See {@link GraphAnalysis} for the model.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * server.addServlet("GET", "/analytics", new GraphAnalytics());
+ *
+ * // GET /analytics
+ * // {"nodes": 5, "topics": 3, "agents": 2, "edges": 4, "depth": 2,
+ * //  "criticalPath": {"micros": 41.2, "path": ["topic A", "agent Inc_Agent_#1", ...]},
+ * //  "stronglyConnected": {"components": 5, "cyclic": []},
+ * //  "agentsMeasured": 2, "defaultAgentMicros": 20.6,
+ * //  "throughput": {"roundsPerSecond": 48543.6, "roundMicros": 41.2, "processors": 2},
+ * //  "topics": [{"topic": "A", "input": true, "fanOut": 1, "activationsPerPublish": 2,
+ * //              "microsPerPublish": 41.2, "maxPublishesPerSecond": 48543.6}, ...]}
+ * }</pre>
+ *
+ * <p>Agent costs are the mean callback times sampled by {@link AgentStats} since the graph
+ * was loaded; agents that have not run yet get the mean of the others, so the prediction
+ * improves once some traffic went through. A "round" is one publish to every input
+ * topic (topics without publishers); it runs on the publishing threads, which call the agents
+ * themselves, so its throughput is the processors over its callback time.
+ * {@code ?processors=N} predicts for another machine.
+ * Values that are unbounded because of a cycle are null.
+ */
+public class GraphAnalytics implements Servlet {
+
+    /**
+     * Analyses the current graph and sends the report.
+     *
+     * @param ri the parsed request information, with an optional processors parameter
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while writing the response
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        int processors = Runtime.getRuntime().availableProcessors();
+        String param = ri.getParameters().get("processors");
+        if (param != null) {
+            try {
+                processors = Integer.parseInt(param.trim());
+            } catch (NumberFormatException e) {
+                response.sendText(400, "processors must be a number");
+                return;
+            }
+        }
+
+        Graph graph = new Graph();
+        graph.createFromTopics();
+        GraphAnalysis analysis = new GraphAnalysis(graph, AgentStats::meanNanos, processors);
+
+        response.contentType("application/json; charset=utf-8").header("Cache-Control", "no-store");
+        try (Writer out = response.getWriter()) {
+            writeReport(analysis, out);
+        }
+    }
+
+    private static void writeReport(GraphAnalysis a, Writer out) throws IOException {
+        int n = a.csr.size();
+        int topics = 0;
+        for (boolean t : a.topic) {
+            topics += t ? 1 : 0;
+        }
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"nodes\": ").append(n)
+            .append(", \"topics\": ").append(topics)
+            .append(", \"agents\": ").append(n - topics)
+            .append(", \"edges\": ").append(a.csr.edgeCount())
+            .append(", \"depth\": ").append(a.depth)
+            .append(", \"criticalPath\": {\"micros\": ").append(micros(a.criticalPathNanos)).append(", \"path\": ");
+        appendNodes(json, a.criticalPath);
+        json.append("}, \"stronglyConnected\": {\"components\": ").append(a.componentCount).append(", \"cyclic\": [");
+        for (int c = 0; c < a.cyclicComponents.size(); c++) {
+            json.append(c > 0 ? ", " : "");
+            appendNodes(json, a.cyclicComponents.get(c));
+        }
+        json.append("]}, \"agentsMeasured\": ").append(a.measuredAgents)
+            .append(", \"defaultAgentMicros\": ").append(micros(a.defaultCostNanos))
+            .append(", \"throughput\": {\"roundsPerSecond\": ").append(number(a.roundsPerSecond))
+            .append(", \"roundMicros\": ").append(micros(a.roundNanos))
+            .append(", \"processors\": ").append(a.processors).append("}, \"topics\": [");
+        boolean first = true;
+        for (int v = 0; v < n; v++) {
+            if (!a.topic[v]) {
+                continue;
+            }
+            json.append(first ? "" : ", ").append("{\"topic\": ");
+            appendJsonString(json, a.csr.nodes[v].getName().substring(1));
+            double cost = a.publishCostNanos[v];
+            json.append(", \"input\": ").append(a.isInput(v))
+                .append(", \"fanOut\": ").append(a.fanOut(v))
+                .append(", \"activationsPerPublish\": ").append(number(a.activations[v]))
+                .append(", \"microsPerPublish\": ").append(micros(cost))
+                .append(", \"maxPublishesPerSecond\": ").append(cost > 0 ? number(a.processors * 1e9 / cost) : "null")
+                .append('}');
+            first = false;
+            if (json.length() >= 8192) {
+                out.write(json.toString());
+                json.setLength(0);
+            }
+        }
+        out.write(json.append("]}").toString());
+    }
+
+    private static void appendNodes(StringBuilder json, List<Node> nodes) {
+        json.append('[');
+        for (int i = 0; i < nodes.size(); i++) {
+            String name = nodes.get(i).getName();
+            json.append(i > 0 ? ", " : "");
+            appendJsonString(json, (name.startsWith("T") ? "topic " : "agent ") + name.substring(1));
+        }
+        json.append(']');
+    }
+
+    private static String micros(double nanos) {
+        return number(nanos / 1000);
+    }
+
+    // JSON has no infinity: unbounded values are null
+    private static String number(double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            return "null";
+        }
+        if (Math.abs(value) >= 1e15) {
+            return Double.toString(value);
+        }
+        if (value == Math.rint(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(Math.round(value * 10) / 10.0);
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close for this servlet
+    }
+}
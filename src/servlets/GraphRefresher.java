@@ -1,9 +1,20 @@
 package servlets;
 
 import configs.Graph;
+import configs.GraphClusters;
+import configs.Node;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import server.HttpResponse;
 import server.RequestParser;
 import views.HtmlGraphWriter;
 
@@ -19,62 +30,188 @@ import views.HtmlGraphWriter;
  * 
  * // Client can now refresh the graph:
  * // GET /refresh -> returns HTML with current graph visualization
+ * // GET /refresh?lod=component&clusters=50 -> at most 50 clusters of connected components
  * }</pre>
+ *
+ * <p>A graph with more than {@link HtmlGraphWriter#MAX_DETAILED_NODES} nodes is shown as clusters
+ * of topological levels, see {@link GraphClusters}, which the page expands on demand through
+ * {@link ClusterExpander}. {@code lod=level}, {@code component} or {@code prefix} asks for clusters
+ * whatever the size and {@code lod=off} for every node; {@code clusters} is the most clusters,
+ * {@link GraphClusters#DEFAULT_CLUSTERS} by default.
+ *
+ * <p>The page is rebuilt only as far as something changed, going by the topology and value
+ * versions of the {@link TopicManager}: while the topology is unchanged the graph and its
+ * rendered structure are reused and only the topic values are filled in again, and while the
+ * values are unchanged too the last page is sent as is. The ETag carries both versions, so a
+ * browser that already has the current page gets an empty 304.
  */
 public class GraphRefresher implements Servlet {
+    private static final long MAX_CACHED_BODY = 4 << 20; // Larger pages are rendered into the response each time
+    // Versions restart with the process, so ETags from an earlier run must not match
+    private static final String RUN = Long.toString(System.currentTimeMillis(), 36);
+
+    private Structure structure; // Guarded by this
+    private Rendered rendered; // Guarded by this
+
+    private static final String[] LOD_MODES = {"off", GraphClusters.BY_LEVEL, GraphClusters.BY_COMPONENT, GraphClusters.BY_PREFIX};
+
+    // The graph built at one topology version, with its page in the requested level of detail
+    private static final class Structure {
+        final long topologyVersion;
+        final String view;
+        final HtmlGraphWriter.GraphPage page;
+        final List<Node> topicNodes = new ArrayList<>(); // Empty for clusters, which show no values
+
+        Structure(long topologyVersion, String view, String lod, int maxClusters) throws IOException {
+            this.topologyVersion = topologyVersion;
+            this.view = view;
+            // Create a new graph from current topics, it holds their current values
+            Graph graph = new Graph();
+            graph.createFromTopics();
+            if (lod == null) {
+                lod = graph.size() > HtmlGraphWriter.MAX_DETAILED_NODES ? GraphClusters.BY_LEVEL : "off";
+            }
+            if (!lod.equals("off")) {
+                this.page = HtmlGraphWriter.compileClustered(GraphClusters.current(lod, maxClusters));
+                return;
+            }
+            this.page = HtmlGraphWriter.compile(graph);
+            for (Node node : graph) {
+                if (node.getName().startsWith("T")) {
+                    topicNodes.add(node);
+                }
+            }
+        }
+    }
+
+    // The page sent for one pair of versions
+    private static final class Rendered {
+        final long topologyVersion;
+        final long valueVersion;
+        final long templateStamp;
+        final String view;
+        final byte[] body; // null for a large page, which is streamed from page instead
+        final HtmlGraphWriter.GraphPage page;
+        final String etag;
+
+        Rendered(long topologyVersion, long valueVersion, long templateStamp, String view, byte[] body, HtmlGraphWriter.GraphPage page) {
+            this.topologyVersion = topologyVersion;
+            this.valueVersion = valueVersion;
+            this.templateStamp = templateStamp;
+            this.view = view;
+            this.body = body;
+            this.page = page;
+            this.etag = "\"" + RUN + "-" + Long.toString(templateStamp, 36) + "-" + view + "-" + topologyVersion + "-" + valueVersion + "\"";
+        }
+    }
     
     /**
      * Handles graph refresh requests by generating current graph visualization.
      * 
-     * @param ri the parsed request information
+     * @param ri the parsed request information, with the optional {@code lod} and {@code clusters}
      * @param toClient the output stream to write the HTTP response to
      * @throws IOException if an I/O error occurs while processing the request
      */
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        Map<String, String> params = ri.getParameters();
+        String lod = params.get("lod"); // null chooses by the graph's size
+        if (lod != null && !Arrays.asList(LOD_MODES).contains(lod)) {
+            response.sendText(400, "lod must be off, level, component or prefix");
+            return;
+        }
+        int maxClusters;
         try {
-            // Create a new graph from current topics
-            Graph graph = new Graph();
-            graph.createFromTopics();
-            
-            // Generate HTML for the graph
-            List<String> htmlLines = HtmlGraphWriter.getGraphHTML(graph);
-            StringBuilder html = new StringBuilder();
-            for (String line : htmlLines) {
-                html.append(line).append("\n");
+            maxClusters = Integer.parseInt(params.getOrDefault("clusters", Integer.toString(GraphClusters.DEFAULT_CLUSTERS)).trim());
+        } catch (NumberFormatException e) {
+            response.sendText(400, "clusters must be a number");
+            return;
+        }
+        try {
+            Rendered page = current(lod, maxClusters);
+            response.header("ETag", page.etag).header("Cache-Control", "no-cache"); // Revalidate on every use
+            if (matches(ri.getHeader("If-None-Match"), page.etag)) {
+                response.status(304).send(new byte[0]);
+                return;
             }
             
             // Send the HTML response
-            sendSuccessResponse(toClient, html.toString());
+            if (page.body != null) {
+                sendSuccessResponse(response, page.body);
+            } else {
+                response.contentType("text/html; charset=utf-8");
+                try (Writer out = response.getWriter()) {
+                    page.page.writeTo(out);
+                }
+            }
             
         } catch (Exception e) {
-            sendErrorResponse(toClient, "Error refreshing graph: " + e.getMessage());
+            if (!response.isCommitted()) {
+                sendErrorResponse(response, "Error refreshing graph: " + e.getMessage());
+            }
+        }
+    }
+
+    // Returns the page for the current versions, rebuilding only what changed
+    private synchronized Rendered current(String lod, int maxClusters) throws IOException {
+        TopicManager topicManager = TopicManagerSingleton.get();
+        // Read before building: a change during the build leaves a newer version that triggers a rebuild
+        long topologyVersion = topicManager.getTopologyVersion();
+        long valueVersion = topicManager.getValueVersion();
+        long templateStamp = HtmlGraphWriter.getTemplateStamp();
+        String view = (lod == null ? "auto" : lod) + "." + maxClusters;
+        if (rendered != null && rendered.topologyVersion == topologyVersion && rendered.valueVersion == valueVersion
+                && rendered.templateStamp == templateStamp && rendered.view.equals(view)) {
+            return rendered;
+        }
+
+        if (structure == null || structure.topologyVersion != topologyVersion
+                || structure.page.getTemplateStamp() != templateStamp || !structure.view.equals(view)) {
+            structure = new Structure(topologyVersion, view, lod, maxClusters);
+        } else {
+            // Same structure, only the values changed
+            for (Node node : structure.topicNodes) {
+                Topic topic = topicManager.topics.get(node.getName().substring(1));
+                if (topic != null) {
+                    node.setMessage(topic.getMsg());
+                }
+            }
+        }
+        HtmlGraphWriter.GraphPage page = structure.page;
+        byte[] body = page.getStructureLength() <= MAX_CACHED_BODY ? page.render().getBytes(StandardCharsets.UTF_8) : null;
+        rendered = new Rendered(topologyVersion, valueVersion, page.getTemplateStamp(), view, body, page);
+        return rendered;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
         }
+        return false;
     }
     
-    private void sendSuccessResponse(OutputStream toClient, String html) throws IOException {
-        String response = "HTTP/1.1 200 OK\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Content-Length: " + html.length() + "\r\n" +
-                         "\r\n" +
-                         html;
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendSuccessResponse(HttpResponse response, byte[] html) throws IOException {
+        response.contentType("text/html; charset=utf-8").send(html);
     }
     
-    private void sendErrorResponse(OutputStream toClient, String message) throws IOException {
+    private void sendErrorResponse(HttpResponse response, String message) throws IOException {
         String html = "<html><body><h1>Error</h1><p>" + message + "</p></body></html>";
-        String response = "HTTP/1.1 500 Internal Server Error\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Content-Length: " + html.length() + "\r\n" +
-                         "\r\n" +
-                         html;
-        toClient.write(response.getBytes());
-        toClient.flush();
+        response.status(500).contentType("text/html; charset=utf-8").send(html);
     }
     
     @Override
-    public void close() throws IOException {
-        // Nothing to close for this servlet
+    public synchronized void close() throws IOException {
+        structure = null;
+        rendered = null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package servlets;
+
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import server.HttpResponse;
+import server.RequestParser;
+import views.ColumnarHistoryWriter;
+
+/**
+ * HistoryExporter servlet streams topic histories as a columnar download.
+ * The response is written block by block with chunked transfer encoding, so it has no Content-Length
+ * and the connection can stay open for the next request.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // Register the exporter
+ * server.addServlet("GET", "/export", new HistoryExporter());
+ *
+ * // Client can now download histories:
+ * // GET /export                               -> every topic
+ * // GET /export?topic=R3                      -> a single topic
+ * // GET /export?topic=R3&from=1700000000000   -> blocks overlapping [from, to] only
+ * }</pre>
+ *
+ * <p>See {@link ColumnarHistoryWriter} for the file layout. Only topics that record a history
+ * have blocks, see {@link graph.TopicHistory} for how to turn recording on.
+ */
+public class HistoryExporter implements Servlet {
+
+    /**
+     * Handles export requests.
+     *
+     * @param ri the parsed request information with optional topic, from and to parameters
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while processing the request
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        Map<String, String> params = ri.getParameters();
+        String topicName = params.get("topic");
+        long from;
+        long to;
+        try {
+            from = params.containsKey("from") ? Long.parseLong(params.get("from")) : Long.MIN_VALUE;
+            to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            response.sendText(400, "from and to must be epoch milliseconds");
+            return;
+        }
+
+        Iterable<Topic> topics;
+        if (topicName != null) {
+            if (!TopicManagerSingleton.get().topicExists(topicName)) {
+                response.sendText(404, "Topic not found");
+                return;
+            }
+            topics = Collections.singletonList(TopicManagerSingleton.get().getTopic(topicName));
+        } else {
+            topics = TopicManagerSingleton.get().getTopics();
+        }
+
+        // Streamed in chunks, so the export neither has to fit in memory nor ends the connection
+        response.contentType("application/octet-stream")
+                .header("Content-Disposition", "attachment; filename=\"" + (topicName != null ? topicName : "topics") + ".tscf\"");
+        try (OutputStream out = response.getOutputStream()) {
+            ColumnarHistoryWriter.write(topics, from, to, out);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close for this servlet
+    }
+}
@@ -1,11 +1,17 @@
 package servlets;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import server.HttpResponse;
 import server.RequestParser;
 
 /**
@@ -23,9 +29,19 @@ import server.RequestParser;
  * // GET /app/about.html -> serves html_files/about.html
  * // GET /app/ -> serves html_files/index.html (default)
  * }</pre>
+ *
+ * <p>Files are served from an in-memory cache that is invalidated when they change on disk
+ * (see {@link StaticAssetCache}). Responses carry an ETag and Last-Modified, and a client that
+ * already has the current version gets an empty 304. Clients accepting gzip get a compressed
+ * variant, a precompressed {@code name.gz} if one exists. Files over 1 MB are not cached but
+ * streamed from disk through {@link FileChannel#transferTo}.
  */
 public class HtmlLoader implements Servlet {
+    private static final int MAX_CACHED_BYTES = 1 << 20;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
     private final String root;
+    private final StaticAssetCache cache;
 
     /**
      * Creates a new HtmlLoader servlet.
@@ -34,6 +50,7 @@ public class HtmlLoader implements Servlet {
      */
     public HtmlLoader(String root) {
         this.root = root;
+        this.cache = new StaticAssetCache(root, MAX_CACHED_BYTES);
     }
     
     /**
@@ -46,43 +63,109 @@ public class HtmlLoader implements Servlet {
      */
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
         String uri = ri.getUri();
+        int query = uri.indexOf('?');
+        if (query >= 0) {
+            uri = uri.substring(0, query);
+        }
         
         // Remove /app/ prefix to get the actual file path
-        String filePath = uri.substring(5); // Remove "/app/"
+        String filePath = uri.length() > 5 ? uri.substring(5) : ""; // Remove "/app/"
         
         // Handle root path
         if (filePath.isEmpty() || filePath.equals("/")) {
             filePath = "index.html";
         }
         
-        // Construct the full file path
-        Path fullPath = Paths.get(root, filePath);
-        File file = fullPath.toFile();
-        
-        if (!file.exists() || !file.isFile()) {
-            sendNotFoundResponse(toClient, filePath);
+        StaticAssetCache.Asset asset;
+        try {
+            asset = cache.get(filePath, getContentType(filePath));
+        } catch (IOException | RuntimeException e) {
+            asset = null; // Unreadable or invalid path
+        }
+        if (asset == null) {
+            sendNotFoundResponse(response, filePath);
             return;
         }
-        
-        // Ensure the file is within the root directory (security check)
-        if (!file.getCanonicalPath().startsWith(new File(root).getCanonicalPath())) {
-            sendNotFoundResponse(toClient, filePath);
+
+        addValidators(response, asset);
+        if (notModified(ri, asset)) {
+            response.status(304).send(new byte[0]);
             return;
         }
-        
-        try {
-            // Read the file content
-            byte[] fileContent = Files.readAllBytes(fullPath);
-            
-            // Determine content type based on file extension
-            String contentType = getContentType(filePath);
-            
-            // Send successful response
-            sendSuccessResponse(toClient, fileContent, contentType);
-            
-        } catch (IOException e) {
-            sendNotFoundResponse(toClient, filePath);
+
+        response.contentType(asset.contentType);
+        if (asset.content == null) {
+            sendLargeFile(response, asset);
+            return;
+        }
+        if (asset.gzipContent != null) {
+            response.header("Vary", "Accept-Encoding");
+            if (acceptsGzip(ri.getHeader("Accept-Encoding"))) {
+                response.header("Content-Encoding", "gzip").send(asset.gzipContent);
+                return;
+            }
+        }
+        response.send(asset.content);
+    }
+
+    private void addValidators(HttpResponse response, StaticAssetCache.Asset asset) {
+        response.header("ETag", asset.etag)
+                .header("Last-Modified", HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(asset.lastModified), ZoneOffset.UTC)))
+                .header("Cache-Control", "no-cache"); // Cache, but revalidate on every use
+    }
+
+    // If-None-Match takes precedence over If-Modified-Since, as in RFC 9110
+    private boolean notModified(RequestParser.RequestInfo ri, StaticAssetCache.Asset asset) {
+        String ifNoneMatch = ri.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(asset.etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = ri.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE).toInstant().toEpochMilli();
+                return asset.lastModified <= since;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return !(parts.length > 1 && parts[1].replace(" ", "").matches("q=0(\\.0*)?"));
+            }
+        }
+        return false;
+    }
+
+    // Streams a file that is too large to cache, letting the channel move the bytes
+    private void sendLargeFile(HttpResponse response, StaticAssetCache.Asset asset) throws IOException {
+        try (FileChannel file = FileChannel.open(asset.path, StandardOpenOption.READ);
+             OutputStream body = response.getOutputStream(file.size())) {
+            long size = file.size();
+            WritableByteChannel out = Channels.newChannel(body);
+            long position = 0;
+            while (position < size) {
+                position += file.transferTo(position, size - position, out);
+            }
         }
     }
     
@@ -105,33 +188,14 @@ public class HtmlLoader implements Servlet {
         }
     }
     
-    private void sendSuccessResponse(OutputStream toClient, byte[] content, String contentType) throws IOException {
-        String headers = "HTTP/1.1 200 OK\r\n" +
-                        "Content-Type: " + contentType + "\r\n" +
-                        "Content-Length: " + content.length + "\r\n" +
-                        "\r\n";
-        
-        toClient.write(headers.getBytes());
-        toClient.write(content);
-        toClient.flush();
-    }
-    
-    private void sendNotFoundResponse(OutputStream toClient, String requestedPath) throws IOException {
+    private void sendNotFoundResponse(HttpResponse response, String requestedPath) throws IOException {
         String html = "<html><body><h1>404 - File Not Found</h1><p>The requested file '" + 
                      requestedPath + "' was not found on this server.</p></body></html>";
-        
-        String response = "HTTP/1.1 404 Not Found\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Content-Length: " + html.length() + "\r\n" +
-                         "\r\n" +
-                         html;
-        
-        toClient.write(response.getBytes());
-        toClient.flush();
+        response.status(404).contentType("text/html; charset=utf-8").send(html);
     }
 
     @Override
     public void close() throws IOException {
-        // Nothing to close for this servlet
+        cache.close();
     }
 }
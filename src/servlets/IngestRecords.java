@@ -0,0 +1,188 @@
+package servlets;
+
+import server.RequestParser;
+
+/**
+ * Parsing of the line-oriented record bodies shared by {@link TopicIngester} and the batch mode
+ * of {@link TopicValidator}: CSV lines of {@code topic,value} or NDJSON objects with
+ * {@code "topic"} and {@code "value"} fields. Parsers report malformed records by returning an
+ * error description, never by throwing, since a body may hold millions of records.
+ */
+final class IngestRecords {
+
+    private IngestRecords() {
+    }
+
+    // Whether the body is NDJSON, from the format parameter or else the Content-Type
+    static boolean isNdjson(RequestParser.RequestInfo ri) {
+        String format = ri.getParameters().get("format");
+        if (format != null) {
+            return format.equalsIgnoreCase("ndjson") || format.equalsIgnoreCase("json");
+        }
+        String contentType = ri.getHeader("Content-Type");
+        return contentType != null && contentType.toLowerCase().contains("json");
+    }
+
+    // Parses "topic,value" into out, returns an error description or null
+    static String parseCsvRecord(String line, String[] out) {
+        int comma = line.indexOf(',');
+        if (comma <= 0 || comma == line.length() - 1) {
+            return "expected 'topic,value'";
+        }
+        out[0] = line.substring(0, comma).trim();
+        out[1] = line.substring(comma + 1).trim();
+        return null;
+    }
+
+    // Parses a flat JSON object with "topic" and "value" (or "message") fields, returns an error description or null
+    static String parseJsonRecord(String line, String[] out) {
+        out[0] = null;
+        out[1] = null;
+        int len = line.length();
+        if (line.charAt(0) != '{' || line.charAt(len - 1) != '}') {
+            return "expected a JSON object";
+        }
+        int i = 1;
+        while (i < len - 1) {
+            i = skipSpacesAndCommas(line, i);
+            if (i >= len - 1) {
+                break;
+            }
+            if (line.charAt(i) != '"') {
+                return "expected a field name at column " + (i + 1);
+            }
+            StringBuilder sb = new StringBuilder();
+            int end = readString(line, i, sb);
+            if (end < 0) {
+                return -1 - end >= len ? "unterminated field name" : "invalid escape at column " + (-end);
+            }
+            String key = sb.toString();
+            i = skipSpaces(line, end);
+            if (i >= len || line.charAt(i) != ':') {
+                return "expected ':' after \"" + key + "\"";
+            }
+            i = skipSpaces(line, i + 1);
+
+            String value;
+            if (i < len && line.charAt(i) == '"') {
+                sb.setLength(0);
+                end = readString(line, i, sb);
+                if (end < 0) {
+                    return -1 - end >= len ? "unterminated string for \"" + key + "\""
+                            : "invalid escape at column " + (-end) + " in \"" + key + "\"";
+                }
+                value = sb.toString();
+                i = end;
+            } else {
+                int start = i;
+                while (i < len - 1 && line.charAt(i) != ',') {
+                    i++;
+                }
+                value = line.substring(start, i).trim();
+            }
+
+            if (key.equals("topic")) {
+                out[0] = value;
+            } else if (key.equals("value") || key.equals("message")) {
+                out[1] = value;
+            }
+        }
+        if (out[0] == null || out[0].isEmpty() || out[1] == null) {
+            return "expected \"topic\" and \"value\" fields";
+        }
+        return null;
+    }
+
+    // Decodes the JSON string whose opening quote is at i into sb. Returns the index after the
+    // closing quote, or -1 - the index of an invalid escape, or -1 - s.length() if unterminated.
+    private static int readString(String s, int i, StringBuilder sb) {
+        int len = s.length();
+        i++;
+        while (i < len) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c != '\\') {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            if (i + 1 >= len) {
+                return -1 - len;
+            }
+            int escape = i;
+            switch (s.charAt(i + 1)) {
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u': {
+                    int code = i + 6 <= len ? hex4(s, i + 2) : -1;
+                    if (code < 0) {
+                        return -1 - escape;
+                    }
+                    sb.append((char) code);
+                    i += 4;
+                    break;
+                }
+                default:
+                    return -1 - escape;
+            }
+            i += 2;
+        }
+        return -1 - len;
+    }
+
+    // The value of four hex digits at i, or -1
+    private static int hex4(String s, int i) {
+        int code = 0;
+        for (int k = i; k < i + 4; k++) {
+            int digit = Character.digit(s.charAt(k), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            code = code * 16 + digit;
+        }
+        return code;
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipSpacesAndCommas(String s, int i) {
+        while (i < s.length() && (Character.isWhitespace(s.charAt(i)) || s.charAt(i) == ',')) {
+            i++;
+        }
+        return i;
+    }
+
+    // Whether a line is the optional CSV header
+    static boolean isCsvHeader(String line) {
+        return line.equalsIgnoreCase("topic,value");
+    }
+
+    // Quotes a string as a JSON string literal; values may hold control characters decoded from escapes
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
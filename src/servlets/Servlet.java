@@ -6,18 +6,17 @@ import server.RequestParser.RequestInfo;
 
 /**
  * Servlet interface defines the contract for handling HTTP requests in the server.
- * Implementations should process the request and write the response to the output stream.
+ * Implementations should process the request and write the response to the output stream,
+ * usually through {@link server.HttpResponse}, which takes care of status line, headers and framing.
  * 
  * <p>Example implementation:
  * <pre>{@code
  * public class UserServlet implements Servlet {
  *     {@literal @}Override
  *     public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
- *         PrintWriter writer = new PrintWriter(toClient, true);
- *         writer.println("HTTP/1.1 200 OK");
- *         writer.println("Content-Type: application/json");
- *         writer.println();
- *         writer.println("{\"users\": []}");
+ *         new HttpResponse(ri, toClient)
+ *             .contentType("application/json")
+ *             .send("{\"users\": []}");
  *     }
  *     
  *     {@literal @}Override
@@ -0,0 +1,235 @@
+package servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache of the files under a static root directory, used by {@link HtmlLoader}.
+ * Each entry holds the file content, a gzip variant and the validators (ETag, Last-Modified),
+ * so serving a cached file needs no file system access at all.
+ *
+ * <p>Entries are dropped when the file changes: a {@link WatchService} thread watches the root
+ * and its subdirectories. If the platform offers no watch service, every hit is revalidated
+ * against the file's size and modification time instead.
+ *
+ * <p>Files larger than {@code maxCachedBytes} are not held in memory; only their metadata is
+ * cached and their content is streamed from disk.
+ *
+ * <p>Entries are keyed by the normalized path, so {@code a/./b.html} and {@code a/../a/b.html} share
+ * the entry of {@code a/b.html}, and only existing files are cached: the number of entries is bounded
+ * by the files under the root, whatever clients ask for.
+ */
+class StaticAssetCache {
+    private final Path root;
+    private final int maxCachedBytes;
+    private final ConcurrentHashMap<String, Asset> assets = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong(); // Bumped before entries are dropped
+    private WatchService watcher;
+    private Thread watchThread;
+
+    /**
+     * One cached file.
+     */
+    static final class Asset {
+        final Path path;
+        final String contentType;
+        final long size;
+        final long lastModified; // Epoch milliseconds, truncated to seconds like the HTTP header
+        final String etag;
+        final byte[] content; // null for files served from disk
+        final byte[] gzipContent; // null if the file is not worth compressing
+
+        Asset(Path path, String contentType, long size, long lastModified, String etag, byte[] content, byte[] gzipContent) {
+            this.path = path;
+            this.contentType = contentType;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.content = content;
+            this.gzipContent = gzipContent;
+        }
+    }
+
+    StaticAssetCache(String root, int maxCachedBytes) {
+        this.root = Path.of(root).toAbsolutePath().normalize();
+        this.maxCachedBytes = maxCachedBytes;
+        startWatching();
+    }
+
+    /**
+     * Returns the asset for a path relative to the root, loading it on a miss.
+     *
+     * @param relativePath the requested path
+     * @param contentType the content type to record when the file is loaded
+     * @return the asset, or null if there is no such file inside the root
+     * @throws IOException if the file cannot be read
+     */
+    Asset get(String relativePath, String contentType) throws IOException {
+        Path requested = root.resolve(relativePath).normalize();
+        if (!requested.startsWith(root)) {
+            return null;
+        }
+        String key = root.relativize(requested).toString();
+        Asset asset = assets.get(key);
+        if (asset != null && (watchThread != null || isCurrent(asset))) {
+            return asset;
+        }
+        long seen = invalidations.get();
+        Asset loaded = load(key, contentType);
+        if (loaded == null) {
+            return null;
+        }
+        // Not cached if a change was reported while loading, the content may predate it
+        assets.compute(key, (k, current) -> invalidations.get() == seen ? loaded : current);
+        if (invalidations.get() != seen) {
+            assets.remove(key, loaded); // Reported after the check above, its removal may have missed the entry
+        }
+        return loaded;
+    }
+
+    private boolean isCurrent(Asset asset) {
+        File file = asset.path.toFile();
+        return file.isFile() && file.length() == asset.size && file.lastModified() / 1000 * 1000 == asset.lastModified;
+    }
+
+    private Asset load(String relativePath, String contentType) throws IOException {
+        File file = root.resolve(relativePath).toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        // Ensure the file is within the root directory (security check)
+        Path canonical = file.getCanonicalFile().toPath();
+        if (!canonical.startsWith(root.toFile().getCanonicalFile().toPath())) {
+            return null;
+        }
+
+        long lastModified = file.lastModified() / 1000 * 1000;
+        long size = file.length();
+        if (size > maxCachedBytes) {
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            return new Asset(canonical, contentType, size, lastModified, etag, null, null);
+        }
+
+        byte[] content = Files.readAllBytes(canonical);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.length) + "\"";
+        return new Asset(canonical, contentType, content.length, lastModified, etag, content, gzipVariant(canonical, content, contentType));
+    }
+
+    // Uses a precompressed "name.gz" next to the file if it is up to date, otherwise compresses once here
+    private static byte[] gzipVariant(Path file, byte[] content, String contentType) throws IOException {
+        if (!contentType.startsWith("text/") && !contentType.equals("application/javascript")
+                && !contentType.equals("application/json") && !contentType.equals("image/svg+xml")) {
+            return null; // Images are compressed already
+        }
+        File precompressed = new File(file.toString() + ".gz");
+        if (precompressed.isFile() && precompressed.lastModified() >= file.toFile().lastModified()) {
+            return Files.readAllBytes(precompressed.toPath());
+        }
+        if (content.length < 256) {
+            return null; // Not worth the header overhead
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.size() < content.length ? out.toByteArray() : null;
+    }
+
+    private void startWatching() {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            registerTree(root);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("File watching unavailable for " + root + ", revalidating static files on every request: " + e.getMessage());
+            watcher = null;
+            return;
+        }
+        watchThread = new Thread(this::watchLoop, "static-asset-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void registerTree(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidations.incrementAndGet();
+                        assets.clear(); // Events were lost, start over
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        try {
+                            registerTree(changed);
+                        } catch (IOException e) {
+                            System.err.println("Cannot watch " + changed + ": " + e.getMessage());
+                        }
+                    }
+                    invalidate(changed);
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Cache closed
+        }
+    }
+
+    // Drops the entries of a changed file (or of the file a changed ".gz" belongs to) and of anything below a changed directory
+    private void invalidate(Path changed) {
+        String name = changed.toString();
+        Path source = name.endsWith(".gz") ? Path.of(name.substring(0, name.length() - 3)) : changed;
+        invalidations.incrementAndGet();
+        assets.entrySet().removeIf(e -> {
+            // Entries are keyed by request path; the file may be reached through a link, so check both
+            Path requested = root.resolve(e.getKey()).normalize();
+            Path file = e.getValue().path;
+            return requested.startsWith(changed) || requested.equals(source) || file.startsWith(changed) || file.equals(source);
+        });
+    }
+
+    void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("Error closing file watcher: " + e.getMessage());
+            }
+        }
+        assets.clear();
+    }
+}
@@ -0,0 +1,123 @@
+package servlets;
+
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.Waves;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import server.HttpResponse;
+import server.RequestParser;
+
+/**
+ * TopicAwaiter servlet long-polls a topic until it reflects a publish. {@code /publish} answers
+ * with the publish's wave number in an {@code X-Wave} header; this servlet holds the request until
+ * the given topic has a value from that wave (or a later one), the wave settled without reaching
+ * the topic, or the timeout passed, and then answers with the topic's value.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // Register the awaiter
+ * server.addServlet("GET", "/await", new TopicAwaiter());
+ *
+ * // GET /publish?topic=A&message=5        -> X-Wave: 17
+ * // GET /await?topic=R3&wave=17&timeout=2000
+ * //   -> {"topic": "R3", "wave": 17, "status": "reached", "valueWave": 17, "value": "6.0"}
+ * }</pre>
+ *
+ * <p>{@code status} is {@code reached}, {@code settled} (the wave is done and never got to the
+ * topic, {@code value} is what the topic holds) or {@code timeout}. The timeout is in
+ * milliseconds, 5000 by default and at most 30000.
+ */
+public class TopicAwaiter implements Servlet {
+    static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    static final long MAX_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Waits for the topic in the {@code topic} parameter to reflect the wave in {@code wave}.
+     *
+     * @param ri the parsed request information
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while writing the response
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        Map<String, String> params = ri.getParameters();
+        String topicName = params.get("topic");
+        long wave;
+        long timeout;
+        try {
+            wave = Long.parseLong(params.getOrDefault("wave", "").trim());
+            timeout = timeoutMillis(params.get("timeout"));
+        } catch (NumberFormatException e) {
+            response.sendText(400, "wave and timeout must be numbers");
+            return;
+        }
+        if (topicName == null || !TopicManagerSingleton.get().topicExists(topicName)) {
+            response.sendText(404, "Topic not found");
+            return;
+        }
+        if (wave <= 0 || wave > Waves.lastWave()) {
+            response.sendText(400, "Unknown wave " + wave);
+            return;
+        }
+
+        Topic topic = TopicManagerSingleton.get().getTopic(topicName);
+        Waves.Result result = await(topic, wave, timeout);
+        response.contentType("application/json; charset=utf-8").header("Cache-Control", "no-store")
+                .send(toJson(topic, wave, result));
+    }
+
+    // Parses a timeout parameter, capped so a request cannot hold its thread for long
+    static long timeoutMillis(String param) {
+        if (param == null) {
+            return DEFAULT_TIMEOUT_MILLIS;
+        }
+        return Math.max(0, Math.min(MAX_TIMEOUT_MILLIS, Long.parseLong(param.trim())));
+    }
+
+    /**
+     * Waits for a topic to reflect a wave.
+     *
+     * @param topic the topic
+     * @param wave the wave number
+     * @param timeoutMillis how long to wait
+     * @return the result, or null on timeout
+     */
+    static Waves.Result await(Topic topic, long wave, long timeoutMillis) {
+        CompletableFuture<Waves.Result> future = Waves.await(topic, wave);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            future.cancel(false); // Unregisters the wait if it is still pending
+        }
+    }
+
+    // Describes a wait result as a JSON object
+    static String toJson(Topic topic, long wave, Waves.Result result) {
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"topic\": ").append(IngestRecords.quote(topic.getName()))
+            .append(", \"wave\": ").append(wave)
+            .append(", \"status\": \"").append(result == null ? "timeout" : result.reached ? "reached" : "settled").append('"');
+        if (result != null) {
+            json.append(", \"valueWave\": ").append(result.wave)
+                .append(", \"value\": ").append(IngestRecords.quote(result.message.asText));
+        }
+        return json.append('}').toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close for this servlet
+    }
+}
@@ -0,0 +1,157 @@
+package servlets;
+
+import graph.Agent;
+import graph.GraphDelta;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import server.HttpResponse;
+import server.RequestParser;
+
+/**
+ * TopicChanges servlet answers what changed in the graph since a version, as JSON, so that a
+ * page or a monitoring script can poll a large graph and download only the changes instead of
+ * the whole topic table or graph page.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * server.addServlet("GET", "/changes", new TopicChanges());
+ *
+ * // GET /changes            -> {"version": 12, "reset": true, "values": {...}, "topology": [...]}
+ * // GET /changes?since=12   -> {"version": 15, "reset": false, "values": {"B": "6.0"},
+ * //                             "edits": [{"op": "addSubscriber", "topic": "B", "agent": "IncAgent#2"}]}
+ * }</pre>
+ *
+ * <p>Every response carries the version to send as {@code since} next time. {@code values}
+ * maps each topic whose value changed to its current value, and {@code edits} lists the topics
+ * added or removed and the publishers and subscribers added or removed, oldest first. Without
+ * {@code since}, or when the edits since that version are no longer kept (after a configuration
+ * reload, a restart, or many edits), the response is a reset: {@code values} holds every topic
+ * and {@code topology} every topic with its publishers and subscribers.
+ */
+public class TopicChanges implements Servlet {
+
+    /**
+     * Sends the changes since the version in the {@code since} parameter.
+     *
+     * @param ri the parsed request information
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while writing the response
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        long since;
+        try {
+            String param = ri.getParameters().get("since");
+            since = param != null ? Long.parseLong(param.trim()) : -1;
+        } catch (NumberFormatException e) {
+            response.sendText(400, "since must be a version number");
+            return;
+        }
+
+        GraphDelta delta = TopicManagerSingleton.get().changesSince(since);
+        response.contentType("application/json; charset=utf-8").header("Cache-Control", "no-store");
+        // Small deltas fit in one buffer and get a Content-Length, a reset of a large graph is streamed
+        try (Writer out = response.getWriter()) {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"version\": ").append(delta.version)
+                .append(", \"reset\": ").append(delta.reset)
+                .append(", \"values\": {");
+            boolean first = true;
+            for (Map.Entry<String, Message> e : delta.values.entrySet()) {
+                json.append(first ? "" : ", ");
+                appendJsonString(json, e.getKey());
+                json.append(": ");
+                appendJsonString(json, e.getValue().asText);
+                first = false;
+                flushIfLarge(json, out);
+            }
+            json.append('}');
+            if (delta.reset) {
+                appendTopology(json, out);
+            } else {
+                appendEdits(json, delta.edits, out);
+            }
+            out.write(json.append('}').toString());
+        }
+    }
+
+    private static void appendEdits(StringBuilder json, List<GraphDelta.Edit> edits, Writer out) throws IOException {
+        json.append(", \"edits\": [");
+        boolean first = true;
+        for (GraphDelta.Edit edit : edits) {
+            json.append(first ? "" : ", ").append("{\"op\": \"").append(edit.op).append("\", \"topic\": ");
+            appendJsonString(json, edit.topic);
+            if (edit.agent != null) {
+                json.append(", \"agent\": ");
+                appendJsonString(json, edit.agent);
+            }
+            json.append('}');
+            first = false;
+            flushIfLarge(json, out);
+        }
+        json.append(']');
+    }
+
+    private static void appendTopology(StringBuilder json, Writer out) throws IOException {
+        json.append(", \"topology\": [");
+        boolean first = true;
+        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+            json.append(first ? "" : ", ").append("{\"topic\": ");
+            appendJsonString(json, topic.getName());
+            json.append(", \"publishers\": ");
+            appendAgents(json, topic.getPubs());
+            json.append(", \"subscribers\": ");
+            appendAgents(json, topic.getSubs());
+            json.append('}');
+            first = false;
+            flushIfLarge(json, out);
+        }
+        json.append(']');
+    }
+
+    private static void appendAgents(StringBuilder json, List<Agent> agents) {
+        json.append('[');
+        boolean first = true;
+        for (Agent agent : agents) {
+            json.append(first ? "" : ", ");
+            appendJsonString(json, agent.getName());
+            first = false;
+        }
+        json.append(']');
+    }
+
+    // Hands the text built so far to the writer, so a large reset is not built as one string
+    private static void flushIfLarge(StringBuilder json, Writer out) throws IOException {
+        if (json.length() >= 8192) {
+            out.write(json.toString());
+            json.setLength(0);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close for this servlet
+    }
+}
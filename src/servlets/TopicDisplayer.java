@@ -3,14 +3,20 @@ package servlets;
 import graph.Message;
 import graph.Topic;
 import graph.TopicManagerSingleton;
+import graph.TopicSchema;
+import graph.TrafficRecorder;
+import graph.Waves;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map;
+import server.HttpResponse;
 import server.RequestParser;
 
 /**
  * TopicDisplayer servlet handles message publishing to topics and displays results.
  * Accepts GET requests with topic and message parameters to publish messages to graph topics.
+ * The answer is a small JSON acknowledgement; with {@code view=table} it is the HTML topic
+ * table of the UI instead, showing the first {@value #TABLE_ROWS} topics by name.
  * 
  * <p>Example usage:
  * <pre>{@code
@@ -18,11 +24,19 @@ import server.RequestParser;
  * server.addServlet("GET", "/topic", new TopicDisplayer());
  * 
  * // Client can now send messages to topics:
- * // GET /topic?topic=math&message=5
- * // GET /topic?topic=fibonacci&message=start
+ * // GET /topic?topic=math&message=5                -> {"topic": "math", "wave": 17}
+ * // GET /topic?topic=fibonacci&message=start&view=table
+ * // GET /topic?topic=A&message=5&await=R3&timeout=2000
+ * //   -> {"topic": "A", "wave": 18, "await": {"topic": "R3", "wave": 18, "status": "reached", ...}}
  * }</pre>
+ *
+ * <p>Each publish starts a new {@link Waves wave}; its number is sent in the {@code X-Wave}
+ * header so the client can wait for downstream topics with {@link TopicAwaiter}. The full
+ * topic list is paged by {@link TopicLister}.
  */
 public class TopicDisplayer implements Servlet {
+    static final int TABLE_ROWS = 500;
+
     /**
      * Handles message publishing to topics and returns the results.
      * 
@@ -32,27 +46,62 @@ public class TopicDisplayer implements Servlet {
      */
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
         Map<String, String> params = ri.getParameters();
         String topicName = params.get("topic");
         String messageText = params.get("message");
+        boolean table = "table".equals(params.get("view"));
         
         if (topicName == null || messageText == null) {
-            sendErrorResponse(toClient, "Missing topic or message parameter");
+            sendErrorResponse(response, table, "Missing topic or message parameter");
             return;
         }
         
         // Get the topic and publish the message
         Topic topic = TopicManagerSingleton.get().getTopic(topicName);
+        TopicSchema schema = topic.getSchema();
+        int result;
+        if (schema != null && (result = schema.check(messageText)) != TopicSchema.VALID) {
+            sendErrorResponse(response, table, "Message for topic " + topicName + " is " + schema.describe(result));
+            return;
+        }
         Message message = new Message(messageText);
-        topic.publish(message);
+        TrafficRecorder.record(topicName, message);
+        long wave = Waves.publish(topic, message);
+        response.header("X-Wave", Long.toString(wave)); // For GET /await
+
+        // With await=<topic>, hold the answer until that topic reflects this publish
+        String awaitName = params.get("await");
+        String awaited = null;
+        if (awaitName != null && TopicManagerSingleton.get().topicExists(awaitName)) {
+            long timeout;
+            try {
+                timeout = TopicAwaiter.timeoutMillis(params.get("timeout"));
+            } catch (NumberFormatException e) {
+                timeout = TopicAwaiter.DEFAULT_TIMEOUT_MILLIS;
+            }
+            Topic awaitTopic = TopicManagerSingleton.get().getTopic(awaitName);
+            awaited = TopicAwaiter.toJson(awaitTopic, wave, TopicAwaiter.await(awaitTopic, wave, timeout));
+        }
+
+        if (!table) {
+            // Same size whatever the size of the graph
+            StringBuilder ack = new StringBuilder(64);
+            ack.append("{\"topic\": ").append(IngestRecords.quote(topicName)).append(", \"wave\": ").append(wave);
+            if (awaited != null) {
+                ack.append(", \"await\": ").append(awaited);
+            }
+            response.contentType("application/json; charset=utf-8").send(ack.append('}').toString());
+            return;
+        }
         
-        // Send HTML response with a table showing ALL topics and their current values
+        // Send HTML response with a table of the topics and their current values
         // Also include JavaScript to refresh the graph frame
-        String html = generateAllTopicsTable();
-        sendSuccessResponse(toClient, html);
+        String html = generateTopicsTable();
+        sendSuccessResponse(response, html);
     }
     
-    private String generateAllTopicsTable() {
+    private String generateTopicsTable() {
         StringBuilder html = new StringBuilder();
         html.append("<!DOCTYPE html>\n")
             .append("<html>\n")
@@ -107,10 +156,14 @@ public class TopicDisplayer implements Servlet {
             .append("        }\n")
             .append("    </style>\n")
             .append("    <script>\n")
-            .append("        // Refresh the graph frame when topics are updated\n")
+            .append("        // The graph frame follows topic values over /events, reload it only if it does not\n")
+            .append("        // (no EventSource support, the stream is not open, or no graph shown yet)\n")
             .append("        window.onload = function() {\n")
             .append("            try {\n")
-            .append("                parent.frames['graphFrame'].location.href = '/refresh';\n")
+            .append("                const graphFrame = parent.frames['graphFrame'];\n")
+            .append("                if (!graphFrame.liveUpdates) {\n")
+            .append("                    graphFrame.location.href = '/refresh';\n")
+            .append("                }\n")
             .append("            } catch (e) {\n")
             .append("                console.log('Could not refresh graph frame:', e);\n")
             .append("            }\n")
@@ -123,8 +176,12 @@ public class TopicDisplayer implements Servlet {
             .append("        <table>\n")
             .append("            <tr><th>Topic</th><th>Last Value</th><th>Publishers</th><th>Subscribers</th></tr>\n");
         
-        // Get all topics and display them
-        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+        // The first topics by name, the rest are paged by GET /topics
+        int rows = 0;
+        for (Topic topic : TopicManagerSingleton.get().getTopicsByName().values()) {
+            if (rows++ == TABLE_ROWS) {
+                break;
+            }
             String topicName = topic.getName();
             String lastValue = topic.getMsg().asText;
             String publishers = topic.getPubs().size() + " agents";
@@ -138,6 +195,11 @@ public class TopicDisplayer implements Servlet {
                 .append("</tr>\n");
         }
         
+        int count = TopicManagerSingleton.get().getTopicCount();
+        if (count > TABLE_ROWS) {
+            html.append("        <tr><td colspan=\"4\">Showing " + TABLE_ROWS + " of " + count
+                    + " topics, <a href=\"/topics\" target=\"_blank\">GET /topics</a> lists them all.</td></tr>\n");
+        }
         html.append("        </table>\n")
             .append("    </div>\n")
             .append("</body>\n")
@@ -146,25 +208,17 @@ public class TopicDisplayer implements Servlet {
         return html.toString();
     }
     
-    private void sendSuccessResponse(OutputStream toClient, String html) throws IOException {
-        String response = "HTTP/1.1 200 OK\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Content-Length: " + html.length() + "\r\n" +
-                         "\r\n" +
-                         html;
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendSuccessResponse(HttpResponse response, String html) throws IOException {
+        response.contentType("text/html; charset=utf-8").send(html);
     }
     
-    private void sendErrorResponse(OutputStream toClient, String message) throws IOException {
+    private void sendErrorResponse(HttpResponse response, boolean table, String message) throws IOException {
+        if (!table) {
+            response.sendText(400, message);
+            return;
+        }
         String html = "<html><body><h1>Error</h1><p>" + message + "</p></body></html>";
-        String response = "HTTP/1.1 400 Bad Request\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Content-Length: " + html.length() + "\r\n" +
-                         "\r\n" +
-                         html;
-        toClient.write(response.getBytes());
-        toClient.flush();
+        response.status(400).contentType("text/html; charset=utf-8").send(html);
     }
 
     /**
@@ -0,0 +1,131 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicSchema;
+import graph.TrafficRecorder;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import server.HttpResponse;
+import server.RequestParser;
+
+/**
+ * TopicIngester servlet publishes many topic values from a single streamed request body.
+ * Records are parsed line by line as they arrive and each is published as soon as it is parsed,
+ * exactly like a {@code /publish} of the same value, so a backfill of millions of readings needs
+ * one connection instead of one connection per value.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // Register the ingestion endpoint
+ * server.addServlet("POST", "/ingest", new TopicIngester());
+ *
+ * // CSV body (Content-Type: text/csv), an optional "topic,value" header line is skipped:
+ * // A,1
+ * // B,2.5
+ *
+ * // NDJSON body (Content-Type: application/x-ndjson), one object per line:
+ * // {"topic": "A", "value": 1}
+ * // {"topic": "B", "value": "2.5"}
+ * }</pre>
+ *
+ * <p>The response is a small JSON summary, e.g.
+ * {@code {"received": 2, "published": 2, "errors": 0, "errorSamples": []}}.
+ * Records for topics that do not exist are counted as errors, as in the UI's topic validation,
+ * and so are values that break the {@link TopicSchema} their topic declares.
+ */
+public class TopicIngester implements Servlet {
+    private static final int MAX_ERROR_SAMPLES = 10;
+
+    /**
+     * Handles a bulk ingestion request.
+     *
+     * @param ri the parsed request information whose body holds the records
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while processing the request
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        boolean ndjson = IngestRecords.isNdjson(ri);
+        BufferedReader body = new BufferedReader(ri.getBodyReader(), 64 * 1024);
+
+        // Resolved once per request, so repeated topics skip the global map
+        Map<String, Topic> topicCache = new HashMap<>();
+        List<String> errorSamples = new ArrayList<>();
+        String[] record = new String[2];
+        long received = 0;
+        long published = 0;
+        long errors = 0;
+        long lineNo = 0;
+
+        String line;
+        while ((line = body.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!ndjson && lineNo == 1 && IngestRecords.isCsvHeader(line)) {
+                continue; // CSV header
+            }
+            received++;
+
+            String error = ndjson ? IngestRecords.parseJsonRecord(line, record) : IngestRecords.parseCsvRecord(line, record);
+            if (error == null) {
+                Topic topic = topicCache.get(record[0]);
+                if (topic == null && TopicManagerSingleton.get().topicExists(record[0])) {
+                    topic = TopicManagerSingleton.get().getTopic(record[0]);
+                    topicCache.put(record[0], topic);
+                }
+                TopicSchema schema;
+                int result;
+                if (topic == null) {
+                    error = "unknown topic '" + record[0] + "'";
+                } else if ((schema = topic.getSchema()) != null && (result = schema.check(record[1])) != TopicSchema.VALID) {
+                    error = "'" + record[1] + "' for topic '" + record[0] + "' is " + schema.describe(result);
+                } else {
+                    Message msg = new Message(record[1]);
+                    TrafficRecorder.record(topic.getName(), msg);
+                    topic.publish(msg);
+                    published++;
+                }
+            }
+            if (error != null) {
+                errors++;
+                if (errorSamples.size() < MAX_ERROR_SAMPLES) {
+                    errorSamples.add("line " + lineNo + ": " + error);
+                }
+            }
+        }
+
+        sendSummary(new HttpResponse(ri, toClient), received, published, errors, errorSamples);
+    }
+
+    private void sendSummary(HttpResponse response, long received, long published, long errors, List<String> errorSamples) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"received\": ").append(received)
+            .append(", \"published\": ").append(published)
+            .append(", \"errors\": ").append(errors)
+            .append(", \"errorSamples\": [");
+        for (int i = 0; i < errorSamples.size(); i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append(IngestRecords.quote(errorSamples.get(i)));
+        }
+        json.append("]}");
+
+        response.contentType("application/json").send(json.toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close for this servlet
+    }
+}
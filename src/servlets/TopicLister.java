@@ -0,0 +1,256 @@
+package servlets;
+
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import server.HttpResponse;
+import server.RequestParser;
+
+/**
+ * TopicLister servlet lists topics one page at a time, so a graph with a hundred thousand topics
+ * can be browsed without sending them all. Topics can be filtered by a name prefix and a regular
+ * expression and sorted by name, value or update time, ascending or descending; each page ends
+ * with an opaque cursor to pass back for the next one.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // Register the topic listing
+ * server.addServlet("GET", "/topics", new TopicLister());
+ *
+ * // GET /topics?prefix=sensor.&limit=2
+ * //   -> {"topicCount": 100000, "topics": [{"name": "sensor.1", "value": "3.5", "updated": 1700000000000,
+ * //       "publishers": 1, "subscribers": 2}, ...], "next": "bmFtZQowCnNlbnNvci4xMA"}
+ * // GET /topics?prefix=sensor.&limit=2&cursor=bmFtZQowCnNlbnNvci4xMA
+ * // GET /topics?match=temp|hum&sort=updated&order=desc   most recently updated first
+ * }</pre>
+ *
+ * <p>Name order walks the {@link graph.TopicManagerSingleton.TopicManager#getTopicsByName() name index}
+ * from the cursor, so a page costs its own size plus the names the filters skip. Values and update
+ * times change with every publish and are not indexed; those orders keep the best {@code limit}
+ * topics of the prefix range in a bounded heap, which costs one pass over that range per page.
+ * Pages are consistent for names; topics whose value or update time changes between two pages may
+ * move past the cursor. {@code limit} is 100 by default and from 1 to 1000; other values, and
+ * cursors that this listing did not hand out for the same sort, are rejected with 400.
+ */
+public class TopicLister implements Servlet {
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    private static final int BY_NAME = 0;
+    private static final int BY_VALUE = 1;
+    private static final int BY_UPDATED = 2;
+    private static final String[] SORTS = {"name", "value", "updated"};
+
+    // A topic with its sort key, as listed or as encoded in a cursor
+    private static final class Entry {
+        final long key;
+        final String name;
+        final Topic topic;
+
+        Entry(long key, String name, Topic topic) {
+            this.key = key;
+            this.name = name;
+            this.topic = topic;
+        }
+    }
+
+    /**
+     * Sends one page of topics.
+     *
+     * @param ri the parsed request information with the paging, filter and sort parameters
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if an I/O error occurs while writing the response
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        Map<String, String> params = ri.getParameters();
+
+        int sort = indexOf(SORTS, params.getOrDefault("sort", "name"));
+        if (sort < 0) {
+            response.sendText(400, "sort must be name, value or updated");
+            return;
+        }
+        String order = params.getOrDefault("order", "asc");
+        if (!order.equals("asc") && !order.equals("desc")) {
+            response.sendText(400, "order must be asc or desc");
+            return;
+        }
+        boolean descending = order.equals("desc");
+        int limit;
+        try {
+            limit = Integer.parseInt(params.getOrDefault("limit", Integer.toString(DEFAULT_LIMIT)).trim());
+        } catch (NumberFormatException e) {
+            limit = -1;
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            response.sendText(400, "limit must be a number from 1 to " + MAX_LIMIT);
+            return;
+        }
+        Matcher match = null;
+        if (params.get("match") != null) {
+            try {
+                match = Pattern.compile(params.get("match")).matcher("");
+            } catch (PatternSyntaxException e) {
+                response.sendText(400, "match is not a valid regular expression: " + e.getDescription());
+                return;
+            }
+        }
+        Entry cursor = null;
+        if (params.get("cursor") != null) {
+            cursor = decodeCursor(params.get("cursor"), sort);
+            if (cursor == null) {
+                response.sendText(400, "cursor is malformed or does not belong to sort=" + SORTS[sort]);
+                return;
+            }
+        }
+
+        // The prefix narrows the name index to a range, whatever the sort
+        NavigableMap<String, Topic> range = TopicManagerSingleton.get().getTopicsByName();
+        String prefix = params.get("prefix");
+        if (prefix != null && !prefix.isEmpty()) {
+            range = range.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        }
+
+        Comparator<Entry> comparator = Comparator.<Entry>comparingLong(e -> e.key).thenComparing(e -> e.name);
+        if (descending) {
+            comparator = comparator.reversed();
+        }
+        List<Entry> page = new ArrayList<>(limit);
+        boolean more = sort == BY_NAME
+                ? pageByName(range, descending, cursor, match, limit, page)
+                : pageBySelection(range, sort, comparator, cursor, match, limit, page);
+
+        StringBuilder json = new StringBuilder(64 + page.size() * 96);
+        json.append("{\"topicCount\": ").append(TopicManagerSingleton.get().getTopicCount())
+            .append(", \"topics\": [");
+        for (int i = 0; i < page.size(); i++) {
+            Topic topic = page.get(i).topic;
+            json.append(i > 0 ? ", " : "")
+                .append("{\"name\": ").append(IngestRecords.quote(topic.getName()))
+                .append(", \"value\": ").append(IngestRecords.quote(topic.getMsg().asText))
+                .append(", \"updated\": ").append(topic.getMsg().date.getTime())
+                .append(", \"publishers\": ").append(topic.getPubs().size())
+                .append(", \"subscribers\": ").append(topic.getSubs().size())
+                .append('}');
+        }
+        json.append("], \"next\": ")
+            .append(more ? '"' + encodeCursor(sort, page.get(page.size() - 1)) + '"' : "null")
+            .append('}');
+        response.contentType("application/json; charset=utf-8").header("Cache-Control", "no-store").send(json.toString());
+    }
+
+    // Walks the name index from the cursor; returns whether topics are left after the page
+    private static boolean pageByName(NavigableMap<String, Topic> range, boolean descending, Entry cursor, Matcher match,
+                                      int limit, List<Entry> page) {
+        NavigableMap<String, Topic> walk = descending ? range.descendingMap() : range;
+        if (cursor != null) {
+            walk = walk.tailMap(cursor.name, false);
+        }
+        for (Map.Entry<String, Topic> e : walk.entrySet()) {
+            if (match != null && !match.reset(e.getKey()).find()) {
+                continue;
+            }
+            if (page.size() == limit) {
+                return true;
+            }
+            page.add(new Entry(0, e.getKey(), e.getValue()));
+        }
+        return false;
+    }
+
+    // Keeps the first limit + 1 topics after the cursor in a heap whose head is the last of them
+    private static boolean pageBySelection(NavigableMap<String, Topic> range, int sort, Comparator<Entry> comparator,
+                                           Entry cursor, Matcher match, int limit, List<Entry> page) {
+        PriorityQueue<Entry> best = new PriorityQueue<>(limit + 1, comparator.reversed());
+        for (Map.Entry<String, Topic> e : range.entrySet()) {
+            String name = e.getKey();
+            if (match != null && !match.reset(name).find()) {
+                continue;
+            }
+            Topic topic = e.getValue();
+            Entry entry = new Entry(sortKey(sort, topic), name, topic);
+            if (cursor != null && comparator.compare(entry, cursor) <= 0) {
+                continue;
+            }
+            if (best.size() <= limit) {
+                best.add(entry);
+            } else if (comparator.compare(entry, best.peek()) < 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+        boolean more = best.size() > limit;
+        if (more) {
+            best.poll();
+        }
+        page.addAll(best);
+        page.sort(comparator);
+        return more;
+    }
+
+    private static long sortKey(int sort, Topic topic) {
+        if (sort == BY_UPDATED) {
+            return topic.getVersion();
+        }
+        // Double bits flipped so that comparing them as longs orders like Double.compare, NaN last
+        long bits = Double.doubleToLongBits(topic.getMsg().asDouble);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static String encodeCursor(int sort, Entry last) {
+        String raw = SORTS[sort] + "\n" + last.key + "\n" + last.name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns the position a cursor stands for, or null if it is malformed or from another sort
+    private static Entry decodeCursor(String cursor, int sort) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String[] parts = raw.split("\n", 3);
+        if (parts.length != 3 || !parts[0].equals(SORTS[sort]) || parts[2].isEmpty()) {
+            return null;
+        }
+        long key;
+        try {
+            key = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        // Name cursors carry no key and update times are versions, which start at 0
+        if ((sort == BY_NAME && key != 0) || (sort == BY_UPDATED && key < 0)) {
+            return null;
+        }
+        return new Entry(key, parts[2], null);
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to close for this servlet
+    }
+}
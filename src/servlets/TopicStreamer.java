@@ -0,0 +1,348 @@
+package servlets;
+
+import graph.GraphDelta;
+import graph.Message;
+import graph.Topic;
+import graph.TopicEvents;
+import graph.TopicManagerSingleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import server.HttpResponse;
+import server.PushChannel;
+import server.RequestParser;
+
+/**
+ * TopicStreamer servlet pushes topic value changes to browsers as Server-Sent Events, so a page
+ * can update the graph in place instead of reloading it after every publish.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // At most 10 events per second per subscriber, at most 100 subscribers
+ * server.addServlet("GET", "/events", new TopicStreamer(10, 100));
+ *
+ * // In the browser:
+ * // const source = new EventSource("/events");
+ * // source.onmessage = e => console.log(JSON.parse(e.data)); // {"A": "5", "B": "6"}
+ * }</pre>
+ *
+ * <p>Publishers only bump a counter and wake the streamer, so they never wait for subscribers.
+ * A subscriber gets at most {@code maxUpdatesPerSecond} events per second; a client may ask for a
+ * lower rate with {@code ?rate=N}. Event ids are versions of the topic graph: each event holds the
+ * latest value of the topics published to since the subscriber's previous event, looked up with
+ * {@link graph.TopicManagerSingleton.TopicManager#changesSince(long)}, so building it costs the
+ * number of changes rather than the number of topics, and many publishes in between still make one
+ * event. The first event holds all topics, and a browser that reconnects with its last event id only
+ * gets what changed while it was away. While nothing changes, a comment line is sent every 15
+ * seconds, which also notices clients that went away.
+ *
+ * <p>On an engine that can hold a connection without a thread ({@code -Dserver.engine=nio}), the
+ * response is detached (see {@link HttpResponse#detach()}): the request thread returns at once,
+ * one streamer thread builds the events of all subscribers, and the reactor writes them. Otherwise
+ * each subscriber holds its connection and a request thread, which is why their number is limited;
+ * with {@code -Dserver.engine=virtual} those threads are cheap. Such a thread only learns that its
+ * client left when a write fails, so it sends the comment line every second while idle and is
+ * freed within about two seconds of a disconnect rather than at the next 15-second heartbeat.
+ */
+public class TopicStreamer implements Servlet {
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    private static final long PROBE_MILLIS = 1_000; // Heartbeat of blocking subscribers, see stream()
+    private static final byte[] KEEP_ALIVE = ": keep-alive\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final int maxUpdatesPerSecond;
+    private final int maxSubscribers;
+    private final AtomicLong changes = new AtomicLong(); // Publishes seen, to wake waiting subscribers
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Object signal = new Object();
+    private final Set<Pushed> pushed = ConcurrentHashMap.newKeySet(); // Subscribers on detached connections
+    private final AtomicBoolean pushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService pusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "event-pusher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final TopicEvents.Listener listener = this::onPublish;
+    private volatile boolean closed = false;
+
+    // A subscriber whose events are pushed by the streamer thread; fields other than the channel are only used there
+    private static final class Pushed {
+        final PushChannel channel;
+        final long minGapMillis;
+        long since;
+        long lastWrite;
+
+        Pushed(PushChannel channel, long minGapMillis, long since) {
+            this.channel = channel;
+            this.minGapMillis = minGapMillis;
+            this.since = since;
+            this.lastWrite = System.currentTimeMillis();
+        }
+    }
+
+    // The event that brings a subscriber at some version up to date
+    private static final class Event {
+        final long version;
+        final byte[] bytes; // null if no value changed
+
+        Event(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Creates the servlet and starts tracking publishes.
+     *
+     * @param maxUpdatesPerSecond most events sent per second to one subscriber
+     * @param maxSubscribers most simultaneous subscribers, further ones get 503
+     * @throws IllegalArgumentException if a limit is not positive
+     */
+    public TopicStreamer(int maxUpdatesPerSecond, int maxSubscribers) {
+        if (maxUpdatesPerSecond <= 0 || maxSubscribers <= 0) {
+            throw new IllegalArgumentException("Rate and subscriber limits must be positive");
+        }
+        this.maxUpdatesPerSecond = maxUpdatesPerSecond;
+        this.maxSubscribers = maxSubscribers;
+        pusher.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS / 3, HEARTBEAT_MILLIS / 3, TimeUnit.MILLISECONDS);
+        TopicEvents.addListener(listener);
+    }
+
+    // Runs on the publishing thread: count and wake the subscribers, nothing else
+    private void onPublish(Topic topic, Message message) {
+        changes.incrementAndGet();
+        if (waiting.get() > 0) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+        if (!pushed.isEmpty()) {
+            schedulePush(0);
+        }
+    }
+
+    /**
+     * Streams events until the client disconnects or the servlet is closed.
+     *
+     * @param ri the parsed request, with an optional rate parameter
+     * @param toClient the output stream to write the HTTP response to
+     * @throws IOException if the response cannot be started
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            response.header("Retry-After", "10").sendText(503, "Too many event subscribers");
+            return;
+        }
+        boolean detached = false;
+        try {
+            response.contentType("text/event-stream; charset=utf-8").header("Cache-Control", "no-cache");
+            long minGapMillis = 1000 / rate(ri);
+            GraphDelta first = TopicManagerSingleton.get().changesSince(lastEventId(ri));
+            byte[] start = ("retry: 2000\n" + event(first, "\n")).getBytes(StandardCharsets.UTF_8);
+
+            PushChannel channel = response.detach();
+            if (channel != null) {
+                detached = true;
+                Pushed subscriber = new Pushed(channel, minGapMillis, first.version);
+                channel.onClose(() -> {
+                    if (pushed.remove(subscriber)) {
+                        subscribers.decrementAndGet();
+                    }
+                });
+                pushed.add(subscriber);
+                if (!channel.push(start) || closed) {
+                    channel.close();
+                }
+                schedulePush(0); // Publishes since the first event was built
+                return;
+            }
+
+            try (OutputStream out = response.getOutputStream()) {
+                out.write(start);
+                out.flush();
+                stream(out, minGapMillis, first.version);
+            } catch (IOException e) {
+                // Client went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Server shutting down
+            }
+        } finally {
+            if (!detached) {
+                subscribers.decrementAndGet();
+            }
+        }
+    }
+
+    // Blocking engines: the request thread waits for publishes and writes the events itself. The
+    // write after a client closed is still accepted, the one after it fails, so probe every second.
+    private void stream(OutputStream out, long minGapMillis, long since) throws IOException, InterruptedException {
+        long seenChanges = changes.get();
+        long lastWrite = System.currentTimeMillis();
+
+        while (!closed) {
+            long c = changes.get();
+            if (c != seenChanges) {
+                seenChanges = c;
+                GraphDelta delta = TopicManagerSingleton.get().changesSince(since);
+                since = delta.version;
+                String event = event(delta, null);
+                if (event != null) {
+                    out.write(event.getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    lastWrite = System.currentTimeMillis();
+                    Thread.sleep(minGapMillis); // Publishes meanwhile are coalesced into the next event
+                    continue;
+                }
+            }
+            long idle = PROBE_MILLIS - (System.currentTimeMillis() - lastWrite);
+            if (idle <= 0) {
+                out.write(KEEP_ALIVE);
+                out.flush();
+                lastWrite = System.currentTimeMillis();
+                continue;
+            }
+            waiting.incrementAndGet();
+            try {
+                synchronized (signal) {
+                    if (changes.get() == seenChanges && !closed) {
+                        signal.wait(idle);
+                    }
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    // Runs push() on the streamer thread after a delay, unless a run is already scheduled
+    private void schedulePush(long delayMillis) {
+        if (!closed && pushScheduled.compareAndSet(false, true)) {
+            try {
+                pusher.schedule(this::push, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                pushScheduled.set(false); // Closed meanwhile
+            }
+        }
+    }
+
+    // Streamer thread: sends every detached subscriber that may get an event what changed since its last one
+    private void push() {
+        pushScheduled.set(false); // Publishes from now on schedule another run
+        long now = System.currentTimeMillis();
+        long nextDue = Long.MAX_VALUE;
+        Map<Long, Event> events = new HashMap<>(); // Subscribers at the same version share the event
+        for (Pushed subscriber : pushed) {
+            long due = subscriber.lastWrite + subscriber.minGapMillis;
+            if (now < due) {
+                nextDue = Math.min(nextDue, due); // Publishes meanwhile are coalesced into its next event
+                continue;
+            }
+            Event event = events.computeIfAbsent(subscriber.since, since -> {
+                GraphDelta delta = TopicManagerSingleton.get().changesSince(since);
+                String text = event(delta, null);
+                return new Event(delta.version, text != null ? text.getBytes(StandardCharsets.UTF_8) : null);
+            });
+            subscriber.since = event.version;
+            if (event.bytes != null) {
+                subscriber.lastWrite = now;
+                if (!subscriber.channel.push(event.bytes)) {
+                    subscriber.channel.close();
+                }
+            }
+        }
+        if (nextDue != Long.MAX_VALUE) {
+            schedulePush(nextDue - now);
+        }
+    }
+
+    // Streamer thread: a comment to detached subscribers that got nothing for a while
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (Pushed subscriber : pushed) {
+            if (now - subscriber.lastWrite >= HEARTBEAT_MILLIS) {
+                subscriber.lastWrite = now;
+                if (!subscriber.channel.push(KEEP_ALIVE)) {
+                    subscriber.channel.close();
+                }
+            }
+        }
+    }
+
+    // Builds an event with the values of a delta, the given text if it has none
+    private static String event(GraphDelta delta, String none) {
+        if (delta.values.isEmpty()) {
+            return none;
+        }
+        StringBuilder data = new StringBuilder();
+        for (Map.Entry<String, Message> e : delta.values.entrySet()) {
+            data.append(data.length() == 0 ? "{" : ",");
+            appendJsonString(data, e.getKey());
+            data.append(':');
+            appendJsonString(data, e.getValue().asText);
+        }
+        return "id: " + delta.version + "\ndata: " + data.append('}') + "\n\n";
+    }
+
+    private int rate(RequestParser.RequestInfo ri) {
+        try {
+            int rate = Integer.parseInt(ri.getParameters().getOrDefault("rate", ""));
+            return Math.max(1, Math.min(rate, maxUpdatesPerSecond));
+        } catch (NumberFormatException e) {
+            return maxUpdatesPerSecond;
+        }
+    }
+
+    private static long lastEventId(RequestParser.RequestInfo ri) {
+        String id = ri.getHeader("Last-Event-ID");
+        try {
+            return id != null ? Long.parseLong(id.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Stops tracking publishes and ends all streams.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        TopicEvents.removeListener(listener);
+        pusher.shutdownNow();
+        for (Pushed subscriber : pushed) {
+            subscriber.channel.close();
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+}
@@ -1,27 +1,43 @@
 package servlets;
 
+import graph.Topic;
 import graph.TopicManagerSingleton;
+import graph.TopicSchema;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import server.HttpResponse;
 import server.RequestParser;
 
 /**
  * TopicValidator servlet validates topic existence and message format.
  * Accepts GET requests with topic and message parameters to validate if a topic exists
- * and if the message is valid for that topic.
+ * and if the message is valid for that topic: it must match the {@link TopicSchema} the
+ * configuration declares for the topic, or else be a number.
+ *
+ * <p>POST requests validate a whole batch of records without publishing them. The body has the
+ * same CSV or NDJSON format as {@link TopicIngester}, and the answer is a JSON summary listing the
+ * invalid records by line, up to {@code maxErrors} (default 100) of them.
  * 
  * <p>Example usage:
  * <pre>{@code
  * // Register the topic validator
  * server.addServlet("GET", "/validate", new TopicValidator());
+ * server.addServlet("POST", "/validate", new TopicValidator());
  * 
  * // Client can now validate topics and messages:
  * // GET /validate?topic=math&message=5
  * // GET /validate?topic=nonexistent&message=test
+ * // POST /validate with a body of "topic,value" lines, answered with
+ * // {"received": 3, "valid": 2, "invalid": 1, "errors": [{"line": 2, "error": "..."}]}
  * }</pre>
  */
 public class TopicValidator implements Servlet {
+    private static final int DEFAULT_MAX_ERRORS = 100;
     
     /**
      * Handles topic and message validation requests.
@@ -32,85 +48,134 @@ public class TopicValidator implements Servlet {
      */
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        HttpResponse response = new HttpResponse(ri, toClient);
+        if ("POST".equals(ri.getHttpCommand())) {
+            validateBatch(ri, response);
+            return;
+        }
         Map<String, String> params = ri.getParameters();
         String topicName = params.get("topic");
         String message = params.get("message");
         
         // Both topic and message are required
         if (topicName != null && message != null) {
-            validateTopicAndMessage(topicName, message, toClient);
+            validateTopicAndMessage(topicName, message, response);
         } else {
-            sendErrorResponse(toClient, "Both topic and message parameters are required");
+            sendErrorResponse(response, "Both topic and message parameters are required");
         }
     }
     
-    private void validateTopicAndMessage(String topicName, String message, OutputStream toClient) throws IOException {
+    private void validateTopicAndMessage(String topicName, String message, HttpResponse response) throws IOException {
         // Check if the topic exists
         if (!TopicManagerSingleton.get().topicExists(topicName)) {
-            sendNotFoundResponse(toClient, "Topic not found");
+            sendNotFoundResponse(response, "Topic not found");
             return;
         }
         
-        // Check if the message contains only numbers
-        if (!isNumeric(message)) {
-            sendBadRequestResponse(toClient, "Message must contain only numbers");
+        // Check the message against the topic's schema, topics without one take any number
+        TopicSchema schema = schemaOf(TopicManagerSingleton.get().getTopic(topicName));
+        int result = schema.check(message);
+        if (result == TopicSchema.NOT_A_NUMBER) {
+            sendBadRequestResponse(response, "Message must contain only numbers");
+            return;
+        }
+        if (result != TopicSchema.VALID) {
+            sendBadRequestResponse(response, "Message is " + schema.describe(result));
             return;
         }
         
         // Both validations passed
-        sendSuccessResponse(toClient);
+        sendSuccessResponse(response);
     }
-    
-    private boolean isNumeric(String str) {
-        if (str == null || str.trim().isEmpty()) {
-            return false;
+
+    private void validateBatch(RequestParser.RequestInfo ri, HttpResponse response) throws IOException {
+        int maxErrors = DEFAULT_MAX_ERRORS;
+        String max = ri.getParameters().get("maxErrors");
+        if (max != null) {
+            try {
+                maxErrors = Math.max(0, Integer.parseInt(max));
+            } catch (NumberFormatException e) {
+                sendErrorResponse(response, "maxErrors must be a number");
+                return;
+            }
         }
-        try {
-            Double.parseDouble(str.trim());
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
+        boolean ndjson = IngestRecords.isNdjson(ri);
+        BufferedReader body = new BufferedReader(ri.getBodyReader(), 64 * 1024);
+
+        // Schemas resolved once per request; a missing topic maps to null
+        Map<String, TopicSchema> schemas = new HashMap<>();
+        List<String> errors = new ArrayList<>();
+        String[] record = new String[2];
+        long received = 0;
+        long invalid = 0;
+        long lineNo = 0;
+
+        String line;
+        while ((line = body.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || (!ndjson && lineNo == 1 && IngestRecords.isCsvHeader(line))) {
+                continue;
+            }
+            received++;
+
+            String error = ndjson ? IngestRecords.parseJsonRecord(line, record) : IngestRecords.parseCsvRecord(line, record);
+            if (error == null) {
+                TopicSchema schema = schemas.get(record[0]);
+                if (schema == null && !schemas.containsKey(record[0])) {
+                    schema = TopicManagerSingleton.get().topicExists(record[0])
+                            ? schemaOf(TopicManagerSingleton.get().getTopic(record[0])) : null;
+                    schemas.put(record[0], schema);
+                }
+                int result;
+                if (schema == null) {
+                    error = "unknown topic '" + record[0] + "'";
+                } else if ((result = schema.check(record[1])) != TopicSchema.VALID) {
+                    error = "'" + record[1] + "' for topic '" + record[0] + "' is " + schema.describe(result);
+                }
+            }
+            if (error != null) {
+                invalid++;
+                if (errors.size() < maxErrors) {
+                    errors.add("{\"line\": " + lineNo + ", \"error\": " + IngestRecords.quote(error) + "}");
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"received\": ").append(received)
+            .append(", \"valid\": ").append(received - invalid)
+            .append(", \"invalid\": ").append(invalid)
+            .append(", \"errors\": [");
+        for (int i = 0; i < errors.size(); i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append(errors.get(i));
         }
+        json.append("]}");
+        response.contentType("application/json").send(json.toString());
+    }
+
+    private static TopicSchema schemaOf(Topic topic) {
+        TopicSchema schema = topic.getSchema();
+        return schema != null ? schema : TopicSchema.NUMBER;
     }
     
-    private void sendSuccessResponse(OutputStream toClient) throws IOException {
-        String response = "HTTP/1.1 200 OK\r\n" +
-                         "Content-Type: text/plain\r\n" +
-                         "Content-Length: 2\r\n" +
-                         "\r\n" +
-                         "OK";
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendSuccessResponse(HttpResponse response) throws IOException {
+        response.sendText(200, "OK");
     }
     
-    private void sendNotFoundResponse(OutputStream toClient, String message) throws IOException {
-        String response = "HTTP/1.1 404 Not Found\r\n" +
-                         "Content-Type: text/plain\r\n" +
-                         "Content-Length: " + message.length() + "\r\n" +
-                         "\r\n" +
-                         message;
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendNotFoundResponse(HttpResponse response, String message) throws IOException {
+        response.sendText(404, message);
     }
     
-    private void sendBadRequestResponse(OutputStream toClient, String message) throws IOException {
-        String response = "HTTP/1.1 400 Bad Request\r\n" +
-                         "Content-Type: text/plain\r\n" +
-                         "Content-Length: " + message.length() + "\r\n" +
-                         "\r\n" +
-                         message;
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendBadRequestResponse(HttpResponse response, String message) throws IOException {
+        response.sendText(400, message);
     }
     
-    private void sendErrorResponse(OutputStream toClient, String message) throws IOException {
-        String response = "HTTP/1.1 400 Bad Request\r\n" +
-                         "Content-Type: text/plain\r\n" +
-                         "Content-Length: " + message.length() + "\r\n" +
-                         "\r\n" +
-                         message;
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendErrorResponse(HttpResponse response, String message) throws IOException {
+        response.sendText(400, message);
     }
 
     @Override
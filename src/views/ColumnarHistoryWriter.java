@@ -0,0 +1,81 @@
+package views;
+
+import graph.TimeSeriesBlock;
+import graph.Topic;
+import graph.TopicHistory;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes topic histories in a compact columnar file format.
+ * The compressed blocks kept by each topic are copied to the output as they are,
+ * so an export never decodes or buffers a whole history in memory.
+ *
+ * <p>Layout (big-endian):
+ * <pre>
+ * "TSCF" version:byte
+ * per topic:  'T' nameLength:short name:utf8 blockCount:int
+ *   per block: count:int minTime:long maxTime:long minValue:double maxValue:double
+ *              timeColumnLength:int timeColumn valueColumnLength:int valueColumn
+ * 'E'
+ * </pre>
+ * Columns are decoded with {@link TimeSeriesBlock#decodeTimes(byte[], int)} and
+ * {@link TimeSeriesBlock#decodeValues(byte[], int)}.
+ */
+public class ColumnarHistoryWriter {
+    public static final byte VERSION = 1;
+
+    /**
+     * Writes the history of the given topics, keeping only blocks that overlap the time range.
+     *
+     * @param topics the topics to export
+     * @param from lower bound in epoch milliseconds (inclusive)
+     * @param to upper bound in epoch milliseconds (inclusive)
+     * @param out the stream to write to, it is flushed but not closed
+     * @return the number of points written
+     * @throws IOException if writing fails
+     */
+    public static long write(Iterable<Topic> topics, long from, long to, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        data.writeBytes("TSCF");
+        data.writeByte(VERSION);
+        long points = 0;
+
+        for (Topic topic : topics) {
+            List<TimeSeriesBlock> blocks = new ArrayList<>();
+            TopicHistory history = topic.getHistory();
+            if (history != null) { // A topic that records no history is written without blocks
+                for (TimeSeriesBlock block : history.snapshot()) {
+                    if (block.overlaps(from, to)) {
+                        blocks.add(block);
+                    }
+                }
+            }
+            byte[] name = topic.getName().getBytes(StandardCharsets.UTF_8);
+            data.writeByte('T');
+            data.writeShort(name.length);
+            data.write(name);
+            data.writeInt(blocks.size());
+            for (TimeSeriesBlock block : blocks) {
+                data.writeInt(block.count);
+                data.writeLong(block.minTime);
+                data.writeLong(block.maxTime);
+                data.writeDouble(block.minValue);
+                data.writeDouble(block.maxValue);
+                data.writeInt(block.getTimeColumn().length);
+                data.write(block.getTimeColumn());
+                data.writeInt(block.getValueColumn().length);
+                data.write(block.getValueColumn());
+                points += block.count;
+            }
+        }
+        data.writeByte('E');
+        data.flush();
+        return points;
+    }
+}
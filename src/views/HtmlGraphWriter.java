@@ -1,107 +1,479 @@
 package views;
 
+import configs.CompactGraph;
 import configs.Graph;
+import configs.GraphClusters;
 import configs.Node;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
 public class HtmlGraphWriter {
-    
+    private static final Path TEMPLATE_PATH = Paths.get("html_files/graph.html");
+    private static final String NODES_PLACEHOLDER = "{{NODES_DATA}}";
+    private static final String EDGES_PLACEHOLDER = "{{EDGES_DATA}}";
+    /** Graphs with more nodes than this are best shown as clusters, see {@link #writeClustered(GraphClusters, Writer)} */
+    public static final int MAX_DETAILED_NODES = 2000;
+    private static volatile Template template; // Last template read, reused while the file is unchanged
+
+    // The template text with the modification time and size it was read at
+    private static final class Template {
+        final long lastModified;
+        final long size;
+        final String text;
+
+        Template(long lastModified, long size, String text) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The rendered page of one graph structure, split around the topic values so that it can be
+     * rendered again with new values without walking the graph or reading the template.
+     */
+    public static final class GraphPage {
+        private final String[] fragments; // fragments[i] comes before the value of valueNodes[i]
+        private final Node[] valueNodes;
+        private final long templateStamp;
+
+        private GraphPage(List<String> fragments, List<Node> valueNodes, long templateStamp) {
+            this.fragments = fragments.toArray(new String[0]);
+            this.valueNodes = valueNodes.toArray(new Node[0]);
+            this.templateStamp = templateStamp;
+        }
+
+        /**
+         * Renders the page with the current message of every topic node.
+         *
+         * @return the HTML
+         */
+        public String render() {
+            StringBuilder html = new StringBuilder(fragments.length * 96);
+            for (int i = 0; i < valueNodes.length; i++) {
+                html.append(fragments[i]).append(messageValue(valueNodes[i]));
+            }
+            return html.append(fragments[fragments.length - 1]).toString();
+        }
+
+        /**
+         * Writes the page with the current message of every topic node.
+         *
+         * @param out where to write the HTML
+         * @throws IOException if writing fails
+         */
+        public void writeTo(Writer out) throws IOException {
+            for (int i = 0; i < valueNodes.length; i++) {
+                out.write(fragments[i]);
+                out.write(messageValue(valueNodes[i]));
+            }
+            out.write(fragments[fragments.length - 1]);
+        }
+
+        /**
+         * Returns the length of the page without its topic values, a lower bound of the
+         * rendered length.
+         *
+         * @return the number of characters
+         */
+        public long getStructureLength() {
+            long length = 0;
+            for (String fragment : fragments) {
+                length += fragment.length();
+            }
+            return length;
+        }
+
+        /**
+         * Returns a value identifying the template the page was built from; it changes when
+         * the template file does.
+         *
+         * @return the template stamp
+         */
+        public long getTemplateStamp() {
+            return templateStamp;
+        }
+    }
+
     public static List<String> getGraphHTML(Graph g) {
         List<String> htmlLines = new ArrayList<>();
         
+        // Split the page into lines for return
+        StringWriter page = new StringWriter();
         try {
-            // Read the template file
-            String templatePath = "html_files/graph.html";
-            String template = new String(Files.readAllBytes(Paths.get(templatePath)));
-            
-            // Generate nodes and edges data
-            StringBuilder nodesJson = new StringBuilder();
-            StringBuilder edgesJson = new StringBuilder();
-            
-            nodesJson.append("        const nodes = new vis.DataSet([");
-            edgesJson.append("        const edges = new vis.DataSet([");
-            
-            int nodeIdCounter = 1;
-            List<Node> nodeList = new ArrayList<>();
-            
-            // Create nodes
-            for (Node node : g) {
-                nodeList.add(node);
-                if (nodesJson.length() > 47) { // If not the first node
-                    nodesJson.append(",");
-                }
-                nodesJson.append("\n");
-                
-                String nodeType = node.getName().startsWith("T") ? "topic" : "agent";
-                String label = node.getName().substring(1); // Remove T or A prefix
-                
-                // Remove #NUMBER from agent names
-                if (nodeType.equals("agent") && label.contains("#")) {
-                    label = label.substring(0, label.indexOf("#") - 1);
+            write(g, page);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A StringWriter does not fail
+        }
+        String[] lines = page.toString().split("\n");
+        for (String line : lines) {
+            htmlLines.add(line);
+        }
+        
+        return htmlLines;
+    }
+
+    /**
+     * Writes the page of a graph as it is generated, in time linear in the number of nodes
+     * and edges. If the template cannot be read, an error page is written instead.
+     *
+     * <p>Example usage:
+     * <pre>{@code
+     * HttpResponse response = new HttpResponse(ri, toClient).contentType("text/html; charset=utf-8");
+     * try (Writer out = response.getWriter()) {
+     *     HtmlGraphWriter.write(graph, out); // Streamed, never held in memory as a whole
+     * }
+     * }</pre>
+     *
+     * @param g the graph
+     * @param out where to write the HTML
+     * @throws IOException if writing fails
+     */
+    public static void write(Graph g, Writer out) throws IOException {
+        Template template;
+        try {
+            template = readTemplate();
+        } catch (IOException e) {
+            // Fallback: write error message
+            out.write("<!DOCTYPE html>\n");
+            out.write("<html><head><title>Error</title></head>\n");
+            out.write("<body><h1>Error loading graph template: " + e.getMessage() + "</h1></body>\n");
+            out.write("</html>\n");
+            return;
+        }
+        WriterSink sink = new WriterSink(out);
+        generate(g.compact(), null, template.text, sink);
+        sink.flush();
+    }
+
+    /**
+     * Writes the level-of-detail page of a graph: one node per cluster, labelled with its
+     * counts, and the cluster edges weighted by the number of graph edges they stand for. The
+     * page expands a cluster into its members on a double click, asking
+     * {@code /graph/cluster} for them, so its size depends on the cluster count only.
+     *
+     * <p>Example usage:
+     * <pre>{@code
+     * GraphClusters clusters = GraphClusters.current(GraphClusters.BY_LEVEL, 200);
+     * try (Writer out = response.getWriter()) {
+     *     HtmlGraphWriter.writeClustered(clusters, out);
+     * }
+     * }</pre>
+     *
+     * @param clusters the clusters of the graph
+     * @param out where to write the HTML
+     * @throws IOException if writing fails or the template cannot be read
+     */
+    public static void writeClustered(GraphClusters clusters, Writer out) throws IOException {
+        WriterSink sink = new WriterSink(out);
+        generate(clusters.graph(), clusters, readTemplate().text, sink);
+        sink.flush();
+    }
+
+    /**
+     * Builds the page of a graph once; topic values are read from the nodes on every
+     * {@link GraphPage#render()}.
+     *
+     * <p>Example usage:
+     * <pre>{@code
+     * HtmlGraphWriter.GraphPage page = HtmlGraphWriter.compile(graph);
+     * String html = page.render();
+     * topicNode.setMessage(new Message("7"));
+     * html = page.render(); // Same structure, new value
+     * }</pre>
+     *
+     * @param g the graph
+     * @return the page
+     * @throws IOException if the template cannot be read
+     */
+    public static GraphPage compile(Graph g) throws IOException {
+        Template template = readTemplate();
+        FragmentSink sink = new FragmentSink();
+        generate(g.compact(), null, template.text, sink);
+        return sink.toPage(stamp(template.lastModified, template.size));
+    }
+
+    /**
+     * Builds the level-of-detail page of a graph once, see
+     * {@link #writeClustered(GraphClusters, Writer)}. Clusters show no topic values, so
+     * {@link GraphPage#render()} returns the same page every time.
+     *
+     * @param clusters the clusters of the graph
+     * @return the page
+     * @throws IOException if the template cannot be read
+     */
+    public static GraphPage compileClustered(GraphClusters clusters) throws IOException {
+        Template template = readTemplate();
+        FragmentSink sink = new FragmentSink();
+        generate(clusters.graph(), clusters, template.text, sink);
+        return sink.toPage(stamp(template.lastModified, template.size));
+    }
+
+    // Receives the page as it is generated: text, and the places of topic values
+    private interface Sink {
+        void text(CharSequence text) throws IOException;
+
+        void value(Node topicNode) throws IOException;
+    }
+
+    // Writes the page out, buffering small pieces
+    private static final class WriterSink implements Sink {
+        private final Writer out;
+        private final StringBuilder buffer = new StringBuilder(8192);
+
+        WriterSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void text(CharSequence text) throws IOException {
+            buffer.append(text);
+            if (buffer.length() >= 8192) {
+                flush();
+            }
+        }
+
+        @Override
+        public void value(Node topicNode) throws IOException {
+            text(messageValue(topicNode));
+        }
+
+        void flush() throws IOException {
+            out.append(buffer);
+            buffer.setLength(0);
+        }
+    }
+
+    // Collects the page as fragments around the values
+    private static final class FragmentSink implements Sink {
+        private final List<String> fragments = new ArrayList<>();
+        private final List<Node> valueNodes = new ArrayList<>();
+        private final StringBuilder current = new StringBuilder();
+
+        @Override
+        public void text(CharSequence text) {
+            current.append(text);
+        }
+
+        @Override
+        public void value(Node topicNode) {
+            fragments.add(current.toString());
+            current.setLength(0);
+            valueNodes.add(topicNode);
+        }
+
+        GraphPage toPage(long templateStamp) {
+            fragments.add(current.toString());
+            return new GraphPage(fragments, valueNodes, templateStamp);
+        }
+    }
+
+    // Fills the template placeholders, in the order they appear, with the nodes and edges, or with
+    // the clusters when there are any; the compact graph numbers nodes without indexOf, so this is
+    // linear in nodes and edges
+    private static void generate(CompactGraph csr, GraphClusters clusters, String template, Sink sink) throws IOException {
+        int at = 0;
+        while (true) {
+            int nodesAt = template.indexOf(NODES_PLACEHOLDER, at);
+            int edgesAt = template.indexOf(EDGES_PLACEHOLDER, at);
+            if (nodesAt < 0 && edgesAt < 0) {
+                break;
+            }
+            if (nodesAt >= 0 && (edgesAt < 0 || nodesAt < edgesAt)) {
+                sink.text(template.subSequence(at, nodesAt));
+                if (clusters != null) {
+                    writeClusterNodes(clusters, sink);
+                } else {
+                    writeNodes(csr, sink);
                 }
-                
-                String messageValue = node.getMessage() != null ? node.getMessage().asText : "0";
-                
-                if (nodeType.equals("topic")) {
-                    // Topics are boxes with amber color
-                    nodesJson.append("            { id: ").append(nodeIdCounter)
-                            .append(", label: \"").append(label).append(" \\n(").append(messageValue).append(")\", ")
-                            .append("shape: \"box\", color: \"#FFD966\" }");
+                at = nodesAt + NODES_PLACEHOLDER.length();
+            } else {
+                sink.text(template.subSequence(at, edgesAt));
+                if (clusters != null) {
+                    writeClusterEdges(clusters, sink);
                 } else {
-                    // Agents are circles with blue color
-                    nodesJson.append("            { id: ").append(nodeIdCounter)
-                            .append(", label: \"").append(label).append("\", ")
-                            .append("shape: \"circle\", color: \"#6FA8DC\" }");
+                    writeEdges(csr, sink);
                 }
-                nodeIdCounter++;
+                at = edgesAt + EDGES_PLACEHOLDER.length();
             }
-            
-            nodesJson.append("\n        ]);");
-            
-            // Create edges
-            int edgeCount = 0;
-            for (int i = 0; i < nodeList.size(); i++) {
-                Node fromNode = nodeList.get(i);
-                int fromId = i + 1;
-                
-                for (Node toNode : fromNode.getEdges()) {
-                    int toId = nodeList.indexOf(toNode) + 1;
-                    
-                    if (edgeCount > 0) {
-                        edgesJson.append(",");
-                    }
-                    edgesJson.append("\n");
-                    edgesJson.append("            { from: ").append(fromId)
-                            .append(", to: ").append(toId)
-                            .append(", arrows: \"to\" }");
-                    edgeCount++;
-                }
+        }
+        sink.text(template.subSequence(at, template.length()));
+    }
+
+    private static void writeNodes(CompactGraph csr, Sink sink) throws IOException {
+        StringBuilder nodesJson = new StringBuilder(256);
+        nodesJson.append("        const nodes = new vis.DataSet([");
+        
+        // Create nodes
+        for (int i = 0; i < csr.size(); i++) {
+            Node node = csr.nodes[i];
+            if (i > 0) { // If not the first node
+                nodesJson.append(",");
             }
+            nodesJson.append("\n");
             
-            edgesJson.append("\n        ]);");
+            String nodeType = node.getName().startsWith("T") ? "topic" : "agent";
+            String label = node.getLabel(); // Without the T or A prefix and the agent's #NUMBER
             
-            // Replace placeholders in template
-            template = template.replace("{{NODES_DATA}}", nodesJson.toString());
-            template = template.replace("{{EDGES_DATA}}", edgesJson.toString());
-            
-            // Split the template into lines for return
-            String[] lines = template.split("\n");
-            for (String line : lines) {
-                htmlLines.add(line);
+            if (nodeType.equals("topic")) {
+                // Topics are boxes with amber color
+                // The topic name lets the page update the label from the /events stream
+                nodesJson.append("            { id: ").append(i + 1)
+                        .append(", label: \"").append(label).append(" \\n(");
+                sink.text(nodesJson);
+                nodesJson.setLength(0);
+                sink.value(node);
+                nodesJson.append(")\", ")
+                        .append("topic: \"").append(label.replace("\\", "\\\\").replace("\"", "\\\"")).append("\", ")
+                        .append("shape: \"box\", color: \"#FFD966\" }");
+            } else {
+                // Agents are circles with blue color
+                nodesJson.append("            { id: ").append(i + 1)
+                        .append(", label: \"").append(label).append("\", ")
+                        .append("shape: \"circle\", color: \"#6FA8DC\" }");
+            }
+            if (nodesJson.length() >= 4096) {
+                sink.text(nodesJson);
+                nodesJson.setLength(0);
             }
-            
-        } catch (IOException e) {
-            // Fallback: return error message
-            htmlLines.add("<!DOCTYPE html>");
-            htmlLines.add("<html><head><title>Error</title></head>");
-            htmlLines.add("<body><h1>Error loading graph template: " + e.getMessage() + "</h1></body>");
-            htmlLines.add("</html>");
         }
         
-        return htmlLines;
+        nodesJson.append("\n        ]);");
+        sink.text(nodesJson);
+    }
+
+    private static void writeEdges(CompactGraph csr, Sink sink) throws IOException {
+        StringBuilder edgesJson = new StringBuilder(256);
+        edgesJson.append("        const edges = new vis.DataSet([");
+        
+        // Create edges
+        for (int i = 0; i < csr.size(); i++) {
+            for (int e = csr.offsets[i]; e < csr.offsets[i + 1]; e++) {
+                if (e > 0) {
+                    edgesJson.append(",");
+                }
+                edgesJson.append("\n");
+                edgesJson.append("            { from: ").append(i + 1)
+                        .append(", to: ").append(csr.targets[e] + 1)
+                        .append(", arrows: \"to\" }");
+                if (edgesJson.length() >= 4096) {
+                    sink.text(edgesJson);
+                    edgesJson.setLength(0);
+                }
+            }
+        }
+        
+        edgesJson.append("\n        ]);");
+        sink.text(edgesJson);
+    }
+
+    // One node per cluster; the lod object tells the page how to ask for the members
+    private static void writeClusterNodes(GraphClusters clusters, Sink sink) throws IOException {
+        StringBuilder nodesJson = new StringBuilder(256);
+        nodesJson.append("        const lod = { by: ").append(jsString(clusters.getBy()))
+                .append(", clusters: ").append(clusters.getMaxClusters())
+                .append(", version: ").append(clusters.getTopologyVersion())
+                .append(", nodeCount: ").append(clusters.graph().size())
+                .append(", droppedEdges: ").append(clusters.droppedEdgeCount()).append(" };\n");
+        nodesJson.append("        const nodes = new vis.DataSet([");
+        for (int c = 0; c < clusters.size(); c++) {
+            if (c > 0) {
+                nodesJson.append(",");
+            }
+            // Clusters are boxes with purple color
+            nodesJson.append("\n            { id: \"c").append(c)
+                    .append("\", label: ").append(jsString(clusters.label(c) + "\n" + clusters.topicCount(c) + " topics, "
+                            + clusters.agentCount(c) + " agents\n" + clusters.innerEdgeCount(c) + " edges"))
+                    .append(", cluster: ").append(c)
+                    .append(", shape: \"box\", color: \"#B4A7D6\" }");
+            if (nodesJson.length() >= 4096) {
+                sink.text(nodesJson);
+                nodesJson.setLength(0);
+            }
+        }
+        nodesJson.append("\n        ]);");
+        sink.text(nodesJson);
+    }
+
+    // The kept cluster edges, labelled with the number of graph edges they stand for
+    private static void writeClusterEdges(GraphClusters clusters, Sink sink) throws IOException {
+        StringBuilder edgesJson = new StringBuilder(256);
+        edgesJson.append("        const edges = new vis.DataSet([");
+        for (int i = 0; i < clusters.edgeCount(); i++) {
+            if (i > 0) {
+                edgesJson.append(",");
+            }
+            int weight = clusters.edgeWeight(i);
+            edgesJson.append("\n            { id: \"c").append(clusters.edgeFrom(i)).append(">c").append(clusters.edgeTo(i))
+                    .append("\", from: \"c").append(clusters.edgeFrom(i))
+                    .append("\", to: \"c").append(clusters.edgeTo(i))
+                    .append("\", label: \"").append(weight)
+                    .append("\", width: ").append(1 + 31 - Integer.numberOfLeadingZeros(weight)) // Grows with log2 of the weight
+                    .append(", arrows: \"to\" }");
+            if (edgesJson.length() >= 4096) {
+                sink.text(edgesJson);
+                edgesJson.setLength(0);
+            }
+        }
+        edgesJson.append("\n        ]);");
+        sink.text(edgesJson);
+    }
+
+    // A JavaScript string literal that is also safe inside a script element
+    private static String jsString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c < ' ' || c == '<') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String messageValue(Node node) {
+        return node.getMessage() != null ? node.getMessage().asText : "0";
+    }
+
+    /**
+     * Returns the stamp of the template file as it is now, to compare with
+     * {@link GraphPage#getTemplateStamp()}. Only reads the file's attributes.
+     *
+     * @return the template stamp
+     * @throws IOException if the template cannot be read
+     */
+    public static long getTemplateStamp() throws IOException {
+        return stamp(Files.getLastModifiedTime(TEMPLATE_PATH).toMillis(), Files.size(TEMPLATE_PATH));
+    }
+
+    private static long stamp(long lastModified, long size) {
+        return lastModified ^ (size << 40);
+    }
+
+
+    // Reads the template, or reuses the last one read if the file has not changed since
+    private static Template readTemplate() throws IOException {
+        long lastModified = Files.getLastModifiedTime(TEMPLATE_PATH).toMillis();
+        long size = Files.size(TEMPLATE_PATH);
+        Template cached = template;
+        if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+            return cached;
+        }
+        cached = new Template(lastModified, size, new String(Files.readAllBytes(TEMPLATE_PATH)));
+        template = cached;
+        return cached;
     }
 }